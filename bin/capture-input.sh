@@ -0,0 +1,19 @@
+#!/bin/bash
+
+if [ "$#" -lt 6 ]; then
+	echo ""
+	echo "USAGE: $0 <solace-ip> <vpn> <user> <pass> <capture-queue> <capture-file>"
+	echo ""
+	echo "The capture queue must be subscribed to the application queue's topics"
+	echo ""
+	echo "Instruments are published on the last value queue poc.symbols, subscribed to poc/symbols"
+	echo ""
+	exit
+fi
+capture=`readlink -f $6`
+
+cd `dirname $0`/..
+
+java -cp ../solclientj/lib/solclientj-7.1.2.136.jar:target/clustered-app-1.0-SNAPSHOT.jar \
+	-Djava.library.path=../solclientj/lib \
+	com.solacesystems.poc.model.InputCapture $1 $2 $3 $4 $5 $capture
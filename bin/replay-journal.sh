@@ -0,0 +1,14 @@
+#!/bin/bash
+
+if [ "$#" -lt 1 ]; then
+	echo ""
+	echo "USAGE: $0 <journal-file>"
+	echo ""
+	exit
+fi
+journal=`readlink -f $1`
+
+cd `dirname $0`/..
+
+java -cp target/clustered-app-1.0-SNAPSHOT.jar \
+	com.solacesystems.poc.SampleClusteredApp -replay $journal
@@ -1,8 +1,10 @@
 #!/bin/bash
 
-if [ "$#" -ne 9 ]; then
+if [ "$#" -lt 11 ]; then
 	echo ""
-	echo "USAGE: $0 <solace-ip> <appname> <instance#> <vpn> <user> <pass> <queue> <lvq> <out-topic>"
+	echo "USAGE: $0 <solace-ip> <appname> <instance#> <vpn> <user> <pass> <queue> <lvq> <out-topic> <state-queue> <state-topic> [<send-batch-size> [<send-batch-delay-us> [<ack-window-size> [<ack-window-delay-us> [<pipeline-ring-size> [<process-wait> [<publish-wait> [<event-log-file>|- [<journal-file>]]]]]]]]]"
+	echo ""
+	echo "Instruments are published on the last value queue poc.symbols, subscribed to poc/symbols"
 	echo ""
 	exit
 fi
@@ -15,6 +17,9 @@ pass=$6
 queue=$7
 lvq=$8
 outTopic=$9
+stateQueue=${10}
+stateTopic=${11}
+shift 11
 
 cd `dirname $0`/..
 
@@ -22,5 +27,5 @@ export LD_LIBRARY_PATH=../solclient/lib:../solclientj/lib:$LD_LIBRARY_PATH
 
 classpath="../solclientj/lib/solclientj-7.1.2.136.jar:target/clustered-app-1.0-SNAPSHOT.jar"
 java -cp $classpath -Djava.library.path=../solclientj/lib \
-	com.solacesystems.poc.SampleClusteredApp $host $app $inst $vpn $user $pass $queue $lvq $outTopic
+	com.solacesystems.poc.SampleClusteredApp $host $app $inst $vpn $user $pass $queue $lvq $outTopic $stateQueue $stateTopic "$@"
 
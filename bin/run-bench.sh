@@ -0,0 +1,8 @@
+#!/bin/bash
+
+# Build first with: mvn -P jmh package
+# Any JMH options are passed through, e.g. a benchmark regex or -f 1 -wi 3 -i 5
+
+cd `dirname $0`/..
+
+java -jar target/benchmarks.jar "$@"
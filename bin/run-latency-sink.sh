@@ -0,0 +1,16 @@
+#!/bin/bash
+
+if [ "$#" -lt 5 ]; then
+	echo ""
+	echo "USAGE: $0 <solace-ip> <vpn> <user> <pass> <queue> [<report-seconds>]"
+	echo ""
+	echo "The queue must be subscribed to the application's output topic"
+	echo ""
+	exit
+fi
+
+cd `dirname $0`/..
+
+java -cp ../solclientj/lib/solclientj-7.1.2.136.jar:target/clustered-app-1.0-SNAPSHOT.jar \
+	-Djava.library.path=../solclientj/lib \
+	com.solacesystems.poc.LatencySink "$@"
@@ -1,8 +1,10 @@
 #!/bin/bash
 
-if [ "$#" -ne 6 ]; then
+if [ "$#" -lt 6 ]; then
 	echo ""
-	echo "USAGE: $0 <solace-ip> <vpn> <user> <pass> <pub-topic> <start-id>"
+	echo "USAGE: $0 <solace-ip> <vpn> <user> <pass> <pub-topic> <start-id> [<partitions> [<rate> [<seconds> [<instruments> [<buy-ratio> <aggressive-ratio> [<burst-rate> <burst-ms> <period-ms>]]]]]]"
+	echo ""
+	echo "Instruments are published on the last value queue poc.symbols, subscribed to poc/symbols"
 	echo ""
 	exit
 fi
@@ -12,6 +14,7 @@ user=$3
 pass=$4
 topic=$5
 sid=$6
+shift 6
 
 cd `dirname $0`/..
 
@@ -19,5 +22,5 @@ cd `dirname $0`/..
 
 java -cp ../solclientj/lib/solclientj-7.1.2.136.jar:target/clustered-app-1.0-SNAPSHOT.jar \
 	-Djava.library.path=../solclientj/lib \
-	com.solacesystems.poc.MockOrderGateway $host $vpn $user $pass $topic $sid
+	com.solacesystems.poc.MockOrderGateway $host $vpn $user $pass $topic $sid "$@"
 
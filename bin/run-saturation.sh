@@ -0,0 +1,14 @@
+#!/bin/bash
+
+if [ "$#" -lt 2 ]; then
+	echo ""
+	echo "USAGE: $0 <start-rate> <seconds-per-step> [<instruments> [<pipeline-ring-size>]]"
+	echo ""
+	exit
+fi
+
+cd `dirname $0`/..
+
+# Runs against the in-memory broker, so no Solace connection is needed
+java -cp target/clustered-app-1.0-SNAPSHOT.jar \
+	com.solacesystems.poc.LoadGenerator "$@"
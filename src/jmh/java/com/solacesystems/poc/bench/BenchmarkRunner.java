@@ -0,0 +1,49 @@
+package com.solacesystems.poc.bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the benchmarks twice, once for throughput in ops/s and once for average time in ns/op,
+ * both with the GC profiler attached so allocation rate (gc.alloc.rate.norm) is reported per op.
+ * Any standard JMH command line options are passed through, e.g. a benchmark regex or -f/-wi/-i.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdline = new CommandLineOptions(args);
+        if (cmdline.getIncludes().isEmpty()) {
+            cmdline = new CommandLineOptions(append(args, BenchmarkRunner.class.getPackage().getName() + ".*"));
+        }
+
+        Options throughput = new OptionsBuilder()
+                .parent(cmdline)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(throughput).run();
+
+        Options latency = new OptionsBuilder()
+                .parent(cmdline)
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(latency).run();
+    }
+
+    private static String[] append(String[] args, String arg) {
+        String[] result = new String[args.length + 1];
+        System.arraycopy(args, 0, result, 0, args.length);
+        result[args.length] = arg;
+        return result;
+    }
+}
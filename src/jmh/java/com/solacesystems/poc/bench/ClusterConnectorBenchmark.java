@@ -0,0 +1,77 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.poc.AppState;
+import com.solacesystems.poc.ClientOrder;
+import com.solacesystems.poc.SampleClusteredApp;
+import com.solacesystems.poc.conn.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Cost of one application queue message on an Active, up-to-date instance:
+ * ClusterConnector.processInputMsg => ClusterModel.UpdateApplicationState =>
+ * SampleClusteredApp.UpdateApplicationState, including output serialization,
+ * the publish call and the monitor update, against a StubTransport. Encoding each order
+ * is included as well.
+ *
+ * Console output is discarded for the duration of the run, but it is still
+ * formatted, so its cost is part of the measurement.
+ */
+@State(Scope.Thread)
+public class ClusterConnectorBenchmark {
+
+    @Setup
+    public void setup() {
+        _stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int off, int len) { }
+        }));
+
+        AppState recovered = new AppState("MSFT");
+        recovered.setSequenceId(0);
+        _transport.SetLastValue(LVQ, new StubMessage(
+                Serializer.SerializeAppState(ByteBuffer.allocate(AppState.SERIALIZED_SIZE), recovered)));
+
+        ClientOrder order = new ClientOrder(1);
+        order.setIsBuy(true);
+        order.setQuantity(100.5);
+        order.setPrice(42.25);
+        order.setInstrument("MSFT");
+        _order = order;
+        _input = new StubMessage(Serializer.SerializeClientOrder(_orderbuf, order));
+
+        _app = new SampleClusteredApp("bench", 1, "bench/out", _transport);
+        _app.Start("stub", "stub", "stub", "stub", QUEUE, LVQ);
+    }
+
+    @TearDown
+    public void teardown() {
+        _app.Stop();
+        System.setOut(_stdout);
+    }
+
+    @Benchmark
+    public long processInput() {
+        // Sequence IDs are varints, so each one is encoded afresh
+        _order.setSequenceId(++_seqId);
+        _input.setPayload(Serializer.SerializeClientOrder(_orderbuf, _order));
+        _input.setMessageId(_seqId);
+        _transport.Deliver(QUEUE, _input);
+        return _transport.GetBytesSent();
+    }
+
+    private static final String QUEUE = "bench.queue";
+    private static final String LVQ   = "bench.lvq";
+
+    private final StubTransport _transport = new StubTransport();
+    private SampleClusteredApp _app;
+    private final ByteBuffer _orderbuf = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+    private ClientOrder _order;
+    private StubMessage _input;
+    private long _seqId;
+    private PrintStream _stdout;
+}
@@ -0,0 +1,98 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.poc.AppState;
+import com.solacesystems.poc.ClientOrder;
+import com.solacesystems.poc.SampleAppSerializer;
+import com.solacesystems.poc.conn.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-message cost of the wire codec, both through the static Serializer
+ * and through SampleAppSerializer as the ClusterConnector uses it.
+ */
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    @Setup
+    public void setup() {
+        ClientOrder order = new ClientOrder(1);
+        order.setIsBuy(true);
+        order.setQuantity(100.5);
+        order.setPrice(42.25);
+        order.setInstrument("MSFT");
+        _order = order;
+
+        AppState state = new AppState("MSFT");
+        state.setSequenceId(order.getSequenceId());
+        state.setOpenQuantity(order.getQuantity());
+        state.setBestBid(order.getPrice());
+        _state = state;
+
+        Serializer.SerializeClientOrder(_orderbuf, _order);
+        _orderbytes = toBytes(_orderbuf);
+        _ordermsg = new StubMessage(Serializer.SerializeClientOrder(_orderbuf, _order));
+
+        Serializer.SerializeAppState(_statebuf, _state);
+        _statebytes = toBytes(_statebuf);
+        _statemsg = new StubMessage(Serializer.SerializeAppState(_statebuf, _state));
+    }
+
+    @Benchmark
+    public ByteBuffer serializeClientOrder() {
+        return Serializer.SerializeClientOrder(_orderbuf, _order);
+    }
+
+    @Benchmark
+    public ClientOrder deserializeClientOrder() {
+        _orderbuf.clear();
+        _orderbuf.put(_orderbytes);
+        return Serializer.DeserializeClientOrder(_orderbuf);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeAppState() {
+        return Serializer.SerializeAppState(_statebuf, _state);
+    }
+
+    @Benchmark
+    public AppState deserializeAppState() {
+        _statebuf.clear();
+        _statebuf.put(_statebytes);
+        return Serializer.DeserializeAppState(_statebuf);
+    }
+
+    @Benchmark
+    public ClientOrder sampleDeserializeInput() {
+        return _serializer.DeserializeInput(_ordermsg);
+    }
+
+    @Benchmark
+    public AppState sampleDeserializeOutput() {
+        return _serializer.DeserializeOutput(_statemsg);
+    }
+
+    @Benchmark
+    public ByteBuffer sampleSerializeOutput() {
+        return _serializer.SerializeOutput(_state);
+    }
+
+    private static byte[] toBytes(ByteBuffer written) {
+        written.flip();
+        byte[] bytes = new byte[written.remaining()];
+        written.get(bytes);
+        return bytes;
+    }
+
+    private final SampleAppSerializer _serializer = new SampleAppSerializer();
+    private final ByteBuffer _orderbuf = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+    private final ByteBuffer _statebuf = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
+
+    private ClientOrder _order;
+    private AppState _state;
+    private byte[] _orderbytes;
+    private byte[] _statebytes;
+    private StubMessage _ordermsg;
+    private StubMessage _statemsg;
+}
@@ -0,0 +1,57 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.poc.conn.DirectMessage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable TransportMessage over a serialized payload, held in a direct buffer as a
+ * Solace flow holds it, so readers decode it in place. A benchmark can replace the payload
+ * and message ID between deliveries to replay an ordered stream; the payload's storage is
+ * reused while it fits.
+ */
+public class StubMessage implements DirectMessage {
+    /**
+     * @param payload -- serialized payload in its written state, i.e. position at the end of the data
+     */
+    public StubMessage(ByteBuffer payload) {
+        setPayload(payload);
+    }
+
+    /**
+     * @param payload -- serialized payload in its written state
+     */
+    public void setPayload(ByteBuffer payload) {
+        payload.flip();
+        if (payload.remaining() > _payload.capacity()) {
+            _payload = ByteBuffer.allocateDirect(payload.remaining());
+            _view = _payload.duplicate();
+        }
+        _payload.clear();
+        _payload.put(payload);
+    }
+
+    public void setMessageId(long messageId) {
+        _messageId = messageId;
+    }
+
+    public long getMessageId() {
+        return _messageId;
+    }
+
+    public void getBinaryAttachment(ByteBuffer dest) {
+        _view.clear();
+        _view.limit(_payload.position());
+        dest.put(_view);
+    }
+
+    public ByteBuffer getDirectAttachment() {
+        _view.clear();
+        _view.position(_payload.position());
+        return _view;
+    }
+
+    private ByteBuffer _payload = ByteBuffer.allocateDirect(0);
+    private ByteBuffer _view = _payload.duplicate();
+    private long _messageId;
+}
@@ -0,0 +1,119 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.poc.conn.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Transport for benchmarks: every event and message is dispatched synchronously on the
+ * calling thread, every bound flow is told it is ACTIVE, and output is discarded after
+ * being flipped and is accepted immediately, so a benchmark thread can drive the ClusterConnector message path directly.
+ */
+public class StubTransport implements Transport {
+
+    public void ConnectSession(String host, String vpn, String user, String pass, String clientName, SessionListener listener) {
+        listener.onSessionEvent(SessionEventType.UP);
+    }
+
+    public TransportFlow BindQueue(String name, MessageListener msgListener, FlowListener flowListener) {
+        return BindQueue(name, AckMode.AUTO, msgListener, flowListener);
+    }
+
+    public TransportFlow BindQueue(String name, AckMode ackMode, MessageListener msgListener, FlowListener flowListener) {
+        StubFlow flow = new StubFlow(name, msgListener, false);
+        _consumers.put(name, flow);
+        flowListener.onFlowEvent(FlowEventType.UP);
+        flowListener.onFlowEvent(FlowEventType.ACTIVE);
+        return flow;
+    }
+
+    public TransportFlow BrowseQueue(String name, MessageListener msgListener, FlowListener flowListener) {
+        StubFlow flow = new StubFlow(name, msgListener, true);
+        flowListener.onFlowEvent(FlowEventType.UP);
+        return flow;
+    }
+
+    public void SendOutput(ByteBuffer payload, String topic) {
+        payload.flip();
+        _bytesSent += payload.remaining();
+    }
+
+    public void SendOutput(ByteBuffer payload, String topic, long correlationId) {
+        SendOutput(payload, topic);
+        if (_publishListener != null)
+            _publishListener.onPublishAccepted(correlationId);
+    }
+
+    public void SendState(ByteBuffer payload, String topic, long timeToLiveMs) {
+        SendOutput(payload, topic);
+    }
+
+    public void SendDirect(ByteBuffer payload, String topic) {
+        SendOutput(payload, topic);
+    }
+
+    public void SetPublishListener(PublishListener listener) {
+        _publishListener = listener;
+    }
+
+    public void destroy() {
+    }
+
+    /**
+     * Sets the message a browser on the named queue receives each time it is started
+     */
+    public void SetLastValue(String queue, StubMessage msg) {
+        _lastValues.put(queue, msg);
+    }
+
+    /**
+     * Delivers the message to the started consumer flow bound to the named queue
+     */
+    public void Deliver(String queue, StubMessage msg) {
+        StubFlow flow = _consumers.get(queue);
+        if (flow != null && flow._started)
+            flow._listener.onMessage(msg);
+    }
+
+    public long GetBytesSent() {
+        return _bytesSent;
+    }
+
+    private class StubFlow implements TransportFlow {
+        StubFlow(String queue, MessageListener listener, boolean browser) {
+            _queue = queue;
+            _listener = listener;
+            _browser = browser;
+        }
+
+        public void start() {
+            _started = true;
+            StubMessage lastValue = _lastValues.get(_queue);
+            if (_browser && lastValue != null)
+                _listener.onMessage(lastValue);
+        }
+
+        public void stop() {
+            _started = false;
+        }
+
+        public void ack(long msgId) {
+        }
+
+        public void destroy() {
+            _started = false;
+        }
+
+        private final String _queue;
+        private final MessageListener _listener;
+        private final boolean _browser;
+        private boolean _started;
+    }
+
+    private final Map<String, StubFlow> _consumers = new HashMap<String, StubFlow>();
+    private final Map<String, StubMessage> _lastValues = new HashMap<String, StubMessage>();
+    private long _bytesSent;
+    private PublishListener _publishListener;
+}
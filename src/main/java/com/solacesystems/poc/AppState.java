@@ -1,38 +1,119 @@
 package com.solacesystems.poc;
 
+import com.solacesystems.poc.conn.Serializer;
+import com.solacesystems.poc.conn.SymbolDictionary;
+import com.solacesystems.poc.model.HAState;
+import com.solacesystems.poc.model.LatencyStamped;
 import com.solacesystems.poc.model.Ordered;
+import com.solacesystems.poc.model.SeqState;
 
 /**
- * Example application state with a sequence number
+ * Outcome of one order: the quantity it filled and left resting, and the best bid and
+ * ask of its instrument afterwards, tagged with the order's sequence number. Instances
+ * are mutable so the application can reuse one output object for every input.
+ *
+ * Published states also carry latency stamps: when the order was sent, when the active
+ * member received it and handed this state over for publishing, and the member's states
+ * when the order arrived. Times are epoch nanoseconds (see EpochClock), 0 if not stamped.
  */
-public class AppState implements Ordered {
+public class AppState implements Ordered, LatencyStamped {
     public AppState(String instrument) {
         _instrument = instrument;
     }
 
-    public void addOrder(ClientOrder order) {
-        _sequenceId = order.getSequenceId();
-    }
-
-    public int getSequenceId() {
+    public long getSequenceId() {
         return _sequenceId;
     }
-    public void setSequenceId(int sid) {
+    public void setSequenceId(long sid) {
         _sequenceId = sid;
     }
 
     public String getInstrument() { return _instrument; }
+    public void setInstrument(String instrument) { _instrument = instrument; }
+
+    public double getFilledQuantity() { return _filledQuantity; }
+    public void setFilledQuantity(double quantity) { _filledQuantity = quantity; }
+
+    /**
+     * @return the quantity left resting in the book
+     */
+    public double getOpenQuantity() { return _openQuantity; }
+    public void setOpenQuantity(double quantity) { _openQuantity = quantity; }
+
+    /**
+     * @return the best bid, or 0 if the book has none
+     */
+    public double getBestBid() { return _bestBid; }
+    public void setBestBid(double price) { _bestBid = price; }
+
+    /**
+     * @return the best ask, or 0 if the book has none
+     */
+    public double getBestAsk() { return _bestAsk; }
+    public void setBestAsk(double price) { _bestAsk = price; }
+
+    ////// Latency stamps //////
+
+    /**
+     * @return the send time of the order this state resulted from
+     */
+    public long getOrderTime() { return _orderTime; }
+    public void setOrderTime(long nanos) { _orderTime = nanos; }
+
+    public long getReceivedTime() { return _receivedTime; }
+    public void setReceivedTime(long nanos) { _receivedTime = nanos; }
+
+    public long getPublishedTime() { return _publishedTime; }
+    public void setPublishedTime(long nanos) { _publishedTime = nanos; }
+
+    /**
+     * @return the publishing member's HA state when the order reached it, or null if not stamped
+     */
+    public HAState getHAState() { return _haState; }
+    public void setHAState(HAState state) { _haState = state; }
+
+    /**
+     * @return the publishing member's sequence state when the order reached it, or null if not stamped
+     */
+    public SeqState getSeqState() { return _seqState; }
+    public void setSeqState(SeqState state) { _seqState = state; }
+
+    public void setLatencyStamps(long receivedNanos, long publishedNanos, HAState haState, SeqState seqState) {
+        _receivedTime = receivedNanos;
+        _publishedTime = publishedNanos;
+        _haState = haState;
+        _seqState = seqState;
+    }
 
     @Override
     public String toString() {
         return "AppState{" +
                 "='" + _instrument + '\'' +
                 ", seqID=" + _sequenceId +
+                ", filled=" + _filledQuantity +
+                ", open=" + _openQuantity +
+                ", bid=" + _bestBid +
+                ", ask=" + _bestAsk +
                 '}';
     }
 
-    public static final int SERIALIZED_SIZE = 4 + 16;
+    /**
+     * The largest encoded state: header, flags, sequence ID, filled, open, bid, ask,
+     * symbol reference, the longest name, then the three times and the states.
+     * Serializer.EncodedSize gives the size of a given state.
+     */
+    public static final int SERIALIZED_SIZE = Serializer.HEADER_SIZE + 1 + 10 + 8 + 8 + 8 + 8 + 5 + 1
+            + SymbolDictionary.MAX_SYMBOL_SIZE + 10 + 10 + 10 + 1;
 
-    final private String _instrument;
-    private int _sequenceId;
+    private String _instrument;
+    private long _sequenceId;
+    private double _filledQuantity;
+    private double _openQuantity;
+    private double _bestBid;
+    private double _bestAsk;
+    private long _orderTime;
+    private long _receivedTime;
+    private long _publishedTime;
+    private HAState _haState;
+    private SeqState _seqState;
 }
@@ -1,23 +1,29 @@
 package com.solacesystems.poc;
 
+import com.solacesystems.poc.conn.Serializer;
+import com.solacesystems.poc.conn.SymbolDictionary;
 import com.solacesystems.poc.model.Ordered;
 
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
 
 /**
- * Example client order type with a sequence number.
+ * Example client order type with a sequence number. Instances are mutable so a
+ * reader can decode every message into the same order.
  */
 public class ClientOrder implements Ordered {
-    public ClientOrder(int seqId) {
+    public ClientOrder(long seqId) {
         this.seqId = seqId;
-        this._df.setRoundingMode(RoundingMode.CEILING);
     }
 
-    public int getSequenceId() {
+    public long getSequenceId() {
         return seqId;
     }
 
+    public void setSequenceId(long seqId) {
+        this.seqId = seqId;
+    }
+
     public boolean isBuy() {
         return buyOrSell;
     }
@@ -50,6 +56,17 @@ public class ClientOrder implements Ordered {
         this.instrument = instrument;
     }
 
+    /**
+     * @return the epoch time the gateway sent the order at (see EpochClock), or 0 if it was not stamped
+     */
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    public void setSendTime(long sendTime) {
+        this.sendTime = sendTime;
+    }
+
     public String toStringBrief() {
         return "ClientOrder{" +
                 "seqId=" + seqId +
@@ -62,8 +79,8 @@ public class ClientOrder implements Ordered {
         return "ClientOrder{" +
                 "seqId=" + seqId +
                 ", buyOrSell=" + (buyOrSell ? 'B' : 'S') +
-                ", quantity=" + _df.format(quantity) +
-                ", price=" + _df.format(price) +
+                ", quantity=" + _df.get().format(quantity) +
+                ", price=" + _df.get().format(price) +
                 ", instrument='" + instrument + '\'' +
                 '}';
     }
@@ -80,16 +97,30 @@ public class ClientOrder implements Ordered {
 
     @Override
     public int hashCode() {
-        return seqId;
+        return (int) (seqId ^ (seqId >>> 32));
     }
 
-    public static final int SERIALIZED_SIZE = 4 + 1 + 8 + 8 + 16;
+    /**
+     * The largest encoded order: header, flags, sequence ID, quantity, price, symbol reference, the
+     * longest name and the send time. Serializer.EncodedSize gives the size of a given order.
+     */
+    public static final int SERIALIZED_SIZE = Serializer.HEADER_SIZE + 1 + 10 + 8 + 8 + 5 + 1
+            + SymbolDictionary.MAX_SYMBOL_SIZE + 10;
 
-    private final int seqId;
+    private long seqId;
     private boolean buyOrSell;
     private double quantity;
     private double price;
     private String instrument;
-
-    final private DecimalFormat _df = new DecimalFormat("#.####");
+    private long sendTime;
+
+    // Only needed for toString; DecimalFormat is not thread-safe, so one per thread rather than per order
+    private static final ThreadLocal<DecimalFormat> _df = new ThreadLocal<DecimalFormat>() {
+        @Override
+        protected DecimalFormat initialValue() {
+            DecimalFormat df = new DecimalFormat("#.####");
+            df.setRoundingMode(RoundingMode.CEILING);
+            return df;
+        }
+    };
 }
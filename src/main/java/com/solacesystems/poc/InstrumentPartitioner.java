@@ -0,0 +1,39 @@
+package com.solacesystems.poc;
+
+/**
+ * Maps instruments onto a fixed number of partitions, and names the per-partition
+ * queues and topics. Every order for an instrument lands on the same partition, so
+ * each partition is an independent ordered stream with its own queue/LVQ pair.
+ */
+public class InstrumentPartitioner {
+    public InstrumentPartitioner(int partitions) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("Partition count must be positive");
+        _partitions = partitions;
+    }
+
+    public int GetPartitionCount() {
+        return _partitions;
+    }
+
+    public int PartitionOf(String instrument) {
+        return (instrument.hashCode() & 0x7fffffff) % _partitions;
+    }
+
+    /**
+     * @return the node (1-based instance number) that should be active for the partition
+     */
+    public static int HomeInstance(int partition, int nodes) {
+        return (partition % nodes) + 1;
+    }
+
+    public static String QueueName(String queue, int partition) {
+        return queue + "." + partition;
+    }
+
+    public static String TopicName(String topic, int partition) {
+        return topic + "/" + partition;
+    }
+
+    private final int _partitions;
+}
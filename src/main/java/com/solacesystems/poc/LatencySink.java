@@ -0,0 +1,171 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.poc.conn.EpochClock;
+import com.solacesystems.poc.conn.FlowEventType;
+import com.solacesystems.poc.conn.FlowListener;
+import com.solacesystems.poc.conn.LatencyHistogram;
+import com.solacesystems.poc.conn.MessageListener;
+import com.solacesystems.poc.conn.Serializer;
+import com.solacesystems.poc.conn.SessionEventType;
+import com.solacesystems.poc.conn.SessionListener;
+import com.solacesystems.poc.conn.SolaceConnector;
+import com.solacesystems.poc.conn.Transport;
+import com.solacesystems.poc.conn.TransportFlow;
+import com.solacesystems.poc.conn.TransportMessage;
+import com.solacesystems.poc.model.HAState;
+import com.solacesystems.poc.model.SeqState;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Consumes the published AppStates from a queue subscribed to the output topic and records
+ * the latencies of their stamps (see AppState): from the gateway to the active member, within
+ * the active member, and end to end on arrival here. Each leg is kept per HA and sequence
+ * state of the member when the order reached it, so outputs of orders that arrived during a
+ * recovery are told apart from steady state. States without stamps are only counted.
+ *
+ * Times are compared across hosts, so the legs that span hosts are only as accurate as the
+ * hosts' clock synchronization; latencies below zero are recorded as 0.
+ */
+public class LatencySink {
+    public static void main(String[] args) throws InterruptedException
+    {
+        if (args.length < 5)
+        {
+            System.out.println("USAGE: LatencySink <HOST> <VPN> <USER> <PASS> <QUEUE> [<REPORT-SECONDS>]");
+            return;
+        }
+        long reportSeconds = (args.length > 5) ? Long.parseLong(args[5]) : 10;
+        SolaceConnector connector = new SolaceConnector();
+        connector.ConnectSession(args[0], args[1], args[2], args[3], "LatencySink", new SessionListener() {
+            public void onSessionEvent(SessionEventType event) {
+            }
+        });
+        LatencySink sink = new LatencySink(connector);
+        sink.Start(args[4]);
+        while(true) {
+            Thread.sleep(reportSeconds * 1000);
+            sink.Report(System.out);
+        }
+    }
+
+    /**
+     * Latencies recorded per output
+     */
+    public enum Leg {
+        /**
+         * From the order's send time to its receipt by the active member
+         */
+        GATEWAY_TO_ACTIVE,
+        /**
+         * From the order's receipt to the output being handed over for publishing
+         */
+        ACTIVE_INTERNAL,
+        /**
+         * From the order's send time to the output's arrival at the sink
+         */
+        END_TO_END
+    }
+
+    /**
+     * @param transport -- a connected session
+     */
+    public LatencySink(Transport transport) {
+        _transport = transport;
+        _histograms = new LatencyHistogram[LEGS.length * HA_STATES.length * SEQ_STATES.length];
+        for(int i = 0; i < _histograms.length; i++) {
+            _histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Binds the queue and starts recording on the transport's context thread
+     */
+    public void Start(String queue) {
+        _flow = _transport.BindQueue(queue,
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        _buffer.clear();
+                        msg.getBinaryAttachment(_buffer);
+                        Record(Serializer.DeserializeAppState(_buffer, _state), EpochClock.Now());
+                    }
+                },
+                new FlowListener() {
+                    public void onFlowEvent(FlowEventType event) {
+                    }
+                });
+        _flow.start();
+    }
+
+    public void Stop() {
+        if (_flow != null)
+            _flow.stop();
+    }
+
+    /**
+     * Records the stamps of a state that arrived at arrivalNanos, an epoch time
+     */
+    public void Record(AppState state, long arrivalNanos) {
+        _received++;
+        long orderTime = state.getOrderTime();
+        if (orderTime == 0 || state.getHAState() == null || state.getSeqState() == null) {
+            _unstamped++;
+            return;
+        }
+        HAState ha = state.getHAState();
+        SeqState seq = state.getSeqState();
+        GetHistogram(Leg.GATEWAY_TO_ACTIVE, ha, seq).Record(state.getReceivedTime() - orderTime);
+        GetHistogram(Leg.ACTIVE_INTERNAL, ha, seq).Record(state.getPublishedTime() - state.getReceivedTime());
+        GetHistogram(Leg.END_TO_END, ha, seq).Record(arrivalNanos - orderTime);
+    }
+
+    public LatencyHistogram GetHistogram(Leg leg, HAState haState, SeqState seqState) {
+        return _histograms[(leg.ordinal() * HA_STATES.length + haState.ordinal()) * SEQ_STATES.length + seqState.ordinal()];
+    }
+
+    public long GetReceived() {
+        return _received;
+    }
+
+    /**
+     * @return states received without latency stamps, e.g. from an older publisher
+     */
+    public long GetUnstamped() {
+        return _unstamped;
+    }
+
+    /**
+     * Prints a line per leg and state with anything recorded
+     */
+    public void Report(PrintStream out) {
+        out.println("Received " + _received + " states, " + _unstamped + " unstamped");
+        for(Leg leg : LEGS) {
+            for(HAState ha : HA_STATES) {
+                for(SeqState seq : SEQ_STATES) {
+                    LatencyHistogram histogram = GetHistogram(leg, ha, seq);
+                    if (histogram.getCount() == 0)
+                        continue;
+                    out.println(String.format("%-17s %s/%-20s count=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                            leg, ha, seq, histogram.getCount(), histogram.getP50Micros(), histogram.getP99Micros(),
+                            histogram.getP999Micros(), histogram.getMaxMicros()));
+                }
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private static final Leg[] LEGS = Leg.values();
+    private static final HAState[] HA_STATES = HAState.values();
+    private static final SeqState[] SEQ_STATES = SeqState.values();
+
+    private final Transport _transport;
+    private final LatencyHistogram[] _histograms;
+    private TransportFlow _flow;
+    // Only touched on the transport's context thread
+    private final ByteBuffer _buffer = ByteBuffer.allocateDirect(AppState.SERIALIZED_SIZE);
+    private final AppState _state = new AppState(null);
+    private volatile long _received;
+    private volatile long _unstamped;
+}
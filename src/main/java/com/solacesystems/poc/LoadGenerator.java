@@ -0,0 +1,375 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.poc.conn.EpochClock;
+import com.solacesystems.poc.conn.InMemoryBroker;
+import com.solacesystems.poc.conn.InMemoryTransport;
+import com.solacesystems.poc.conn.LatencyHistogram;
+import com.solacesystems.poc.conn.Serializer;
+import com.solacesystems.poc.conn.SessionEventType;
+import com.solacesystems.poc.conn.SessionListener;
+import com.solacesystems.poc.conn.SymbolDictionary;
+import com.solacesystems.poc.conn.SymbolTopic;
+import com.solacesystems.poc.conn.Transport;
+import com.solacesystems.poc.model.HAState;
+import com.solacesystems.poc.model.WaitStrategy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop order load for sizing a cluster. Orders are sent on a fixed schedule at the
+ * target rate, optionally with periodic bursts at a higher rate, whatever the transport or
+ * the cluster does meanwhile. An order that falls behind its scheduled time is sent as soon
+ * as possible and its lateness recorded against that time, so a stall shows up as send lag
+ * instead of silently lowering the rate (coordinated omission).
+ *
+ * Orders are generated up front from the instrument universe and the order mix, and reused
+ * round-robin under fresh order IDs, so nothing is allocated or drawn at random while
+ * sending. Every order that is due is sent back to back, up to a batch, before the clock is
+ * read again; a SolaceConnector in batch mode turns these into multi-message sends.
+ *
+ * Each order is stamped with its scheduled send time, for end-to-end latency (see LatencySink).
+ *
+ * Instruments are encoded through the generator's own symbol dictionary. Until they are
+ * published with PublishSymbols, every order spells out its instrument's definition.
+ *
+ * With a partitioner, every partition topic carries its own sequence of order IDs, so the
+ * cluster consuming each partition sees a gap-free input stream (see SequenceTracker).
+ *
+ * Prices are whole ticks around a mid per instrument. Passive orders rest up to
+ * MAX_TICKS_FROM_MID ticks away from the mid, and aggressive ones cross it by as much.
+ *
+ * Not thread-safe; GetSent and Stop may be called from another thread while Run sends.
+ */
+public class LoadGenerator {
+    /**
+     * Runs a SampleClusteredApp pair on an in-memory broker and raises the rate step by step
+     * until the active instance, or the generator itself, falls behind
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.out.println("USAGE: <START-RATE> <SECONDS-PER-STEP> [<INSTRUMENTS> [<PIPELINE-RING-SIZE>]]\n\n");
+            return;
+        }
+        double rate = Double.parseDouble(args[0]);
+        long stepMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[1]));
+        int instruments = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+        int ringSize = (args.length > 3) ? Integer.parseInt(args[3]) : 0;
+
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("load.inst1", "orders");
+        broker.provisionQueue("load.inst2", "orders");
+        broker.provisionLastValueQueue("load.lvq", "load/out");
+        broker.provisionQueue("load.state", "load/state");
+        broker.provisionLastValueQueue(SymbolTopic.QUEUE, SymbolTopic.TOPIC);
+        SampleClusteredApp inst1 = new SampleClusteredApp("load", 1, "load/out", new InMemoryTransport(broker));
+        SampleClusteredApp inst2 = new SampleClusteredApp("load", 2, "load/out", new InMemoryTransport(broker));
+        inst1.SetSnapshots("load.state", "load/state");
+        inst2.SetSnapshots("load.state", "load/state");
+        inst1.SetSymbolQueue(SymbolTopic.QUEUE);
+        inst2.SetSymbolQueue(SymbolTopic.QUEUE);
+        if (ringSize > 0) {
+            inst1.SetPipeline(ringSize, WaitStrategy.YIELD, WaitStrategy.YIELD);
+            inst2.SetPipeline(ringSize, WaitStrategy.YIELD, WaitStrategy.YIELD);
+        }
+        inst1.Start("localhost", "load", "load", "load", "load.inst1", "load.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        inst2.Start("localhost", "load", "load", "load", "load.inst2", "load.lvq");
+
+        Transport gateway = new InMemoryTransport(broker);
+        gateway.ConnectSession("localhost", "load", "load", "load", "load-gw", new SessionListener() {
+            public void onSessionEvent(SessionEventType event) {
+            }
+        });
+        LoadGenerator generator = new LoadGenerator(gateway, "orders", 1);
+        generator.SetInstruments(Universe(instruments));
+        generator.PublishSymbols(new SymbolTopic(gateway));
+        while(true) {
+            generator.SetRate(rate);
+            generator.GetSendLag().reset();
+            long processedBefore = inst1.GetOrdersProcessed();
+            long start = System.nanoTime();
+            long sent = generator.Run(stepMillis);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double sentRate = sent / seconds;
+            double processedRate = (inst1.GetOrdersProcessed() - processedBefore) / seconds;
+            System.out.printf("target %.0f/s: sent %.0f/s (p99 lag %.1fus, %d missed), processed %.0f/s, backlog %d%n",
+                    rate, sentRate, generator.GetSendLag().getP99Micros(), generator.GetMissed(),
+                    processedRate, broker.getQueueDepth("load.inst1"));
+            while(broker.getQueueDepth("load.inst1") > 0 || broker.getQueueDepth("load.inst2") > 0) {
+                Thread.sleep(10);
+            }
+            if (sentRate < SATURATED * rate) {
+                System.out.printf("The generator saturates at about %.0f/s%n", sentRate);
+                break;
+            }
+            if (processedRate < SATURATED * sentRate) {
+                System.out.printf("The active instance saturates at about %.0f/s%n", processedRate);
+                break;
+            }
+            rate *= 2;
+        }
+        gateway.destroy();
+        inst2.Stop();
+        inst1.Stop();
+    }
+
+    /**
+     * @param startOrderId -- ID of the first order; IDs then increase by one per order, on
+     *                        each partition topic separately
+     */
+    public LoadGenerator(Transport transport, String topic, long startOrderId) {
+        _transport = transport;
+        _topic = topic;
+        _startOrderId = startOrderId;
+        _nextOrderIds = new long[] { startOrderId };
+    }
+
+    ////// Configuration, read at the start of each Run //////
+
+    public void SetRate(double ordersPerSecond) {
+        if (!(ordersPerSecond > 0))
+            throw new IllegalArgumentException("The rate must be positive");
+        _rate = ordersPerSecond;
+    }
+
+    /**
+     * Sends at burstRate for the first burstMillis of every periodMillis; a burstMillis of 0
+     * sends at the steady rate throughout
+     */
+    public void SetBurstProfile(double burstRate, long burstMillis, long periodMillis) {
+        if (burstMillis > 0 && (!(burstRate > 0) || periodMillis < burstMillis))
+            throw new IllegalArgumentException("Bursts need a positive rate and must fit their period");
+        _burstRate = burstRate;
+        _burstNanos = TimeUnit.MILLISECONDS.toNanos(burstMillis);
+        _periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+    }
+
+    /**
+     * Orders are spread evenly over the instruments
+     */
+    public void SetInstruments(String[] instruments) {
+        if (instruments.length == 0)
+            throw new IllegalArgumentException("At least one instrument is needed");
+        _instruments = instruments.clone();
+    }
+
+    /**
+     * @param buyRatio -- fraction of orders that buy
+     * @param aggressiveRatio -- fraction of orders priced to cross the mid, which mostly fill
+     *                           against resting orders; the rest rest
+     */
+    public void SetOrderMix(double buyRatio, double aggressiveRatio) {
+        if (buyRatio < 0 || buyRatio > 1 || aggressiveRatio < 0 || aggressiveRatio > 1)
+            throw new IllegalArgumentException("Ratios must lie between 0 and 1");
+        _buyRatio = buyRatio;
+        _aggressiveRatio = aggressiveRatio;
+    }
+
+    /**
+     * @param maxBatch -- most orders sent back to back before the clock is read again
+     */
+    public void SetBatchSize(int maxBatch) {
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        _batchSize = maxBatch;
+    }
+
+    /**
+     * Routes each order to its instrument's partition topic, topic/p; order IDs restart
+     * from the start ID on every partition
+     */
+    public void SetPartitioner(InstrumentPartitioner partitioner) {
+        _partitioner = partitioner;
+        _nextOrderIds = new long[(partitioner == null) ? 1 : partitioner.GetPartitionCount()];
+        Arrays.fill(_nextOrderIds, _startOrderId);
+    }
+
+    public void SetSeed(long seed) {
+        _seed = seed;
+    }
+
+    /**
+     * Binds the instruments set so far to IDs on the symbol LVQ, so orders refer to them by
+     * ID from then on; call after SetInstruments and before Run
+     */
+    public void PublishSymbols(SymbolTopic symbols) {
+        symbols.Publish(_symbols, _instruments);
+    }
+
+    ////// Running //////
+
+    /**
+     * Sends on schedule on the calling thread until the duration has passed or Stop is
+     * called. Orders still due at the end are counted as missed rather than sent late.
+     *
+     * @return the orders sent
+     */
+    public long Run(long durationMillis) {
+        generate();
+        _stopped = false;
+        _steadyInterval = 1e9 / _rate;
+        _burstInterval = (_burstNanos > 0) ? 1e9 / _burstRate : _steadyInterval;
+        long duration = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long start = System.nanoTime();
+        long startEpoch = EpochClock.FromNanoTime(start);
+        // Times are nanoseconds since the start; the schedule is kept fractional so that
+        // the rate does not drift
+        double next = 0;
+        long now = 0;
+        long sent = 0;
+        int mask = _orders.length - 1;
+        while(!_stopped && now < duration) {
+            if ((long) next > now) {
+                idle((long) next - now);
+                now = System.nanoTime() - start;
+                continue;
+            }
+            for(int batch = 0; batch < _batchSize && (long) next <= now; batch++) {
+                int template = (int) (sent & mask);
+                ClientOrder order = _orders[template];
+                order.setSequenceId(_nextOrderIds[_partitions[template]]++);
+                // Stamped with the scheduled time, so latencies include any delay in sending
+                order.setSendTime(startEpoch + (long) next);
+                _transport.SendOutput(Serializer.SerializeClientOrder(_buffer, order, _symbols), _topics[template]);
+                _sendLag.Record(now - (long) next);
+                sent++;
+                next += intervalAt((long) next);
+            }
+            _sent = sent;
+            now = System.nanoTime() - start;
+        }
+        long missed = 0;
+        while(!_stopped && (long) next < duration) {
+            next += intervalAt((long) next);
+            missed++;
+        }
+        _missed = missed;
+        return sent;
+    }
+
+    public void Stop() {
+        _stopped = true;
+    }
+
+    /**
+     * @return orders sent by the current or last Run
+     */
+    public long GetSent() {
+        return _sent;
+    }
+
+    /**
+     * @return orders scheduled before the end of the last Run but not sent
+     */
+    public long GetMissed() {
+        return _missed;
+    }
+
+    /**
+     * @return how late each order was sent after its scheduled time, read at the start of its batch
+     */
+    public LatencyHistogram GetSendLag() {
+        return _sendLag;
+    }
+
+    /**
+     * @return count instrument names, SYM0000, SYM0001, ...
+     */
+    public static String[] Universe(int count) {
+        String[] instruments = new String[count];
+        for(int i = 0; i < count; i++) {
+            instruments[i] = String.format("SYM%04d", i);
+        }
+        return instruments;
+    }
+
+    public static final int MAX_TICKS_FROM_MID = 5;
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private void generate() {
+        Random rand = new Random(_seed);
+        // Registered up front rather than on the first order for each
+        for(String instrument : _instruments) {
+            _symbols.Register(instrument);
+        }
+        int[] mids = new int[_instruments.length];
+        for(int i = 0; i < mids.length; i++) {
+            mids[i] = MIN_MID_TICKS + rand.nextInt(MAX_MID_TICKS - MIN_MID_TICKS);
+        }
+        for(int i = 0; i < ORDER_TEMPLATES; i++) {
+            int instrument = i % _instruments.length;
+            boolean buy = rand.nextDouble() < _buyRatio;
+            boolean aggressive = rand.nextDouble() < _aggressiveRatio;
+            int ticks = 1 + rand.nextInt(MAX_TICKS_FROM_MID);
+            // Aggressive buys and passive sells lie above the mid
+            int price = mids[instrument] + ((buy == aggressive) ? ticks : -ticks);
+            ClientOrder order = _orders[i];
+            if (order == null)
+                order = _orders[i] = new ClientOrder(0);
+            order.setIsBuy(buy);
+            order.setQuantity((1 + rand.nextInt(MAX_LOTS)) * LOT_SIZE);
+            order.setPrice(price / TICKS_PER_UNIT);
+            order.setInstrument(_instruments[instrument]);
+            _partitions[i] = (_partitioner == null) ? 0 : _partitioner.PartitionOf(_instruments[instrument]);
+            _topics[i] = (_partitioner == null) ? _topic : InstrumentPartitioner.TopicName(_topic, _partitions[i]);
+        }
+    }
+
+    private double intervalAt(long elapsed) {
+        return (_periodNanos > 0 && elapsed % _periodNanos < _burstNanos) ? _burstInterval : _steadyInterval;
+    }
+
+    // Parks for long waits, leaving enough time to wake; spins through short ones
+    private static void idle(long nanos) {
+        if (nanos > PARK_MARGIN_NANOS)
+            LockSupport.parkNanos(nanos - PARK_MARGIN_NANOS);
+    }
+
+    // Templates cycled through; a power of two
+    private static final int ORDER_TEMPLATES = 16 * 1024;
+    private static final double TICKS_PER_UNIT = 100.0;
+    private static final int MIN_MID_TICKS = 1000;
+    private static final int MAX_MID_TICKS = 100000;
+    private static final int MAX_LOTS = 10;
+    private static final int LOT_SIZE = 100;
+    private static final long PARK_MARGIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    // A step falls behind below this fraction of its target
+    private static final double SATURATED = 0.9;
+
+    private final Transport _transport;
+    private final String _topic;
+    private final SymbolDictionary _symbols = new SymbolDictionary(SymbolDictionary.DEFAULT_CAPACITY);
+    private final long _startOrderId;
+    // Next order ID per partition
+    private long[] _nextOrderIds;
+    private double _rate = 1;
+    private double _burstRate;
+    private long _burstNanos;
+    private long _periodNanos;
+    private String[] _instruments = { "MSFT" };
+    private double _buyRatio = 0.5;
+    private double _aggressiveRatio = 0.5;
+    private int _batchSize = DEFAULT_BATCH_SIZE;
+    private InstrumentPartitioner _partitioner;
+    private long _seed = 1;
+    private double _steadyInterval;
+    private double _burstInterval;
+
+    private final ClientOrder[] _orders = new ClientOrder[ORDER_TEMPLATES];
+    private final String[] _topics = new String[ORDER_TEMPLATES];
+    private final int[] _partitions = new int[ORDER_TEMPLATES];
+    // Direct, so a Solace send reads it in place
+    private final ByteBuffer _buffer = ByteBuffer.allocateDirect(ClientOrder.SERIALIZED_SIZE);
+    private final LatencyHistogram _sendLag = new LatencyHistogram();
+    private volatile long _sent;
+    private volatile long _missed;
+    private volatile boolean _stopped;
+}
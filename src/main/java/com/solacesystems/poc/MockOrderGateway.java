@@ -1,77 +1,96 @@
 package com.solacesystems.poc;
+import com.solacesystems.poc.conn.SessionEventType;
+import com.solacesystems.poc.conn.SessionListener;
 import com.solacesystems.poc.conn.SolaceConnector;
-import com.solacesystems.poc.conn.Serializer;
-import com.solacesystems.solclientj.core.event.SessionEvent;
-import com.solacesystems.solclientj.core.event.SessionEventCallback;
-import com.solacesystems.solclientj.core.handle.SessionHandle;
+import com.solacesystems.poc.conn.SymbolTopic;
 
-import java.nio.ByteBuffer;
-import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sends orders to the cluster through a LoadGenerator: one a second by default, or at a
+ * given rate, burst profile, instrument universe and order mix for sizing the cluster.
+ * Orders go out in multi-message sends of up to SEND_BATCH_SIZE. The instruments are
+ * published on the well-known symbol LVQ first, so orders refer to them by ID.
+ */
 public class MockOrderGateway {
     public static void main(String[] args)
     {
 
         if (args.length < 6)
         {
-            System.out.println("USAGE: SamplePublisher <HOST> <VPN> <USER> <PASS> <PUB-TOPIC> <STARTID>");
+            System.out.println("USAGE: SamplePublisher <HOST> <VPN> <USER> <PASS> <PUB-TOPIC> <STARTID> [<PARTITIONS> [<RATE> [<SECONDS> [<INSTRUMENTS> [<BUY-RATIO> <AGGRESSIVE-RATIO> [<BURST-RATE> <BURST-MS> <PERIOD-MS>]]]]]]");
             return;
         }
-        new MockOrderGateway(args[0], args[1], args[2], args[3], args[4], args[5])
-                .run();
+        int partitions = (args.length > 6) ? Integer.parseInt(args[6]) : 0;
+        MockOrderGateway gateway = new MockOrderGateway(args[0], args[1], args[2], args[3], args[4], args[5], partitions);
+        LoadGenerator generator = gateway._generator;
+        if (args.length > 7)
+            generator.SetRate(Double.parseDouble(args[7]));
+        long seconds = (args.length > 8) ? Long.parseLong(args[8]) : Long.MAX_VALUE;
+        if (args.length > 9)
+            generator.SetInstruments(LoadGenerator.Universe(Integer.parseInt(args[9])));
+        else if (partitions > 0)
+            generator.SetInstruments(INSTRUMENTS);
+        if (args.length > 11)
+            generator.SetOrderMix(Double.parseDouble(args[10]), Double.parseDouble(args[11]));
+        if (args.length > 14)
+            generator.SetBurstProfile(Double.parseDouble(args[12]), Long.parseLong(args[13]), Long.parseLong(args[14]));
+        generator.PublishSymbols(new SymbolTopic(gateway._connector));
+        gateway.run(TimeUnit.SECONDS.toMillis(seconds));
     }
 
-    private MockOrderGateway(String host, String vpn, String username, String password, String topic, String startId)
+    /**
+     * @param startId -- first order ID, on each partition topic
+     * @param partitions -- when positive, orders for a mix of instruments are routed to
+     *                      the instrument's partition topic, PUB-TOPIC/p
+     */
+    private MockOrderGateway(String host, String vpn, String username, String password, String topic, String startId,
+                             int partitions)
     {
-        _startOrderId = Integer.parseInt(startId);
-        _outTopic = topic;
         _connector = new SolaceConnector();
-        _connector.ConnectSession(host, vpn, username, password, "MockOrderGW1", new SessionEventCallback() {
-            public void onEvent(SessionHandle sessionHandle) {
-                handleSessionEvent(sessionHandle.getSessionEvent());
+        _connector.ConnectSession(host, vpn, username, password, "MockOrderGW1", new SessionListener() {
+            public void onSessionEvent(SessionEventType event) {
+                handleSessionEvent(event);
             }
         });
+        _connector.SetBatchMode(SEND_BATCH_SIZE, SEND_BATCH_DELAY_US);
+        _generator = new LoadGenerator(_connector, topic, Long.parseLong(startId));
+        _generator.SetBatchSize(SEND_BATCH_SIZE);
+        if (partitions > 0)
+            _generator.SetPartitioner(new InstrumentPartitioner(partitions));
     }
 
-    private void handleSessionEvent(SessionEvent event)
+    private void handleSessionEvent(SessionEventType event)
     {
         // System.out.println("Session event: " + event);
     }
 
-    private void run()
+    private void run(long durationMillis)
     {
-        boolean running = true;
-        int orderId = _startOrderId;
-        while (running)
-        {
-            try {
-                Thread.sleep(1000);
-            } catch(InterruptedException e) {
-                e.printStackTrace();
-                running = false;
+        // Progress once a second instead of a line per order
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(new Runnable() {
+            private long _lastSent;
+
+            public void run() {
+                long sent = _generator.GetSent();
+                System.out.println("Sent " + (sent - _lastSent) + " orders/s, p99 send lag "
+                        + _generator.GetSendLag().getP99Micros() + "us");
+                _lastSent = sent;
             }
-            sendNextOrder(orderId++);
-        }
+        }, 1, 1, TimeUnit.SECONDS);
+        long sent = _generator.Run(durationMillis);
+        reporter.shutdownNow();
+        System.out.println("Sent " + sent + " orders, " + _generator.GetMissed() + " missed");
+        _connector.destroy();
     }
 
-    private ClientOrder nextOrder(int oid) {
-        ClientOrder order = new ClientOrder(oid);
-        order.setIsBuy(_rand.nextBoolean());
-        order.setQuantity(_rand.nextDouble() % 1000);
-        order.setPrice(_rand.nextDouble() * 50);
-        order.setInstrument("MSFT");
-        return order;
-    }
-    private void sendNextOrder(int oid)
-    {
-        ClientOrder order = nextOrder(oid);
-        System.out.println("Sending msg: " + order);
-        _connector.SendOutput(Serializer.SerializeClientOrder(_outbuf, order), _outTopic);
-    }
+    private static final String[] INSTRUMENTS = { "MSFT", "AAPL", "IBM", "ORCL", "GOOG", "AMZN" };
+    private static final int SEND_BATCH_SIZE = SolaceConnector.MAX_BATCH_SIZE;
+    private static final long SEND_BATCH_DELAY_US = 100;
 
-    private final Random _rand = new Random();
-    private final int _startOrderId;
-    private final String _outTopic;
-    private final ByteBuffer _outbuf = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
     private final SolaceConnector _connector;
+    private final LoadGenerator _generator;
 }
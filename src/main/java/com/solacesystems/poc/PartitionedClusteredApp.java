@@ -0,0 +1,165 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.poc.conn.SolaceConnector;
+import com.solacesystems.poc.conn.SymbolTopic;
+import com.solacesystems.poc.conn.Transport;
+import com.solacesystems.poc.conn.TransportFactory;
+import com.solacesystems.poc.model.HAState;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Active/active variant of the SampleClusteredApp. Input is split by instrument across a
+ * number of partitions, each with its own queue/LVQ pair, and this node runs one cluster
+ * member (ClusterConnector and ClusterModel, on its own session) per partition.
+ *
+ * Active-flow indication goes to the first flow bound to an exclusive queue, so each node
+ * binds its home partitions immediately and the rest only after a delay; with every node
+ * started, each one is active for its home partitions and backup for the others. A node
+ * that fails over its partitions stays backup for them when it comes back.
+ */
+public class PartitionedClusteredApp {
+    public static void main(String[] args) {
+        if (args.length < 13) {
+            System.out.println("USAGE: <IP> <APP-ID> <APP-INST-#> <SOL-VPN> <SOL-USER> <SOL-PASS> <QUEUE> <LVQ> <OUT-TOPIC> <STATE-QUEUE> <STATE-TOPIC> <NODES> <PARTITIONS> [<BIND-DELAY-MS>]\n\n\n");
+            return;
+        }
+        String host  = args[0];
+        String appId = args[1];
+        int instance = Integer.parseInt(args[2]);
+        String vpn   = args[3];
+        String user  = args[4];
+        String pass  = args[5];
+        String queue = args[6];
+        String lvq   = args[7];
+        String topic = args[8];
+        String stateQueue = args[9];
+        String stateTopic = args[10];
+        int nodes      = Integer.parseInt(args[11]);
+        int partitions = Integer.parseInt(args[12]);
+        long bindDelayMs = (args.length > 13) ? Long.parseLong(args[13]) : 2000;
+
+        PartitionedClusteredApp app = new PartitionedClusteredApp(appId, instance, nodes, partitions, topic,
+                new TransportFactory() {
+                    public Transport CreateTransport() {
+                        return new SolaceConnector();
+                    }
+                });
+        app.SetSnapshots(stateQueue, stateTopic);
+        app.SetSymbolQueue(SymbolTopic.QUEUE);
+        app.Start(host, vpn, user, pass, queue, lvq, bindDelayMs);
+        boolean running = true;
+        while (running)
+        {
+            try {
+                Thread.sleep(1000);
+            } catch(InterruptedException e) {
+                e.printStackTrace();
+                running = false;
+            }
+        }
+        app.Stop();
+    }
+
+    /**
+     * @param outTopic -- base output topic; partition p publishes to outTopic/p
+     */
+    public PartitionedClusteredApp(String appId, int instance, int nodes, int partitions, String outTopic,
+                                   TransportFactory transports) {
+        if (instance < 1 || instance > nodes)
+            throw new IllegalArgumentException("Instance must be 1.." + nodes);
+        _instance = instance;
+        _nodes = nodes;
+        _members = new SampleClusteredApp[partitions];
+        _started = new boolean[partitions];
+        for(int p = 0; p < partitions; p++) {
+            // Client names must be unique per member, so the partition goes into the app ID
+            _members[p] = new SampleClusteredApp(appId + "_p" + p, instance,
+                    InstrumentPartitioner.TopicName(outTopic, p), transports.CreateTransport());
+        }
+    }
+
+    /**
+     * Replicates every partition's state through its own state queue; call before Start
+     *
+     * @param stateQueue -- base state queue name; partition p browses stateQueue.p
+     * @param stateTopic -- base state topic; partition p publishes to stateTopic/p
+     */
+    public void SetSnapshots(String stateQueue, String stateTopic) {
+        for(int p = 0; p < _members.length; p++) {
+            _members[p].SetSnapshots(InstrumentPartitioner.QueueName(stateQueue, p),
+                    InstrumentPartitioner.TopicName(stateTopic, p));
+        }
+    }
+
+    /**
+     * Every partition loads the symbol dictionary from the same LVQ; call before Start
+     */
+    public void SetSymbolQueue(String symbolQueue) {
+        for(SampleClusteredApp member : _members) {
+            member.SetSymbolQueue(symbolQueue);
+        }
+    }
+
+    /**
+     * Joins the cluster for every partition: home partitions now, the others after
+     * bindDelayMs on a background timer. Does not block on the deferred partitions.
+     *
+     * @param queue -- base app queue name; partition p binds queue.p
+     * @param lvq -- base LVQ name; partition p binds lvq.p
+     */
+    public void Start(final String host, final String vpn, final String user, final String pass,
+                      final String queue, final String lvq, long bindDelayMs) {
+        for(int p = 0; p < _members.length; p++) {
+            if (isHome(p))
+                startMember(p, host, vpn, user, pass, queue, lvq);
+        }
+        _timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                for(int p = 0; p < _members.length; p++) {
+                    if (!isHome(p))
+                        startMember(p, host, vpn, user, pass, queue, lvq);
+                }
+            }
+        }, bindDelayMs);
+    }
+
+    public synchronized void Stop() {
+        _timer.cancel();
+        _stopped = true;
+        for(int p = 0; p < _members.length; p++) {
+            if (_started[p])
+                _members[p].Stop();
+        }
+    }
+
+    public int GetPartitionCount() {
+        return _members.length;
+    }
+
+    public HAState GetHAStatus(int partition) {
+        return _members[partition].GetHAStatus();
+    }
+
+    private boolean isHome(int partition) {
+        return InstrumentPartitioner.HomeInstance(partition, _nodes) == _instance;
+    }
+
+    private synchronized void startMember(int p, String host, String vpn, String user, String pass,
+                                          String queue, String lvq) {
+        if (_stopped)
+            return;
+        _members[p].Start(host, vpn, user, pass,
+                InstrumentPartitioner.QueueName(queue, p), InstrumentPartitioner.QueueName(lvq, p));
+        _started[p] = true;
+    }
+
+    private final int _instance;
+    private final int _nodes;
+    private final SampleClusteredApp[] _members;
+    private final boolean[] _started;
+    private boolean _stopped;
+    private final Timer _timer = new Timer("partition-binder", true);
+}
@@ -1,30 +1,82 @@
 package com.solacesystems.poc;
 
+import com.solacesystems.poc.conn.BufferPool;
+import com.solacesystems.poc.conn.DirectMessage;
 import com.solacesystems.poc.conn.Serializer;
+import com.solacesystems.poc.conn.SymbolDictionary;
 import com.solacesystems.poc.model.ClusteredAppSerializer;
-import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.poc.conn.TransportMessage;
 
 import java.nio.ByteBuffer;
 
+/**
+ * Input messages are decoded into a single reused ClientOrder, so the returned order is only
+ * valid until the next call. LVQ state is decoded into a new AppState each time, since the
+ * ClusterModel holds on to it as the recovered state; that path is only taken on recovery.
+ * Messages held in direct buffers (see DirectMessage) are decoded in place; others are copied
+ * into direct buffers of the largest encoded size, an input peeked at only once before it
+ * is decoded. Outputs are written into pooled direct buffers sized to each one.
+ *
+ * Instruments in the inputs are resolved through the given symbol dictionary; an input
+ * with an ID it does not know fails to decode.
+ */
 public class SampleAppSerializer implements ClusteredAppSerializer<ClientOrder, AppState> {
-    public ClientOrder DeserializeInput(MessageHandle msg) {
-        _inmsgbuf.clear();
-        msg.getBinaryAttachment(_inmsgbuf);
-        return Serializer.DeserializeClientOrder(_inmsgbuf);
+    public SampleAppSerializer() {
+        this(Serializer.GetSymbols());
     }
 
-    public AppState DeserializeOutput(MessageHandle msg) {
-        _lvqmsgbuf.clear();
-        msg.getBinaryAttachment(_lvqmsgbuf);
-        return Serializer.DeserializeAppState(_lvqmsgbuf);
+    public SampleAppSerializer(SymbolDictionary symbols) {
+        _symbols = symbols;
+    }
+
+    public ClientOrder DeserializeInput(TransportMessage msg) {
+        // The connector decodes an input it has not discarded right after peeking at it
+        ByteBuffer payload = (msg == _peeked && msg.getMessageId() == _peekedId) ? _inmsgbuf : payloadOf(msg, _inmsgbuf);
+        _peeked = null;
+        return Serializer.DeserializeClientOrder(payload, _input, _symbols);
+    }
+
+    public long PeekInputSequenceId(TransportMessage msg) {
+        ByteBuffer payload = payloadOf(msg, _inmsgbuf);
+        if (payload == _inmsgbuf) {
+            _peeked = msg;
+            _peekedId = msg.getMessageId();
+        }
+        Serializer.LearnClientOrderSymbol(payload, _symbols);
+        return Serializer.PeekClientOrderSequenceId(payload);
+    }
+
+    public AppState DeserializeOutput(TransportMessage msg) {
+        return Serializer.DeserializeAppState(payloadOf(msg, _lvqmsgbuf));
     }
 
     public ByteBuffer SerializeOutput(AppState output) {
-        Serializer.SerializeAppState(_outmsgbuf, output);
-        return _outmsgbuf;
+        // The connector is done with the previous output; take a buffer the size of this one
+        _pool.Release(_outmsgbuf);
+        _outmsgbuf = _pool.Acquire(Serializer.EncodedSize(output));
+        return Serializer.SerializeAppState(_outmsgbuf, output);
+    }
+
+    /**
+     * @return the payload in its written state, in place if the message holds it in a
+     * direct buffer, otherwise copied into the given one
+     */
+    private static ByteBuffer payloadOf(TransportMessage msg, ByteBuffer copy) {
+        if (msg instanceof DirectMessage)
+            return ((DirectMessage) msg).getDirectAttachment();
+        copy.clear();
+        msg.getBinaryAttachment(copy);
+        return copy;
     }
 
-    private final ByteBuffer _lvqmsgbuf = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
-    private final ByteBuffer _inmsgbuf  = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
-    private final ByteBuffer _outmsgbuf = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
+    private final SymbolDictionary _symbols;
+    // Kept for the lifetime of the serializer, i.e. of the connector's flows
+    private final ByteBuffer _lvqmsgbuf = ByteBuffer.allocateDirect(AppState.SERIALIZED_SIZE);
+    private final ByteBuffer _inmsgbuf  = ByteBuffer.allocateDirect(ClientOrder.SERIALIZED_SIZE);
+    private final BufferPool _pool = new BufferPool(2);
+    private ByteBuffer _outmsgbuf;
+    private final ClientOrder _input = new ClientOrder(0);
+    // The copied input last peeked at, until it is decoded
+    private TransportMessage _peeked;
+    private long _peekedId;
 }
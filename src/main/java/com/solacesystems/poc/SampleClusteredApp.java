@@ -1,14 +1,32 @@
 package com.solacesystems.poc;
 
+import com.solacesystems.poc.book.OrderBookEngine;
+import com.solacesystems.poc.conn.ReplayTransport;
+import com.solacesystems.poc.conn.Serializer;
+import com.solacesystems.poc.conn.SolaceConnector;
+import com.solacesystems.poc.conn.SymbolDictionary;
+import com.solacesystems.poc.conn.SymbolTopic;
+import com.solacesystems.poc.conn.Transport;
 import com.solacesystems.poc.model.*;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.Timer;
 
-public class SampleClusteredApp implements ClusterEventListener<ClientOrder, AppState> {
-    public static void main(String[] args) {
-        if (args.length < 9) {
-            System.out.println("USAGE: <IP> <APP-ID> <APP-INST-#> <SOL-VPN> <SOL-USER> <SOL-PASS> <QUEUE> <LVQ> <OUT-TOPIC>\n\n\n");
+public class SampleClusteredApp implements ClusterEventListener<ClientOrder, AppState>, SnapshotListener {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("-replay")) {
+            replay(args[1]);
+            return;
+        }
+        if (args.length == 2 && args[0].equals("-backtest")) {
+            backtest(args[1]);
+            return;
+        }
+        if (args.length < 11) {
+            System.out.println("USAGE: <IP> <APP-ID> <APP-INST-#> <SOL-VPN> <SOL-USER> <SOL-PASS> <QUEUE> <LVQ> <OUT-TOPIC> <STATE-QUEUE> <STATE-TOPIC> [<SEND-BATCH-SIZE> [<SEND-BATCH-DELAY-US> [<ACK-WINDOW-SIZE> [<ACK-WINDOW-DELAY-US> [<PIPELINE-RING-SIZE> [<PROCESS-WAIT> [<PUBLISH-WAIT> [<EVENT-LOG-FILE>|- [<JOURNAL-FILE>]]]]]]]]]\n" +
+                    "       -replay <JOURNAL-FILE>\n" +
+                    "       -backtest <CAPTURE-FILE>\n\n\n");
             return;
         }
         String host  = args[0];
@@ -20,23 +38,233 @@ public class SampleClusteredApp implements ClusterEventListener<ClientOrder, App
         String queue = args[6];
         String lvq   = args[7];
         String topic = args[8];
+        String stateQueue = args[9];
+        String stateTopic = args[10];
+
+        SolaceConnector transport = new SolaceConnector();
+        if (args.length > 11) {
+            long batchDelayUs = (args.length > 12) ? Long.parseLong(args[12]) : 100;
+            transport.SetBatchMode(Integer.parseInt(args[11]), batchDelayUs);
+        }
+        SampleClusteredApp app = new SampleClusteredApp(appId, instance, topic, transport);
+        // The books are only recoverable from snapshots, so a member is never run without them
+        app.SetSnapshots(stateQueue, stateTopic);
+        app.SetSymbolQueue(SymbolTopic.QUEUE);
+        if (args.length > 13) {
+            long ackDelayUs = (args.length > 14) ? Long.parseLong(args[14]) : 1000;
+            app.SetAckWindow(Integer.parseInt(args[13]), ackDelayUs);
+        }
+        if (args.length > 15) {
+            WaitStrategy processWait = (args.length > 16) ? WaitStrategy.valueOf(args[16]) : WaitStrategy.YIELD;
+            WaitStrategy publishWait = (args.length > 17) ? WaitStrategy.valueOf(args[17]) : processWait;
+            app.SetPipeline(Integer.parseInt(args[15]), processWait, publishWait);
+        }
+        if (args.length > 18 && !args[18].equals("-"))
+            app.SetEventLog(new EventLog(EVENT_LOG_RING_SIZE, args[18]));
+        if (args.length > 19)
+            app.SetJournal(args[19]);
+        app.Run(host, vpn, user, pass, queue, lvq);
+    }
 
-        new SampleClusteredApp(appId, instance, topic)
-                .Run(host, vpn, user, pass, queue, lvq);
+    private static void replay(String journal) throws IOException {
+        ReplayTransport transport = new ReplayTransport();
+        SampleClusteredApp app = new SampleClusteredApp("replay", 0, "replay/out", transport, new ReplayTimer());
+        long records = app.Replay(journal);
+        System.out.println("Replayed " + records + " records in " + app._replayNanos / 1000 + "us: "
+                + app.GetOrdersProcessed() + " orders processed, " + transport.GetOutputs() + " outputs published, ended "
+                + app.GetHAStatus() + "/" + app._model.GetSequenceStatus() + " at output " + app._model.GetLastOutputSequenceId());
+    }
+
+    private static void backtest(String capture) throws IOException {
+        SampleClusteredApp app = new SampleClusteredApp("backtest", 0, "backtest/out", new ReplayTransport(), new ReplayTimer());
+        CaptureReplayer<ClientOrder, AppState> replayer = app.Backtest(capture);
+        System.out.println("Backtested " + app.GetOrdersProcessed() + " orders in " + replayer.GetElapsedNanos() / 1000 + "us ("
+                + (long) replayer.GetThroughput() + "/s): " + app._books.GetRestingOrders() + " orders resting, "
+                + app._books.GetRejected() + " rejected, state digest " + Long.toHexString(app.GetStateDigest(replayer)));
     }
 
     public SampleClusteredApp(String appId, int instance, String outTopic) {
+        this(appId, instance, outTopic, new SolaceConnector());
+    }
+
+    public SampleClusteredApp(String appId, int instance, String outTopic, Transport transport) {
+        this(appId, instance, outTopic, transport, new Timer());
+    }
+
+    /**
+     * @param timer -- a ReplayTimer, with a ReplayTransport, for an instance that will Replay a journal
+     */
+    public SampleClusteredApp(String appId, int instance, String outTopic, Transport transport, Timer timer) {
         _appId = appId;
         _instance = instance;
         _outTopic = outTopic;
+        _transport = transport;
 
         _model = new ClusterModel<ClientOrder, AppState>(this);
-        _connector = new ClusterConnector<ClientOrder, AppState>(_model, new SampleAppSerializer());
+        _connector = new ClusterConnector<ClientOrder, AppState>(_model, new SampleAppSerializer(_symbols), transport, timer);
+        _monitor = new MonitorPublisher(_model, _connector, instance, MONITOR_TOPIC);
+        _connector.SetEventLog(EventLog.Console(), instance);
+    }
+
+    /**
+     * Sets how often changes to the last input or output are published to the monitor;
+     * state transitions are always published at once. Call before Start.
+     */
+    public void SetMonitorInterval(long intervalMs) {
+        _monitorIntervalMs = intervalMs;
+    }
+
+    /**
+     * Acks input only after the resulting output is accepted, in batches; call before Start
+     */
+    public void SetAckWindow(int maxMessages, long maxMicros) {
+        _connector.SetAckWindow(maxMessages, maxMicros);
+    }
+
+    /**
+     * @param catchUpMessages -- ack batch size while discarding input already in the recovered state
+     */
+    public void SetAckWindow(int maxMessages, long maxMicros, int catchUpMessages) {
+        _connector.SetAckWindow(maxMessages, maxMicros, catchUpMessages);
+    }
+
+    /**
+     * Processes input and publishes output on dedicated threads; call before Start
+     *
+     * @param ringSize -- slots per stage ring, a power of two
+     */
+    public void SetPipeline(int ringSize, WaitStrategy processWait, WaitStrategy publishWait) {
+        _connector.SetPipeline(ringSize, PIPELINE_SLOT_SIZE, processWait, publishWait);
+    }
+
+    /**
+     * Bounds how long recovery waits on an LVQ browse that never reports completion
+     */
+    public void SetRecoveryTimeout(long timeoutMs) {
+        _connector.SetRecoveryTimeout(timeoutMs);
+    }
+
+    /**
+     * Sets the window of order IDs remembered to detect duplicates, and whether a gap in
+     * the order IDs halts input; call before Start
+     */
+    public void SetSequenceTracking(int windowSize, GapPolicy policy) {
+        _connector.SetSequenceTracking(windowSize, policy);
+    }
+
+    public FailoverTimeline GetFailoverTimeline() {
+        return _connector.GetFailoverTimeline();
+    }
+
+    /**
+     * Replicates the application state with the default interval, chunk size and lifetime
+     */
+    public void SetSnapshots(String stateQueue, String stateTopic) {
+        SetSnapshots(stateQueue, stateTopic, SNAPSHOT_INTERVAL, SNAPSHOT_CHUNK_SIZE, SNAPSHOT_TTL_MS);
+    }
+
+    /**
+     * Replicates the application state (the last AppState, the number of orders processed
+     * and the order books) through the state queue; deltas carry the order itself, which is
+     * replayed into the books. Call before Start. Without snapshots, a member that starts
+     * behind the LVQ, after a restart or to replace a failed peer, has no books to restore.
+     */
+    public void SetSnapshots(String stateQueue, String stateTopic, int snapshotInterval, int chunkSize, long timeToLiveMs) {
+        _connector.SetSnapshots(stateQueue, stateTopic, this, snapshotInterval, chunkSize, SNAPSHOT_SIZE, timeToLiveMs);
+    }
+
+    /**
+     * Loads the symbol dictionary from the LVQ on Start, before binding the queues, so orders
+     * may refer to the instruments published there by ID (see SymbolTopic). Without it, every
+     * order must carry its instrument's definition. Call before Start.
+     */
+    public void SetSymbolQueue(String symbolQueue) {
+        _symbolQueue = symbolQueue;
+    }
+
+    /**
+     * Checkpoints the application state to a local file every checkpointInterval inputs,
+     * and reloads it on Start; call before Start
+     */
+    public void SetCheckpoint(String path, int checkpointInterval) {
+        _connector.SetCheckpoint(path, checkpointInterval, CHECKPOINT_SIZE);
+    }
+
+    public ClusterMetrics GetMetrics() {
+        return _connector.GetMetrics();
+    }
+
+    /**
+     * Records this instance's events in the given log, e.g. a binary file log; events
+     * go to the shared console log otherwise
+     */
+    public void SetEventLog(EventLog log) {
+        _connector.SetEventLog(log, _instance);
+    }
+
+    /**
+     * Records every input to this instance in a journal file for offline replay; call before Start
+     */
+    public void SetJournal(String path) {
+        _journal = new TransitionJournal(path);
+        _connector.SetJournal(_journal);
+    }
+
+    /**
+     * Replays a journal recorded by another instance instead of starting; this instance must
+     * have been created with a ReplayTransport and a ReplayTimer
+     *
+     * @return the number of records replayed
+     */
+    public long Replay(String journalPath) throws IOException {
+        JournalReplayer replayer = new JournalReplayer(_connector);
+        long records = replayer.Replay(journalPath);
+        _replayNanos = replayer.GetElapsedNanos();
+        return records;
+    }
+
+    /**
+     * Runs every input in an InputCapture through this instance's logic instead of starting;
+     * this instance must have been created with a ReplayTransport and a ReplayTimer
+     *
+     * @return the replayer, for the replay's throughput and digest
+     */
+    public CaptureReplayer<ClientOrder, AppState> Backtest(String capturePath) throws IOException {
+        CaptureReplayer<ClientOrder, AppState> replayer =
+                new CaptureReplayer<ClientOrder, AppState>(new SampleAppSerializer(_symbols), this);
+        replayer.SetSymbols(_symbols);
+        replayer.Replay(capturePath);
+        return replayer;
+    }
+
+    /**
+     * @return a digest of the whole application state, the same for every run of the same capture
+     */
+    public long GetStateDigest(CaptureReplayer<ClientOrder, AppState> replayer) {
+        return replayer.GetDigest(this, SNAPSHOT_SIZE);
+    }
+
+    public long GetOrdersProcessed() {
+        return _ordersProcessed;
+    }
+
+    /**
+     * @return the order books; only safe to read while no input is being processed
+     */
+    public OrderBookEngine GetOrderBooks() {
+        return _books;
+    }
+
+    public int GetInputQueueDepth() {
+        return _connector.GetInputQueueDepth();
+    }
+
+    public int GetOutputQueueDepth() {
+        return _connector.GetOutputQueueDepth();
     }
 
     public void Run(String host, String vpn, String user, String pass, String queue, String lvq) {
-        _connector.Connect(host, vpn, user, pass, _appId+"_inst"+_instance);
-        _connector.BindQueues(queue, lvq);
+        Start(host, vpn, user, pass, queue, lvq);
 
         boolean running = true;
         while (running)
@@ -48,75 +276,131 @@ public class SampleClusteredApp implements ClusterEventListener<ClientOrder, App
                 running = false;
             }
         }
+        Stop();
+    }
+
+    /**
+     * Connects and joins the cluster without blocking the calling thread
+     */
+    public void Start(String host, String vpn, String user, String pass, String queue, String lvq) {
+        _monitor.Start(_monitorIntervalMs);
+        _connector.Connect(host, vpn, user, pass, _appId+"_inst"+_instance);
+        if (_symbolQueue != null)
+            new SymbolTopic(_transport, SymbolTopic.TOPIC, _symbolQueue, SymbolTopic.DEFAULT_TIMEOUT_MS).Load(_symbols);
+        _connector.BindQueues(queue, lvq);
+    }
+
+    public void Stop() {
+        _monitor.Stop();
+        _connector.Destroy();
+        if (_journal != null)
+            _journal.Close();
+    }
+
+    public HAState GetHAStatus() {
+        return _model.GetHAStatus();
     }
 
     public void OnHAStateChange(HAState oldState, HAState newState) {
-        System.out.println("HA Change: " + oldState + " => " + newState);
-        sendMonitorUpdate(); // HACK!
+        // Transitions are recorded in the connector's event log
+        monitorTransition();
     }
 
     public void OnSeqStateChange(SeqState oldState, SeqState newState) {
-        System.out.println("Seq Change: " + oldState + " => " + newState);
-        sendMonitorUpdate(); // HACK!
+        monitorTransition();
     }
 
     public void OnInitialStateMessage(AppState initialState) {
-        System.out.println("INITIALIZING TO STATE: " + initialState);
-        sendMonitorUpdate(); // HACK!
+        monitorChanged();
     }
 
     public void OnApplicationMessage(ClientOrder input) {
         // Meh. Who cares; these could be just replaying from before our current state
-        sendMonitorUpdate(); // HACK!
+        monitorChanged();
     }
 
     public AppState UpdateApplicationState(ClientOrder input) {
         // IMPORTANT: State change while we're up-to-date, so every input
         // represents real state changes we need to represent
-        AppState output = new AppState(input.getInstrument());
-        output.setSequenceId(input.getSequenceId());
-        // Notify
-        System.out.println(
-                _appId + ":" + _instance + " STATE: " +
-                " HA = ["  + _model.GetHAStatus() +
-                "] SEQ = [" + _model.GetSequenceStatus() +
-                "] IN = ["  + (input==null ? "(null)" : input.getSequenceId()) +
-                "] OUT = [" + (output==null ? "(null)" : output.getSequenceId()) + "]");
+        AppState output = _output;
+        _books.Apply(input, output);
+        output.setOrderTime(input.getSendTime());
+        _lastInput = input;
+        _ordersProcessed++;
         // I always send, let the connector worry about if I'm active or not
         _connector.SendOutput(output, _outTopic);
-        sendMonitorUpdate(); // HACK!
+        monitorChanged();
         return output;
     }
 
-    /// HACK: this is just here for the extra message published to the web-monitor
-    private void sendMonitorUpdate() {
-        if (_model.GetHAStatus() != HAState.DISCONNECTED) {
-            toJSONString(jsonBuffer);
-            _connector.SendOutput(jsonBuffer, "monitor/state");
-        }
+    public void WriteSnapshot(ByteBuffer buf) {
+        Serializer.AppendAppState(buf, _output);
+        buf.putLong(_ordersProcessed);
+        _books.WriteSnapshot(buf);
     }
-    private int orderedSeqId(Ordered o) {
-        if (o == null) return -1;
-        return o.getSequenceId();
+
+    public void WriteDelta(ByteBuffer buf) {
+        Serializer.AppendClientOrder(buf, _lastInput);
+    }
+
+    public void LoadSnapshot(ByteBuffer snapshot, long seqId) {
+        Serializer.ReadAppState(snapshot, _output);
+        long ordersProcessed = snapshot.getLong();
+        _books.ReadSnapshot(snapshot);
+        // Last, so whoever sees the count also sees the books it counts
+        _ordersProcessed = ordersProcessed;
+    }
+
+    public void ApplyDelta(ByteBuffer delta, long seqId) {
+        _books.Apply(Serializer.ReadClientOrder(delta, _deltaInput), _output);
+        _ordersProcessed++;
+    }
+
+    // The model raises events while the connector is still being constructed
+    private void monitorTransition() {
+        if (_monitor != null)
+            _monitor.Transition();
     }
-    private void toJSONString(ByteBuffer buf) {
-        Ordered output = _model.GetLastOutput();
-        Ordered input  = _model.GetLastInput();
-        String json = String.format("{ \"Instance\":%d, \"HAState\":\"%s\", \"SeqState\":\"%s\", \"LastInput\":%d, \"LastOutput\":%d }",
-                _instance, _model.GetHAStatus(), _model.GetSequenceStatus(), orderedSeqId(input), orderedSeqId(output)
-        );
-        buf.clear();
-        buf.order(ByteOrder.LITTLE_ENDIAN)
-                .put(json.getBytes());
+    private void monitorChanged() {
+        if (_monitor != null)
+            _monitor.Changed();
     }
 
     private final ClusterModel<ClientOrder,AppState> _model;
     private final ClusterConnector<ClientOrder,AppState> _connector;
+    // Feeds the external web-monitor
+    private final MonitorPublisher _monitor;
+    private long _monitorIntervalMs = 100;
 
     private final String _appId;
     private final int    _instance;
     private final String _outTopic;
+    private final Transport _transport;
+    // The instruments' IDs in this member's inputs
+    private final SymbolDictionary _symbols = new SymbolDictionary(SymbolDictionary.DEFAULT_CAPACITY);
+    private String _symbolQueue;
+    // Reused for every input; the ClusterModel only ever holds the latest output
+    private final AppState _output = new AppState(null);
+    private final OrderBookEngine _books = new OrderBookEngine(MAX_SYMBOLS, MAX_RESTING_ORDERS);
+    // The input being processed, written as the delta of its output
+    private ClientOrder _lastInput;
+    private final ClientOrder _deltaInput = new ClientOrder(0);
+    private volatile long _ordersProcessed;
+    private TransitionJournal _journal;
+    private long _replayNanos;
 
-    // HACK! Just to send messages to our external monitor
-    private final ByteBuffer jsonBuffer = ByteBuffer.allocate(256);
+    // Large enough for an order or an app state
+    private static final int PIPELINE_SLOT_SIZE = 256;
+    private static final String MONITOR_TOPIC = "monitor/state";
+    private static final int EVENT_LOG_RING_SIZE = 64 * 1024;
+    private static final int MAX_SYMBOLS = 4096;
+    private static final int MAX_RESTING_ORDERS = 64 * 1024;
+    private static final int SNAPSHOT_SIZE = AppState.SERIALIZED_SIZE + 8
+            + OrderBookEngine.MaxSnapshotSize(MAX_SYMBOLS, MAX_RESTING_ORDERS);
+    // Snapshot defaults; the TTL covers two intervals at 40 orders/s or more
+    private static final int SNAPSHOT_INTERVAL = 10000;
+    private static final int SNAPSHOT_CHUNK_SIZE = 64 * 1024;
+    private static final long SNAPSHOT_TTL_MS = 10 * 60 * 1000;
+    // The last output plus a snapshot
+    public static final int CHECKPOINT_SIZE = AppState.SERIALIZED_SIZE + SNAPSHOT_SIZE;
 }
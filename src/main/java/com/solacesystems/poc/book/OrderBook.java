@@ -0,0 +1,20 @@
+package com.solacesystems.poc.book;
+
+/**
+ * The bids and asks of one instrument
+ */
+class OrderBook {
+    OrderBook(int symbol) {
+        this.symbol = symbol;
+    }
+
+    PriceLevels side(boolean buy) {
+        return buy ? bids : asks;
+    }
+
+    final int symbol;
+    final PriceLevels bids = new PriceLevels(true, INITIAL_LEVELS);
+    final PriceLevels asks = new PriceLevels(false, INITIAL_LEVELS);
+
+    private static final int INITIAL_LEVELS = 16;
+}
@@ -0,0 +1,360 @@
+package com.solacesystems.poc.book;
+
+import com.solacesystems.poc.AppState;
+import com.solacesystems.poc.ClientOrder;
+import com.solacesystems.poc.conn.SymbolDictionary;
+import com.solacesystems.poc.model.OffHeapStore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Limit order books for many instruments, matched in price-time priority. Every order
+ * first trades against the opposite side at the resting orders' prices, and whatever is
+ * left rests on its own side until it is filled or cancelled.
+ *
+ * Instruments are registered in the engine's own SymbolDictionary, whose IDs index an
+ * array of books. Each book side
+ * keeps its price levels in sorted primitive arrays (see PriceLevels). Resting orders are
+ * records in an OffHeapStore keyed by order ID, linked into a queue per level by slot, so
+ * the bulk of the state lives off the Java heap. Prices and quantities are held as
+ * fixed-point longs of 1/SCALE, so nothing is boxed or allocated once a book's levels
+ * have grown to size.
+ *
+ * Not thread-safe: the engine is owned by the thread processing input.
+ */
+public class OrderBookEngine {
+    /**
+     * @param maxSymbols -- orders for further instruments are rejected
+     * @param maxOrders -- resting orders; the unfilled remainder of further orders is dropped
+     */
+    public OrderBookEngine(int maxSymbols, int maxOrders) {
+        this(maxSymbols, new OffHeapStore(maxOrders, ORDER_RECORD_SIZE));
+    }
+
+    /**
+     * @param orders -- holds the resting orders, e.g. in a memory-mapped file; its records
+     *                  must be at least ORDER_RECORD_SIZE bytes
+     */
+    public OrderBookEngine(int maxSymbols, OffHeapStore orders) {
+        if (orders.GetRecordSize() < ORDER_RECORD_SIZE)
+            throw new IllegalArgumentException("Order records take " + ORDER_RECORD_SIZE + " bytes");
+        _symbols = new SymbolDictionary(maxSymbols);
+        _books = new OrderBook[maxSymbols];
+        _orders = orders;
+        Clear();
+    }
+
+    /**
+     * Matches the order and rests what is left of it, and describes the outcome in result:
+     * the quantity filled and left open, and the instrument's best bid and ask afterwards.
+     * Orders without an instrument, a positive quantity and price, or with the ID of a
+     * resting order are rejected and change nothing.
+     */
+    public void Apply(ClientOrder order, AppState result) {
+        long orderId = order.getSequenceId();
+        String instrument = order.getInstrument();
+        long quantity = ToUnits(order.getQuantity());
+        long price = ToUnits(order.getPrice());
+        result.setSequenceId(orderId);
+        result.setInstrument(instrument);
+        int symbol = (instrument == null) ? SymbolDictionary.NO_ID : _symbols.Register(instrument);
+        if (symbol == SymbolDictionary.NO_ID || quantity <= 0 || price <= 0
+                || _orders.Find(orderId) != OffHeapStore.NO_SLOT) {
+            _rejected++;
+            report(result, symbol, 0, 0);
+            return;
+        }
+        OrderBook book = book(symbol);
+        boolean buy = order.isBuy();
+        long remaining = match(book.side(!buy), buy, price, quantity);
+        long open = 0;
+        if (remaining > 0) {
+            if (rest(book, orderId, buy, price, remaining))
+                open = remaining;
+            else
+                _rejected++;
+        }
+        report(result, symbol, quantity - remaining, open);
+    }
+
+    /**
+     * @return false if no order with the ID is resting
+     */
+    public boolean Cancel(long orderId) {
+        int order = _orders.Find(orderId);
+        if (order == OffHeapStore.NO_SLOT)
+            return false;
+        PriceLevels side = _books[symbolOf(order)].side(isBuy(order));
+        int level = side.find(priceOf(order));
+        int prev = prevOf(order);
+        int next = nextOf(order);
+        if (prev == PriceLevels.NO_ORDER)
+            side.setHead(level, next);
+        else
+            setNext(prev, next);
+        if (next == PriceLevels.NO_ORDER)
+            side.setTail(level, prev);
+        else
+            setPrev(next, prev);
+        side.addQuantity(level, -quantityOf(order));
+        if (side.head(level) == PriceLevels.NO_ORDER)
+            side.remove(level);
+        _orders.Remove(orderId);
+        return true;
+    }
+
+    /**
+     * @return the unfilled quantity of a resting order, or 0 if it is not resting
+     */
+    public double GetOpenQuantity(long orderId) {
+        int order = _orders.Find(orderId);
+        return (order == OffHeapStore.NO_SLOT) ? 0 : ToDouble(quantityOf(order));
+    }
+
+    /**
+     * @return the instrument's best bid, or 0 if it has none
+     */
+    public double GetBestBid(String instrument) {
+        int symbol = _symbols.GetId(instrument);
+        return (symbol == SymbolDictionary.NO_ID) ? 0 : bestPrice(book(symbol).bids);
+    }
+
+    /**
+     * @return the instrument's best ask, or 0 if it has none
+     */
+    public double GetBestAsk(String instrument) {
+        int symbol = _symbols.GetId(instrument);
+        return (symbol == SymbolDictionary.NO_ID) ? 0 : bestPrice(book(symbol).asks);
+    }
+
+    /**
+     * @return the total quantity resting at the price on one side of the instrument's book
+     */
+    public double GetDepth(String instrument, boolean bids, double price) {
+        int symbol = _symbols.GetId(instrument);
+        if (symbol == SymbolDictionary.NO_ID)
+            return 0;
+        PriceLevels side = book(symbol).side(bids);
+        int level = side.find(ToUnits(price));
+        return (level < 0) ? 0 : ToDouble(side.quantity(level));
+    }
+
+    public int GetSymbolCount() {
+        return _symbols.Size();
+    }
+
+    public int GetRestingOrders() {
+        return _orders.Size();
+    }
+
+    /**
+     * @return orders rejected, plus orders whose remainder could not rest in a full book
+     */
+    public long GetRejected() {
+        return _rejected;
+    }
+
+    /**
+     * Removes every order and forgets every symbol; the rejected count is kept
+     */
+    public void Clear() {
+        for(OrderBook book : _books) {
+            if (book != null) {
+                book.bids.clear();
+                book.asks.clear();
+            }
+        }
+        _symbols.Clear();
+        _orders.Clear();
+    }
+
+    ////// Snapshots //////
+
+    /**
+     * Writes the symbols, then the order store, at the buffer's position; at most
+     * MaxSnapshotSize bytes. Orders keep their slots, so their queues are copied as is.
+     */
+    public void WriteSnapshot(ByteBuffer buf) {
+        _symbols.WriteTo(buf);
+        _orders.WriteSnapshot(buf);
+    }
+
+    /**
+     * Replaces the books with a snapshot written by WriteSnapshot, read from the buffer's
+     * position, and rebuilds the price levels from the orders
+     */
+    public void ReadSnapshot(ByteBuffer buf) {
+        Clear();
+        _symbols.ReadFrom(buf);
+        _orders.ReadSnapshot(buf);
+        for(int order = 0; order < _orders.GetHighWater(); order++) {
+            if (!_orders.IsUsed(order))
+                continue;
+            PriceLevels side = book(symbolOf(order)).side(isBuy(order));
+            int level = side.insert(priceOf(order));
+            side.addQuantity(level, quantityOf(order));
+            if (prevOf(order) == PriceLevels.NO_ORDER)
+                side.setHead(level, order);
+            if (nextOf(order) == PriceLevels.NO_ORDER)
+                side.setTail(level, order);
+        }
+    }
+
+    /**
+     * @return the largest snapshot of an engine of the given capacity
+     */
+    public static int MaxSnapshotSize(int maxSymbols, int maxOrders) {
+        return SymbolDictionary.MaxSerializedSize(maxSymbols) + OffHeapStore.MaxSnapshotSize(maxOrders, ORDER_RECORD_SIZE);
+    }
+
+    /**
+     * Order records hold { price(8), quantity(8), next(4), prev(4), symbol(4), buy(1) }
+     */
+    public static final int ORDER_RECORD_SIZE = 29;
+
+    ////// Fixed-point //////
+
+    /**
+     * Prices and quantities are held in units of 1/SCALE
+     */
+    public static final int SCALE = 10000;
+
+    public static long ToUnits(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    public static double ToDouble(long units) {
+        return (double) units / SCALE;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Fills the order against the opposite side while its price crosses the best level
+     *
+     * @return the quantity left unfilled
+     */
+    private long match(PriceLevels opposite, boolean buy, long price, long quantity) {
+        while(quantity > 0 && !opposite.isEmpty()) {
+            int level = opposite.best();
+            long levelPrice = opposite.price(level);
+            if (buy ? levelPrice > price : levelPrice < price)
+                break;
+            int order = opposite.head(level);
+            while(quantity > 0 && order != PriceLevels.NO_ORDER) {
+                long resting = quantityOf(order);
+                long fill = Math.min(quantity, resting);
+                quantity -= fill;
+                opposite.addQuantity(level, -fill);
+                if (fill == resting) {
+                    int next = nextOf(order);
+                    _orders.Remove(_orders.GetKey(order));
+                    order = next;
+                }
+                else {
+                    _orders.PutLong(order, QUANTITY, resting - fill);
+                }
+            }
+            if (order == PriceLevels.NO_ORDER) {
+                opposite.remove(level);
+            }
+            else {
+                opposite.setHead(level, order);
+                setPrev(order, PriceLevels.NO_ORDER);
+            }
+        }
+        return quantity;
+    }
+
+    /**
+     * Queues an order at the back of its price level
+     *
+     * @return false if the order store is full
+     */
+    private boolean rest(OrderBook book, long orderId, boolean buy, long price, long quantity) {
+        int order = _orders.Insert(orderId);
+        if (order == OffHeapStore.NO_SLOT)
+            return false;
+        PriceLevels side = book.side(buy);
+        int level = side.insert(price);
+        int tail = side.tail(level);
+        _orders.PutLong(order, PRICE, price);
+        _orders.PutLong(order, QUANTITY, quantity);
+        _orders.PutInt(order, NEXT, PriceLevels.NO_ORDER);
+        _orders.PutInt(order, PREV, tail);
+        _orders.PutInt(order, SYMBOL, book.symbol);
+        _orders.PutByte(order, BUY, (byte) (buy ? 1 : 0));
+        if (tail == PriceLevels.NO_ORDER)
+            side.setHead(level, order);
+        else
+            setNext(tail, order);
+        side.setTail(level, order);
+        side.addQuantity(level, quantity);
+        return true;
+    }
+
+    ////// Order record fields //////
+
+    private long priceOf(int order) {
+        return _orders.GetLong(order, PRICE);
+    }
+
+    private long quantityOf(int order) {
+        return _orders.GetLong(order, QUANTITY);
+    }
+
+    private int nextOf(int order) {
+        return _orders.GetInt(order, NEXT);
+    }
+
+    private void setNext(int order, int next) {
+        _orders.PutInt(order, NEXT, next);
+    }
+
+    private int prevOf(int order) {
+        return _orders.GetInt(order, PREV);
+    }
+
+    private void setPrev(int order, int prev) {
+        _orders.PutInt(order, PREV, prev);
+    }
+
+    private int symbolOf(int order) {
+        return _orders.GetInt(order, SYMBOL);
+    }
+
+    private boolean isBuy(int order) {
+        return _orders.GetByte(order, BUY) != 0;
+    }
+
+    private OrderBook book(int symbol) {
+        OrderBook book = _books[symbol];
+        if (book == null)
+            book = _books[symbol] = new OrderBook(symbol);
+        return book;
+    }
+
+    private void report(AppState result, int symbol, long filled, long open) {
+        result.setFilledQuantity(ToDouble(filled));
+        result.setOpenQuantity(ToDouble(open));
+        OrderBook book = (symbol == SymbolDictionary.NO_ID) ? null : book(symbol);
+        result.setBestBid((book == null) ? 0 : bestPrice(book.bids));
+        result.setBestAsk((book == null) ? 0 : bestPrice(book.asks));
+    }
+
+    private static double bestPrice(PriceLevels side) {
+        return side.isEmpty() ? 0 : ToDouble(side.price(side.best()));
+    }
+
+    private static final int PRICE = 0;
+    private static final int QUANTITY = 8;
+    private static final int NEXT = 16;
+    private static final int PREV = 20;
+    private static final int SYMBOL = 24;
+    private static final int BUY = 28;
+
+    private final SymbolDictionary _symbols;
+    private final OrderBook[] _books;
+    private final OffHeapStore _orders;
+    private long _rejected;
+}
@@ -0,0 +1,152 @@
+package com.solacesystems.poc.book;
+
+/**
+ * One side of an order book: price levels in parallel primitive arrays sorted so that the
+ * best price is the last level, since fills and new orders mostly touch the top of the
+ * book. Levels are found by binary search; inserting or removing one shifts only the levels
+ * better than it. Each level holds its total quantity and the first and last order of its
+ * queue, by slot in the engine's order store. Not thread-safe.
+ */
+class PriceLevels {
+    /**
+     * @param bids -- bids are best at the highest price, asks at the lowest
+     */
+    PriceLevels(boolean bids, int initialCapacity) {
+        _sign = bids ? 1 : -1;
+        _keys = new long[initialCapacity];
+        _quantities = new long[initialCapacity];
+        _heads = new int[initialCapacity];
+        _tails = new int[initialCapacity];
+    }
+
+    int count() {
+        return _count;
+    }
+
+    boolean isEmpty() {
+        return _count == 0;
+    }
+
+    /**
+     * @return the level with the best price; the book side must not be empty
+     */
+    int best() {
+        return _count - 1;
+    }
+
+    /**
+     * @return the level at the price, or a negative value if there is none
+     */
+    int find(long price) {
+        return search(_sign * price);
+    }
+
+    /**
+     * @return the level at the price, added with no orders if there was none
+     */
+    int insert(long price) {
+        long key = _sign * price;
+        int level = search(key);
+        if (level >= 0)
+            return level;
+        level = -level - 1;
+        if (_count == _keys.length)
+            grow();
+        int moved = _count - level;
+        System.arraycopy(_keys, level, _keys, level + 1, moved);
+        System.arraycopy(_quantities, level, _quantities, level + 1, moved);
+        System.arraycopy(_heads, level, _heads, level + 1, moved);
+        System.arraycopy(_tails, level, _tails, level + 1, moved);
+        _keys[level] = key;
+        _quantities[level] = 0;
+        _heads[level] = NO_ORDER;
+        _tails[level] = NO_ORDER;
+        _count++;
+        return level;
+    }
+
+    void remove(int level) {
+        int moved = _count - level - 1;
+        System.arraycopy(_keys, level + 1, _keys, level, moved);
+        System.arraycopy(_quantities, level + 1, _quantities, level, moved);
+        System.arraycopy(_heads, level + 1, _heads, level, moved);
+        System.arraycopy(_tails, level + 1, _tails, level, moved);
+        _count--;
+    }
+
+    void clear() {
+        _count = 0;
+    }
+
+    long price(int level) {
+        return _sign * _keys[level];
+    }
+
+    long quantity(int level) {
+        return _quantities[level];
+    }
+
+    void addQuantity(int level, long delta) {
+        _quantities[level] += delta;
+    }
+
+    int head(int level) {
+        return _heads[level];
+    }
+
+    void setHead(int level, int order) {
+        _heads[level] = order;
+    }
+
+    int tail(int level) {
+        return _tails[level];
+    }
+
+    void setTail(int level, int order) {
+        _tails[level] = order;
+    }
+
+    static final int NO_ORDER = -1;
+
+    ////////////////////////////////////////////////////////////////////////
+
+    // Keys are signed so that both sides sort ascending with the best price last
+    private int search(long key) {
+        int low = 0;
+        int high = _count - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long k = _keys[mid];
+            if (k < key)
+                low = mid + 1;
+            else if (k > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private void grow() {
+        int capacity = _keys.length * 2;
+        long[] keys = new long[capacity];
+        long[] quantities = new long[capacity];
+        int[] heads = new int[capacity];
+        int[] tails = new int[capacity];
+        System.arraycopy(_keys, 0, keys, 0, _count);
+        System.arraycopy(_quantities, 0, quantities, 0, _count);
+        System.arraycopy(_heads, 0, heads, 0, _count);
+        System.arraycopy(_tails, 0, tails, 0, _count);
+        _keys = keys;
+        _quantities = quantities;
+        _heads = heads;
+        _tails = tails;
+    }
+
+    private final long _sign;
+    private long[] _keys;
+    private long[] _quantities;
+    private int[] _heads;
+    private int[] _tails;
+    private int _count;
+}
@@ -0,0 +1,15 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * How messages delivered on a consumer flow are acknowledged to the broker
+ */
+public enum AckMode {
+    /**
+     * The transport acknowledges each message once the MessageListener returns
+     */
+    AUTO,
+    /**
+     * Messages stay spooled until the application calls TransportFlow.ack
+     */
+    CLIENT
+}
@@ -0,0 +1,73 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable little-endian direct buffers in power-of-two size classes, so each message is
+ * encoded into a buffer that fits it, however long its fields, without allocating once the
+ * pool is warm. A buffer taken with Acquire goes back with Release once it has been sent;
+ * each class keeps up to buffersPerClass released buffers and leaves the rest to the GC.
+ * Not thread-safe: keep one pool per thread.
+ */
+public class BufferPool {
+    public BufferPool(int buffersPerClass) {
+        _free = new ByteBuffer[CLASSES][buffersPerClass];
+        _counts = new int[CLASSES];
+    }
+
+    /**
+     * @return a cleared buffer of at least size bytes
+     */
+    public ByteBuffer Acquire(int size) {
+        if (size > MAX_BUFFER_SIZE)
+            throw new IllegalArgumentException("Buffers are limited to " + MAX_BUFFER_SIZE + " bytes");
+        int sizeClass = classOf(size);
+        if (_counts[sizeClass] == 0) {
+            _allocated++;
+            return ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer buf = _free[sizeClass][--_counts[sizeClass]];
+        _free[sizeClass][_counts[sizeClass]] = null;
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Returns a buffer taken with Acquire; null is ignored
+     */
+    public void Release(ByteBuffer buf) {
+        if (buf == null)
+            return;
+        int capacity = buf.capacity();
+        if (!buf.isDirect() || Integer.bitCount(capacity) != 1 || capacity < MIN_BUFFER_SIZE || capacity > MAX_BUFFER_SIZE)
+            throw new IllegalArgumentException("Not a pooled buffer");
+        int sizeClass = classOf(capacity);
+        if (_counts[sizeClass] < _free[sizeClass].length)
+            _free[sizeClass][_counts[sizeClass]++] = buf;
+    }
+
+    /**
+     * @return the buffers allocated so far; steady growth means too few buffers per class
+     */
+    public long GetAllocated() {
+        return _allocated;
+    }
+
+    public static final int MIN_BUFFER_SIZE = 64;
+    public static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private static int classOf(int size) {
+        return (size <= MIN_BUFFER_SIZE) ? 0
+                : 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private static final int MIN_SHIFT = 6;
+    private static final int CLASSES = 30 - MIN_SHIFT + 1;
+
+    private final ByteBuffer[][] _free;
+    private final int[] _counts;
+    private long _allocated;
+}
@@ -0,0 +1,16 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A TransportMessage whose payload already sits in a direct buffer, so a reader can decode
+ * it in place rather than copy it into a buffer of its own.
+ */
+public interface DirectMessage extends TransportMessage {
+    /**
+     * @return a view of the payload in its written state, valid for the duration of the
+     * MessageListener callback and reset by every call; readers may move its position and
+     * limit but must not write to it
+     */
+    ByteBuffer getDirectAttachment();
+}
@@ -0,0 +1,34 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * Wall-clock time in nanoseconds since the epoch, for latency stamps compared across
+ * processes. Reads are System.nanoTime against a base taken once from the millisecond
+ * clock, on the edge of a tick, so processes on one host agree to within tens of
+ * microseconds and hosts to within their clock synchronization. Later adjustments of the
+ * system clock are not followed.
+ */
+public class EpochClock {
+    public static long Now() {
+        return BASE + System.nanoTime();
+    }
+
+    /**
+     * @return the epoch time of an earlier System.nanoTime() reading
+     */
+    public static long FromNanoTime(long nanoTime) {
+        return BASE + nanoTime;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private static long calibrate() {
+        long start = System.currentTimeMillis();
+        long millis;
+        do {
+            millis = System.currentTimeMillis();
+        } while(millis == start);
+        return millis * 1000000L - System.nanoTime();
+    }
+
+    private static final long BASE = calibrate();
+}
@@ -0,0 +1,30 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * Transport-neutral flow events raised to a FlowListener
+ */
+public enum FlowEventType {
+    /**
+     * The flow is bound to its queue
+     */
+    UP,
+    /**
+     * The flow was unbound by the broker
+     */
+    DOWN,
+    /**
+     * The flow is the active consumer of its exclusive queue
+     */
+    ACTIVE,
+    /**
+     * The flow is bound to its exclusive queue but another flow is active
+     */
+    INACTIVE,
+    /**
+     * A started browser flow has delivered every message that was on its queue. The in-memory
+     * transport knows; SolaceConnector assumes so once the browser has been idle for its
+     * browse idle timeout, as the appliance does not report it.
+     */
+    BROWSE_COMPLETE,
+    OTHER
+}
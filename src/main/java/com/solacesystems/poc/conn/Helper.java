@@ -4,6 +4,10 @@ import com.solacesystems.poc.model.HAState;
 import com.solacesystems.poc.model.SeqState;
 import com.solacesystems.solclientj.core.handle.Handle;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
 public class Helper {
     public static void destroyHandle(Handle handle) {
         try {
@@ -14,4 +18,37 @@ public class Helper {
             t.printStackTrace();
         }
     }
+
+    /**
+     * Registers an MBean under com.solacesystems.poc, replacing any left by an earlier
+     * instance with the same name. Metrics are not worth failing over, so errors are only logged.
+     *
+     * @param properties -- the key properties of the ObjectName, e.g. "type=Latency,client=app1"
+     * @return the registered name, or null if registration failed
+     */
+    public static ObjectName registerMBean(Object mbean, String properties) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_DOMAIN + ":" + properties);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(mbean, name);
+            return name;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static void unregisterMBean(ObjectName name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (name != null && server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final String MBEAN_DOMAIN = "com.solacesystems.poc";
 }
@@ -0,0 +1,144 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process stand-in for a Solace appliance, shared by every InMemoryTransport in the JVM.
+ * Queues are provisioned up-front with their topic subscriptions, just as they would be
+ * configured on the appliance. The broker emulates the two queue behaviours the clustering
+ * logic relies on:
+ *
+ * - Exclusive queues: the first bound flow is active and receives the messages; every other
+ *                     flow is told it is INACTIVE. When the active flow unbinds, the next
+ *                     bound flow is told it is ACTIVE and takes over the remaining messages.
+ *
+ * - Last-value queues: the queue only ever holds the most recently published message.
+ *
+ * Messages delivered on a client-ack flow stay spooled until acknowledged, and on an
+ * auto-ack flow until the listener returns; if the flow unbinds first they are put back at
+ * the front of the queue for the next active flow.
+ *
+ * Messages published with a time-to-live are dropped once expired and not yet consumed.
+ *
+ * Topic subscriptions support the Solace '*' (one level) and '>' (one or more trailing levels)
+ * wildcards.
+ */
+public class InMemoryBroker {
+
+    public void provisionQueue(String name, String... topics) {
+        provision(name, false, topics);
+    }
+
+    public void provisionLastValueQueue(String name, String... topics) {
+        provision(name, true, topics);
+    }
+
+    /**
+     * @return the number of messages currently spooled on the named queue
+     */
+    public synchronized int getQueueDepth(String name) {
+        return lookupQueue(name).depth();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////            Transport Support                        /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    synchronized void publish(String topic, ByteBuffer payload) {
+        publish(topic, payload, 0);
+    }
+
+    /**
+     * @param timeToLiveMs -- how long the message stays spooled, or 0 for ever
+     */
+    synchronized void publish(String topic, ByteBuffer payload, long timeToLiveMs) {
+        InMemoryQueue[] route = _routes.get(topic);
+        if (route == null) {
+            route = resolveRoute(topic);
+            _routes.put(topic, route);
+        }
+        if (route.length == 0)
+            return;
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        long expiresAtNanos = (timeToLiveMs > 0) ? System.nanoTime() + timeToLiveMs * 1000000L : 0;
+        InMemoryMessage msg = new InMemoryMessage(++_lastMessageId, bytes, expiresAtNanos);
+        for(InMemoryQueue queue : route) {
+            queue.enqueue(msg);
+        }
+    }
+
+    synchronized InMemoryFlow bind(InMemoryTransport transport, String queueName, boolean browser, AckMode ackMode,
+                                   MessageListener msgListener, FlowListener flowListener) {
+        InMemoryFlow flow = new InMemoryFlow(transport, this, lookupQueue(queueName), browser, ackMode,
+                msgListener, flowListener);
+        flow.getQueue().bind(flow);
+        return flow;
+    }
+
+    synchronized void unbind(InMemoryFlow flow) {
+        flow.getQueue().unbind(flow);
+    }
+
+    synchronized void ack(InMemoryFlow flow, long msgId) {
+        flow.getQueue().ack(flow, msgId);
+    }
+
+    synchronized InMemoryMessage next(InMemoryFlow flow) {
+        return flow.getQueue().next(flow);
+    }
+
+    synchronized boolean hasNext(InMemoryFlow flow) {
+        return flow.getQueue().hasNext(flow);
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////            Internal Methods                         /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    private synchronized void provision(String name, boolean lastValue, String[] topics) {
+        if (_queues.containsKey(name))
+            throw new IllegalStateException("Queue already provisioned: " + name);
+        _queues.put(name, new InMemoryQueue(name, lastValue, topics));
+        _routes.clear();
+    }
+
+    private InMemoryQueue lookupQueue(String name) {
+        InMemoryQueue queue = _queues.get(name);
+        if (queue == null)
+            throw new IllegalStateException("Unknown queue: " + name);
+        return queue;
+    }
+
+    private InMemoryQueue[] resolveRoute(String topic) {
+        List<InMemoryQueue> matches = new ArrayList<InMemoryQueue>();
+        for(InMemoryQueue queue : _queues.values()) {
+            if (queue.subscribes(topic))
+                matches.add(queue);
+        }
+        return matches.toArray(new InMemoryQueue[matches.size()]);
+    }
+
+    static boolean topicMatches(String subscription, String topic) {
+        String[] sub = subscription.split("/");
+        String[] levels = topic.split("/");
+        for(int i = 0; i < sub.length; i++) {
+            if (sub[i].equals(">"))
+                return i == sub.length - 1 && levels.length > i;
+            if (i >= levels.length)
+                return false;
+            if (!sub[i].equals("*") && !sub[i].equals(levels[i]))
+                return false;
+        }
+        return sub.length == levels.length;
+    }
+
+    private final Map<String, InMemoryQueue> _queues = new HashMap<String, InMemoryQueue>();
+    // Cached topic => subscribed queues lookups, invalidated when queues are provisioned
+    private final Map<String, InMemoryQueue[]> _routes = new HashMap<String, InMemoryQueue[]>();
+    private long _lastMessageId;
+}
@@ -0,0 +1,135 @@
+package com.solacesystems.poc.conn;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A consumer or browser flow created by an InMemoryTransport. Messages and events are
+ * dispatched on the owning transport's context thread, like the Solace context thread.
+ */
+class InMemoryFlow implements TransportFlow {
+    InMemoryFlow(InMemoryTransport transport, InMemoryBroker broker, InMemoryQueue queue, boolean browser,
+                 AckMode ackMode, MessageListener msgListener, FlowListener flowListener) {
+        _transport = transport;
+        _broker = broker;
+        _queue = queue;
+        _browser = browser;
+        _ackMode = ackMode;
+        _msgListener = msgListener;
+        _flowListener = flowListener;
+    }
+
+    public void start() {
+        if (_browser)
+            _browsePending = true;
+        _started = true;
+        scheduleDrain();
+    }
+
+    public void stop() {
+        _started = false;
+    }
+
+    public void ack(long msgId) {
+        if (_ackMode == AckMode.CLIENT)
+            _broker.ack(this, msgId);
+    }
+
+    public void destroy() {
+        _started = false;
+        if (!_destroyed) {
+            _destroyed = true;
+            _broker.unbind(this);
+        }
+    }
+
+    InMemoryQueue getQueue() {
+        return _queue;
+    }
+
+    boolean isBrowser() {
+        return _browser;
+    }
+
+    /**
+     * Messages delivered but not yet acknowledged, in delivery order
+     */
+    ArrayDeque<InMemoryMessage> getUnacked() {
+        return _unacked;
+    }
+
+    long getBrowseCursor() {
+        return _browseCursor;
+    }
+
+    void setBrowseCursor(long messageId) {
+        _browseCursor = messageId;
+    }
+
+    void raiseEvent(final FlowEventType event) {
+        _transport.execute(new Runnable() {
+            public void run() {
+                _flowListener.onFlowEvent(event);
+            }
+        });
+    }
+
+    /**
+     * Schedules a drain of this flow's queue on the context thread unless one is already pending
+     */
+    void scheduleDrain() {
+        if (_started && _drainScheduled.compareAndSet(false, true))
+            _transport.execute(_drainTask);
+    }
+
+    private void drain() {
+        int delivered = 0;
+        while(true) {
+            InMemoryMessage msg = _started ? _broker.next(this) : null;
+            if (msg == null) {
+                _drainScheduled.set(false);
+                // Re-check so a message enqueued while we were finishing up is not stranded
+                if (!_started || !_broker.hasNext(this) || !_drainScheduled.compareAndSet(false, true)) {
+                    if (_started && _browsePending) {
+                        _browsePending = false;
+                        _flowListener.onFlowEvent(FlowEventType.BROWSE_COMPLETE);
+                    }
+                    return;
+                }
+                continue;
+            }
+            _msgListener.onMessage(msg);
+            // Like a Solace auto-ack, only once the listener has returned, so a message whose
+            // listener failed or was stopped is redelivered to the next flow
+            if (_ackMode == AckMode.AUTO)
+                _broker.ack(this, msg.getMessageId());
+            if (++delivered == MAX_DRAIN_BATCH) {
+                // Yield the context thread to other flows and events
+                _transport.execute(_drainTask);
+                return;
+            }
+        }
+    }
+
+    private static final int MAX_DRAIN_BATCH = 256;
+
+    private final InMemoryTransport _transport;
+    private final InMemoryBroker _broker;
+    private final InMemoryQueue _queue;
+    private final boolean _browser;
+    private final AckMode _ackMode;
+    private final MessageListener _msgListener;
+    private final FlowListener _flowListener;
+
+    private final AtomicBoolean _drainScheduled = new AtomicBoolean(false);
+    private final Runnable _drainTask = new Runnable() {
+        public void run() { drain(); }
+    };
+    private volatile boolean _started;
+    // Set on start of a browser until the browse has caught up with the queue
+    private volatile boolean _browsePending;
+    private boolean _destroyed;
+    // guarded by the broker lock
+    private long _browseCursor;
+    private final ArrayDeque<InMemoryMessage> _unacked = new ArrayDeque<InMemoryMessage>();
+}
@@ -0,0 +1,37 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable message spooled by the InMemoryBroker; the same instance may sit on several queues.
+ */
+class InMemoryMessage implements TransportMessage {
+    /**
+     * @param expiresAtNanos -- System.nanoTime() after which the message is discarded, or 0 for never
+     */
+    InMemoryMessage(long messageId, byte[] payload, long expiresAtNanos) {
+        _messageId = messageId;
+        _payload = payload;
+        _expiresAtNanos = expiresAtNanos;
+    }
+
+    boolean isExpiring() {
+        return _expiresAtNanos != 0;
+    }
+
+    boolean isExpired(long nowNanos) {
+        return _expiresAtNanos != 0 && nowNanos - _expiresAtNanos >= 0;
+    }
+
+    public long getMessageId() {
+        return _messageId;
+    }
+
+    public void getBinaryAttachment(ByteBuffer dest) {
+        dest.put(_payload);
+    }
+
+    private final long _messageId;
+    private final byte[] _payload;
+    private final long _expiresAtNanos;
+}
@@ -0,0 +1,153 @@
+package com.solacesystems.poc.conn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A queue spooled by the InMemoryBroker. All methods are called with the broker lock held.
+ */
+class InMemoryQueue {
+    InMemoryQueue(String name, boolean lastValue, String[] topics) {
+        _name = name;
+        _lastValue = lastValue;
+        _topics = topics;
+    }
+
+    String getName() {
+        return _name;
+    }
+
+    boolean subscribes(String topic) {
+        for(String sub : _topics) {
+            if (InMemoryBroker.topicMatches(sub, topic))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Spooled messages, including those delivered to a client-ack flow but not yet acknowledged
+     */
+    int depth() {
+        purgeExpired();
+        int depth = _messages.size();
+        for(InMemoryFlow flow : _consumers) {
+            depth += flow.getUnacked().size();
+        }
+        return depth;
+    }
+
+    void enqueue(InMemoryMessage msg) {
+        if (_lastValue)
+            _messages.clear();
+        purgeExpired();
+        _messages.add(msg);
+        if (msg.isExpiring())
+            _expiring = true;
+        if (!_consumers.isEmpty())
+            _consumers.get(0).scheduleDrain();
+        for(InMemoryFlow browser : _browsers) {
+            browser.scheduleDrain();
+        }
+    }
+
+    void bind(InMemoryFlow flow) {
+        flow.raiseEvent(FlowEventType.UP);
+        if (flow.isBrowser()) {
+            _browsers.add(flow);
+            return;
+        }
+        _consumers.add(flow);
+        flow.raiseEvent(_consumers.size() == 1 ? FlowEventType.ACTIVE : FlowEventType.INACTIVE);
+    }
+
+    void unbind(InMemoryFlow flow) {
+        if (flow.isBrowser()) {
+            _browsers.remove(flow);
+            return;
+        }
+        boolean wasActive = !_consumers.isEmpty() && _consumers.get(0) == flow;
+        _consumers.remove(flow);
+        // Unacknowledged messages go back to the front of the queue for redelivery
+        Iterator<InMemoryMessage> unacked = flow.getUnacked().descendingIterator();
+        while(unacked.hasNext()) {
+            _messages.addFirst(unacked.next());
+        }
+        flow.getUnacked().clear();
+        if (wasActive && !_consumers.isEmpty()) {
+            // Exclusive queue handoff: the next bound flow takes over
+            InMemoryFlow next = _consumers.get(0);
+            next.raiseEvent(FlowEventType.ACTIVE);
+            next.scheduleDrain();
+        }
+    }
+
+    InMemoryMessage next(InMemoryFlow flow) {
+        purgeExpired();
+        if (flow.isBrowser()) {
+            for(InMemoryMessage msg : _messages) {
+                if (msg.getMessageId() > flow.getBrowseCursor() && !(_expiring && msg.isExpired(System.nanoTime()))) {
+                    flow.setBrowseCursor(msg.getMessageId());
+                    return msg;
+                }
+            }
+            return null;
+        }
+        if (_consumers.isEmpty() || _consumers.get(0) != flow)
+            return null;
+        InMemoryMessage msg = _messages.poll();
+        if (msg != null)
+            flow.getUnacked().add(msg);
+        return msg;
+    }
+
+    void ack(InMemoryFlow flow, long msgId) {
+        ArrayDeque<InMemoryMessage> unacked = flow.getUnacked();
+        // Acks almost always arrive in delivery order
+        if (!unacked.isEmpty() && unacked.peekFirst().getMessageId() == msgId) {
+            unacked.pollFirst();
+            return;
+        }
+        Iterator<InMemoryMessage> it = unacked.iterator();
+        while(it.hasNext()) {
+            if (it.next().getMessageId() == msgId) {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    boolean hasNext(InMemoryFlow flow) {
+        purgeExpired();
+        if (flow.isBrowser()) {
+            return !_messages.isEmpty() && _messages.peekLast().getMessageId() > flow.getBrowseCursor();
+        }
+        return !_messages.isEmpty() && !_consumers.isEmpty() && _consumers.get(0) == flow;
+    }
+
+    /**
+     * Drops expired messages from the head of the queue. Messages with different lifetimes
+     * can expire out of order; those are skipped by browsers until they reach the head.
+     */
+    private void purgeExpired() {
+        if (!_expiring)
+            return;
+        long now = System.nanoTime();
+        while(!_messages.isEmpty() && _messages.peekFirst().isExpired(now)) {
+            _messages.pollFirst();
+        }
+    }
+
+    private final String _name;
+    private final boolean _lastValue;
+    private final String[] _topics;
+
+    private final ArrayDeque<InMemoryMessage> _messages = new ArrayDeque<InMemoryMessage>();
+    // Bind order; the first consumer is the active flow on the exclusive queue
+    private final List<InMemoryFlow> _consumers = new ArrayList<InMemoryFlow>();
+    private final List<InMemoryFlow> _browsers  = new ArrayList<InMemoryFlow>();
+    // Set once a message with a time-to-live has been spooled
+    private boolean _expiring;
+}
@@ -0,0 +1,173 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport against an in-process InMemoryBroker. Each transport owns a single context
+ * thread on which all of its session events, flow events and messages are dispatched,
+ * mirroring the threading model of a Solace context.
+ *
+ * Destroying the transport unbinds all of its flows, which is how a failed cluster
+ * member is emulated: any exclusive queue it was active on is handed to the next flow.
+ */
+public class InMemoryTransport implements Transport {
+
+    public InMemoryTransport(InMemoryBroker broker) {
+        _broker = broker;
+        _context = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "inmemory-context-" + _contextCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void destroy() {
+        List<InMemoryFlow> flows;
+        synchronized (_flows) {
+            flows = new ArrayList<InMemoryFlow>(_flows);
+            _flows.clear();
+        }
+        for(InMemoryFlow flow : flows) {
+            flow.destroy();
+        }
+        _connected = false;
+        _context.shutdownNow();
+    }
+
+    /**
+     * Connection parameters are ignored. Like a blocking Solace connect, this does not
+     * return until the UP event has been dispatched to the listener.
+     */
+    public void ConnectSession(String host, String vpn, String user, String pass, String clientName, final SessionListener listener) {
+        _connected = true;
+        Future<?> up = _context.submit(new Runnable() {
+            public void run() {
+                listener.onSessionEvent(SessionEventType.UP);
+            }
+        });
+        try {
+            up.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("Session event listener failed", e.getCause());
+        }
+    }
+
+    public TransportFlow BindQueue(String name, MessageListener msgListener, FlowListener flowListener) {
+        return bind(name, false, AckMode.AUTO, msgListener, flowListener);
+    }
+
+    public TransportFlow BindQueue(String name, AckMode ackMode, MessageListener msgListener, FlowListener flowListener) {
+        return bind(name, false, ackMode, msgListener, flowListener);
+    }
+
+    public TransportFlow BrowseQueue(String name, MessageListener msgListener, FlowListener flowListener) {
+        return bind(name, true, AckMode.AUTO, msgListener, flowListener);
+    }
+
+    public void SendOutput(ByteBuffer payload, String topic) {
+        SendOutput(payload, topic, UNTRACKED);
+    }
+
+    /**
+     * Publishing to the in-memory broker cannot fail once connected, so every message is
+     * accepted; the acceptance is reported on the context thread as a Solace ack would be.
+     */
+    public void SendOutput(ByteBuffer payload, String topic, long correlationId) {
+        if (!_connected)
+            throw new IllegalStateException("In-memory session is not connected");
+        payload.flip();
+        _broker.publish(topic, payload);
+        if (correlationId != UNTRACKED && _publishListener != null) {
+            synchronized (_accepted) {
+                _accepted.add(correlationId);
+            }
+            if (_acceptScheduled.compareAndSet(false, true))
+                execute(_acceptTask);
+        }
+    }
+
+    public void SendState(ByteBuffer payload, String topic, long timeToLiveMs) {
+        if (!_connected)
+            throw new IllegalStateException("In-memory session is not connected");
+        payload.flip();
+        _broker.publish(topic, payload, timeToLiveMs);
+    }
+
+    /**
+     * The in-memory broker does not lose messages, so this is an untracked SendOutput
+     */
+    public void SendDirect(ByteBuffer payload, String topic) {
+        if (!_connected)
+            throw new IllegalStateException("In-memory session is not connected");
+        payload.flip();
+        _broker.publish(topic, payload);
+    }
+
+    public void SetPublishListener(PublishListener listener) {
+        _publishListener = listener;
+    }
+
+    void execute(Runnable task) {
+        try {
+            _context.execute(task);
+        }
+        catch(RejectedExecutionException e) {
+            // The transport was destroyed; drop the task as a dead context would
+        }
+    }
+
+    private TransportFlow bind(String name, boolean browser, AckMode ackMode,
+                               MessageListener msgListener, FlowListener flowListener) {
+        if (!_connected)
+            throw new IllegalStateException("Failed to bind in-memory flow to " + name + "; session is not connected");
+        InMemoryFlow flow = _broker.bind(this, name, browser, ackMode, msgListener, flowListener);
+        synchronized (_flows) {
+            _flows.add(flow);
+        }
+        return flow;
+    }
+
+    private void dispatchAccepted() {
+        _acceptScheduled.set(false);
+        while(true) {
+            long correlationId;
+            synchronized (_accepted) {
+                if (_accepted.isEmpty())
+                    return;
+                correlationId = _accepted.poll();
+            }
+            _publishListener.onPublishAccepted(correlationId);
+        }
+    }
+
+    private static final long UNTRACKED = -1;
+    private static final AtomicInteger _contextCount = new AtomicInteger();
+
+    private final InMemoryBroker _broker;
+    private final ExecutorService _context;
+    private final List<InMemoryFlow> _flows = new ArrayList<InMemoryFlow>();
+    private volatile boolean _connected;
+
+    private volatile PublishListener _publishListener;
+    private final LongRing _accepted = new LongRing(256);
+    private final AtomicBoolean _acceptScheduled = new AtomicBoolean(false);
+    private final Runnable _acceptTask = new Runnable() {
+        public void run() { dispatchAccepted(); }
+    };
+}
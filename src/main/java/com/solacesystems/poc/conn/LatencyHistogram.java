@@ -0,0 +1,121 @@
+package com.solacesystems.poc.conn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram of latencies in nanoseconds, in the style of HdrHistogram:
+ * values below 64ns are counted exactly, larger ones in buckets of 32 per power of two, so
+ * any recorded value is reported to within about 3%. Recording is lock-free and allocation-free;
+ * percentiles are read from another thread and may be off by the values recorded meanwhile.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    /**
+     * @param nanos -- elapsed time; negative values are recorded as 0
+     */
+    public void Record(long nanos) {
+        long value = Math.max(0, nanos);
+        _counts.incrementAndGet(indexOf(value));
+        _count.incrementAndGet();
+        _total.addAndGet(value);
+        long max = _max.get();
+        while(value > max && !_max.compareAndSet(max, value)) {
+            max = _max.get();
+        }
+    }
+
+    /**
+     * Records the time since startNanos, a System.nanoTime() reading
+     */
+    public void RecordSince(long startNanos) {
+        Record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile, in nanoseconds
+     */
+    public long GetValueAtPercentile(double percentile) {
+        long count = _count.get();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for(int index = 0; index < BUCKETS; index++) {
+            seen += _counts.get(index);
+            if (seen >= rank)
+                return Math.min(upperBoundOf(index), _max.get());
+        }
+        return _max.get();
+    }
+
+    ////// LatencyHistogramMBean //////
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public double getMeanMicros() {
+        long count = _count.get();
+        return (count == 0) ? 0 : _total.get() / (count * 1000.0);
+    }
+
+    public double getP50Micros() {
+        return GetValueAtPercentile(50) / 1000.0;
+    }
+
+    public double getP90Micros() {
+        return GetValueAtPercentile(90) / 1000.0;
+    }
+
+    public double getP99Micros() {
+        return GetValueAtPercentile(99) / 1000.0;
+    }
+
+    public double getP999Micros() {
+        return GetValueAtPercentile(99.9) / 1000.0;
+    }
+
+    public double getMaxMicros() {
+        return _max.get() / 1000.0;
+    }
+
+    public void reset() {
+        for(int index = 0; index < BUCKETS; index++) {
+            _counts.set(index, 0);
+        }
+        _count.set(0);
+        _total.set(0);
+        _max.set(0);
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    static int indexOf(long value) {
+        if (value < EXACT)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < EXACT)
+            return index;
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long subBucket = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT = SUB_BUCKETS * 2;
+    // Shifts 1..58 cover every positive long
+    private static final int BUCKETS = EXACT + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+}
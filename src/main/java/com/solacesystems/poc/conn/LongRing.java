@@ -0,0 +1,46 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * Growable FIFO of primitive longs. Not thread-safe.
+ */
+class LongRing {
+    LongRing(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1;
+        _values = new long[capacity];
+    }
+
+    boolean isEmpty() {
+        return _head == _tail;
+    }
+
+    int size() {
+        return (int) (_tail - _head);
+    }
+
+    void add(long value) {
+        if (_tail - _head == _values.length)
+            grow();
+        _values[(int) (_tail++ & (_values.length - 1))] = value;
+    }
+
+    long poll() {
+        if (_head == _tail)
+            throw new IllegalStateException("LongRing is empty");
+        return _values[(int) (_head++ & (_values.length - 1))];
+    }
+
+    private void grow() {
+        long[] grown = new long[_values.length * 2];
+        int size = size();
+        for(int i = 0; i < size; i++) {
+            grown[i] = _values[(int) ((_head + i) & (_values.length - 1))];
+        }
+        _values = grown;
+        _head = 0;
+        _tail = size;
+    }
+
+    private long[] _values;
+    private long _head;
+    private long _tail;
+}
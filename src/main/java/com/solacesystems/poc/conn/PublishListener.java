@@ -0,0 +1,12 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * Notified, in publish order, when the broker accepts or rejects a message published
+ * with a correlation ID. Invoked on the transport's context thread, except that a message
+ * the transport failed to send at all is reported rejected on the sending thread.
+ */
+public interface PublishListener {
+    void onPublishAccepted(long correlationId);
+
+    void onPublishRejected(long correlationId);
+}
@@ -0,0 +1,76 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transport for replaying a journal of a cluster member's inputs. It raises no events of
+ * its own, since every event is replayed from the journal, and only counts what the member
+ * publishes, so a replay runs as fast as the member can process its inputs.
+ */
+public class ReplayTransport implements Transport {
+
+    public void ConnectSession(String host, String vpn, String user, String pass, String clientName, SessionListener listener) {
+    }
+
+    public TransportFlow BindQueue(String name, MessageListener msgListener, FlowListener flowListener) {
+        return FLOW;
+    }
+
+    public TransportFlow BindQueue(String name, AckMode ackMode, MessageListener msgListener, FlowListener flowListener) {
+        return FLOW;
+    }
+
+    public TransportFlow BrowseQueue(String name, MessageListener msgListener, FlowListener flowListener) {
+        return FLOW;
+    }
+
+    public void SendOutput(ByteBuffer payload, String topic) {
+        _outputs++;
+    }
+
+    public void SendOutput(ByteBuffer payload, String topic, long correlationId) {
+        _outputs++;
+    }
+
+    public void SetPublishListener(PublishListener listener) {
+    }
+
+    public void SendState(ByteBuffer payload, String topic, long timeToLiveMs) {
+        _stateMessages++;
+    }
+
+    public void SendDirect(ByteBuffer payload, String topic) {
+    }
+
+    public void destroy() {
+    }
+
+    /**
+     * @return outputs the member published during the replay
+     */
+    public long GetOutputs() {
+        return _outputs;
+    }
+
+    public long GetStateMessages() {
+        return _stateMessages;
+    }
+
+    private static final TransportFlow FLOW = new TransportFlow() {
+        public void start() {
+        }
+
+        public void stop() {
+        }
+
+        public void ack(long msgId) {
+        }
+
+        public void destroy() {
+        }
+    };
+
+    // Replays run on a single thread
+    private long _outputs;
+    private long _stateMessages;
+}
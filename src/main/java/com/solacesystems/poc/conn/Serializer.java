@@ -2,12 +2,29 @@ package com.solacesystems.poc.conn;
 
 import com.solacesystems.poc.ClientOrder;
 import com.solacesystems.poc.AppState;
+import com.solacesystems.poc.model.HAState;
+import com.solacesystems.poc.model.SeqState;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.Charset;
 
+/**
+ * Little-endian codecs for the application's messages and primitives.
+ *
+ * Orders and app states are framed by a header { schema(1), version(1), body length(2) }
+ * and their fields are variable-length: sequence IDs are varints, and quantities and
+ * prices are zigzag varints of 1/DECIMAL_SCALE units wherever that is exact, with a flag
+ * bit per field marking those sent as raw doubles instead. Fields are only ever added at
+ * the end of a body and never removed, so during a rolling upgrade an older reader decodes
+ * the fields it knows and skips the rest, and a newer reader finds the body ends before
+ * the fields an older writer did not send. EncodedSize gives a message's size before it
+ * is written, for sizing buffers; SERIALIZED_SIZE in each type is the largest there is.
+ *
+ * Version 2 appended the latency stamps: an order's send time, and an app state's order
+ * time followed by its received and published times as zigzag varint differences from
+ * the time before, which keeps them to a few bytes, and a byte holding the states.
+ */
 public class Serializer {
     public static ByteBuffer SerializeBool(ByteBuffer buffer, boolean b)
     {
@@ -54,58 +71,414 @@ public class Serializer {
     }
 
     public static ByteBuffer SerializeClientOrder(ByteBuffer buffer, ClientOrder o)
+    {
+        return SerializeClientOrder(buffer, o, _symbols);
+    }
+
+    /**
+     * Encodes the instrument through the given dictionary, e.g. a gateway's published one
+     */
+    public static ByteBuffer SerializeClientOrder(ByteBuffer buffer, ClientOrder o, SymbolDictionary symbols)
     {
         buffer.clear();
-        internalSerializeInt(buffer, o.getSequenceId());
-        internalSerializeBool(buffer, o.isBuy());
-        internalSerializeDouble(buffer, o.getQuantity());
-        internalSerializeDouble(buffer, o.getPrice());
-        internalSerializeString(buffer, o.getInstrument());
-        return buffer;
+        return internalSerializeClientOrder(buffer, o, symbols);
+    }
+    /**
+     * Reads the sequence ID of a serialized order without decoding the rest; the buffer is
+     * left in its written state.
+     */
+    public static long PeekClientOrderSequenceId(ByteBuffer data)
+    {
+        return varLongAt(data.order(ByteOrder.LITTLE_ENDIAN), HEADER_SIZE + 1);
+    }
 
+    /**
+     * Learns the symbol definition a serialized order may carry without decoding the rest,
+     * so inputs skipped undecoded still define their symbols; the buffer is left in its
+     * written state.
+     */
+    public static void LearnClientOrderSymbol(ByteBuffer data)
+    {
+        LearnClientOrderSymbol(data, _symbols);
     }
+
+    public static void LearnClientOrderSymbol(ByteBuffer data, SymbolDictionary symbols)
+    {
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        int index = HEADER_SIZE;
+        byte flags = data.get(index++);
+        index += varLongLength(data, index);
+        index += ((flags & RAW_QUANTITY) != 0) ? 8 : varLongLength(data, index);
+        index += ((flags & RAW_PRICE) != 0) ? 8 : varLongLength(data, index);
+        if (unzigzag(varLongAt(data, index)) > FIRST_DEFINITION)
+            return;
+        ByteBuffer definition = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        definition.flip();
+        definition.position(index);
+        internalDeserializeSymbol(definition, symbols);
+    }
+
+    /**
+     * @return the dictionary used where none is given; it is never published, so orders
+     * encoded with it always carry their instrument's definition
+     */
+    public static SymbolDictionary GetSymbols()
+    {
+        return _symbols;
+    }
+
     public static ClientOrder DeserializeClientOrder(ByteBuffer data)
+    {
+        return DeserializeClientOrder(data, new ClientOrder(0));
+    }
+
+    /**
+     * Decodes into an existing order so a reader can reuse one instance per message;
+     * allocation-free once the instrument has been seen.
+     */
+    public static ClientOrder DeserializeClientOrder(ByteBuffer data, ClientOrder order)
+    {
+        return DeserializeClientOrder(data, order, _symbols);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the instrument is an ID the dictionary does not
+     * know, or a definition that conflicts with it
+     */
+    public static ClientOrder DeserializeClientOrder(ByteBuffer data, ClientOrder order, SymbolDictionary symbols)
     {
         data.flip();
-        ClientOrder order = new ClientOrder(internalDeserializeInt(data));
-        order.setIsBuy(internalDeserializeBool(data));
-        order.setQuantity(internalDeserializeDouble(data));
-        order.setPrice(internalDeserializeDouble(data));
-        try {
-            order.setInstrument(internalDeserializeString(data));
-        }
-        catch(UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        return order;
+        return internalDeserializeClientOrder(data, order, symbols);
     }
 
     public static ByteBuffer SerializeAppState(ByteBuffer buffer, AppState o)
     {
         buffer.clear();
-        internalSerializeInt(buffer, o.getSequenceId());
-        internalSerializeString(buffer, o.getInstrument());
-        return buffer;
-
+        return internalSerializeAppState(buffer, o);
     }
     public static AppState DeserializeAppState(ByteBuffer data)
+    {
+        return DeserializeAppState(data, new AppState(null));
+    }
+
+    /**
+     * Decodes into an existing state object; allocation-free once the instrument has been seen.
+     */
+    public static AppState DeserializeAppState(ByteBuffer data, AppState state)
     {
         data.flip();
-        try {
-            int seqId = internalDeserializeInt(data);
-            AppState state = new AppState(internalDeserializeString(data));
-            state.setSequenceId(seqId);
-            return state;
-        }
-        catch(UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return internalDeserializeAppState(data, state);
+    }
+
+    /**
+     * @return the bytes SerializeClientOrder writes for the order, at most ClientOrder.SERIALIZED_SIZE
+     */
+    public static int EncodedSize(ClientOrder o)
+    {
+        return EncodedSize(o, _symbols);
+    }
+
+    public static int EncodedSize(ClientOrder o, SymbolDictionary symbols)
+    {
+        return HEADER_SIZE + 1 + varLongSize(o.getSequenceId())
+                + decimalSize(o.getQuantity()) + decimalSize(o.getPrice())
+                + symbolSize(o.getInstrument(), symbols) + varLongSize(o.getSendTime());
     }
 
+    /**
+     * @return the bytes SerializeAppState writes for the state, at most AppState.SERIALIZED_SIZE
+     */
+    public static int EncodedSize(AppState o)
+    {
+        return HEADER_SIZE + 1 + varLongSize(o.getSequenceId())
+                + decimalSize(o.getFilledQuantity()) + decimalSize(o.getOpenQuantity())
+                + decimalSize(o.getBestBid()) + decimalSize(o.getBestAsk())
+                + symbolSize(o.getInstrument(), null) + varLongSize(o.getOrderTime())
+                + varLongSize(zigzag(o.getReceivedTime() - o.getOrderTime()))
+                + varLongSize(zigzag(o.getPublishedTime() - o.getReceivedTime())) + 1;
+    }
+
+    /**
+     * Writes the state at the buffer's position, for embedding in a larger message such as
+     * a snapshot. As in every app state, the instrument is written in full, so other
+     * processes can read it whatever symbols they have seen.
+     */
+    public static ByteBuffer AppendAppState(ByteBuffer buffer, AppState o)
+    {
+        return internalSerializeAppState(buffer, o);
+    }
+
+    /**
+     * Reads a state written by AppendAppState from the buffer's position
+     */
+    public static AppState ReadAppState(ByteBuffer data, AppState state)
+    {
+        return internalDeserializeAppState(data, state);
+    }
+
+    /**
+     * Writes the order at the buffer's position, for embedding in a larger message such as
+     * a delta; the instrument is written in full, as in AppendAppState.
+     */
+    public static ByteBuffer AppendClientOrder(ByteBuffer buffer, ClientOrder o)
+    {
+        return internalSerializeClientOrder(buffer, o, null);
+    }
+
+    /**
+     * Reads an order written by AppendClientOrder from the buffer's position
+     */
+    public static ClientOrder ReadClientOrder(ByteBuffer data, ClientOrder order)
+    {
+        return internalDeserializeClientOrder(data, order, null);
+    }
+
+    /**
+     * Writes a length-prefixed string at the buffer's position
+     */
+    public static ByteBuffer AppendString(ByteBuffer buffer, String s)
+    {
+        return internalSerializeString(buffer, s);
+    }
+
+    /**
+     * Reads a string written by AppendString from the buffer's position
+     */
+    public static String ReadString(ByteBuffer data)
+    {
+        return internalDeserializeString(data);
+    }
+
+    ////// Wire format //////
+
+    public static final byte CLIENT_ORDER_SCHEMA = 1;
+    public static final byte APP_STATE_SCHEMA = 2;
+    /**
+     * Raised when fields are appended to a schema
+     */
+    public static final byte WIRE_VERSION = 2;
+    public static final int HEADER_SIZE = 4;
+    /**
+     * Quantities and prices that are whole multiples of 1/DECIMAL_SCALE travel as varints
+     */
+    public static final int DECIMAL_SCALE = 10000;
+
     ////////////////////////////////////////////////////////////
     ///////////////        INTERNAL METHODS      ///////////////
     ////////////////////////////////////////////////////////////
+    // Orders refer to the instrument through the symbol dictionary; without one, as in embedded copies, they spell it out
+    private static ByteBuffer internalSerializeClientOrder(ByteBuffer buffer, ClientOrder o, SymbolDictionary symbols)
+    {
+        int start = startMessage(buffer, CLIENT_ORDER_SCHEMA);
+        byte flags = (byte) ((o.isBuy() ? BUY : 0)
+                | rawFlag(o.getQuantity(), RAW_QUANTITY)
+                | rawFlag(o.getPrice(), RAW_PRICE));
+        buffer.put(flags);
+        putVarLong(buffer, o.getSequenceId());
+        putDecimal(buffer, o.getQuantity(), (flags & RAW_QUANTITY) != 0);
+        putDecimal(buffer, o.getPrice(), (flags & RAW_PRICE) != 0);
+        internalSerializeSymbol(buffer, o.getInstrument(), symbols);
+        putVarLong(buffer, o.getSendTime());
+        return endMessage(buffer, start);
+    }
+    private static ClientOrder internalDeserializeClientOrder(ByteBuffer data, ClientOrder order, SymbolDictionary symbols)
+    {
+        int end = readHeader(data, CLIENT_ORDER_SCHEMA);
+        byte flags = data.get();
+        order.setIsBuy((flags & BUY) != 0);
+        order.setSequenceId(getVarLong(data));
+        order.setQuantity(getDecimal(data, (flags & RAW_QUANTITY) != 0));
+        order.setPrice(getDecimal(data, (flags & RAW_PRICE) != 0));
+        order.setInstrument(internalDeserializeSymbol(data, symbols));
+        // Not sent before version 2
+        order.setSendTime((data.position() < end) ? getVarLong(data) : 0);
+        // Skip fields appended by newer versions
+        data.position(end);
+        return order;
+    }
+
+    // App states are read by processes that load no dictionary, such as LVQ readers and sinks
+    private static ByteBuffer internalSerializeAppState(ByteBuffer buffer, AppState o)
+    {
+        int start = startMessage(buffer, APP_STATE_SCHEMA);
+        byte flags = (byte) (rawFlag(o.getFilledQuantity(), RAW_FILLED)
+                | rawFlag(o.getOpenQuantity(), RAW_OPEN)
+                | rawFlag(o.getBestBid(), RAW_BID)
+                | rawFlag(o.getBestAsk(), RAW_ASK));
+        buffer.put(flags);
+        putVarLong(buffer, o.getSequenceId());
+        putDecimal(buffer, o.getFilledQuantity(), (flags & RAW_FILLED) != 0);
+        putDecimal(buffer, o.getOpenQuantity(), (flags & RAW_OPEN) != 0);
+        putDecimal(buffer, o.getBestBid(), (flags & RAW_BID) != 0);
+        putDecimal(buffer, o.getBestAsk(), (flags & RAW_ASK) != 0);
+        internalSerializeSymbol(buffer, o.getInstrument(), null);
+        putVarLong(buffer, o.getOrderTime());
+        putVarLong(buffer, zigzag(o.getReceivedTime() - o.getOrderTime()));
+        putVarLong(buffer, zigzag(o.getPublishedTime() - o.getReceivedTime()));
+        buffer.put((byte) (stateCode(o.getHAState()) | stateCode(o.getSeqState()) << 4));
+        return endMessage(buffer, start);
+    }
+    private static AppState internalDeserializeAppState(ByteBuffer data, AppState state)
+    {
+        int end = readHeader(data, APP_STATE_SCHEMA);
+        byte flags = data.get();
+        state.setSequenceId(getVarLong(data));
+        state.setFilledQuantity(getDecimal(data, (flags & RAW_FILLED) != 0));
+        state.setOpenQuantity(getDecimal(data, (flags & RAW_OPEN) != 0));
+        state.setBestBid(getDecimal(data, (flags & RAW_BID) != 0));
+        state.setBestAsk(getDecimal(data, (flags & RAW_ASK) != 0));
+        state.setInstrument(internalDeserializeSymbol(data, null));
+        if (data.position() < end) {
+            long orderTime = getVarLong(data);
+            long receivedTime = orderTime + unzigzag(getVarLong(data));
+            state.setOrderTime(orderTime);
+            state.setReceivedTime(receivedTime);
+            state.setPublishedTime(receivedTime + unzigzag(getVarLong(data)));
+            byte states = data.get();
+            state.setHAState(fromStateCode(HA_STATES, states & 0x0F));
+            state.setSeqState(fromStateCode(SEQ_STATES, (states >> 4) & 0x0F));
+        }
+        else {
+            // Not sent before version 2
+            state.setOrderTime(0);
+            state.setLatencyStamps(0, 0, null, null);
+        }
+        data.position(end);
+        return state;
+    }
+
+    ////// Framing //////
+
+    // Writes the header with the body length left to endMessage
+    private static int startMessage(ByteBuffer buffer, byte schema)
+    {
+        int start = buffer.position();
+        buffer.order(ByteOrder.LITTLE_ENDIAN)
+                .put(schema)
+                .put(WIRE_VERSION)
+                .putShort((short) 0);
+        return start;
+    }
+    private static ByteBuffer endMessage(ByteBuffer buffer, int start)
+    {
+        buffer.putShort(start + 2, (short) (buffer.position() - start - HEADER_SIZE));
+        return buffer;
+    }
+
+    /**
+     * Checks the schema; any version is readable
+     *
+     * @return the position where the body ends
+     */
+    private static int readHeader(ByteBuffer data, byte schema)
+    {
+        byte actual = data.order(ByteOrder.LITTLE_ENDIAN).get();
+        if (actual != schema)
+            throw new IllegalArgumentException("Expected a message of schema " + schema + " but got " + actual);
+        data.get();
+        int length = data.getShort() & 0xFFFF;
+        if (length > data.remaining())
+            throw new IllegalArgumentException("Message body of " + length + " bytes is truncated to " + data.remaining());
+        return data.position() + length;
+    }
+
+    ////// Varints //////
+
+    private static void putVarLong(ByteBuffer buffer, long v)
+    {
+        while((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+    private static long getVarLong(ByteBuffer data)
+    {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = data.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+    private static long varLongAt(ByteBuffer data, int index)
+    {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = data.get(index++);
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+    private static int varLongLength(ByteBuffer data, int index)
+    {
+        int length = 1;
+        while(data.get(index++) < 0) {
+            length++;
+        }
+        return length;
+    }
+    private static int varLongSize(long v)
+    {
+        return (63 - Long.numberOfLeadingZeros(v | 1)) / 7 + 1;
+    }
+
+    private static long zigzag(long v)
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+    private static long unzigzag(long v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    ////// Decimals //////
+
+    private static boolean isShortDecimal(double d)
+    {
+        // Also false for NaN
+        if (!(Math.abs(d) < MAX_SHORT_DECIMAL))
+            return false;
+        return Math.round(d * DECIMAL_SCALE) / (double) DECIMAL_SCALE == d;
+    }
+    private static int rawFlag(double d, int flag)
+    {
+        return isShortDecimal(d) ? 0 : flag;
+    }
+    private static int decimalSize(double d)
+    {
+        return isShortDecimal(d) ? varLongSize(zigzag(Math.round(d * DECIMAL_SCALE))) : 8;
+    }
+    private static void putDecimal(ByteBuffer buffer, double d, boolean raw)
+    {
+        if (raw)
+            buffer.putDouble(d);
+        else
+            putVarLong(buffer, zigzag(Math.round(d * DECIMAL_SCALE)));
+    }
+    private static double getDecimal(ByteBuffer data, boolean raw)
+    {
+        return raw ? data.getDouble() : unzigzag(getVarLong(data)) / (double) DECIMAL_SCALE;
+    }
+
+    ////// States //////
+
+    // The ordinal plus one; 0 for none
+    private static int stateCode(Enum<?> state)
+    {
+        return (state == null) ? 0 : state.ordinal() + 1;
+    }
+    private static <E> E fromStateCode(E[] states, int code)
+    {
+        return (code == 0 || code > states.length) ? null : states[code - 1];
+    }
+
+    ////// Primitives //////
+
     public static ByteBuffer internalSerializeBool(ByteBuffer buffer, boolean b)
     {
         return internalSerializeByte(buffer, (byte) (b ? 0x01 : 0x00));
@@ -155,21 +528,121 @@ public class Serializer {
     private static ByteBuffer internalSerializeString(ByteBuffer buffer, String s) {
         if (s == null)
             return buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(0);
-        byte[] bytes = s.getBytes(Charset.forName("UTF-8"));
+        byte[] bytes = _strings.encode(s);
         buffer.order(ByteOrder.LITTLE_ENDIAN)
                 .putInt(bytes.length)
                 .put(bytes);
         return buffer;
     }
-    private static String internalDeserializeString(ByteBuffer data) throws UnsupportedEncodingException {
+    private static String internalDeserializeString(ByteBuffer data) {
         int len =  data
                 .order(ByteOrder.LITTLE_ENDIAN)
                 .getInt();
         if (len == 0)
             return null;
-        byte[] sbytes = new byte[len];
-        data.get(sbytes);
-        return new String(sbytes, "UTF-8");
+        return _strings.decode(data, len);
+    }
+
+    ////// Symbols //////
+
+    /**
+     * Instruments go over the wire as a zigzag varint symbol reference: the ID of a symbol
+     * in the dictionary; or FIRST_DEFINITION - ID followed by the name, defining the ID; or
+     * a marker for no instrument or for a name sent in full, either because there is no
+     * dictionary or because it is full. Names are a varint length and UTF-8 bytes.
+     */
+    private static void internalSerializeSymbol(ByteBuffer buffer, String s, SymbolDictionary symbols) {
+        if (s == null) {
+            putVarLong(buffer, zigzag(NO_SYMBOL));
+            return;
+        }
+        int id = (symbols == null) ? SymbolDictionary.NO_ID : symbols.Register(s);
+        if (id == SymbolDictionary.NO_ID) {
+            putVarLong(buffer, zigzag(INLINE_SYMBOL));
+            putName(buffer, s);
+        }
+        else if (!symbols.define(id)) {
+            putVarLong(buffer, zigzag(id));
+        }
+        else {
+            putVarLong(buffer, zigzag(FIRST_DEFINITION - id));
+            putName(buffer, s);
+        }
+    }
+    // Without a dictionary only names in full can be read
+    private static String internalDeserializeSymbol(ByteBuffer data, SymbolDictionary symbols) {
+        long ref = unzigzag(getVarLong(data));
+        if (ref == NO_SYMBOL)
+            return null;
+        if (ref >= 0) {
+            String s = (symbols == null) ? null : symbols.GetSymbol((int) ref);
+            if (s == null)
+                throw new IllegalArgumentException("Unknown symbol ID " + ref);
+            return s;
+        }
+        String s = getName(data);
+        if (ref == INLINE_SYMBOL || symbols == null)
+            return s;
+        int id = (int) (FIRST_DEFINITION - ref);
+        String bound = symbols.GetSymbol(id);
+        if (bound == null) {
+            symbols.Define(id, s);
+            return s;
+        }
+        if (!bound.equals(s))
+            throw new IllegalArgumentException("Symbol ID " + id + " is bound to " + bound + ", not " + s);
+        return bound;
     }
 
+    // Counts the name unless the ID goes bare, since serializing may define it
+    private static int symbolSize(String s, SymbolDictionary symbols) {
+        if (s == null)
+            return 1;
+        int id = (symbols == null) ? SymbolDictionary.NO_ID : symbols.GetId(s);
+        if (id != SymbolDictionary.NO_ID && symbols.bare(id))
+            return varLongSize(zigzag(id));
+        int ref = (symbols == null) ? varLongSize(zigzag(INLINE_SYMBOL))
+                : (id == SymbolDictionary.NO_ID) ? MAX_SYMBOL_REF_SIZE : varLongSize(zigzag(FIRST_DEFINITION - id));
+        int len = _strings.encode(s).length;
+        return ref + varLongSize(len) + len;
+    }
+
+    private static void putName(ByteBuffer buffer, String s) {
+        byte[] bytes = _strings.encode(s);
+        if (bytes.length > SymbolDictionary.MAX_SYMBOL_SIZE)
+            throw new IllegalArgumentException("Instrument " + s + " is longer than " + SymbolDictionary.MAX_SYMBOL_SIZE + " bytes");
+        putVarLong(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+    private static String getName(ByteBuffer data) {
+        long len = getVarLong(data);
+        if (len > SymbolDictionary.MAX_SYMBOL_SIZE)
+            throw new IllegalArgumentException("Instrument of " + len + " bytes is longer than " + SymbolDictionary.MAX_SYMBOL_SIZE);
+        return _strings.decode(data, (int) len);
+    }
+
+    // Order flags
+    private static final int BUY = 0x01;
+    private static final int RAW_QUANTITY = 0x02;
+    private static final int RAW_PRICE = 0x04;
+    // App state flags
+    private static final int RAW_FILLED = 0x01;
+    private static final int RAW_OPEN = 0x02;
+    private static final int RAW_BID = 0x04;
+    private static final int RAW_ASK = 0x08;
+    private static final HAState[] HA_STATES = HAState.values();
+    private static final SeqState[] SEQ_STATES = SeqState.values();
+    // Keeps a short decimal's varint within the 8 bytes of a raw double
+    private static final double MAX_SHORT_DECIMAL = 1e12;
+
+    private static final long NO_SYMBOL = -1;
+    private static final long INLINE_SYMBOL = -2;
+    private static final long FIRST_DEFINITION = -3;
+    // A definition of the largest possible ID
+    private static final int MAX_SYMBOL_REF_SIZE = 5;
+
+    // Instrument names are a small, stable set; cache their encodings
+    private static final StringCache _strings = new StringCache(1024);
+    private static final SymbolDictionary _symbols = new SymbolDictionary(SymbolDictionary.DEFAULT_CAPACITY);
+
 }
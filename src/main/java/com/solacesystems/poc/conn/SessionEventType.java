@@ -0,0 +1,12 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * Transport-neutral session events raised to a SessionListener
+ */
+public enum SessionEventType {
+    UP,
+    DOWN,
+    RECONNECTING,
+    RECONNECTED,
+    OTHER
+}
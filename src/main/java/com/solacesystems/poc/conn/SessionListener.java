@@ -0,0 +1,5 @@
+package com.solacesystems.poc.conn;
+
+public interface SessionListener {
+    void onSessionEvent(SessionEventType event);
+}
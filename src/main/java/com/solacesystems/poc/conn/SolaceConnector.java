@@ -5,10 +5,44 @@ import com.solacesystems.solclientj.core.event.*;
 import com.solacesystems.solclientj.core.handle.*;
 import com.solacesystems.solclientj.core.resource.*;
 
+import javax.management.ObjectName;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
-public class SolaceConnector {
+/**
+ * Transport against a Solace appliance via solclientj.
+ *
+ * Publishing reuses one Topic per topic string. By default every SendOutput is sent
+ * immediately; SetBatchMode switches to accumulating output in a set of preallocated
+ * messages that are sent with one multi-message send when the batch is full, when a send
+ * finds the oldest batched message older than the delay bound, or when the background
+ * flusher finds the batch idle past that bound.
+ *
+ * Every persistent send carries a correlation key, taken from a pool so none is allocated
+ * per message, that holds the caller's correlation ID; the session's ACKNOWLEDGEMENT /
+ * REJECTED_MSG_ERROR events return the key, so each result is matched to its own message
+ * rather than by position. A send the session refuses, in whole or for some messages of a
+ * batch, releases those keys and reports them as rejected on the sending thread.
+ *
+ * Each flow copies the payload of a received message once, into a direct buffer it keeps,
+ * where readers decode it in place (see DirectMessage). Payloads to send should be direct
+ * buffers too, as the pipeline's and SampleAppSerializer's are, so the JNI layer reads them
+ * in place instead of copying a heap array.
+ *
+ * The appliance does not report the end of a browse, so a started browser flow raises
+ * BROWSE_COMPLETE once no message has arrived for the browse idle timeout, on a timer thread.
+ *
+ * The time spent in each session send, and from queueing each persistent message to the
+ * appliance's ack, are kept in histograms registered as MBeans under the session's client name.
+ */
+public class SolaceConnector implements Transport {
 
     public SolaceConnector() throws IllegalStateException {
         int rc = Solclient.init(new String[0]);
@@ -22,15 +56,39 @@ public class SolaceConnector {
         if (rc != SolEnum.ReturnCode.OK)
             throw new IllegalStateException("Failed to allocate Solace message handle");
         _outmsg.setMessageDeliveryMode(SolEnum.MessageDeliveryMode.PERSISTENT);
+        rc = Solclient.createMessageForHandle(_statemsg);
+        if (rc != SolEnum.ReturnCode.OK)
+            throw new IllegalStateException("Failed to allocate Solace message handle");
+        _statemsg.setMessageDeliveryMode(SolEnum.MessageDeliveryMode.PERSISTENT);
+        rc = Solclient.createMessageForHandle(_directmsg);
+        if (rc != SolEnum.ReturnCode.OK)
+            throw new IllegalStateException("Failed to allocate Solace message handle");
+        _directmsg.setMessageDeliveryMode(SolEnum.MessageDeliveryMode.DIRECT);
     }
 
     public void destroy() {
+        synchronized (_sendLock) {
+            flushBatch();
+            if (_flusher != null)
+                _flusher.shutdownNow();
+            if (_browseTimer != null)
+                _browseTimer.shutdownNow();
+            if (_batch != null) {
+                for(MessageHandle msg : _batch) {
+                    Helper.destroyHandle(msg);
+                }
+            }
+        }
+        Helper.unregisterMBean(_sendLatencyName);
+        Helper.unregisterMBean(_ackLatencyName);
         Helper.destroyHandle(_outmsg);
+        Helper.destroyHandle(_statemsg);
+        Helper.destroyHandle(_directmsg);
         Helper.destroyHandle(_sess);
         Helper.destroyHandle(_ctx);
     }
 
-    public void ConnectSession(String host, String vpn, String user, String pass, String clientName, SessionEventCallback eventHandler) throws SolclientException {
+    public void ConnectSession(String host, String vpn, String user, String pass, String clientName, final SessionListener listener) throws SolclientException {
 
         final String[] props = new String[20];
         int i = 0;
@@ -49,32 +107,55 @@ public class SolaceConnector {
             public void onMessage(Handle handle) {
                 System.out.println("MAYDAY! SHOULD NOT BE ANY DIRECT MESSAGES!");
             }
-        }, eventHandler);
+        }, new SessionEventCallback() {
+            public void onEvent(SessionHandle sessionHandle) {
+                SessionEvent event = sessionHandle.getSessionEvent();
+                switch(event.getSessionEventCode()) {
+                    case SolEnum.SessionEventCode.ACKNOWLEDGEMENT:
+                        onPublishResult(event.getCorrelationKey(), true);
+                        return;
+                    case SolEnum.SessionEventCode.REJECTED_MSG_ERROR:
+                        onPublishResult(event.getCorrelationKey(), false);
+                        break;
+                    default:
+                        break;
+                }
+                listener.onSessionEvent(toSessionEventType(event));
+            }
+        });
         if (rc != SolEnum.ReturnCode.OK)
             throw new IllegalStateException("Failed to create Solace session handle");
+        _sendLatencyName = Helper.registerMBean(_sendLatency, "type=Latency,client=" + clientName + ",stage=sessionSend");
+        _ackLatencyName  = Helper.registerMBean(_ackLatency, "type=Latency,client=" + clientName + ",stage=publishAck");
         _sess.connect();
     }
 
-    public FlowHandle BindQueue(String name, MessageCallback msgHandler, FlowEventCallback flowEventHandler) {
+    public TransportFlow BindQueue(String name, MessageListener msgListener, FlowListener flowListener) {
+        return BindQueue(name, AckMode.AUTO, msgListener, flowListener);
+    }
+
+    public TransportFlow BindQueue(String name, AckMode ackMode, MessageListener msgListener, FlowListener flowListener) {
         int i = 0;
         String[] props = new String[8];
 
         props[i++] = FlowHandle.PROPERTIES.BIND_BLOCKING;  props[i++] = SolEnum.BooleanValue.ENABLE;
-        props[i++] = FlowHandle.PROPERTIES.ACKMODE;        props[i++] = SolEnum.AckMode.AUTO;
+        props[i++] = FlowHandle.PROPERTIES.ACKMODE;
+        props[i++] = (ackMode == AckMode.CLIENT) ? SolEnum.AckMode.CLIENT : SolEnum.AckMode.AUTO;
         props[i++] = FlowHandle.PROPERTIES.ACTIVE_FLOW_IND;props[i++] = SolEnum.BooleanValue.ENABLE;
         props[i++] = FlowHandle.PROPERTIES.START_STATE;    props[i]   = SolEnum.BooleanValue.DISABLE;
 
         Queue queue = Solclient.Allocator.newQueue(name, null);
 
         FlowHandle flowHandle = Solclient.Allocator.newFlowHandle();
-        int rc = _sess.createFlowForHandle(flowHandle, props, queue, null, msgHandler, flowEventHandler);
+        int rc = _sess.createFlowForHandle(flowHandle, props, queue, null,
+                newMessageCallback(msgListener), newFlowEventCallback(flowListener));
         if (rc != SolEnum.ReturnCode.OK)
             throw new IllegalStateException("Failed to create Solace queue binding flow handle");
 
-        return flowHandle;
+        return new SolaceFlow(flowHandle);
     }
 
-    public FlowHandle BrowseQueue(String name, MessageCallback msgHandler, FlowEventCallback flowEventHandler) {
+    public TransportFlow BrowseQueue(String name, MessageListener msgListener, FlowListener flowListener) {
         int i = 0;
         String[] props = new String[10];
         props[i++] = FlowHandle.PROPERTIES.BIND_BLOCKING;  props[i++] = SolEnum.BooleanValue.ENABLE;
@@ -86,23 +167,504 @@ public class SolaceConnector {
         Queue queue = Solclient.Allocator.newQueue(name, null);
 
         FlowHandle flowHandle = Solclient.Allocator.newFlowHandle();
-        int rc = _sess.createFlowForHandle(flowHandle, props, queue, null, msgHandler, flowEventHandler);
+        final SolaceBrowser browser = new SolaceBrowser(flowHandle, flowListener, browseTimer(), _browseIdleNanos);
+        final MessageListener listener = msgListener;
+        int rc = _sess.createFlowForHandle(flowHandle, props, queue, null,
+                newMessageCallback(new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        browser.Touch();
+                        listener.onMessage(msg);
+                        browser.Touch();
+                    }
+                }),
+                newFlowEventCallback(flowListener));
         if (rc != SolEnum.ReturnCode.OK)
             throw new IllegalStateException("Failed to create Solace queue browser flow handle");
 
-        return flowHandle;
+        return browser;
+    }
+
+    /**
+     * Sets how long a started browser waits for a message before reporting the end of the
+     * browse; it must exceed the round trip to the appliance, or a message still on its way
+     * is taken for an empty queue. Applies to browsers created afterwards.
+     */
+    public void SetBrowseIdleTimeout(long idleMs) {
+        if (idleMs < 1)
+            throw new IllegalArgumentException("The browse idle timeout must be positive");
+        _browseIdleNanos = TimeUnit.MILLISECONDS.toNanos(idleMs);
+    }
+
+    /**
+     * Enables batched publishing. A batch size of 1 restores immediate sends.
+     *
+     * @param maxBatchSize -- messages per multi-message send
+     * @param maxDelayMicros -- longest a message may wait in a partial batch
+     */
+    public void SetBatchMode(int maxBatchSize, long maxDelayMicros) {
+        if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE || maxDelayMicros < 1)
+            throw new IllegalArgumentException("Batch size must be 1.." + MAX_BATCH_SIZE + " and delay positive");
+        synchronized (_sendLock) {
+            flushBatch();
+            if (_batch != null) {
+                for(MessageHandle msg : _batch) {
+                    Helper.destroyHandle(msg);
+                }
+                _batch = null;
+            }
+            if (_flusher != null) {
+                _flusher.shutdownNow();
+                _flusher = null;
+            }
+            _maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+            if (maxBatchSize == 1)
+                return;
+
+            _batch = new MessageHandle[maxBatchSize];
+            for(int i = 0; i < maxBatchSize; i++) {
+                _batch[i] = Solclient.Allocator.newMessageHandle();
+                int rc = Solclient.createMessageForHandle(_batch[i]);
+                if (rc != SolEnum.ReturnCode.OK)
+                    throw new IllegalStateException("Failed to allocate Solace batch message handle");
+                _batch[i].setMessageDeliveryMode(SolEnum.MessageDeliveryMode.PERSISTENT);
+            }
+            _flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "solace-batch-flusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            _flusher.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    synchronized (_sendLock) {
+                        if (_batchCount > 0 && System.nanoTime() - _batchStartNanos >= _maxDelayNanos)
+                            flushBatch();
+                    }
+                }
+            }, maxDelayMicros, maxDelayMicros, TimeUnit.MICROSECONDS);
+        }
     }
 
     public void SendOutput(ByteBuffer payload, String sendTopic) {
+        SendOutput(payload, sendTopic, UNTRACKED);
+    }
+
+    public void SendOutput(ByteBuffer payload, String sendTopic, long correlationId) {
         payload.flip();
-        _outmsg.setBinaryAttachment(payload);
-        _outmsg.setDestination(Solclient.Allocator.newTopic(sendTopic));
-        //System.out.println("Sending msg to next stage on topic: " + _outmsg.getDestination().getName());
-        _sess.send(_outmsg);
+        synchronized (_sendLock) {
+            // Taken before the send so the ack can never overtake it
+            long now = System.nanoTime();
+            PendingSend pending = acquire(correlationId, now);
+            if (_batch == null) {
+                _outmsg.setBinaryAttachment(payload);
+                _outmsg.setDestination(lookupTopic(sendTopic));
+                _outmsg.setCorrelationKey(pending);
+                int rc = _sess.send(_outmsg);
+                _sendLatency.RecordSince(now);
+                if (rc != SolEnum.ReturnCode.OK)
+                    sendFailed(pending);
+                return;
+            }
+            if (_batchCount == 0)
+                _batchStartNanos = now;
+            _batchPending[_batchCount] = pending;
+            MessageHandle msg = _batch[_batchCount++];
+            msg.setBinaryAttachment(payload);
+            msg.setDestination(lookupTopic(sendTopic));
+            msg.setCorrelationKey(pending);
+            if (_batchCount == _batch.length || System.nanoTime() - _batchStartNanos >= _maxDelayNanos)
+                flushBatch();
+        }
+    }
+
+    /**
+     * Sent immediately on its own message, after flushing any batched output
+     */
+    public void SendState(ByteBuffer payload, String sendTopic, long timeToLiveMs) {
+        payload.flip();
+        synchronized (_sendLock) {
+            flushBatch();
+            long now = System.nanoTime();
+            PendingSend pending = acquire(UNTRACKED, now);
+            _statemsg.setBinaryAttachment(payload);
+            _statemsg.setDestination(lookupTopic(sendTopic));
+            _statemsg.setTimeToLive(timeToLiveMs);
+            _statemsg.setCorrelationKey(pending);
+            int rc = _sess.send(_statemsg);
+            _sendLatency.RecordSince(now);
+            if (rc != SolEnum.ReturnCode.OK)
+                sendFailed(pending);
+        }
     }
 
+    /**
+     * Direct messages are never acked, so nothing is queued for the session events; they
+     * may overtake batched persistent output. A send the session refuses is dropped and
+     * counted, and the first is logged.
+     */
+    public void SendDirect(ByteBuffer payload, String sendTopic) {
+        payload.flip();
+        synchronized (_sendLock) {
+            _directmsg.setBinaryAttachment(payload);
+            _directmsg.setDestination(lookupTopic(sendTopic));
+            int rc = _sess.send(_directmsg);
+            if (rc != SolEnum.ReturnCode.OK && _directSendFailures++ == 0)
+                System.out.println("Direct send to " + sendTopic + " failed: rc=" + rc);
+        }
+    }
+
+    public void SetPublishListener(PublishListener listener) {
+        _publishListener = listener;
+    }
+
+    /**
+     * @return time spent in each session send, single or batched
+     */
+    public LatencyHistogram GetSendLatency() {
+        return _sendLatency;
+    }
+
+    /**
+     * @return time from queueing a persistent message to the appliance acking or rejecting it
+     */
+    public LatencyHistogram GetPublishAckLatency() {
+        return _ackLatency;
+    }
+
+    /**
+     * @return direct messages, such as monitor updates, the session refused to send
+     */
+    public long GetDirectSendFailures() {
+        return _directSendFailures;
+    }
+
+    ////////////////////////////////////////////////////////////
+    ///////////////        INTERNAL METHODS      ///////////////
+    ////////////////////////////////////////////////////////////
+
+    // Called on the context thread for each guaranteed message the appliance acks or rejects
+    private void onPublishResult(Object key, boolean accepted) {
+        if (!(key instanceof PendingSend))
+            return;
+        PendingSend pending = (PendingSend) key;
+        long correlationId = pending.correlationId;
+        _ackLatency.RecordSince(pending.sentNanos);
+        release(pending);
+        PublishListener listener = _publishListener;
+        if (correlationId == UNTRACKED || listener == null)
+            return;
+        if (accepted)
+            listener.onPublishAccepted(correlationId);
+        else
+            listener.onPublishRejected(correlationId);
+    }
+
+    // Called with _sendLock held for a message the session did not take, so no result will follow
+    private void sendFailed(PendingSend pending) {
+        long correlationId = pending.correlationId;
+        release(pending);
+        PublishListener listener = _publishListener;
+        if (correlationId != UNTRACKED && listener != null)
+            listener.onPublishRejected(correlationId);
+    }
+
+    private PendingSend acquire(long correlationId, long sentNanos) {
+        PendingSend pending;
+        synchronized (_pendingPool) {
+            pending = (_pendingFree == 0) ? new PendingSend() : _pendingPool[--_pendingFree];
+        }
+        pending.correlationId = correlationId;
+        pending.sentNanos = sentNanos;
+        return pending;
+    }
+
+    private void release(PendingSend pending) {
+        synchronized (_pendingPool) {
+            if (_pendingFree < _pendingPool.length)
+                _pendingPool[_pendingFree++] = pending;
+        }
+    }
+
+    private synchronized ScheduledExecutorService browseTimer() {
+        if (_browseTimer == null) {
+            _browseTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "solace-browse-timer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return _browseTimer;
+    }
+
+    private Topic lookupTopic(String name) {
+        Topic topic = _topics.get(name);
+        if (topic == null) {
+            topic = Solclient.Allocator.newTopic(name);
+            _topics.put(name, topic);
+        }
+        return topic;
+    }
+
+    // Called with _sendLock held
+    private void flushBatch() {
+        if (_batchCount == 0)
+            return;
+        long start = System.nanoTime();
+        int rc = _sess.send(_batch, 0, _batchCount, _sendResults);
+        _sendLatency.RecordSince(start);
+        if (rc != SolEnum.ReturnCode.OK) {
+            // Messages the session took are acked as usual; the rest never will be
+            for(int i = 0; i < _batchCount; i++) {
+                if (_sendResults[i] != SolEnum.ReturnCode.OK)
+                    sendFailed(_batchPending[i]);
+            }
+        }
+        for(int i = 0; i < _batchCount; i++) {
+            _batchPending[i] = null;
+        }
+        _batchCount = 0;
+    }
+
+    private static MessageCallback newMessageCallback(final MessageListener listener) {
+        // One adapter per flow; messages are only valid for the duration of the callback
+        final SolaceMessage msg = new SolaceMessage();
+        return new MessageCallback() {
+            public void onMessage(Handle handle) {
+                MessageSupport ms = (MessageSupport) handle;
+                msg.wrap(ms.getRxMessage());
+                listener.onMessage(msg);
+            }
+        };
+    }
+
+    private static FlowEventCallback newFlowEventCallback(final FlowListener listener) {
+        return new FlowEventCallback() {
+            public void onEvent(FlowHandle flowHandle) {
+                listener.onFlowEvent(toFlowEventType(flowHandle.getFlowEvent()));
+            }
+        };
+    }
+
+    private static SessionEventType toSessionEventType(SessionEvent event) {
+        switch(event.getSessionEventCode()) {
+            case SolEnum.SessionEventCode.UP_NOTICE:
+                return SessionEventType.UP;
+            case SolEnum.SessionEventCode.DOWN_ERROR:
+                return SessionEventType.DOWN;
+            case SolEnum.SessionEventCode.RECONNECTING_NOTICE:
+                return SessionEventType.RECONNECTING;
+            case SolEnum.SessionEventCode.RECONNECTED_NOTICE:
+                return SessionEventType.RECONNECTED;
+            default:
+                return SessionEventType.OTHER;
+        }
+    }
+
+    private static FlowEventType toFlowEventType(FlowEvent event) {
+        switch(event.getFlowEventEnum()) {
+            case SolEnum.FlowEventCode.UP_NOTICE:
+                return FlowEventType.UP;
+            case SolEnum.FlowEventCode.DOWN_ERROR:
+                return FlowEventType.DOWN;
+            case SolEnum.FlowEventCode.ACTIVE:
+                return FlowEventType.ACTIVE;
+            case SolEnum.FlowEventCode.INACTIVE:
+                return FlowEventType.INACTIVE;
+            default:
+                return FlowEventType.OTHER;
+        }
+    }
+
+    /**
+     * Correlation key of a persistent send awaiting the appliance's result
+     */
+    private static class PendingSend {
+        long correlationId;
+        // When the send was queued, for the publish ack latency
+        long sentNanos;
+    }
+
+    private static class SolaceFlow implements TransportFlow {
+        SolaceFlow(FlowHandle flow) {
+            _flow = flow;
+        }
+
+        public void start() {
+            _flow.start();
+        }
+
+        public void stop() {
+            _flow.stop();
+        }
+
+        public void ack(long msgId) {
+            _flow.ack(msgId);
+        }
+
+        public void destroy() {
+            Helper.destroyHandle(_flow);
+        }
+
+        private final FlowHandle _flow;
+    }
+
+    /**
+     * Browser flow that raises BROWSE_COMPLETE once it has been started and no message has
+     * arrived for the idle timeout since the start or the last message
+     */
+    private static class SolaceBrowser extends SolaceFlow {
+        SolaceBrowser(FlowHandle flow, FlowListener listener, ScheduledExecutorService timer, long idleNanos) {
+            super(flow);
+            _listener = listener;
+            _timer = timer;
+            _idleNanos = idleNanos;
+        }
+
+        public void start() {
+            synchronized (this) {
+                _lastNanos = System.nanoTime();
+                _pending = true;
+                schedule(_idleNanos);
+            }
+            super.start();
+        }
+
+        public void stop() {
+            cancel();
+            super.stop();
+        }
+
+        public void destroy() {
+            cancel();
+            super.destroy();
+        }
+
+        /**
+         * Called on the context thread around each message delivered
+         */
+        synchronized void Touch() {
+            _lastNanos = System.nanoTime();
+        }
+
+        private synchronized void cancel() {
+            _pending = false;
+            if (_check != null)
+                _check.cancel(false);
+        }
+
+        private void schedule(long delayNanos) {
+            _check = _timer.schedule(new Runnable() {
+                public void run() { check(); }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void check() {
+            synchronized (this) {
+                if (!_pending)
+                    return;
+                long idle = System.nanoTime() - _lastNanos;
+                if (idle < _idleNanos) {
+                    schedule(_idleNanos - idle);
+                    return;
+                }
+                _pending = false;
+            }
+            _listener.onFlowEvent(FlowEventType.BROWSE_COMPLETE);
+        }
+
+        private final FlowListener _listener;
+        private final ScheduledExecutorService _timer;
+        private final long _idleNanos;
+        private long _lastNanos;
+        private boolean _pending;
+        private ScheduledFuture<?> _check;
+    }
+
+    /**
+     * Copies the payload out of the native message at most once, into a direct buffer kept
+     * for the lifetime of the flow, where readers decode it in place
+     */
+    private static class SolaceMessage implements DirectMessage {
+        void wrap(MessageHandle msg) {
+            _msg = msg;
+            _copied = false;
+        }
+
+        public long getMessageId() {
+            return _msg.getGuaranteedMessageId();
+        }
+
+        public void getBinaryAttachment(ByteBuffer dest) {
+            if (!_copied) {
+                _msg.getBinaryAttachment(dest);
+                return;
+            }
+            _view.clear();
+            _view.limit(_payload.position());
+            dest.put(_view);
+        }
+
+        public ByteBuffer getDirectAttachment() {
+            if (!_copied) {
+                int size = _msg.getBinaryAttachmentSize();
+                if (size > _payload.capacity()) {
+                    _payload = ByteBuffer.allocateDirect(Integer.highestOneBit(size - 1) << 1);
+                    _view = _payload.duplicate();
+                }
+                _payload.clear();
+                _msg.getBinaryAttachment(_payload);
+                _copied = true;
+            }
+            _view.clear();
+            _view.position(_payload.position());
+            return _view;
+        }
+
+        private MessageHandle _msg;
+        private boolean _copied;
+        private ByteBuffer _payload = ByteBuffer.allocateDirect(INITIAL_PAYLOAD_SIZE);
+        private ByteBuffer _view = _payload.duplicate();
+    }
 
     private final ContextHandle _ctx = Solclient.Allocator.newContextHandle();
     private final SessionHandle _sess = Solclient.Allocator.newSessionHandle();
     private final MessageHandle _outmsg = Solclient.Allocator.newMessageHandle();
+    private final MessageHandle _statemsg = Solclient.Allocator.newMessageHandle();
+    private final MessageHandle _directmsg = Solclient.Allocator.newMessageHandle();
+
+    // Guards the output messages, the batch and the topic cache
+    private final Object _sendLock = new Object();
+    private final Map<String, Topic> _topics = new HashMap<String, Topic>();
+    private MessageHandle[] _batch;
+    private int _batchCount;
+    private long _batchStartNanos;
+    private long _maxDelayNanos;
+    private volatile long _directSendFailures;
+    private final int[] _sendResults = new int[MAX_BATCH_SIZE];
+    private final PendingSend[] _batchPending = new PendingSend[MAX_BATCH_SIZE];
+    private ScheduledExecutorService _flusher;
+    private ScheduledExecutorService _browseTimer;
+    private volatile long _browseIdleNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BROWSE_IDLE_MS);
+
+    // Correlation keys released for reuse; a key is only allocated when none is free
+    private final PendingSend[] _pendingPool = new PendingSend[1024];
+    private int _pendingFree;
+    private volatile PublishListener _publishListener;
+
+    private final LatencyHistogram _sendLatency = new LatencyHistogram();
+    private final LatencyHistogram _ackLatency  = new LatencyHistogram();
+    private ObjectName _sendLatencyName;
+    private ObjectName _ackLatencyName;
+
+    private static final long UNTRACKED = -1;
+    private static final int INITIAL_PAYLOAD_SIZE = 1024;
+
+    public static final int MAX_BATCH_SIZE = 50;
+    /**
+     * Many round trips on a LAN, and well under the connector's recovery timeout
+     */
+    public static final long DEFAULT_BROWSE_IDLE_MS = 50;
 }
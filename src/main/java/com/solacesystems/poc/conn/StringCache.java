@@ -0,0 +1,142 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Caches the UTF-8 encoding of the small, stable set of strings that go over the wire
+ * (instrument names), so encoding a known string and decoding known bytes do not allocate.
+ *
+ * Lookups are lock-free hash probes: the tables are immutable open-addressed arrays of
+ * immutable entries, indexed once by string and once by UTF-8 bytes, that are copied and
+ * republished on the rare miss. Once the cache is full, new strings are encoded and
+ * decoded without being cached.
+ */
+class StringCache {
+    StringCache(int capacity) {
+        _capacity = capacity;
+        int slots = 2;
+        while(slots < 2 * capacity) {
+            slots <<= 1;
+        }
+        _byStr = new Entry[slots];
+        _byBytes = new Entry[slots];
+    }
+
+    /**
+     * @return the UTF-8 bytes of the string; the returned array must not be modified
+     */
+    byte[] encode(String s) {
+        Entry[] table = _byStr;
+        int mask = table.length - 1;
+        int hash = s.hashCode();
+        for(int i = mix(hash) & mask; table[i] != null; i = (i + 1) & mask) {
+            Entry e = table[i];
+            if (e.strhash == hash && e.str.equals(s))
+                return e.bytes;
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        add(new Entry(s, bytes, bytesHash(bytes)));
+        return bytes;
+    }
+
+    /**
+     * Decodes len UTF-8 bytes from the buffer's position, advancing the position by len
+     */
+    String decode(ByteBuffer data, int len) {
+        int pos = data.position();
+        int hash = bufferHash(data, pos, len);
+        Entry[] table = _byBytes;
+        int mask = table.length - 1;
+        for(int i = mix(hash) & mask; table[i] != null; i = (i + 1) & mask) {
+            Entry e = table[i];
+            if (e.byteshash == hash && sameBytes(e.bytes, data, pos, len)) {
+                data.position(pos + len);
+                return e.str;
+            }
+        }
+        byte[] bytes = new byte[len];
+        data.get(bytes);
+        String s = new String(bytes, UTF8);
+        add(new Entry(s, bytes, hash));
+        return s;
+    }
+
+    private synchronized void add(Entry entry) {
+        if (_size >= _capacity)
+            return;
+        Entry[] byStr = _byStr;
+        int mask = byStr.length - 1;
+        int i = mix(entry.strhash) & mask;
+        for(; byStr[i] != null; i = (i + 1) & mask) {
+            if (byStr[i].str.equals(entry.str))
+                return;
+        }
+        Entry[] grownByStr = byStr.clone();
+        grownByStr[i] = entry;
+        Entry[] grownByBytes = _byBytes.clone();
+        int j = mix(entry.byteshash) & mask;
+        while(grownByBytes[j] != null) {
+            j = (j + 1) & mask;
+        }
+        grownByBytes[j] = entry;
+        _size++;
+        _byBytes = grownByBytes;
+        _byStr = grownByStr;
+    }
+
+    /**
+     * Spreads the high bits of a polynomial hash into the low bits used for indexing
+     */
+    private static int mix(int h) {
+        h = (h ^ (h >>> 16)) * 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    private static int bytesHash(byte[] bytes) {
+        int h = 1;
+        for(byte b : bytes) {
+            h = 31 * h + b;
+        }
+        return h;
+    }
+
+    private static int bufferHash(ByteBuffer data, int pos, int len) {
+        int h = 1;
+        for(int i = pos; i < pos + len; i++) {
+            h = 31 * h + data.get(i);
+        }
+        return h;
+    }
+
+    private static boolean sameBytes(byte[] bytes, ByteBuffer data, int pos, int len) {
+        if (bytes.length != len)
+            return false;
+        for(int i = 0; i < len; i++) {
+            if (bytes[i] != data.get(pos + i))
+                return false;
+        }
+        return true;
+    }
+
+    private static class Entry {
+        Entry(String str, byte[] bytes, int byteshash) {
+            this.str = str;
+            this.bytes = bytes;
+            this.strhash = str.hashCode();
+            this.byteshash = byteshash;
+        }
+
+        final String str;
+        final byte[] bytes;
+        final int strhash;
+        final int byteshash;
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int _capacity;
+    private int _size;
+    private volatile Entry[] _byStr;
+    private volatile Entry[] _byBytes;
+}
@@ -0,0 +1,244 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Maps instrument names to compact int IDs, so messages carry the ID as a zigzag varint, a
+ * byte or two for the first IDs, instead of the name and decoding an instrument is an
+ * array lookup.
+ *
+ * The bindings are made durable on a well-known last value queue (see SymbolTopic), which
+ * gateways load before assigning IDs and readers load before binding their queues. An order
+ * carries its instrument's definition, the ID and the name, until the ID is published there,
+ * and once more after, so a reader that loaded the dictionary before the publication still
+ * learns the ID in the stream before any order refers to it bare. Instruments are partitioned
+ * whole, so that order reaches every partition that uses the ID. Outputs and embedded
+ * messages always spell the name out.
+ *
+ * A binding never changes once made: a definition that conflicts with one is an error, as
+ * is an ID the dictionary does not know.
+ *
+ * Lookups are lock-free and read an immutable table. The rare changes copy the table and
+ * republish it.
+ */
+public class SymbolDictionary {
+    public SymbolDictionary(int capacity) {
+        _capacity = capacity;
+        _table = new Table(new String[capacity]);
+        _published = new AtomicIntegerArray(capacity);
+        _announced = new AtomicIntegerArray(capacity);
+    }
+
+    public int GetCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return the symbol's ID, or NO_ID if it has none
+     */
+    public int GetId(String symbol) {
+        return _table.find(symbol);
+    }
+
+    /**
+     * @return the symbol bound to the ID, or null
+     */
+    public String GetSymbol(int id) {
+        String[] symbols = _table.symbols;
+        return (id >= 0 && id < symbols.length) ? symbols[id] : null;
+    }
+
+    /**
+     * @return the symbol's ID, binding the lowest free one on first sight; NO_ID if the dictionary is full
+     */
+    public int Register(String symbol) {
+        int id = _table.find(symbol);
+        if (id != NO_ID)
+            return id;
+        synchronized(this) {
+            Table table = _table;
+            id = table.find(symbol);
+            if (id != NO_ID)
+                return id;
+            while(_nextId < _capacity && table.symbols[_nextId] != null) {
+                _nextId++;
+            }
+            if (_nextId == _capacity)
+                return NO_ID;
+            id = _nextId++;
+            String[] symbols = table.symbols.clone();
+            symbols[id] = symbol;
+            _table = new Table(symbols);
+            return id;
+        }
+    }
+
+    /**
+     * Binds the ID to the symbol
+     *
+     * @throws IllegalArgumentException if either is already bound otherwise
+     */
+    public void Define(int id, String symbol) {
+        if (id < 0 || id >= _capacity)
+            throw new IllegalArgumentException("Symbol ID " + id + " is outside the dictionary's " + _capacity);
+        if (symbol.equals(GetSymbol(id)))
+            return;
+        synchronized(this) {
+            Table table = _table;
+            if (symbol.equals(table.symbols[id]))
+                return;
+            if (table.symbols[id] != null)
+                throw new IllegalArgumentException("Symbol ID " + id + " is bound to " + table.symbols[id] + ", not " + symbol);
+            int previous = table.find(symbol);
+            if (previous != NO_ID)
+                throw new IllegalArgumentException("Symbol " + symbol + " is bound to ID " + previous + ", not " + id);
+            String[] symbols = table.symbols.clone();
+            symbols[id] = symbol;
+            _table = new Table(symbols);
+        }
+    }
+
+    public int Size() {
+        return _table.count;
+    }
+
+    /**
+     * Removes every binding
+     */
+    public synchronized void Clear() {
+        _table = new Table(new String[_capacity]);
+        for(int id = 0; id < _capacity; id++) {
+            _published.set(id, 0);
+            _announced.set(id, 0);
+        }
+        _nextId = 0;
+    }
+
+    /**
+     * Writes { count, then { id, name } per binding } at the buffer's position
+     */
+    public void WriteTo(ByteBuffer buf) {
+        Table table = _table;
+        buf.putInt(table.count);
+        for(int id = 0; id < table.symbols.length; id++) {
+            if (table.symbols[id] != null) {
+                buf.putInt(id);
+                Serializer.AppendString(buf, table.symbols[id]);
+            }
+        }
+    }
+
+    /**
+     * Replaces every binding with those written by WriteTo, read from the buffer's position
+     */
+    public void ReadFrom(ByteBuffer buf) {
+        Clear();
+        DefineFrom(buf);
+    }
+
+    /**
+     * Adds the bindings written by WriteTo, read from the buffer's position, to those held
+     *
+     * @throws IllegalArgumentException if one conflicts with a binding held
+     */
+    public void DefineFrom(ByteBuffer buf) {
+        int count = buf.getInt();
+        for(int i = 0; i < count; i++) {
+            int id = buf.getInt();
+            Define(id, Serializer.ReadString(buf));
+        }
+    }
+
+    /**
+     * @return the largest WriteTo output of a dictionary of the given capacity
+     */
+    public static int MaxSerializedSize(int capacity) {
+        return 4 + capacity * (4 + 4 + MAX_SYMBOL_SIZE);
+    }
+
+    public static final int NO_ID = -1;
+    /**
+     * Capacity of the dictionaries the applications and gateways exchange
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    /**
+     * The longest symbol the Serializer puts on the wire, in UTF-8 bytes
+     */
+    public static final int MAX_SYMBOL_SIZE = 64;
+
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Marks the ID as durable on the symbol LVQ
+     */
+    void publish(int id) {
+        _published.set(id, 1);
+    }
+
+    /**
+     * @return true if the message being encoded must carry the ID's definition: until the
+     * ID is published, and for the first message after
+     */
+    boolean define(int id) {
+        if (_published.get(id) == 0)
+            return true;
+        return _announced.get(id) == 0 && _announced.compareAndSet(id, 0, 1);
+    }
+
+    /**
+     * @return true if messages are encoded with the bare ID
+     */
+    boolean bare(int id) {
+        return _published.get(id) != 0 && _announced.get(id) != 0;
+    }
+
+    /**
+     * Immutable; the open-addressing index holds ID + 1, 0 when empty, at most half full
+     */
+    private static final class Table {
+        Table(String[] symbols) {
+            this.symbols = symbols;
+            int capacity = Integer.highestOneBit(Math.max(symbols.length, 2) * 2 - 1) << 1;
+            index = new int[capacity];
+            mask = capacity - 1;
+            int bound = 0;
+            for(int id = 0; id < symbols.length; id++) {
+                if (symbols[id] == null)
+                    continue;
+                int slot = symbols[id].hashCode() & mask;
+                while(index[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                index[slot] = id + 1;
+                bound++;
+            }
+            count = bound;
+        }
+
+        int find(String symbol) {
+            for(int slot = symbol.hashCode() & mask; ; slot = (slot + 1) & mask) {
+                int id = index[slot] - 1;
+                if (id == NO_ID)
+                    return NO_ID;
+                String s = symbols[id];
+                // Decoded instruments are the dictionary's own instances
+                if (s == symbol || s.equals(symbol))
+                    return id;
+            }
+        }
+
+        final String[] symbols;
+        final int[] index;
+        final int mask;
+        final int count;
+    }
+
+    private final int _capacity;
+    private volatile Table _table;
+    // Set once an ID is durable, then once a message has defined it since
+    private final AtomicIntegerArray _published;
+    private final AtomicIntegerArray _announced;
+    // Guarded by this
+    private int _nextId;
+}
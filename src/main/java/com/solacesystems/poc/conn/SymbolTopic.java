@@ -0,0 +1,172 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the symbol dictionary durable on a last value queue subscribed to a well-known
+ * topic, QUEUE on TOPIC by default. The LVQ holds the whole dictionary as written by
+ * SymbolDictionary.WriteTo, so it is the one authority on which ID an instrument has.
+ *
+ * Readers Load it before binding their queues. A gateway Publishes its instruments: it
+ * loads the IDs already assigned, registers its own after them, publishes the merged
+ * dictionary and reads it back, and only then sends its instruments as bare IDs. A gateway
+ * whose bindings were replaced by another's publishing at the same time fails there rather
+ * than sending IDs that mean something else to the readers.
+ *
+ * Both block the calling thread, so they must not be called on the transport's context thread.
+ */
+public class SymbolTopic {
+    /**
+     * On the well-known topic and LVQ
+     */
+    public SymbolTopic(Transport transport) {
+        this(transport, TOPIC, QUEUE, DEFAULT_TIMEOUT_MS);
+    }
+
+    public SymbolTopic(Transport transport, String topic, String lvq, long timeoutMs) {
+        _transport = transport;
+        _topic = topic;
+        _lvq = lvq;
+        _timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Adds the bindings on the LVQ to the dictionary
+     *
+     * @return false if the LVQ held no dictionary within the timeout
+     * @throws IllegalArgumentException if a binding on the LVQ conflicts with one held
+     */
+    public boolean Load(SymbolDictionary symbols) {
+        ByteBuffer published = browse(symbols.GetCapacity());
+        if (published == null)
+            return false;
+        symbols.DefineFrom(published);
+        return true;
+    }
+
+    /**
+     * Binds the instruments in the dictionary and on the LVQ, after the IDs already on it,
+     * and publishes them, so that orders encoded with the dictionary refer to them by ID
+     *
+     * @throws IllegalArgumentException if the dictionary holds bindings that conflict with the LVQ's
+     * @throws IllegalStateException if the dictionary is full, or the LVQ does not hold the
+     * bindings within the timeout or holds others for them
+     */
+    public void Publish(SymbolDictionary symbols, String[] instruments) {
+        Load(symbols);
+        int[] ids = new int[instruments.length];
+        for(int i = 0; i < instruments.length; i++) {
+            ids[i] = symbols.Register(instruments[i]);
+            if (ids[i] == SymbolDictionary.NO_ID)
+                throw new IllegalStateException("No symbol ID is left for " + instruments[i]);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SymbolDictionary.MaxSerializedSize(symbols.GetCapacity()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        symbols.WriteTo(buffer);
+        _transport.SendOutput(buffer, _topic);
+
+        // The LVQ may still hold the previous dictionary until the broker has spooled this one
+        long deadline = System.currentTimeMillis() + _timeoutMs;
+        while(!holds(instruments, ids, symbols.GetCapacity())) {
+            if (System.currentTimeMillis() >= deadline)
+                throw new IllegalStateException("The symbol definitions did not reach " + _lvq);
+            try {
+                Thread.sleep(RETRY_INTERVAL_MS);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted publishing the symbol definitions", e);
+            }
+        }
+        for(int id : ids) {
+            symbols.publish(id);
+        }
+    }
+
+    public static final String TOPIC = "poc/symbols";
+    public static final String QUEUE = "poc.symbols";
+    /**
+     * Long enough for a browse of the LVQ over a WAN; transports that report the end of a
+     * browse return sooner when the LVQ is empty
+     */
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return true once the LVQ binds every instrument to its ID
+     * @throws IllegalStateException if it binds one otherwise
+     */
+    private boolean holds(String[] instruments, int[] ids, int capacity) {
+        ByteBuffer published = browse(capacity);
+        if (published == null)
+            return false;
+        SymbolDictionary current = new SymbolDictionary(capacity);
+        current.ReadFrom(published);
+        boolean all = true;
+        for(int i = 0; i < instruments.length; i++) {
+            String bound = current.GetSymbol(ids[i]);
+            int id = current.GetId(instruments[i]);
+            if ((bound != null && !bound.equals(instruments[i])) || (id != SymbolDictionary.NO_ID && id != ids[i]))
+                throw new IllegalStateException("Symbol ID " + ids[i] + " for " + instruments[i]
+                        + " was bound otherwise on " + _lvq + " while publishing");
+            all &= (bound != null);
+        }
+        return all;
+    }
+
+    /**
+     * @return the LVQ's message in its read state, or null if there was none within the timeout
+     */
+    private ByteBuffer browse(int capacity) {
+        final ByteBuffer buffer = ByteBuffer.allocate(SymbolDictionary.MaxSerializedSize(capacity))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        final boolean[] found = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        TransportFlow browser = _transport.BrowseQueue(_lvq,
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        synchronized(buffer) {
+                            if (found[0])
+                                return;
+                            msg.getBinaryAttachment(buffer);
+                            found[0] = true;
+                        }
+                        done.countDown();
+                    }
+                },
+                new FlowListener() {
+                    public void onFlowEvent(FlowEventType event) {
+                        if (event == FlowEventType.BROWSE_COMPLETE)
+                            done.countDown();
+                    }
+                });
+        browser.start();
+        try {
+            done.await(_timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            browser.stop();
+            browser.destroy();
+        }
+        synchronized(buffer) {
+            if (!found[0])
+                return null;
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static final long RETRY_INTERVAL_MS = 10;
+
+    private final Transport _transport;
+    private final String _topic;
+    private final String _lvq;
+    private final long _timeoutMs;
+}
@@ -0,0 +1,64 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Messaging transport used by the ClusterConnector. This covers everything the clustering
+ * logic needs from the messaging layer: a session, exclusive queue bindings with active-flow
+ * indication, queue browsing for LVQ recovery, and topic publishing.
+ *
+ * SolaceConnector implements this against a Solace appliance; InMemoryTransport implements it
+ * against an in-process InMemoryBroker so the clustering logic can run without one.
+ */
+public interface Transport {
+
+    /**
+     * Connects the session; the listener is notified of session events on the transport's
+     * context thread.
+     */
+    void ConnectSession(String host, String vpn, String user, String pass, String clientName, SessionListener listener);
+
+    /**
+     * Binds a stopped flow to the named queue with active-flow indication enabled.
+     */
+    TransportFlow BindQueue(String name, MessageListener msgListener, FlowListener flowListener);
+
+    /**
+     * Binds a stopped flow to the named queue with the given acknowledgement mode.
+     */
+    TransportFlow BindQueue(String name, AckMode ackMode, MessageListener msgListener, FlowListener flowListener);
+
+    /**
+     * Creates a stopped browser flow on the named queue; browsed messages are not consumed.
+     */
+    TransportFlow BrowseQueue(String name, MessageListener msgListener, FlowListener flowListener);
+
+    /**
+     * Publishes the payload to the topic. The payload is expected in its written state,
+     * i.e. position at the end of the data; it is flipped before sending.
+     */
+    void SendOutput(ByteBuffer payload, String topic);
+
+    /**
+     * Publishes like SendOutput(payload, topic), and reports the broker's acceptance
+     * or rejection of the message to the PublishListener under the correlation ID.
+     */
+    void SendOutput(ByteBuffer payload, String topic, long correlationId);
+
+    void SetPublishListener(PublishListener listener);
+
+    /**
+     * Publishes like SendOutput(payload, topic), but the broker discards the message once
+     * it has been spooled for timeToLiveMs; used for replicated state that is superseded
+     * over time.
+     */
+    void SendState(ByteBuffer payload, String topic, long timeToLiveMs);
+
+    /**
+     * Publishes like SendOutput(payload, topic), but in direct delivery mode: the message is
+     * neither persisted nor acknowledged, and may be lost; used for monitoring updates.
+     */
+    void SendDirect(ByteBuffer payload, String topic);
+
+    void destroy();
+}
@@ -0,0 +1,8 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * Creates a new, unconnected Transport; used where one process needs a session per cluster member
+ */
+public interface TransportFactory {
+    Transport CreateTransport();
+}
@@ -0,0 +1,17 @@
+package com.solacesystems.poc.conn;
+
+/**
+ * A flow bound to a queue by a Transport; either a consumer or a browser.
+ */
+public interface TransportFlow {
+    void start();
+
+    void stop();
+
+    /**
+     * Acknowledges a message received on a client-ack flow, releasing it from the queue
+     */
+    void ack(long msgId);
+
+    void destroy();
+}
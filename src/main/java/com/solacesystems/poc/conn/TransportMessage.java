@@ -0,0 +1,19 @@
+package com.solacesystems.poc.conn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message received on a TransportFlow. Only valid for the duration of the MessageListener callback.
+ */
+public interface TransportMessage {
+    /**
+     * Copies the message payload into the destination buffer, leaving the
+     * position at the end of the payload.
+     */
+    void getBinaryAttachment(ByteBuffer dest);
+
+    /**
+     * @return the broker-assigned ID used to acknowledge this message on a client-ack flow
+     */
+    long getMessageId();
+}
@@ -0,0 +1,118 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.TransportFlow;
+
+/**
+ * Holds back the acknowledgements of input messages received on a client-ack flow until
+ * each input is complete, i.e. the output derived from it has been accepted by the broker
+ * (or it produced no output). Acks are released in batches, always as a contiguous prefix
+ * of the input stream: once maxMessages completed inputs are waiting, or once the oldest
+ * completed input has waited maxMicros.
+ *
+ * Inputs are identified by their position in the window as returned from Received.
+ *
+ * While catching up after a restart, when most inputs are discarded as soon as they arrive,
+ * acks are released in the larger batches of catchUpMessages instead.
+ */
+class AckWindow {
+    AckWindow(int maxMessages, long maxMicros, int catchUpMessages) {
+        if (maxMessages < 1 || maxMicros < 1 || catchUpMessages < 1)
+            throw new IllegalArgumentException("Ack window sizes and delay must be positive");
+        _maxMessages = maxMessages;
+        _catchUpMessages = catchUpMessages;
+        _batchMessages = maxMessages;
+        _maxNanos = maxMicros * 1000L;
+        int capacity = Integer.highestOneBit(Math.max(Math.max(maxMessages, catchUpMessages), 2) - 1) << 2;
+        _msgIds = new long[capacity];
+        _done = new boolean[capacity];
+    }
+
+    synchronized void Attach(TransportFlow flow) {
+        _flow = flow;
+    }
+
+    synchronized void SetCatchingUp(boolean catchingUp) {
+        _batchMessages = catchingUp ? _catchUpMessages : _maxMessages;
+        if (!catchingUp && _completed - _head >= _maxMessages)
+            release();
+    }
+
+    /**
+     * @return the input's position in the window
+     */
+    synchronized long Received(long msgId) {
+        if (_tail - _head == _msgIds.length)
+            grow();
+        int idx = index(_tail);
+        _msgIds[idx] = msgId;
+        _done[idx] = false;
+        return _tail++;
+    }
+
+    synchronized void Completed(long position) {
+        if (position < _completed || position >= _tail)
+            return;
+        _done[index(position)] = true;
+        long before = _completed;
+        while(_completed < _tail && _done[index(_completed)]) {
+            _completed++;
+        }
+        if (_completed == before)
+            return;
+        if (before == _head)
+            _completedSinceNanos = System.nanoTime();
+        if (_completed - _head >= _batchMessages || System.nanoTime() - _completedSinceNanos >= _maxNanos)
+            release();
+    }
+
+    /**
+     * Releases completed inputs that have waited past the delay bound; called periodically
+     * so acks are not held indefinitely when input goes quiet.
+     */
+    synchronized void Flush() {
+        if (_completed > _head && System.nanoTime() - _completedSinceNanos >= _maxNanos)
+            release();
+    }
+
+    synchronized int GetUnacked() {
+        return (int) (_tail - _head);
+    }
+
+    private void release() {
+        if (_flow == null)
+            return;
+        for(long pos = _head; pos < _completed; pos++) {
+            _flow.ack(_msgIds[index(pos)]);
+        }
+        _head = _completed;
+    }
+
+    private int index(long position) {
+        return (int) (position & (_msgIds.length - 1));
+    }
+
+    private void grow() {
+        long[] msgIds = new long[_msgIds.length * 2];
+        boolean[] done = new boolean[_done.length * 2];
+        for(long pos = _head; pos < _tail; pos++) {
+            msgIds[(int) (pos & (msgIds.length - 1))] = _msgIds[index(pos)];
+            done[(int) (pos & (done.length - 1))] = _done[index(pos)];
+        }
+        _msgIds = msgIds;
+        _done = done;
+    }
+
+    private final int _maxMessages;
+    private final int _catchUpMessages;
+    private int _batchMessages;
+    private final long _maxNanos;
+
+    private TransportFlow _flow;
+    private long[] _msgIds;
+    private boolean[] _done;
+    // Positions: [_head, _completed) are complete but unacked, [_completed, _tail) in progress
+    private long _head;
+    private long _completed;
+    private long _tail;
+    private long _completedSinceNanos;
+}
@@ -0,0 +1,137 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.SymbolDictionary;
+import com.solacesystems.poc.conn.TransportMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads an InputCapture record by record, mapping one segment at a time. Nothing is
+ * allocated per record: the current record is exposed as a reused TransportMessage that
+ * copies the payload straight out of the mapping.
+ */
+public class CaptureReader {
+    public CaptureReader(String path) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(new File(path), "r");
+        _channel = raf.getChannel();
+        _size = _channel.size();
+        if (_size < InputCapture.HEADER_SIZE) {
+            Close();
+            throw new IOException(path + " is not an input capture");
+        }
+        ByteBuffer header = ByteBuffer.allocate(InputCapture.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while(header.hasRemaining() && _channel.read(header) >= 0) {
+        }
+        header.flip();
+        if (header.getInt() != InputCapture.MAGIC) {
+            Close();
+            throw new IOException(path + " is not an input capture");
+        }
+        int version = header.getInt();
+        if (version < 1 || version > InputCapture.VERSION) {
+            Close();
+            throw new IOException("Unsupported capture version " + version);
+        }
+        _segmentSize = header.getInt();
+        // Reserved before version 2, and always 0
+        int dictionaryLength = header.getInt();
+        _epochMillis = header.getLong();
+        mapSegment(0);
+        _dictionary = _map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        _dictionary.limit(InputCapture.HEADER_SIZE + dictionaryLength);
+        _dictionary.position(InputCapture.HEADER_SIZE);
+        _map.position(InputCapture.HEADER_SIZE + dictionaryLength);
+    }
+
+    /**
+     * Adds the symbol dictionary the capture was started with to the given one
+     */
+    public void ReadSymbols(SymbolDictionary symbols) {
+        if (_dictionary.hasRemaining())
+            symbols.DefineFrom(_dictionary.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Moves to the next record
+     *
+     * @return false at the end of the capture
+     */
+    public boolean Next() throws IOException {
+        while(true) {
+            int length = (_map.remaining() < 4) ? InputCapture.SKIP : _map.getInt(_map.position());
+            if (length == InputCapture.SKIP) {
+                if ((_segment + 1) * _segmentSize >= _size)
+                    return false;
+                mapSegment(++_segment);
+                continue;
+            }
+            if (length <= 0 || length > _map.remaining() - 4)
+                return false;
+            _start = _map.position() + 4;
+            _length = length;
+            _map.position(_start + length);
+            _records++;
+            return true;
+        }
+    }
+
+    /**
+     * @return the current record as a message whose ID is its number in the capture, from 1;
+     * valid until the next call to Next
+     */
+    public TransportMessage GetMessage() {
+        return _message;
+    }
+
+    /**
+     * @return the wall-clock millis the capture was started at
+     */
+    public long GetStartMillis() {
+        return _epochMillis;
+    }
+
+    public void Close() throws IOException {
+        _channel.close();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private void mapSegment(long segment) throws IOException {
+        long offset = segment * _segmentSize;
+        _map = _channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(_segmentSize, _size - offset));
+        _map.order(ByteOrder.LITTLE_ENDIAN);
+        _view = _map.duplicate();
+    }
+
+    private final FileChannel _channel;
+    private final long _size;
+    private int _segmentSize;
+    // Over the first segment's mapping
+    private ByteBuffer _dictionary;
+    private long _epochMillis;
+    private MappedByteBuffer _map;
+    // Reused to copy each payload out of the mapping
+    private ByteBuffer _view;
+    private long _segment;
+
+    private int _start;
+    private int _length;
+    private long _records;
+    private final TransportMessage _message = new TransportMessage() {
+        public void getBinaryAttachment(ByteBuffer dest) {
+            _view.limit(_start + _length);
+            _view.position(_start);
+            dest.put(_view);
+        }
+
+        public long getMessageId() {
+            return _records;
+        }
+    };
+}
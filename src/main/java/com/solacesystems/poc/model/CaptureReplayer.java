@@ -0,0 +1,105 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.SymbolDictionary;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Backtests application logic against an InputCapture: every captured input is decoded by
+ * the application's serializer and handed to UpdateApplicationState on the calling thread,
+ * without a broker, a cluster model or any waiting, so a replay runs as fast as the logic
+ * allows and is deterministic. The listener sees every input as if it were the up-to-date
+ * member; build it on a ReplayTransport so its outputs go nowhere.
+ *
+ * Runs are compared by throughput and by a digest of the final state.
+ */
+public class CaptureReplayer<InputType extends Ordered, OutputType extends Ordered> {
+    public CaptureReplayer(ClusteredAppSerializer<InputType, OutputType> serializer,
+                           ClusterEventListener<InputType, OutputType> listener) {
+        _serializer = serializer;
+        _listener = listener;
+    }
+
+    /**
+     * Loads the capture's symbol dictionary into the one the serializer decodes with before
+     * replaying; call before Replay
+     */
+    public void SetSymbols(SymbolDictionary symbols) {
+        _symbols = symbols;
+    }
+
+    /**
+     * Replays the whole capture
+     *
+     * @return the number of inputs replayed
+     */
+    public long Replay(String path) throws IOException {
+        CaptureReader reader = new CaptureReader(path);
+        if (_symbols != null)
+            reader.ReadSymbols(_symbols);
+        long records = 0;
+        long start = System.nanoTime();
+        try {
+            while(reader.Next()) {
+                _lastOutput = _listener.UpdateApplicationState(_serializer.DeserializeInput(reader.GetMessage()));
+                records++;
+            }
+        }
+        finally {
+            _elapsedNanos = System.nanoTime() - start;
+            reader.Close();
+        }
+        _records = records;
+        return records;
+    }
+
+    public long GetElapsedNanos() {
+        return _elapsedNanos;
+    }
+
+    /**
+     * @return inputs replayed per second by the last Replay
+     */
+    public double GetThroughput() {
+        return (_elapsedNanos == 0) ? 0 : _records * 1e9 / _elapsedNanos;
+    }
+
+    public OutputType GetLastOutput() {
+        return _lastOutput;
+    }
+
+    /**
+     * @param state -- the application's full state, or null to digest the last output only
+     * @param maxSnapshotSize -- largest snapshot the state writes, in bytes
+     * @return a CRC32 of the snapshot the state writes, or without one of the last output as serialized
+     */
+    public long GetDigest(SnapshotListener state, int maxSnapshotSize) {
+        CRC32 crc = new CRC32();
+        if (state != null) {
+            ByteBuffer snapshot = ByteBuffer.allocate(maxSnapshotSize);
+            state.WriteSnapshot(snapshot);
+            update(crc, snapshot);
+        }
+        else if (_lastOutput != null) {
+            update(crc, _serializer.SerializeOutput(_lastOutput));
+        }
+        return crc.getValue();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    // Digests a buffer in its written state
+    private static void update(CRC32 crc, ByteBuffer written) {
+        ByteBuffer data = written.duplicate();
+        data.flip();
+        crc.update(data);
+    }
+
+    private final ClusteredAppSerializer<InputType, OutputType> _serializer;
+    private final ClusterEventListener<InputType, OutputType> _listener;
+    private SymbolDictionary _symbols;
+    private OutputType _lastOutput;
+    private long _records;
+    private long _elapsedNanos;
+}
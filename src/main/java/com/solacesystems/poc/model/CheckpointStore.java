@@ -0,0 +1,175 @@
+package com.solacesystems.poc.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Local checkpoint of a cluster member's last output (and, for applications replicating
+ * snapshots, its full state) in a memory-mapped file, so a restarted member can resume
+ * from local state instead of rebuilding it through the broker.
+ *
+ * The file holds two slots that are written alternately. Each slot carries a generation
+ * and a CRC over its contents, so a checkpoint torn by a crash mid-write is detected and
+ * the previous one is used. Writes go to the page cache; they survive a process crash but
+ * not necessarily a host crash unless the store syncs on every write.
+ *
+ * Layout: header { magic, version, slot size } then two slots of
+ * { generation(8), seqId(8), output length(4), snapshot length(4), crc(4), reserved(4), output, snapshot }.
+ */
+public class CheckpointStore {
+    /**
+     * @param maxCheckpointSize -- largest output plus snapshot, in bytes
+     * @param sync -- force every checkpoint to disk before returning
+     */
+    public CheckpointStore(String path, int maxCheckpointSize, boolean sync) {
+        _slotSize = SLOT_HEADER_SIZE + maxCheckpointSize;
+        _sync = sync;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(new File(path), "rw");
+            try {
+                _map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER_SIZE + 2L * _slotSize);
+            }
+            finally {
+                // The mapping stays valid after the channel is closed
+                raf.close();
+            }
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Failed to map checkpoint file " + path, e);
+        }
+        _map.order(ByteOrder.LITTLE_ENDIAN);
+        if (_map.getInt(0) != MAGIC || _map.getInt(4) != VERSION || _map.getInt(8) != _slotSize) {
+            // New file, or one written with another layout: start over
+            _map.putLong(slotOffset(0), 0);
+            _map.putLong(slotOffset(1), 0);
+            _map.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, _slotSize);
+        }
+    }
+
+    /**
+     * Loads the latest intact checkpoint, if any
+     *
+     * @return true if a checkpoint was loaded
+     */
+    public boolean Load() {
+        int best = -1;
+        long bestGeneration = 0;
+        for(int slot = 0; slot < 2; slot++) {
+            long generation = _map.getLong(slotOffset(slot));
+            if (generation > bestGeneration && isIntact(slot)) {
+                best = slot;
+                bestGeneration = generation;
+            }
+        }
+        if (best < 0)
+            return false;
+        int offset = slotOffset(best);
+        _generation = bestGeneration;
+        _seqId = _map.getLong(offset + 8);
+        int outputLength = _map.getInt(offset + 16);
+        int snapshotLength = _map.getInt(offset + 20);
+        _output = view(offset + SLOT_HEADER_SIZE, outputLength);
+        _snapshot = view(offset + SLOT_HEADER_SIZE + outputLength, snapshotLength);
+        return true;
+    }
+
+    public long GetSequenceId() {
+        return _seqId;
+    }
+
+    /**
+     * @return the loaded output, positioned at its start
+     */
+    public ByteBuffer GetOutput() {
+        return _output;
+    }
+
+    /**
+     * @return the loaded snapshot, positioned at its start; empty if none was written
+     */
+    public ByteBuffer GetSnapshot() {
+        return _snapshot;
+    }
+
+    /**
+     * Writes a checkpoint over the older of the two slots
+     *
+     * @param output -- serialized output in its written state
+     * @param snapshot -- serialized snapshot in its written state, or null
+     */
+    public void Write(long seqId, ByteBuffer output, ByteBuffer snapshot) {
+        int outputLength = output.position();
+        int snapshotLength = (snapshot == null) ? 0 : snapshot.position();
+        if (SLOT_HEADER_SIZE + outputLength + snapshotLength > _slotSize)
+            throw new IllegalArgumentException("Checkpoint of " + (outputLength + snapshotLength)
+                    + " bytes exceeds the store's " + (_slotSize - SLOT_HEADER_SIZE));
+        int slot = (int) ((_generation + 1) & 1);
+        int offset = slotOffset(slot);
+        // Invalidate the slot first so a torn write is never taken for a good one
+        _map.putLong(offset, 0);
+        _map.putLong(offset + 8, seqId);
+        _map.putInt(offset + 16, outputLength);
+        _map.putInt(offset + 20, snapshotLength);
+        _map.position(offset + SLOT_HEADER_SIZE);
+        output.flip();
+        _map.put(output);
+        if (snapshot != null) {
+            snapshot.flip();
+            _map.put(snapshot);
+        }
+        _map.putInt(offset + 24, checksum(offset, outputLength + snapshotLength));
+        _map.putLong(offset, ++_generation);
+        if (_sync)
+            _map.force();
+    }
+
+    private boolean isIntact(int slot) {
+        int offset = slotOffset(slot);
+        int length = _map.getInt(offset + 16) + _map.getInt(offset + 20);
+        if (length < 0 || SLOT_HEADER_SIZE + length > _slotSize)
+            return false;
+        return _map.getInt(offset + 24) == checksum(offset, length);
+    }
+
+    // CRC over the sequence ID, lengths and data of a slot
+    private int checksum(int offset, int dataLength) {
+        ByteBuffer region = _map.duplicate();
+        region.limit(offset + 24).position(offset + 8);
+        _crc.reset();
+        _crc.update(region);
+        region.limit(offset + SLOT_HEADER_SIZE + dataLength).position(offset + SLOT_HEADER_SIZE);
+        _crc.update(region);
+        return (int) _crc.getValue();
+    }
+
+    private ByteBuffer view(int offset, int length) {
+        ByteBuffer region = _map.duplicate();
+        region.limit(offset + length).position(offset);
+        return region.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int slotOffset(int slot) {
+        return FILE_HEADER_SIZE + slot * _slotSize;
+    }
+
+    private static final int MAGIC = 0x54504b43; // "CKPT"
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 16;
+    private static final int SLOT_HEADER_SIZE = 32;
+
+    private final MappedByteBuffer _map;
+    private final int _slotSize;
+    private final boolean _sync;
+    private final CRC32 _crc = new CRC32();
+
+    private long _generation;
+    private long _seqId;
+    private ByteBuffer _output;
+    private ByteBuffer _snapshot;
+}
@@ -1,15 +1,13 @@
 package com.solacesystems.poc.model;
 
-import com.solacesystems.poc.conn.Helper;
-import com.solacesystems.poc.conn.SolaceConnector;
-import com.solacesystems.solclientj.core.SolEnum;
-import com.solacesystems.solclientj.core.SolclientException;
-import com.solacesystems.solclientj.core.event.*;
-import com.solacesystems.solclientj.core.handle.*;
+import com.solacesystems.poc.conn.*;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Primary clustering logic performed here. This class connects to a Solace Exclusive Queue
@@ -31,6 +29,51 @@ import java.util.TimerTask;
  *
  * - Last known input state to the application
  *
+ * The messaging layer is reached through a Transport, so the same logic runs against a
+ * Solace appliance (the default SolaceConnector) or an in-process InMemoryTransport.
+ *
+ * By default input is auto-acknowledged on receipt. With SetAckWindow the application queue
+ * is bound with client acknowledgement and each input is only acked once the output it
+ * produced has been accepted by the broker, so inputs whose output was lost with a failed
+ * instance are redelivered to it on restart. Acks are batched by an AckWindow.
+ *
+ * Until its first input is processed after a recovery, a member only peeks at the sequence
+ * ID of each input and discards those behind the recovered state undecoded, acking them in
+ * larger batches; the discarded inputs are logged as one summary line.
+ *
+ * By default all input handling runs on the transport's context thread. With SetPipeline the
+ * context thread only copies each input into a ring; a process stage decodes it and updates
+ * the application state, and a publish stage sends the outputs it produced.
+ *
+ * With SetSnapshots, application state too large for a single output is replicated through
+ * a state queue as periodic chunked snapshots plus per-output deltas (see SnapshotReplicator).
+ * A member recovering behind the LVQ loads the latest snapshot and the deltas up to the
+ * LVQ's last output before its app flow starts. Only inputs up to the state actually
+ * restored are skipped, so without a complete snapshot every input on its queue is replayed.
+ * State is never restored once the app flow has started: a backup taking over behind the LVQ
+ * already has every later input on its own queue, so it catches up from them instead. Either
+ * way a recovering member publishes nothing until its inputs reach the LVQ's last output.
+ *
+ * With SetCheckpoint, every member also checkpoints its last output (and snapshot, if any)
+ * to a local memory-mapped file (see CheckpointStore). A restarted member reloads it before
+ * binding, so recovery only falls back to the broker when the LVQ holds a newer output.
+ *
+ * Per-stage latencies and counters are kept in a ClusterMetrics, registered as MBeans under
+ * the client name while connected. Cluster and recovery events are recorded in an EventLog,
+ * by default the shared console log.
+ *
+ * With SetJournal, every input (session and flow events, messages, timeouts and publish
+ * acknowledgements) is also recorded in a TransitionJournal, which a JournalReplayer feeds
+ * back into a connector built on a ReplayTransport to reproduce a failover offline.
+ *
+ * Input sequence IDs are tracked in a sliding window (see SequenceTracker, also registered
+ * as an MBean): gaps and reordered inputs are logged and duplicates are discarded. With
+ * GapPolicy.HALT a gap stops the app flow instead, leaving the input unacknowledged.
+ *
+ * Outputs that are LatencyStamped are stamped as they are published with the time their
+ * input was received, before any pipeline ring, and this member's states at the time the
+ * input was processed.
+ *
  * @param <InputType> -- input message type; must extend Ordered to ensure a sequence number is present
  * @param <OutputType>-- output message type; must also extend Ordered to ensure a sequence number is present
  */
@@ -42,22 +85,182 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
 
     public ClusterConnector(ClusterModel<InputType, OutputType> model,
                             ClusteredAppSerializer<InputType, OutputType> serializer) {
+        this(model, serializer, new SolaceConnector());
+    }
+
+    public ClusterConnector(ClusterModel<InputType, OutputType> model,
+                            ClusteredAppSerializer<InputType, OutputType> serializer,
+                            Transport transport) {
+        this(model, serializer, transport, new Timer());
+    }
+
+    /**
+     * @param timer -- runs recovery timeouts and ack window flushes; a ReplayTimer when replaying a journal
+     */
+    public ClusterConnector(ClusterModel<InputType, OutputType> model,
+                            ClusteredAppSerializer<InputType, OutputType> serializer,
+                            Transport transport, Timer timer) {
         _model = model;
         _serializer = serializer;
-        _connector = new SolaceConnector();
+        _connector = transport;
+        _timer = timer;
+        _metrics = new ClusterMetrics(model, this);
+        _connector.SetPublishListener(new PublishListener() {
+            public void onPublishAccepted(long correlationId) {
+                ClusterConnector.this.onPublishAccepted(correlationId);
+            }
+
+            public void onPublishRejected(long correlationId) {
+                ClusterConnector.this.onPublishRejected(correlationId);
+            }
+        });
         initState();
     }
 
-    public void Connect(String host, String vpn, String user, String pass, String clientName) throws SolclientException {
+    /**
+     * Records every input from now on in the journal; call before Connect
+     */
+    public void SetJournal(TransitionJournal journal) {
+        _journal = journal;
+    }
+
+    /**
+     * Switches the application queue to client acknowledgement; must be called before BindQueues.
+     *
+     * @param maxMessages -- ack once this many inputs are complete
+     * @param maxMicros -- longest a completed input waits for its ack
+     */
+    public void SetAckWindow(int maxMessages, long maxMicros) {
+        SetAckWindow(maxMessages, maxMicros, maxMessages);
+    }
+
+    /**
+     * @param catchUpMessages -- ack batch size while discarding inputs behind the recovered state
+     */
+    public void SetAckWindow(int maxMessages, long maxMicros, int catchUpMessages) {
+        if (_appflow != null)
+            throw new IllegalStateException("The ack window must be set before binding the queues");
+        final AckWindow window = new AckWindow(maxMessages, maxMicros, catchUpMessages);
+        long periodMs = Math.max(1, maxMicros / 1000);
+        _timer.schedule(new TimerTask() {
+            @Override
+            public void run() { window.Flush(); }
+        }, periodMs, periodMs);
+        _ackWindow = window;
+    }
+
+    public void Connect(String host, String vpn, String user, String pass, String clientName) {
+        _metrics.Register(clientName);
         _connector.ConnectSession(host, vpn, user, pass, clientName,
-                new SessionEventCallback() {
-                    public void onEvent(SessionHandle sessionHandle) {
-                        onSessionEvent(sessionHandle.getSessionEvent());
+                new SessionListener() {
+                    public void onSessionEvent(SessionEventType event) {
+                        ClusterConnector.this.onSessionEvent(event);
                     }
                 });
     }
 
+    /**
+     * Moves input processing and output publishing off the context thread; must be called
+     * before BindQueues. Decoding shares the process stage, as the serializer decodes every
+     * input into the same reused instance.
+     *
+     * @param ringSize -- slots per stage ring, a power of two
+     * @param maxMessageSize -- payload size each slot holds, in bytes; a larger payload grows its slot
+     * @param processWait -- how the process stage waits for input
+     * @param publishWait -- how the publish stage waits for output
+     */
+    public void SetPipeline(int ringSize, int maxMessageSize, WaitStrategy processWait, WaitStrategy publishWait) {
+        if (_appflow != null)
+            throw new IllegalStateException("The pipeline must be set before binding the queues");
+        _inputRing  = new PipelineRing(ringSize, maxMessageSize, processWait);
+        _outputRing = new PipelineRing(ringSize, maxMessageSize, publishWait);
+        _processStage = new PipelineStage("pipeline-process", _inputRing, new PipelineStage.Handler() {
+            public void onSlot(PipelineRing.Slot slot) {
+                processInput(slot, slot.GetTag(), slot.GetReceived());
+            }
+        });
+        _publishStage = new PipelineStage("pipeline-publish", _outputRing, new PipelineStage.Handler() {
+            public void onSlot(PipelineRing.Slot slot) {
+                if (slot.GetTag() == NO_INPUT)
+                    _connector.SendOutput(slot.GetBuffer(), slot.GetTopic());
+                else
+                    _connector.SendOutput(slot.GetBuffer(), slot.GetTopic(), slot.GetTag());
+            }
+        });
+        _publishStage.Start();
+        _processStage.Start();
+    }
+
+    /**
+     * Replicates application state through a state queue; must be called before BindQueues.
+     *
+     * @param stateQueue -- queue subscribed to stateTopic, browsed on recovery
+     * @param snapshotInterval -- outputs per full snapshot; the others publish deltas
+     * @param chunkSize -- largest snapshot chunk or delta, in bytes
+     * @param maxSnapshotSize -- largest full snapshot, in bytes
+     * @param timeToLiveMs -- lifetime of state messages; must cover at least two snapshot intervals
+     */
+    public void SetSnapshots(String stateQueue, String stateTopic, SnapshotListener listener,
+                             int snapshotInterval, int chunkSize, int maxSnapshotSize, long timeToLiveMs) {
+        if (_appflow != null)
+            throw new IllegalStateException("Snapshots must be set before binding the queues");
+        _snapshots = new SnapshotReplicator(_connector, stateTopic, listener,
+                snapshotInterval, chunkSize, maxSnapshotSize, timeToLiveMs);
+        _stateQueue = stateQueue;
+        _snapshotListener = listener;
+    }
+
+    /**
+     * Sets how the sequence IDs of the input stream are tracked; must be called before BindQueues.
+     *
+     * @param windowSize -- IDs remembered to detect duplicates and late arrivals; a power of two
+     * @param policy -- what to do with an input that skips sequence IDs
+     */
+    public void SetSequenceTracking(int windowSize, GapPolicy policy) {
+        if (_appflow != null)
+            throw new IllegalStateException("Sequence tracking must be set before binding the queues");
+        _sequences = new SequenceTracker(windowSize);
+        _gapPolicy = policy;
+    }
+
+    public SequenceTracker GetSequenceTracker() {
+        return _sequences;
+    }
+
+    /**
+     * Checkpoints the last output, and the snapshot when snapshots are set, to a local file;
+     * must be called before BindQueues, which reloads the checkpoint left by a previous run.
+     *
+     * @param checkpointInterval -- inputs processed per checkpoint
+     * @param maxCheckpointSize -- largest serialized output plus snapshot, in bytes
+     */
+    public void SetCheckpoint(String path, int checkpointInterval, int maxCheckpointSize) {
+        if (_appflow != null)
+            throw new IllegalStateException("The checkpoint must be set before binding the queues");
+        if (checkpointInterval < 1)
+            throw new IllegalArgumentException("The checkpoint interval must be positive");
+        _checkpoint = new CheckpointStore(path, maxCheckpointSize, false);
+        _checkpointInterval = checkpointInterval;
+        _checkpointSnapshot = ByteBuffer.allocate(maxCheckpointSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return inputs copied off the context thread but not yet processed; 0 without a pipeline
+     */
+    public int GetInputQueueDepth() {
+        return (_inputRing == null) ? 0 : _inputRing.GetDepth();
+    }
+
+    /**
+     * @return outputs produced but not yet published; 0 without a pipeline
+     */
+    public int GetOutputQueueDepth() {
+        return (_outputRing == null) ? 0 : _outputRing.GetDepth();
+    }
+
     public void BindQueues(String queue, String lvq) {
+        if (_checkpoint != null)
+            restoreCheckpoint();
         // Wait until the Solace Session is UP before binding to queues
         boolean connected = false;
         while(!connected) {
@@ -66,43 +269,43 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
                 // which triggers recovering state via browser, then starts appflow
                 // after recovery completes
                 _lvqBrowser = _connector.BrowseQueue(lvq,
-                        new MessageCallback() {
-                            public void onMessage(Handle handle) {
-                                MessageSupport ms = (MessageSupport) handle;
-                                onLVQMessage(ms.getRxMessage());
+                        new MessageListener() {
+                            public void onMessage(TransportMessage msg) {
+                                onLVQMessage(msg);
                             }
                         },
-                        new FlowEventCallback() {
-                            public void onEvent(FlowHandle flowHandle) {
-                                FlowEvent event = flowHandle.getFlowEvent();
-                                System.out.println("LVQ BROWSER FLOW EVENT: " + event);
+                        new FlowListener() {
+                            public void onFlowEvent(FlowEventType event) {
+                                onLVQBrowserEvent(event);
                             }
                         });
                 _appflow = _connector.BindQueue(queue,
-                        new MessageCallback() {
-                            public void onMessage(Handle handle) {
-                                MessageSupport ms = (MessageSupport) handle;
-                                onAppMessage(ms.getRxMessage());
+                        (_ackWindow == null) ? AckMode.AUTO : AckMode.CLIENT,
+                        new MessageListener() {
+                            public void onMessage(TransportMessage msg) {
+                                onAppMessage(msg);
                             }
                         },
-                        new FlowEventCallback() {
-                            public void onEvent(FlowHandle flowHandle) {
-                                FlowEvent event = flowHandle.getFlowEvent();
+                        new FlowListener() {
+                            public void onFlowEvent(FlowEventType event) {
                                 onAppFlowEvent(event);
                             }
                         });
                 _lvqflow = _connector.BindQueue(lvq,
-                        new MessageCallback() {
-                            public void onMessage(Handle handle) {
-                                System.out.println("!!! ERROR !!! ONLY FOR ACTIVE-FLOW-INDICATOR; DO NOT CONSUME MESSAGES HERE !!!");
+                        new MessageListener() {
+                            public void onMessage(TransportMessage msg) {
+                                onLVQFlowMessage(msg);
                             }
                         },
-                        new FlowEventCallback() {
-                            public void onEvent(FlowHandle flowHandle) {
-                                onLVQFlowEvent(flowHandle);
+                        new FlowListener() {
+                            public void onFlowEvent(FlowEventType event) {
+                                onLVQFlowEvent(event);
                             }
                         });
-                _model.SetSequenceStatus(SeqState.BOUND);
+                if (_ackWindow != null)
+                    _ackWindow.Attach(_appflow);
+                // Recovery may already have started from the lvqflow's UP event
+                compareAndSetSequenceStatus(SeqState.CONNECTED, SeqState.BOUND);
                 connected = true;
             }
         }
@@ -110,32 +313,95 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
 
     public void SendOutput(ByteBuffer output, String topic) {
         // HACK: just wanted to have a nice, standalone web-gui to display these
-        _connector.SendOutput(output, topic);
+        send(output, topic, NO_INPUT);
+    }
+
+    /**
+     * Publishes in direct delivery mode straight from the calling thread, bypassing the
+     * pipeline; for best-effort updates such as monitoring
+     */
+    public void SendDirect(ByteBuffer payload, String topic) {
+        _connector.SendDirect(payload, topic);
     }
 
     public void SendOutput(OutputType output, String topic) {
         // If we're the active member of the cluster, we are responsible
         // for all output but don't publish until we have new input data
-        if (_model.GetHAStatus() == HAState.ACTIVE && _model.GetSequenceStatus() == SeqState.UPTODATE)
+        if (_model.IsActiveAndUpToDate())
         {
-            _connector.SendOutput(_serializer.SerializeOutput(output), topic);
+            long start = System.nanoTime();
+            if (output instanceof LatencyStamped)
+                ((LatencyStamped) output).setLatencyStamps(_inputReceived, EpochClock.FromNanoTime(start),
+                        _inputHAState, _inputSeqState);
+            ByteBuffer payload = _serializer.SerializeOutput(output);
+            long serialized = System.nanoTime();
+            _metrics.GetSerializeLatency().Record(serialized - start);
+            if (_inputPosition == NO_INPUT || _outputTracked) {
+                send(payload, topic, NO_INPUT);
+            }
+            else {
+                // The input being processed completes when the broker accepts this output
+                _outputTracked = true;
+                send(payload, topic, _inputPosition);
+            }
+            _metrics.GetSendLatency().RecordSince(serialized);
+            if (_snapshots != null)
+                _snapshots.OnOutput(output.getSequenceId());
+            if (_timeline.OutputPublished())
+                log(EventType.FAILOVER_TIMELINE, (int) _timeline.GetLastStateReadMicros(),
+                        (int) _timeline.GetAppFlowStartMicros(), _timeline.GetFirstOutputMicros());
+            _outputNanos += System.nanoTime() - start;
+        }
+        else {
+            _metrics.OutputSuppressed();
         }
     }
 
+    /**
+     * Sets how long recovery waits for a message from the LVQ browser before assuming the
+     * LVQ is empty. Transports that report the end of a browse finish recovery sooner.
+     */
+    public void SetRecoveryTimeout(long timeoutMs) {
+        _recoveryTimeoutMs = timeoutMs;
+    }
+
+    public FailoverTimeline GetFailoverTimeline() {
+        return _timeline;
+    }
+
+    public ClusterMetrics GetMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Records this member's events in the given log, tagged with the source ID, instead of
+     * the shared console log
+     */
+    public void SetEventLog(EventLog log, int source) {
+        _log = log;
+        _logSource = source;
+    }
+
     public void Destroy() {
-        if (_appflow != null) {
+        if (_appflow != null)
             _appflow.stop();
-            Helper.destroyHandle(_appflow);
+        if (_processStage != null) {
+            _processStage.Stop();
+            _publishStage.Stop();
         }
+        if (_appflow != null)
+            _appflow.destroy();
         if (_lvqBrowser != null) {
             _lvqBrowser.stop();
-            Helper.destroyHandle(_lvqBrowser);
+            _lvqBrowser.destroy();
         }
         if (_lvqflow != null) {
             _lvqflow.stop();
-            Helper.destroyHandle(_lvqflow);
+            _lvqflow.destroy();
         }
+        _timer.cancel();
         _connector.destroy();
+        _metrics.Unregister();
     }
 
     ////////////////////////////////////////////////////////////////////////
@@ -143,22 +409,23 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     ////////////////////////////////////////////////////////////////////////
 
     /**
-     * Invoked on the Solace session; this is used to indicate when the
+     * Invoked on the transport session; this is used to indicate when the
      * connection is UP/Down or reconnecting
      *
-     * @param event -- the Solace session connectivity event
+     * @param event -- the session connectivity event
      */
-    private void onSessionEvent(SessionEvent event) {
-        switch(event.getSessionEventCode()) {
-            case SolEnum.SessionEventCode.UP_NOTICE:
-                _model.SetHAStatus(HAState.CONNECTED);
-                _model.SetSequenceStatus(SeqState.CONNECTED);
+    private void onSessionEvent(SessionEventType event) {
+        journal(JournalEventType.SESSION_EVENT, event.ordinal(), 0, null);
+        switch(event) {
+            case UP:
+                setHAStatus(HAState.CONNECTED);
+                setSequenceStatus(SeqState.CONNECTED);
                 break;
-            case SolEnum.SessionEventCode.DOWN_ERROR:
+            case DOWN:
                 break;
-            case SolEnum.SessionEventCode.RECONNECTING_NOTICE:
+            case RECONNECTING:
                 break;
-            case SolEnum.SessionEventCode.RECONNECTED_NOTICE:
+            case RECONNECTED:
                 break;
             default:
                 break;
@@ -168,39 +435,140 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     /**
      * Invoked on the application queue flow object when a flow event occurs
      *
-     * @param event -- the flow object for the application queue
+     * @param event -- the flow event for the application queue
      */
-    private void onAppFlowEvent(FlowEvent event) {
+    private void onAppFlowEvent(FlowEventType event) {
+        journal(JournalEventType.APP_FLOW_EVENT, event.ordinal(), 0, null);
         // System.out.println("Input flow event: " + event);
     }
 
     /**
      * Invoked on the appflow when an app queue message arrives
      *
-     * @param msg -- new solace message from the application queue
+     * @param msg -- new message from the application queue
+     */
+    private void onAppMessage(TransportMessage msg) {
+        journal(JournalEventType.APP_MESSAGE, 0, msg.getMessageId(), msg);
+        long received = EpochClock.Now();
+        long position = (_ackWindow == null) ? NO_INPUT : _ackWindow.Received(msg.getMessageId());
+        if (_inputRing != null) {
+            PipelineRing.Slot slot = _inputRing.Claim();
+            if (slot == null)
+                return; // Shutting down; an unacked input is redelivered
+            slot.Fill(msg, position, received);
+            _inputRing.Publish();
+            return;
+        }
+        processInput(msg, position, received);
+    }
+
+    /**
+     * Invoked on the context thread, or on the process stage in pipeline mode
+     *
+     * @param position -- the input's ack window position, or NO_INPUT without an ack window
+     * @param received -- epoch time the input was received
+     */
+    private void processInput(TransportMessage msg, long position, long received) {
+        if (_halted)
+            return; // Left unacknowledged
+        _inputReceived = received;
+        long peeked;
+        if (_catchingUp && isBehind(peeked = _serializer.PeekInputSequenceId(msg), _model.GetLastOutput())) {
+            _sequences.Track(peeked);
+            _ignoredInputs++;
+            _metrics.InputIgnored();
+            if (position != NO_INPUT)
+                _ackWindow.Completed(position);
+            return;
+        }
+        if (position == NO_INPUT) {
+            processInputMsg(deserializeInput(msg));
+            return;
+        }
+        _inputPosition = position;
+        _outputTracked = false;
+        try {
+            processInputMsg(deserializeInput(msg));
+        }
+        finally {
+            // Inputs that published nothing (backup, replayed or ignored) are complete now
+            if (!_outputTracked && !_halted)
+                _ackWindow.Completed(_inputPosition);
+            _inputPosition = NO_INPUT;
+        }
+    }
+
+    private InputType deserializeInput(TransportMessage msg) {
+        long start = System.nanoTime();
+        InputType input = _serializer.DeserializeInput(msg);
+        _metrics.GetDeserializeLatency().RecordSince(start);
+        return input;
+    }
+
+    /**
+     * Outputs produced on the process stage are queued for the publish stage; anything else,
+     * such as monitor updates raised by flow events, is sent directly.
      */
-    private void onAppMessage(MessageHandle msg) {
-        processInputMsg(_serializer.DeserializeInput(msg));
+    private void send(ByteBuffer payload, String topic, long position) {
+        if (_processStage != null && _processStage.IsCurrentThread()) {
+            PipelineRing.Slot slot = _outputRing.Claim();
+            if (slot == null)
+                return;
+            slot.Fill(payload, topic, position);
+            _outputRing.Publish();
+        }
+        else if (position == NO_INPUT) {
+            _connector.SendOutput(payload, topic);
+        }
+        else {
+            _connector.SendOutput(payload, topic, position);
+        }
+    }
+
+    private void onPublishAccepted(long correlationId) {
+        journal(JournalEventType.PUBLISH_ACCEPTED, 0, correlationId, null);
+        long rejected = _oldestRejected.get();
+        if (rejected != NO_INPUT && rejected < correlationId && _oldestRejected.compareAndSet(rejected, NO_INPUT)) {
+            // This output's state supersedes every earlier one, including those rejected
+            for(long position = rejected; position < correlationId; position++) {
+                inputCompleted(position);
+            }
+        }
+        inputCompleted(correlationId);
+    }
+
+    private void onPublishRejected(long correlationId) {
+        journal(JournalEventType.PUBLISH_REJECTED, 0, correlationId, null);
+        log(EventType.OUTPUT_REJECTED, 0, 0, correlationId);
+        // Each output is a full state snapshot, so the input completes, and may be acked,
+        // only once a later output has been accepted; until then the window holds it back
+        _oldestRejected.compareAndSet(NO_INPUT, correlationId);
+    }
+
+    private void inputCompleted(long position) {
+        AckWindow window = _ackWindow;
+        if (window != null && position != NO_INPUT)
+            window.Completed(position);
     }
 
     /**
      * Invoked on the lvqflow when flow event occurs; this is used
      * to indicate which instance in the cluster is Active
      *
-     * @param flowHandle -- the flow object for the LVQ
+     * @param event -- the flow event for the LVQ
      */
-    private void onLVQFlowEvent(FlowHandle flowHandle) {
-        FlowEvent event = flowHandle.getFlowEvent();
-        System.out.println("LVQ flow event: " + event);
-        switch (event.getFlowEventEnum())
+    private void onLVQFlowEvent(FlowEventType event) {
+        journal(JournalEventType.LVQ_FLOW_EVENT, event.ordinal(), 0, null);
+        log(EventType.LVQ_FLOW_EVENT, event.ordinal(), 0, 0);
+        switch (event)
         {
-            case SolEnum.FlowEventCode.UP_NOTICE:
+            case UP:
                 recoverLastState();
                 break;
-            case SolEnum.FlowEventCode.ACTIVE:
+            case ACTIVE:
                 becomeActive();
                 break;
-            case SolEnum.FlowEventCode.INACTIVE:
+            case INACTIVE:
                 becomeBackup();
                 break;
             default:
@@ -211,12 +579,121 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     /**
      * Invoked on the LVQBrowser flowhandle
      *
-     * @param msg -- solace msg read from the LVQ
+     * @param msg -- msg read from the LVQ
      */
-    private void onLVQMessage(MessageHandle msg) {
+    private void onLVQMessage(TransportMessage msg) {
+        journal(JournalEventType.LVQ_MESSAGE, 0, msg.getMessageId(), msg);
         processOutputMsg(_serializer.DeserializeOutput(msg));
     }
 
+    private void onLVQBrowserEvent(FlowEventType event) {
+        journal(JournalEventType.LVQ_BROWSER_EVENT, event.ordinal(), 0, null);
+        log(EventType.LVQ_BROWSER_EVENT, event.ordinal(), 0, 0);
+        if (event == FlowEventType.BROWSE_COMPLETE)
+            noLastStateMessage();
+    }
+
+    private void onLVQFlowMessage(TransportMessage msg) {
+        journal(JournalEventType.LVQ_FLOW_MESSAGE, 0, msg.getMessageId(), msg);
+        // Only for active-flow-indication; messages must never be consumed here
+        log(EventType.LVQ_MESSAGE_CONSUMED, 0, 0, 0);
+    }
+
+    private void onStateMessage(TransportMessage msg) {
+        journal(JournalEventType.STATE_MESSAGE, 0, msg.getMessageId(), msg);
+        _stateIdleSinceNanos = System.nanoTime();
+        _snapshots.OnStateMessage(msg);
+    }
+
+    private void onStateBrowserEvent(FlowEventType event) {
+        journal(JournalEventType.STATE_BROWSER_EVENT, event.ordinal(), 0, null);
+        if (event == FlowEventType.BROWSE_COMPLETE)
+            finishSnapshotRecovery();
+    }
+
+    private void onRecoveryTimeout() {
+        journal(JournalEventType.RECOVERY_TIMEOUT, 0, 0, null);
+        noLastStateMessage();
+    }
+
+    private void onStateRecoveryTimeout() {
+        journal(JournalEventType.STATE_RECOVERY_TIMEOUT, 0, 0, null);
+        finishSnapshotRecovery();
+    }
+
+    private void journal(JournalEventType type, int code, long value, TransportMessage msg) {
+        TransitionJournal journal = _journal;
+        if (journal != null)
+            journal.Append(type, code, value, msg);
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Journal Replay                             /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Feeds one journaled input through the handler that recorded it; see JournalReplayer
+     */
+    void replay(JournalReader record) {
+        TransportMessage msg = record.GetMessage();
+        switch(record.GetType()) {
+            case SESSION_EVENT:
+                onSessionEvent(SESSION_EVENTS[record.GetCode()]);
+                break;
+            case APP_FLOW_EVENT:
+                onAppFlowEvent(FLOW_EVENTS[record.GetCode()]);
+                break;
+            case APP_MESSAGE:
+                onAppMessage(msg);
+                break;
+            case LVQ_FLOW_EVENT:
+                onLVQFlowEvent(FLOW_EVENTS[record.GetCode()]);
+                break;
+            case LVQ_FLOW_MESSAGE:
+                onLVQFlowMessage(msg);
+                break;
+            case LVQ_BROWSER_EVENT:
+                onLVQBrowserEvent(FLOW_EVENTS[record.GetCode()]);
+                break;
+            case LVQ_MESSAGE:
+                onLVQMessage(msg);
+                break;
+            case STATE_BROWSER_EVENT:
+                if (_snapshots != null)
+                    onStateBrowserEvent(FLOW_EVENTS[record.GetCode()]);
+                break;
+            case STATE_MESSAGE:
+                if (_snapshots != null)
+                    onStateMessage(msg);
+                break;
+            case RECOVERY_TIMEOUT:
+                onRecoveryTimeout();
+                break;
+            case STATE_RECOVERY_TIMEOUT:
+                if (_snapshots != null)
+                    onStateRecoveryTimeout();
+                break;
+            case PUBLISH_ACCEPTED:
+                onPublishAccepted(record.GetValue());
+                break;
+            case PUBLISH_REJECTED:
+                onPublishRejected(record.GetValue());
+                break;
+            case CHECKPOINT_RESTORED:
+                restoreOutput(msg, record.GetValue());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return true once the session is up, so the queues can be bound
+     */
+    boolean isConnected() {
+        return _model.GetHAStatus() != HAState.DISCONNECTED;
+    }
+
     ////////////////////////////////////////////////////////////////////////
     //////////          State Transitions                          /////////
     ////////////////////////////////////////////////////////////////////////
@@ -226,29 +703,82 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
         _model.SetSequenceStatus(SeqState.INIT);
     }
 
+    private void setHAStatus(HAState state) {
+        HAState old = _model.SetHAStatus(state);
+        if (old != state) {
+            _metrics.HATransition();
+            log(EventType.HA_CHANGE, old.ordinal(), state.ordinal(), 0);
+        }
+    }
+
+    private void setSequenceStatus(SeqState state) {
+        SeqState old = _model.SetSequenceStatus(state);
+        if (old != state)
+            log(EventType.SEQ_CHANGE, old.ordinal(), state.ordinal(), 0);
+    }
+
+    private boolean compareAndSetSequenceStatus(SeqState expected, SeqState state) {
+        if (!_model.CompareAndSetSequenceStatus(expected, state))
+            return false;
+        if (expected != state)
+            log(EventType.SEQ_CHANGE, expected.ordinal(), state.ordinal(), 0);
+        return true;
+    }
+
+    private void log(EventType type, long a, long b, long value) {
+        EventLog log = _log;
+        if (log.IsEnabled(type))
+            log.Log(type, _logSource, _model.GetHAStatus(), _model.GetSequenceStatus(), a, b, value);
+    }
+
     /**
      * Invoked on the LVQBrowser flowhandle when message arrives
      *
      * @param lvqState -- a message from the LVQ read as port of the recovery process
      */
     private void processOutputMsg(OutputType lvqState) {
+        // Late LVQ messages after the browse completed or timed out are ignored
+        if (!_recoveryPending.compareAndSet(true, false))
+            return;
         _task.cancel();
         _lvqBrowser.stop();
+        _timeline.LastStateRead();
         // Compare the lvq-message sequenceId to our current-state sequenceId
         OutputType curState = _model.GetLastOutput();
-        String lvqstr = (lvqState==null) ? "(null)" : lvqState.toString();
-        String appstr = (curState==null) ? "(null)" : curState.toString();
-        System.out.println("LAST OUTPUT ID: {"+lvqstr+"}; CUR OUT ID: {"+appstr+"}");
-        if (lvqState != null && (curState == null ||  curState.getSequenceId() < lvqState.getSequenceId()))
+        log(EventType.LAST_STATE_READ, (lvqState == null) ? -1 : lvqState.getSequenceId(),
+                (curState == null) ? -1 : curState.getSequenceId(), 0);
+        boolean ahead = lvqState != null && (curState == null || curState.getSequenceId() < lvqState.getSequenceId());
+        _recoverUpTo = ahead ? lvqState.getSequenceId() : NO_INPUT;
+        if (_stateRecoveryPending.get()) {
+            // A state recovery is still loading; it starts the app flow when done, now up to this output
+            if (ahead) {
+                _model.SetLastOutput(lvqState);
+                _snapshotUpTo = lvqState.getSequenceId();
+            }
+            setSequenceStatus(SeqState.RECOVERING_FROM_FLOW);
+            return;
+        }
+        if (ahead)
         {
+            if (_snapshots != null && _appFlowStarted) {
+                // Its own queue holds every input since its state, so it catches up by
+                // processing them, publishing nothing until it reaches the LVQ
+                setSequenceStatus(SeqState.RECOVERING_FROM_FLOW);
+                return;
+            }
             _model.SetLastOutput(lvqState);
-            _model.SetSequenceStatus(SeqState.RECOVERING_FROM_FLOW);
+            setSequenceStatus(SeqState.RECOVERING_FROM_FLOW);
+            if (_snapshots != null) {
+                // The app flow starts once the state has caught up with the LVQ
+                recoverSnapshot(lvqState.getSequenceId());
+                return;
+            }
         }
         else
         {
-            _model.SetSequenceStatus(SeqState.UPTODATE);
+            setSequenceStatus(SeqState.UPTODATE);
         }
-        _appflow.start();
+        startAppFlow();
     }
 
     /**
@@ -261,59 +791,261 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
      * @param input -- new applicadtion input message
      */
     private void processInputMsg(InputType input) {
+        if (!trackInput(input.getSequenceId()))
+            return;
         OutputType appState = _model.GetLastOutput();
-        if (appState == null || input.getSequenceId() >= appState.getSequenceId()) {
-            if (_model.GetSequenceStatus() != SeqState.UPTODATE)
-                _model.SetSequenceStatus(SeqState.UPTODATE);
-            // Construct a new app state
+        if (!isBehind(input.getSequenceId(), appState)) {
+            // As found by the input, before it brings a recovery up to date
+            _inputHAState = _model.GetHAStatus();
+            _inputSeqState = _model.GetSequenceStatus();
+            if (_catchingUp)
+                endCatchUp(appState);
+            // Never overrides a recovery started meanwhile, which must read the LVQ first, nor
+            // one still loading state, and never publishes an output the LVQ is already past
+            if (_model.GetSequenceStatus() == SeqState.RECOVERING_FROM_FLOW && !_stateRecoveryPending.get()
+                    && input.getSequenceId() >= _recoverUpTo)
+                compareAndSetSequenceStatus(SeqState.RECOVERING_FROM_FLOW, SeqState.UPTODATE);
+            // Construct a new app state; its output is timed separately by SendOutput
+            _outputNanos = 0;
+            long start = System.nanoTime();
             _model.UpdateApplicationState(input);
+            if (input.getSequenceId() > _appliedUpTo)
+                _appliedUpTo = input.getSequenceId();
+            _metrics.GetUpdateLatency().Record(System.nanoTime() - start - _outputNanos);
+            _metrics.InputProcessed();
+            if (_log.IsEnabled(EventType.INPUT_PROCESSED)) {
+                OutputType output = _model.GetLastOutput();
+                log(EventType.INPUT_PROCESSED, input.getSequenceId(), (output == null) ? -1 : output.getSequenceId(), 0);
+            }
+            if (_checkpoint != null && ++_sinceCheckpoint >= _checkpointInterval)
+                writeCheckpoint();
         }
         else {
-            System.out.println("\tIGNORED MESSAGE {"+input.getSequenceId()
-                    +"} because it is behind recovered state {"+appState.getSequenceId()+"}");
+            _ignoredInputs++;
+            _metrics.InputIgnored();
             _model.SetLastInput(input);
         }
     }
 
+    /**
+     * @return false if the input must not be processed: a duplicate, or a gap under GapPolicy.HALT
+     */
+    private boolean trackInput(long seqId) {
+        switch(_sequences.Track(seqId)) {
+            case GAP:
+                long missing = _sequences.GetLastGapSize();
+                log(EventType.INPUT_GAP, missing, 0, seqId);
+                if (_gapPolicy == GapPolicy.HALT) {
+                    _halted = true;
+                    _appflow.stop();
+                    log(EventType.INPUT_HALTED, missing, 0, seqId);
+                    return false;
+                }
+                return true;
+            case LATE:
+                log(EventType.INPUT_REORDERED, 0, 0, seqId);
+                return true;
+            case DUPLICATE:
+                log(EventType.INPUT_DUPLICATE, 0, 0, seqId);
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return true if the input is already reflected in the application's state. With
+     * snapshots, that is the state actually restored or built from input, which may be behind
+     * the LVQ's last output when no complete snapshot was found; otherwise the given state.
+     */
+    private boolean isBehind(long inputSeqId, OutputType state) {
+        if (_snapshots != null)
+            return inputSeqId <= _appliedUpTo;
+        if (state == null)
+            return false;
+        return inputSeqId < state.getSequenceId();
+    }
+
+    private void endCatchUp(OutputType appState) {
+        _catchingUp = false;
+        if (_ackWindow != null)
+            _ackWindow.SetCatchingUp(false);
+        if (_ignoredInputs > 0)
+            log(EventType.INPUTS_IGNORED, _ignoredInputs, (appState == null) ? -1 : appState.getSequenceId(), 0);
+        _ignoredInputs = 0;
+    }
+
     /**
      * Invoked on the lvqflow when flow UP event occurs or when flow changes
      * from INACTIVE to ACTIVE This function tries to browse the message on
      * the LVQ to recover the last output state from this application
      */
     private void recoverLastState() {
-        if (_model.GetSequenceStatus() != SeqState.RECOVERING)
+        SeqState seqState;
+        do {
+            seqState = _model.GetSequenceStatus();
+        } while(seqState != SeqState.RECOVERING && !compareAndSetSequenceStatus(seqState, SeqState.RECOVERING));
+        if (seqState != SeqState.RECOVERING)
         {
-            System.out.println("Recovering last state from the LVQ, current sequence state is "
-                    + _model.GetSequenceStatus());
-            _model.SetSequenceStatus(SeqState.RECOVERING);
+            log(EventType.RECOVERY_STARTED, 0, 0, 0);
+            _metrics.LvqRecovery();
+            _catchingUp = true;
+            if (_ackWindow != null)
+                _ackWindow.SetCatchingUp(true);
+            _recoveryPending.set(true);
+            // Safety net for transports that cannot report an empty browse
+            if (_task != null)
+                _task.cancel();
             _task = new TimerTask() {
                 @Override
-                public void run() { noLastStateMessage(); }
+                public void run() { onRecoveryTimeout(); }
             };
-            _timer.schedule(_task, 250);
-            if (_lvqBrowser == null) {
-                System.out.println("Still constructing lvq browser handle");
-            }
+            _timer.schedule(_task, _recoveryTimeoutMs);
             _lvqBrowser.start(); // if a msg arrives it is passed to processLastOutputMsg (below)
         }
         else
         {
-            System.out.println("In the midst of recovering from last state, skipping the LVQ check.");
+            log(EventType.RECOVERY_IN_PROGRESS, 0, 0, 0);
         }
-        _model.SetHAStatus(HAState.BACKUP);
+        setHAStatus(HAState.BACKUP);
     }
 
     /**
      * After the lvqflow UP event occurs, the browser flow is started and
      * a timer set in case there are no LVQ messages to browse. In this case,
-     * we timed out with no messages so we give up on the LVQ and start the
-     * appflow messages from scratch.
+     * the browse completed or we timed out with no messages so we give up
+     * on the LVQ and start the appflow messages from scratch.
      */
     private void noLastStateMessage() {
+        if (!_recoveryPending.compareAndSet(true, false))
+            return;
+        _task.cancel();
         _lvqBrowser.stop();
-        _model.SetSequenceStatus(SeqState.RECOVERING_FROM_FLOW);
+        _timeline.LastStateRead();
+        _recoverUpTo = NO_INPUT;
+        setSequenceStatus(SeqState.RECOVERING_FROM_FLOW);
+        // A state recovery still loading starts the app flow when done
+        if (_stateRecoveryPending.get())
+            return;
         // TBD: DO WE SET OUTPUT STATE TO NULL?
+        startAppFlow();
+    }
+
+    /**
+     * Browses the state queue for the latest snapshot and the deltas after it. The browser
+     * is bound fresh for every recovery, so it sees the whole queue, and on the timer thread,
+     * since binding may block and must not happen on the context thread.
+     *
+     * @param upToSeqId -- sequence ID of the last output read from the LVQ
+     */
+    private void recoverSnapshot(final long upToSeqId) {
+        _snapshotUpTo = upToSeqId;
+        _snapshots.BeginRecovery();
+        _stateRecoveryPending.set(true);
+        _timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                _stateIdleSinceNanos = System.nanoTime();
+                _stateBrowser = _connector.BrowseQueue(_stateQueue,
+                        new MessageListener() {
+                            public void onMessage(TransportMessage msg) {
+                                onStateMessage(msg);
+                            }
+                        },
+                        new FlowListener() {
+                            public void onFlowEvent(FlowEventType event) {
+                                onStateBrowserEvent(event);
+                            }
+                        });
+                _stateBrowser.start();
+            }
+        }, 0);
+        // Safety net for transports that cannot report the end of a browse: give up once idle
+        _stateTask = new TimerTask() {
+            @Override
+            public void run() {
+                if (_stateRecoveryPending.get() && System.nanoTime() - _stateIdleSinceNanos >= _recoveryTimeoutMs * 1000000L)
+                    onStateRecoveryTimeout();
+            }
+        };
+        _timer.schedule(_stateTask, _recoveryTimeoutMs, _recoveryTimeoutMs);
+    }
+
+    private void finishSnapshotRecovery() {
+        if (!_stateRecoveryPending.compareAndSet(true, false))
+            return;
+        _stateTask.cancel();
+        _stateBrowser.stop();
+        _stateBrowser.destroy();
+        long restored = _snapshots.FinishRecovery(_appliedUpTo, _snapshotUpTo);
+        // Restored -1: no complete snapshot on the state queue past the state already held, so
+        // the state is left as it was and recovery replays every input after it from the app flow
+        if (restored >= 0)
+            _appliedUpTo = restored;
+        log(EventType.SNAPSHOT_RESTORED, restored, _snapshotUpTo, 0);
+        startAppFlow();
+    }
+
+    /**
+     * Starts delivery from the application queue; from then on this member builds its state
+     * from its own queue, which is never restored from the state queue under it
+     */
+    private void startAppFlow() {
+        _appFlowStarted = true;
         _appflow.start();
+        _timeline.AppFlowStarted();
+    }
+
+    /**
+     * Loads the local checkpoint as the current state; recovery then compares it with the
+     * LVQ like any other state and only restores from the broker if the LVQ is ahead.
+     */
+    private void restoreCheckpoint() {
+        if (!_checkpoint.Load()) {
+            log(EventType.CHECKPOINT_RESTORED, -1, 0, 0);
+            return;
+        }
+        final ByteBuffer output = _checkpoint.GetOutput();
+        ByteBuffer snapshot = _checkpoint.GetSnapshot();
+        if (_snapshotListener != null && snapshot.remaining() > 0) {
+            _snapshotListener.LoadSnapshot(snapshot.duplicate().order(ByteOrder.LITTLE_ENDIAN), _checkpoint.GetSequenceId());
+            _appliedUpTo = _checkpoint.GetSequenceId();
+        }
+        restoreOutput(new TransportMessage() {
+            public long getMessageId() {
+                return 0;
+            }
+
+            public void getBinaryAttachment(ByteBuffer dest) {
+                dest.put(output.duplicate());
+            }
+        }, _checkpoint.GetSequenceId());
+    }
+
+    /**
+     * Journaled, as the restored output decides how recovery proceeds; a restored snapshot is not
+     */
+    private void restoreOutput(TransportMessage output, long seqId) {
+        journal(JournalEventType.CHECKPOINT_RESTORED, 0, seqId, output);
+        _model.SetLastOutput(_serializer.DeserializeOutput(output));
+        log(EventType.CHECKPOINT_RESTORED, seqId, 0, 0);
+    }
+
+    /**
+     * Invoked on the thread processing input, right after the state changed
+     */
+    private void writeCheckpoint() {
+        _sinceCheckpoint = 0;
+        OutputType output = _model.GetLastOutput();
+        if (output == null)
+            return;
+        ByteBuffer snapshot = null;
+        if (_snapshotListener != null) {
+            snapshot = _checkpointSnapshot;
+            snapshot.clear();
+            _snapshotListener.WriteSnapshot(snapshot);
+        }
+        _checkpoint.Write(output.getSequenceId(), _serializer.SerializeOutput(output), snapshot);
     }
 
     /**
@@ -321,8 +1053,11 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
      */
     private void becomeActive()
     {
+        _timeline.FlowActive();
+        if (_snapshots != null)
+            _snapshots.ForceSnapshot();
         recoverLastState();
-        _model.SetHAStatus(HAState.ACTIVE);
+        setHAStatus(HAState.ACTIVE);
     }
 
     /**
@@ -330,17 +1065,76 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
      */
     private void becomeBackup()
     {
-        _model.SetHAStatus(HAState.BACKUP);
+        setHAStatus(HAState.BACKUP);
     }
 
 
-    private final SolaceConnector _connector;
+    private final Transport _connector;
     private final ClusterModel<InputType,OutputType> _model;
     private final ClusteredAppSerializer<InputType, OutputType> _serializer;
 
-    private FlowHandle _lvqBrowser;
-    private FlowHandle _lvqflow;
-    private FlowHandle _appflow;
-    private final Timer _timer = new Timer();
+    private TransportFlow _lvqBrowser;
+    private TransportFlow _lvqflow;
+    private TransportFlow _appflow;
+    private final Timer _timer;
     private TimerTask _task;
+    private volatile long _recoveryTimeoutMs = 250;
+    // Set while a recovery waits on the LVQ; whichever of the LVQ message, the end of the
+    // browse or the timeout clears it finishes the recovery
+    private final AtomicBoolean _recoveryPending = new AtomicBoolean(false);
+    private final FailoverTimeline _timeline = new FailoverTimeline();
+    private final ClusterMetrics _metrics;
+    private volatile EventLog _log = EventLog.Console();
+    private volatile int _logSource;
+    private volatile TransitionJournal _journal;
+    // Time spent publishing the output of the input being processed (processing thread only)
+    private long _outputNanos;
+
+    private SnapshotReplicator _snapshots;
+    private String _stateQueue;
+    private volatile TransportFlow _stateBrowser;
+    private TimerTask _stateTask;
+    private volatile long _snapshotUpTo;
+    // Sequence ID of the last input reflected in the application's state, by restore or by processing;
+    // it never decreases
+    private volatile long _appliedUpTo = NO_INPUT;
+    // Sequence ID of the LVQ's last output when it was ahead at the last recovery; outputs
+    // before it are never published again
+    private volatile long _recoverUpTo = NO_INPUT;
+    private volatile boolean _appFlowStarted;
+    private volatile long _stateIdleSinceNanos;
+    private final AtomicBoolean _stateRecoveryPending = new AtomicBoolean(false);
+    private SnapshotListener _snapshotListener;
+
+    private CheckpointStore _checkpoint;
+    private int _checkpointInterval;
+    private int _sinceCheckpoint;
+    private ByteBuffer _checkpointSnapshot;
+
+    private static final long NO_INPUT = -1;
+    private static final int DEFAULT_SEQUENCE_WINDOW = 4096;
+    private static final SessionEventType[] SESSION_EVENTS = SessionEventType.values();
+    private static final FlowEventType[] FLOW_EVENTS = FlowEventType.values();
+    private volatile AckWindow _ackWindow;
+    // Window position of the input being processed, and whether its output was sent
+    // (only touched by the thread processing input)
+    private long _inputPosition = NO_INPUT;
+    private boolean _outputTracked;
+    // Position of the oldest input whose output was rejected and not yet superseded
+    private final AtomicLong _oldestRejected = new AtomicLong(NO_INPUT);
+    // Latency stamps of the input being processed
+    private long _inputReceived;
+    private HAState _inputHAState;
+    private SeqState _inputSeqState;
+    // Set by each recovery until the first input past the recovered state is processed
+    private volatile boolean _catchingUp;
+    private SequenceTracker _sequences = new SequenceTracker(DEFAULT_SEQUENCE_WINDOW);
+    private GapPolicy _gapPolicy = GapPolicy.PROCESS;
+    private volatile boolean _halted;
+    private long _ignoredInputs;
+
+    private PipelineRing _inputRing;
+    private PipelineRing _outputRing;
+    private PipelineStage _processStage;
+    private PipelineStage _publishStage;
 }
@@ -0,0 +1,142 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.Helper;
+import com.solacesystems.poc.conn.LatencyHistogram;
+
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and per-stage latency histograms of a ClusterConnector. The stages of an input
+ * that changes the state are deserialize, update (the application's UpdateApplicationState,
+ * excluding the output it sends), serialize and send (handing the output to the transport,
+ * or to the publish stage in pipeline mode).
+ *
+ * Registered as MBeans under the member's client name while it is connected.
+ */
+public class ClusterMetrics implements ClusterMetricsMBean {
+    ClusterMetrics(ClusterModel<?, ?> model, ClusterConnector<?, ?> connector) {
+        _model = model;
+        _connector = connector;
+    }
+
+    public LatencyHistogram GetDeserializeLatency() {
+        return _deserialize;
+    }
+
+    public LatencyHistogram GetUpdateLatency() {
+        return _update;
+    }
+
+    public LatencyHistogram GetSerializeLatency() {
+        return _serialize;
+    }
+
+    public LatencyHistogram GetSendLatency() {
+        return _send;
+    }
+
+    ////// ClusterMetricsMBean //////
+
+    public long getInputsProcessed() {
+        return _inputsProcessed.get();
+    }
+
+    public long getInputsIgnored() {
+        return _inputsIgnored.get();
+    }
+
+    public long getOutputsSuppressed() {
+        return _outputsSuppressed.get();
+    }
+
+    public long getLvqRecoveries() {
+        return _lvqRecoveries.get();
+    }
+
+    public long getHaTransitions() {
+        return _haTransitions.get();
+    }
+
+    public String getHAState() {
+        return String.valueOf(_model.GetHAStatus());
+    }
+
+    public String getSequenceState() {
+        return String.valueOf(_model.GetSequenceStatus());
+    }
+
+    public long getLastInputSequenceId() {
+        return _model.GetLastInputSequenceId();
+    }
+
+    public long getLastOutputSequenceId() {
+        return _model.GetLastOutputSequenceId();
+    }
+
+    public int getInputQueueDepth() {
+        return _connector.GetInputQueueDepth();
+    }
+
+    public int getOutputQueueDepth() {
+        return _connector.GetOutputQueueDepth();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    void Register(String clientName) {
+        Unregister();
+        _names = new ObjectName[] {
+                Helper.registerMBean(this, "type=ClusterMetrics,client=" + clientName),
+                Helper.registerMBean(_deserialize, "type=Latency,client=" + clientName + ",stage=deserialize"),
+                Helper.registerMBean(_update, "type=Latency,client=" + clientName + ",stage=update"),
+                Helper.registerMBean(_serialize, "type=Latency,client=" + clientName + ",stage=serialize"),
+                Helper.registerMBean(_send, "type=Latency,client=" + clientName + ",stage=send"),
+                Helper.registerMBean(_connector.GetSequenceTracker(), "type=SequenceTracker,client=" + clientName + ",stream=input")
+        };
+    }
+
+    void Unregister() {
+        if (_names == null)
+            return;
+        for(ObjectName name : _names) {
+            Helper.unregisterMBean(name);
+        }
+        _names = null;
+    }
+
+    void InputProcessed() {
+        _inputsProcessed.incrementAndGet();
+    }
+
+    void InputIgnored() {
+        _inputsIgnored.incrementAndGet();
+    }
+
+    void OutputSuppressed() {
+        _outputsSuppressed.incrementAndGet();
+    }
+
+    void LvqRecovery() {
+        _lvqRecoveries.incrementAndGet();
+    }
+
+    void HATransition() {
+        _haTransitions.incrementAndGet();
+    }
+
+    private final ClusterModel<?, ?> _model;
+    private final ClusterConnector<?, ?> _connector;
+    private ObjectName[] _names;
+
+    private final LatencyHistogram _deserialize = new LatencyHistogram();
+    private final LatencyHistogram _update = new LatencyHistogram();
+    private final LatencyHistogram _serialize = new LatencyHistogram();
+    private final LatencyHistogram _send = new LatencyHistogram();
+
+    private final AtomicLong _inputsProcessed = new AtomicLong();
+    private final AtomicLong _inputsIgnored = new AtomicLong();
+    private final AtomicLong _outputsSuppressed = new AtomicLong();
+    private final AtomicLong _lvqRecoveries = new AtomicLong();
+    private final AtomicLong _haTransitions = new AtomicLong();
+}
@@ -0,0 +1,29 @@
+package com.solacesystems.poc.model;
+
+/**
+ * JMX view of a cluster member: its counters plus the current cluster state, so a member
+ * falling behind shows up as its last input or output sequence ID lagging its peers'.
+ */
+public interface ClusterMetricsMBean {
+    long getInputsProcessed();
+
+    long getInputsIgnored();
+
+    long getOutputsSuppressed();
+
+    long getLvqRecoveries();
+
+    long getHaTransitions();
+
+    String getHAState();
+
+    String getSequenceState();
+
+    long getLastInputSequenceId();
+
+    long getLastOutputSequenceId();
+
+    int getInputQueueDepth();
+
+    int getOutputQueueDepth();
+}
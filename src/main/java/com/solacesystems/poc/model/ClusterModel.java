@@ -1,44 +1,143 @@
 package com.solacesystems.poc.model;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Stores all the state relevant to the cluster member instance include HA state,
  * Sequencing state, and last input/output state messages
  *
  * The cluster model also updates a ClusterEventListener on all state changes.
  *
+ * The model is written from the transport's context thread, timer threads and the thread
+ * processing input, and read from any thread. HA and sequence state are packed into one
+ * atomic word together with a version, so every transition, conditional or not, is a single
+ * compare-and-set and readers of either state never lock.
+ *
+ * The last input and output are kept outside that word. They are mostly written by the
+ * thread processing input, but recovery also sets the last output on the context thread
+ * while inputs are being processed in a pipeline. A writer makes an update count odd with a
+ * compare-and-set and even again when done, so writers exclude each other; the per-input
+ * update takes no lock and never waits on a state transition, only, rarely, on a recovery's
+ * write. ReadSnapshot retries while an update is in progress, or if the word or the count
+ * moved while it read, until it sees all four values from the same moment; writers never
+ * wait on it. Listeners are notified after the write.
+ *
  * @param <InputType> -- input message type; must extend Ordered to ensure a sequence number is present
  * @param <OutputType>-- output message type; must also extend Ordered to ensure a sequence number is present
  */
 public class ClusterModel<InputType extends Ordered, OutputType extends Ordered> {
     public ClusterModel(ClusterEventListener<InputType,OutputType> listener) {
         _listener = listener;
-        _haStatus = HAState.DISCONNECTED;
-        _seqStatus= SeqState.INIT;
+        _word = new AtomicLong(pack(HAState.DISCONNECTED, SeqState.INIT, 0));
+    }
+
+    /**
+     * A consistent view of the model's state at one moment; reused across reads
+     */
+    public static class Snapshot {
+        public HAState GetHAStatus() {
+            return _haStatus;
+        }
+
+        public SeqState GetSequenceStatus() {
+            return _seqStatus;
+        }
+
+        /**
+         * @return the last input's sequence ID, or -1 if there is none
+         */
+        public long GetLastInputSequenceId() {
+            return _lastInputSeqId;
+        }
+
+        /**
+         * @return the last output's sequence ID, or -1 if there is none
+         */
+        public long GetLastOutputSequenceId() {
+            return _lastOutputSeqId;
+        }
+
+        private HAState _haStatus;
+        private SeqState _seqStatus;
+        private long _lastInputSeqId;
+        private long _lastOutputSeqId;
     }
 
     public HAState GetHAStatus() {
-        return _haStatus;
+        return haOf(_word.get());
+    }
+
+    /**
+     * @return the previous HA state
+     */
+    public HAState SetHAStatus(HAState haStatus) {
+        long old;
+        do {
+            old = _word.get();
+        } while(!_word.compareAndSet(old, next(old, haStatus, seqOf(old))));
+        _listener.OnHAStateChange(haOf(old), haStatus);
+        return haOf(old);
     }
-    public void SetHAStatus(HAState haStatus) {
-        HAState old = _haStatus;
-        _haStatus = haStatus;
-        _listener.OnHAStateChange(old, haStatus);
+
+    /**
+     * Changes the HA state only if it is still the expected one
+     */
+    public boolean CompareAndSetHAStatus(HAState expected, HAState haStatus) {
+        long old;
+        do {
+            old = _word.get();
+            if (haOf(old) != expected)
+                return false;
+        } while(!_word.compareAndSet(old, next(old, haStatus, seqOf(old))));
+        _listener.OnHAStateChange(expected, haStatus);
+        return true;
     }
 
     public SeqState GetSequenceStatus() {
-        return _seqStatus;
+        return seqOf(_word.get());
     }
-    public void SetSequenceStatus(SeqState seqStatus) {
-        SeqState old = seqStatus;
-        _seqStatus = seqStatus;
-        _listener.OnSeqStateChange(old, seqStatus);
+
+    /**
+     * @return the previous sequence state
+     */
+    public SeqState SetSequenceStatus(SeqState seqStatus) {
+        long old;
+        do {
+            old = _word.get();
+        } while(!_word.compareAndSet(old, next(old, haOf(old), seqStatus)));
+        _listener.OnSeqStateChange(seqOf(old), seqStatus);
+        return seqOf(old);
+    }
+
+    /**
+     * Changes the sequence state only if it is still the expected one
+     */
+    public boolean CompareAndSetSequenceStatus(SeqState expected, SeqState seqStatus) {
+        long old;
+        do {
+            old = _word.get();
+            if (seqOf(old) != expected)
+                return false;
+        } while(!_word.compareAndSet(old, next(old, haOf(old), seqStatus)));
+        _listener.OnSeqStateChange(expected, seqStatus);
+        return true;
+    }
+
+    /**
+     * @return true if this member is responsible for output, read from a single atomic word
+     */
+    public boolean IsActiveAndUpToDate() {
+        long word = _word.get();
+        return haOf(word) == HAState.ACTIVE && seqOf(word) == SeqState.UPTODATE;
     }
 
     public InputType GetLastInput() {
         return _lastInput;
     }
     public void SetLastInput(InputType lastInput) {
-        _lastInput = lastInput;
+        beginUpdate();
+        setLastInput(lastInput);
+        endUpdate();
         _listener.OnApplicationMessage(lastInput);
     }
 
@@ -46,10 +145,42 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
         return _lastOutput;
     }
     public void SetLastOutput(OutputType lastOutput) {
-        _lastOutput = lastOutput;
+        beginUpdate();
+        setLastOutput(lastOutput);
+        endUpdate();
         _listener.OnInitialStateMessage(lastOutput);
     }
 
+    public long GetLastInputSequenceId() {
+        return _lastInputSeqId;
+    }
+
+    public long GetLastOutputSequenceId() {
+        return _lastOutputSeqId;
+    }
+
+    /**
+     * Fills the snapshot with the HA state, sequence state and last input and output
+     * sequence IDs as of one moment, without locking; retries only while a write overlaps
+     */
+    public void ReadSnapshot(Snapshot snapshot) {
+        while(true) {
+            long word = _word.get();
+            long updates = _updates.get();
+            if (isUpdating(updates))
+                continue;
+            long lastInputSeqId = _lastInputSeqId;
+            long lastOutputSeqId = _lastOutputSeqId;
+            if (_updates.get() != updates || _word.get() != word)
+                continue;
+            snapshot._haStatus = haOf(word);
+            snapshot._seqStatus = seqOf(word);
+            snapshot._lastInputSeqId = lastInputSeqId;
+            snapshot._lastOutputSeqId = lastOutputSeqId;
+            return;
+        }
+    }
+
     /**
      * This is an important variation of SetLastInput where the
      * ClusterConnector knows that the cluster instance is up-to-date,
@@ -58,23 +189,94 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @param input -- the input message driving a potential application state change
      */
     public void UpdateApplicationState(InputType input) {
-        _lastOutput = _listener.UpdateApplicationState(input);
-        _lastInput = input;
+        // The application runs before the update, as its output reads the model
+        OutputType output = _listener.UpdateApplicationState(input);
+        beginUpdate();
+        setLastOutput(output);
+        setLastInput(input);
+        endUpdate();
     }
 
     @Override
     public String toString() {
-        return  "] HA = ["  + _haStatus +
-                "] SEQ = [" + _seqStatus +
-                "] IN = ["  + (_lastInput==null ? "(null)" : _lastInput.getSequenceId()) +
-                "] OUT = [" + (_lastOutput==null ? "(null)" : _lastOutput.getSequenceId()) + "]";
+        Snapshot snapshot = new Snapshot();
+        ReadSnapshot(snapshot);
+        return  "] HA = ["  + snapshot._haStatus +
+                "] SEQ = [" + snapshot._seqStatus +
+                "] IN = ["  + snapshot._lastInputSeqId +
+                "] OUT = [" + snapshot._lastOutputSeqId + "]";
     }
 
-    private HAState _haStatus;
-    private SeqState _seqStatus;
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Makes the update count odd, once no other writer holds it odd
+     */
+    private void beginUpdate() {
+        while(true) {
+            long updates = _updates.get();
+            if (!isUpdating(updates) && _updates.compareAndSet(updates, updates + 1))
+                return;
+        }
+    }
+
+    private void endUpdate() {
+        _updates.incrementAndGet();
+    }
+
+    private void setLastInput(InputType lastInput) {
+        _lastInput = lastInput;
+        _lastInputSeqId = (lastInput == null) ? -1 : lastInput.getSequenceId();
+    }
+
+    private void setLastOutput(OutputType lastOutput) {
+        _lastOutput = lastOutput;
+        _lastOutputSeqId = (lastOutput == null) ? -1 : lastOutput.getSequenceId();
+    }
+
+    /**
+     * @return the word with the given states and the next version
+     */
+    private static long next(long old, HAState haStatus, SeqState seqStatus) {
+        return pack(haStatus, seqStatus, versionOf(old) + 1);
+    }
+
+    private static long pack(HAState haStatus, SeqState seqStatus, long version) {
+        return ((long) haStatus.ordinal() << HA_SHIFT) | ((long) seqStatus.ordinal() << SEQ_SHIFT) | (version & VERSION_MASK);
+    }
+
+    private static HAState haOf(long word) {
+        return HA_STATES[(int) (word >>> HA_SHIFT) & STATE_MASK];
+    }
+
+    private static SeqState seqOf(long word) {
+        return SEQ_STATES[(int) (word >>> SEQ_SHIFT) & STATE_MASK];
+    }
+
+    private static long versionOf(long word) {
+        return word & VERSION_MASK;
+    }
+
+    private static boolean isUpdating(long updates) {
+        return (updates & 1) != 0;
+    }
+
+    // Word layout: HA state (8 bits), sequence state (8 bits), version (48 bits)
+    private static final int HA_SHIFT = 56;
+    private static final int SEQ_SHIFT = 48;
+    private static final int STATE_MASK = 0xff;
+    private static final long VERSION_MASK = (1L << SEQ_SHIFT) - 1;
+    private static final HAState[] HA_STATES = HAState.values();
+    private static final SeqState[] SEQ_STATES = SeqState.values();
+
+    private final AtomicLong _word;
 
-    private InputType _lastInput;
-    private OutputType _lastOutput;
+    // Odd while the last input and output are being written, by one writer at a time
+    private final AtomicLong _updates = new AtomicLong();
+    private volatile InputType _lastInput;
+    private volatile OutputType _lastOutput;
+    private volatile long _lastInputSeqId = -1;
+    private volatile long _lastOutputSeqId = -1;
 
     private final ClusterEventListener<InputType,OutputType> _listener;
 }
@@ -1,6 +1,6 @@
 package com.solacesystems.poc.model;
 
-import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.poc.conn.TransportMessage;
 
 import java.nio.ByteBuffer;
 
@@ -14,9 +14,18 @@ import java.nio.ByteBuffer;
  */
 public interface ClusteredAppSerializer<InputType extends Ordered, OutputType extends Ordered> {
 
-    InputType DeserializeInput(MessageHandle msg);
+    InputType DeserializeInput(TransportMessage msg);
 
-    OutputType DeserializeOutput(MessageHandle msg);
+    /**
+     * Reads only the sequence ID of an input, so inputs behind the recovered state can be
+     * discarded without being decoded
+     */
+    long PeekInputSequenceId(TransportMessage msg);
 
+    OutputType DeserializeOutput(TransportMessage msg);
+
+    /**
+     * @return the output in its written state; the connector is done with it by the next call
+     */
     ByteBuffer SerializeOutput(OutputType output);
 }
@@ -0,0 +1,14 @@
+package com.solacesystems.poc.model;
+
+/**
+ * Severity of an EventType; an EventLog records the events at or above its level
+ */
+public enum EventLevel {
+    ERROR,
+    WARN,
+    INFO,
+    /**
+     * Per-message events; only enable when the extra ring traffic is acceptable
+     */
+    DEBUG
+}
@@ -0,0 +1,266 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.Helper;
+
+import javax.management.ObjectName;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous event log. Log() writes a fixed-layout record (nanotime, event type, source,
+ * HA and sequence state, three long arguments) into a preallocated ring without
+ * locking or allocating, and a background thread drains the ring either to a binary file,
+ * read back with EventLogDecoder, or as text to the console. When the ring is full the event
+ * is dropped and counted rather than blocking the caller.
+ *
+ * The level can be changed at runtime, also through the EventLogMBean.
+ *
+ * File layout: a header { magic, version, epoch millis, nanotime } taken when the log was
+ * opened, so record times can be rendered as wall-clock time, followed by 40 byte records
+ * { nanotime(8), type(2), HA state(1), sequence state(1), source(4), a(8), b(8), value(8) }.
+ */
+public class EventLog implements EventLogMBean {
+    /**
+     * Creates a log drained as text to the console
+     */
+    public EventLog(int ringSize) {
+        this(ringSize, null, "console");
+    }
+
+    /**
+     * Creates a log drained as binary records to the given file
+     */
+    public EventLog(int ringSize, String path) {
+        this(ringSize, openFile(path), path);
+    }
+
+    private EventLog(int ringSize, FileChannel file, String name) {
+        if (ringSize < 2 || Integer.bitCount(ringSize) != 1)
+            throw new IllegalArgumentException("Event log ring size must be a power of two");
+        _mask = ringSize - 1;
+        _records = new long[ringSize * RECORD_WORDS];
+        _published = new AtomicLongArray(ringSize);
+        _file = file;
+        _out = ByteBuffer.allocate(HEADER_SIZE + OUT_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (_file != null)
+            _out.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(System.nanoTime());
+        _mbeanName = Helper.registerMBean(this, "type=EventLog,name=" + ObjectName.quote(name));
+        _drainer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "event-log-writer");
+        _drainer.setDaemon(true);
+        _drainer.start();
+    }
+
+    /**
+     * @return the log shared by connectors that were not given one, drained to the console
+     */
+    public static synchronized EventLog Console() {
+        if (_console == null)
+            _console = new EventLog(DEFAULT_RING_SIZE);
+        return _console;
+    }
+
+    public void SetLevel(EventLevel level) {
+        _level = level;
+    }
+
+    public EventLevel GetLevel() {
+        return _level;
+    }
+
+    public boolean IsEnabled(EventType type) {
+        return type.GetLevel().ordinal() <= _level.ordinal();
+    }
+
+    public void Log(EventType type, int source, HAState haState, SeqState seqState, long a, long b, long value) {
+        if (!IsEnabled(type))
+            return;
+        long seq;
+        do {
+            seq = _claimed.get();
+            if (seq - _drained.get() > _mask) {
+                _dropped.incrementAndGet();
+                return;
+            }
+        } while(!_claimed.compareAndSet(seq, seq + 1));
+        int index = (int) (seq & _mask);
+        int base = index * RECORD_WORDS;
+        _records[base] = System.nanoTime();
+        _records[base + 1] = ((long) type.ordinal() << 48)
+                | ((long) ordinal(haState) << 40)
+                | ((long) ordinal(seqState) << 32)
+                | (source & 0xffffffffL);
+        _records[base + 2] = a;
+        _records[base + 3] = b;
+        _records[base + 4] = value;
+        // Publishes the plain writes above to the drainer
+        _published.set(index, seq + 1);
+    }
+
+    /**
+     * Drains what has been logged so far, then stops the writer and closes the file
+     */
+    public void Close() {
+        _closed = true;
+        LockSupport.unpark(_drainer);
+        try {
+            _drainer.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Helper.unregisterMBean(_mbeanName);
+    }
+
+    ////// EventLogMBean //////
+
+    public String getLevel() {
+        return _level.name();
+    }
+
+    public void setLevel(String level) {
+        _level = EventLevel.valueOf(level.toUpperCase());
+    }
+
+    public long getDropped() {
+        return _dropped.get();
+    }
+
+    public long getWritten() {
+        return _drained.get();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Renders one record as text; shared with EventLogDecoder
+     */
+    static String Render(long nanos, int type, int haState, int seqState, int source, long a, long b, long value) {
+        StringBuilder sb = new StringBuilder(96);
+        EventType[] types = EventType.values();
+        sb.append(nanos).append(" [").append(source).append("] ")
+                .append(EventType.render(haState, HAState.values())).append('/')
+                .append(EventType.render(seqState, SeqState.values())).append(' ');
+        if (type < types.length) {
+            sb.append(types[type].name());
+            types[type].RenderArgs(sb, a, b, value);
+        }
+        else {
+            sb.append("UNKNOWN(").append(type).append(") ").append(a).append(' ').append(b).append(' ').append(value);
+        }
+        return sb.toString();
+    }
+
+    private void drain() {
+        long next = 0;
+        while(true) {
+            boolean closed = _closed;
+            int index = (int) (next & _mask);
+            if (_published.get(index) == next + 1) {
+                write(index);
+                _drained.set(++next);
+                continue;
+            }
+            flush();
+            if (closed) {
+                closeFile();
+                return;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private void write(int index) {
+        int base = index * RECORD_WORDS;
+        long nanos = _records[base];
+        long header = _records[base + 1];
+        long a = _records[base + 2];
+        long b = _records[base + 3];
+        long value = _records[base + 4];
+        int type = (int) (header >>> 48);
+        int haState = (byte) (header >>> 40);
+        int seqState = (byte) (header >>> 32);
+        int source = (int) header;
+        if (_file == null) {
+            System.out.println(Render(nanos, type, haState, seqState, source, a, b, value));
+            return;
+        }
+        if (_out.remaining() < RECORD_SIZE)
+            flush();
+        _out.putLong(nanos).putShort((short) type).put((byte) haState).put((byte) seqState)
+                .putInt(source).putLong(a).putLong(b).putLong(value);
+    }
+
+    private void flush() {
+        if (_file == null || _out.position() == 0)
+            return;
+        _out.flip();
+        try {
+            while(_out.hasRemaining()) {
+                _file.write(_out);
+            }
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+        }
+        _out.clear();
+    }
+
+    private void closeFile() {
+        if (_file == null)
+            return;
+        try {
+            _file.close();
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static FileChannel openFile(String path) {
+        try {
+            return new FileOutputStream(path).getChannel();
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Failed to open event log " + path, e);
+        }
+    }
+
+    private static int ordinal(Enum<?> e) {
+        return (e == null) ? 0xff : e.ordinal();
+    }
+
+    static final int MAGIC = 0x474c5645; // "EVLG"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 40;
+    private static final int RECORD_WORDS = 5;
+    private static final int OUT_RECORDS = 256;
+    private static final int DEFAULT_RING_SIZE = 8192;
+    private static final long IDLE_PARK_NANOS = 1000000;
+    private static EventLog _console;
+
+    private final int _mask;
+    private final long[] _records;
+    // Slot i holds the claim sequence + 1 of the record last written to it
+    private final AtomicLongArray _published;
+    private final AtomicLong _claimed = new AtomicLong();
+    private final AtomicLong _drained = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private volatile EventLevel _level = EventLevel.INFO;
+    private volatile boolean _closed;
+
+    private final FileChannel _file;
+    private final ByteBuffer _out;
+    private final ObjectName _mbeanName;
+    private final Thread _drainer;
+}
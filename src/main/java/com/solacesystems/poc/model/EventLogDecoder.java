@@ -0,0 +1,64 @@
+package com.solacesystems.poc.model;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Renders a binary EventLog file as text, one line per record, with wall-clock timestamps
+ * derived from the time the log was opened.
+ */
+public class EventLogDecoder {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("USAGE: EventLogDecoder <EVENT-LOG-FILE>\n\n\n");
+            return;
+        }
+        Decode(args[0], System.out);
+    }
+
+    /**
+     * @return the number of records decoded
+     */
+    public static int Decode(String path, PrintStream out) throws IOException {
+        FileInputStream in = new FileInputStream(path);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while(buf.hasRemaining() && channel.read(buf) >= 0) {
+            }
+            buf.flip();
+            if (buf.remaining() < EventLog.HEADER_SIZE || buf.getInt() != EventLog.MAGIC)
+                throw new IOException(path + " is not an event log");
+            int version = buf.getInt();
+            if (version != EventLog.VERSION)
+                throw new IOException("Unsupported event log version " + version);
+            long epochMillis = buf.getLong();
+            long startNanos = buf.getLong();
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            int count = 0;
+            while(buf.remaining() >= EventLog.RECORD_SIZE) {
+                long nanos = buf.getLong();
+                int type = buf.getShort() & 0xffff;
+                int haState = buf.get();
+                int seqState = buf.get();
+                int source = buf.getInt();
+                long a = buf.getLong();
+                long b = buf.getLong();
+                long value = buf.getLong();
+                String wallClock = format.format(new Date(epochMillis + (nanos - startNanos) / 1000000));
+                out.println(wallClock + " " + EventLog.Render(nanos, type, haState, seqState, source, a, b, value));
+                count++;
+            }
+            return count;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
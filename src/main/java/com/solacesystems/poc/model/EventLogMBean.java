@@ -0,0 +1,14 @@
+package com.solacesystems.poc.model;
+
+/**
+ * JMX control of an EventLog; the level is one of the EventLevel names
+ */
+public interface EventLogMBean {
+    String getLevel();
+
+    void setLevel(String level);
+
+    long getDropped();
+
+    long getWritten();
+}
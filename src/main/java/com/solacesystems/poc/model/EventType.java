@@ -0,0 +1,75 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.FlowEventType;
+
+/**
+ * The events a ClusterConnector records in its EventLog. Every record carries three long
+ * arguments, a, b and value; each type names the ones it uses. The a and b arguments of
+ * flow events and state transitions are enum ordinals, rendered by name.
+ */
+public enum EventType {
+    INPUT_PROCESSED(EventLevel.DEBUG, "in", "out", null),
+    INPUTS_IGNORED(EventLevel.INFO, "count", "state", null),
+    OUTPUT_REJECTED(EventLevel.WARN, null, null, "position"),
+    LVQ_FLOW_EVENT(EventLevel.INFO, "event", FlowEventType.values(), null, null),
+    LVQ_BROWSER_EVENT(EventLevel.INFO, "event", FlowEventType.values(), null, null),
+    LVQ_MESSAGE_CONSUMED(EventLevel.ERROR, null, null, null),
+    RECOVERY_STARTED(EventLevel.INFO, null, null, null),
+    RECOVERY_IN_PROGRESS(EventLevel.INFO, null, null, null),
+    LAST_STATE_READ(EventLevel.INFO, "lvq", "current", null),
+    SNAPSHOT_RESTORED(EventLevel.INFO, "restored", "lastOutput", null),
+    CHECKPOINT_RESTORED(EventLevel.INFO, "seq", null, null),
+    HA_CHANGE(EventLevel.INFO, "from", HAState.values(), "to", HAState.values()),
+    SEQ_CHANGE(EventLevel.INFO, "from", SeqState.values(), "to", SeqState.values()),
+    FAILOVER_TIMELINE(EventLevel.INFO, "lvqReadUs", "appFlowStartUs", "firstOutputUs"),
+    INPUT_GAP(EventLevel.WARN, "missing", null, "seq"),
+    INPUT_REORDERED(EventLevel.INFO, null, null, "seq"),
+    INPUT_DUPLICATE(EventLevel.INFO, null, null, "seq"),
+    INPUT_HALTED(EventLevel.ERROR, "missing", null, "seq");
+
+    EventType(EventLevel level, String a, String b, String value) {
+        this(level, a, null, b, null, value);
+    }
+
+    EventType(EventLevel level, String a, Enum<?>[] aNames, String b, Enum<?>[] bNames) {
+        this(level, a, aNames, b, bNames, null);
+    }
+
+    EventType(EventLevel level, String a, Enum<?>[] aNames, String b, Enum<?>[] bNames, String value) {
+        _level = level;
+        _a = a;
+        _aNames = aNames;
+        _b = b;
+        _bNames = bNames;
+        _value = value;
+    }
+
+    public EventLevel GetLevel() {
+        return _level;
+    }
+
+    /**
+     * Appends the arguments this type uses
+     */
+    void RenderArgs(StringBuilder sb, long a, long b, long value) {
+        if (_a != null)
+            sb.append(' ').append(_a).append('=').append(render(a, _aNames));
+        if (_b != null)
+            sb.append(' ').append(_b).append('=').append(render(b, _bNames));
+        if (_value != null)
+            sb.append(' ').append(_value).append('=').append(value);
+    }
+
+    static String render(long arg, Enum<?>[] names) {
+        if (names == null || arg < 0 || arg >= names.length)
+            return String.valueOf(arg);
+        return names[(int) arg].name();
+    }
+
+    private final EventLevel _level;
+    private final String _a;
+    private final Enum<?>[] _aNames;
+    private final String _b;
+    private final Enum<?>[] _bNames;
+    private final String _value;
+}
@@ -0,0 +1,87 @@
+package com.solacesystems.poc.model;
+
+/**
+ * Timestamps the phases of the most recent takeover by this cluster member, measured from
+ * the flow event that made it active: reading the last state from the LVQ, starting the
+ * app flow, and publishing the first output. Phases not reached yet read as -1.
+ */
+public class FailoverTimeline {
+
+    /**
+     * @return microseconds from becoming active to the LVQ read completing, or -1
+     */
+    public long GetLastStateReadMicros() {
+        return sinceActive(_lastStateReadNanos);
+    }
+
+    /**
+     * @return microseconds from becoming active to the app flow being started, or -1
+     */
+    public long GetAppFlowStartMicros() {
+        return sinceActive(_appFlowStartNanos);
+    }
+
+    /**
+     * @return microseconds from becoming active to the first output being published, or -1
+     */
+    public long GetFirstOutputMicros() {
+        return sinceActive(_firstOutputNanos);
+    }
+
+    /**
+     * @return true once this member has become active at least once
+     */
+    public boolean IsActive() {
+        return _activeNanos != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LVQ read +" + GetLastStateReadMicros() +
+                "us, appflow start +" + GetAppFlowStartMicros() +
+                "us, first output +" + GetFirstOutputMicros() + "us";
+    }
+
+    synchronized void FlowActive() {
+        _activeNanos = System.nanoTime();
+        _lastStateReadNanos = 0;
+        _appFlowStartNanos = 0;
+        _firstOutputNanos = 0;
+    }
+
+    synchronized void LastStateRead() {
+        if (_activeNanos != 0 && _lastStateReadNanos == 0)
+            _lastStateReadNanos = System.nanoTime();
+    }
+
+    synchronized void AppFlowStarted() {
+        if (_activeNanos != 0 && _appFlowStartNanos == 0)
+            _appFlowStartNanos = System.nanoTime();
+    }
+
+    /**
+     * @return true if this was the first output since becoming active
+     */
+    boolean OutputPublished() {
+        // Checked without the lock first as this is on the per-message path
+        if (_firstOutputNanos != 0)
+            return false;
+        synchronized (this) {
+            if (_activeNanos == 0 || _firstOutputNanos != 0)
+                return false;
+            _firstOutputNanos = System.nanoTime();
+            return true;
+        }
+    }
+
+    private long sinceActive(long nanos) {
+        if (_activeNanos == 0 || nanos == 0)
+            return -1;
+        return (nanos - _activeNanos) / 1000;
+    }
+
+    private volatile long _activeNanos;
+    private volatile long _lastStateReadNanos;
+    private volatile long _appFlowStartNanos;
+    private volatile long _firstOutputNanos;
+}
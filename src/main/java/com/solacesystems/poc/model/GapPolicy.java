@@ -0,0 +1,17 @@
+package com.solacesystems.poc.model;
+
+/**
+ * What a ClusterConnector does with an input that skips sequence IDs. Gaps are always
+ * counted and logged, and duplicates are always discarded.
+ */
+public enum GapPolicy {
+    /**
+     * Processes the input; the state moves past the missing inputs
+     */
+    PROCESS,
+    /**
+     * Stops processing input at the first gap. With an ack window the input that revealed
+     * the gap and all after it stay unacknowledged, so they are redelivered on restart.
+     */
+    HALT
+}
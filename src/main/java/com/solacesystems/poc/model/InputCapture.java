@@ -0,0 +1,214 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.FlowEventType;
+import com.solacesystems.poc.conn.FlowListener;
+import com.solacesystems.poc.conn.MessageListener;
+import com.solacesystems.poc.conn.SessionEventType;
+import com.solacesystems.poc.conn.SessionListener;
+import com.solacesystems.poc.conn.SolaceConnector;
+import com.solacesystems.poc.conn.SymbolDictionary;
+import com.solacesystems.poc.conn.SymbolTopic;
+import com.solacesystems.poc.conn.Transport;
+import com.solacesystems.poc.conn.TransportFlow;
+import com.solacesystems.poc.conn.TransportMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only, memory-mapped capture of an application's input messages as they were
+ * serialized, for backtesting new application logic offline (see CaptureReplayer).
+ *
+ * A tap binds its own queue, subscribed to the same topics as the application queue, so
+ * capturing takes nothing from the cluster. Orders may refer to their instruments by ID
+ * (see SymbolDictionary), so the capture starts with the symbol dictionary loaded before
+ * the tap is bound; definitions published later reach the tap in the captured orders.
+ *
+ * The file grows a segment at a time; records never span segments. A record's length is
+ * written last, so a record torn by a crash reads as the end of the capture.
+ *
+ * Layout: header { magic, version, segment size, dictionary length, epoch millis, nanotime },
+ * the dictionary as written by SymbolDictionary.WriteTo, then records { length(4), payload }.
+ * A length of -1 skips to the next segment; 0 ends the capture. Version 1 had no dictionary.
+ */
+public class InputCapture {
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 6) {
+            System.out.println("USAGE: InputCapture <HOST> <VPN> <USER> <PASS> <QUEUE> <CAPTURE-FILE>");
+            return;
+        }
+        final SolaceConnector connector = new SolaceConnector();
+        connector.ConnectSession(args[0], args[1], args[2], args[3], "InputCapture", new SessionListener() {
+            public void onSessionEvent(SessionEventType event) {
+            }
+        });
+        SymbolDictionary symbols = new SymbolDictionary(SymbolDictionary.DEFAULT_CAPACITY);
+        new SymbolTopic(connector).Load(symbols);
+        final InputCapture capture = new InputCapture(args[5], DEFAULT_SEGMENT_SIZE, symbols);
+        capture.Tap(connector, args[4]);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                connector.destroy();
+                capture.Close();
+                System.out.println("Captured " + capture.GetRecords() + " inputs, " + capture.GetDropped() + " dropped");
+            }
+        });
+        while(true) {
+            Thread.sleep(10000);
+            System.out.println("Captured " + capture.GetRecords() + " inputs");
+        }
+    }
+
+    /**
+     * For orders that carry their instruments' definitions
+     */
+    public InputCapture(String path) {
+        this(path, DEFAULT_SEGMENT_SIZE, new SymbolDictionary(0));
+    }
+
+    /**
+     * Creates the capture, replacing any file at the path
+     *
+     * @param symbols -- the dictionary the tap's readers load, see SymbolTopic
+     */
+    public InputCapture(String path, int segmentSize, SymbolDictionary symbols) {
+        ByteBuffer dictionary = ByteBuffer.allocate(SymbolDictionary.MaxSerializedSize(symbols.GetCapacity()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        symbols.WriteTo(dictionary);
+        dictionary.flip();
+        if (segmentSize < HEADER_SIZE + dictionary.remaining() + 4 + MAX_PAYLOAD_SIZE)
+            throw new IllegalArgumentException("Capture segments must hold the dictionary and at least one full record");
+        _segmentSize = segmentSize;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(new File(path), "rw");
+            raf.setLength(0);
+            _channel = raf.getChannel();
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Failed to open capture " + path, e);
+        }
+        _map = mapSegment(0);
+        _map.putInt(MAGIC).putInt(VERSION).putInt(segmentSize).putInt(dictionary.remaining())
+                .putLong(System.currentTimeMillis()).putLong(System.nanoTime())
+                .put(dictionary);
+    }
+
+    /**
+     * Binds the queue with auto-acknowledgement and captures every message from it on the
+     * transport's context thread
+     *
+     * @param transport -- a connected session
+     */
+    public TransportFlow Tap(Transport transport, String queue) {
+        TransportFlow flow = transport.BindQueue(queue,
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        Append(msg);
+                    }
+                },
+                new FlowListener() {
+                    public void onFlowEvent(FlowEventType event) {
+                    }
+                });
+        flow.start();
+        return flow;
+    }
+
+    /**
+     * Records the message's payload; empty and oversized payloads are dropped
+     */
+    public synchronized void Append(TransportMessage msg) {
+        if (_closed)
+            return;
+        _payload.clear();
+        try {
+            msg.getBinaryAttachment(_payload);
+        }
+        catch(BufferOverflowException e) {
+            _dropped++;
+            return;
+        }
+        int length = _payload.position();
+        if (length == 0) {
+            _dropped++;
+            return;
+        }
+        if (_map.remaining() < 4 + length)
+            nextSegment();
+        int start = _map.position();
+        _map.position(start + 4);
+        _payload.flip();
+        _map.put(_payload);
+        // Completes the record
+        _map.putInt(start, length);
+        _records++;
+    }
+
+    public synchronized long GetRecords() {
+        return _records;
+    }
+
+    /**
+     * @return messages empty or too large to capture
+     */
+    public synchronized long GetDropped() {
+        return _dropped;
+    }
+
+    /**
+     * Forces the capture to disk and closes it; later messages are not captured
+     */
+    public synchronized void Close() {
+        if (_closed)
+            return;
+        _closed = true;
+        _map.force();
+        try {
+            _channel.close();
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private void nextSegment() {
+        if (_map.remaining() >= 4)
+            _map.putInt(_map.position(), SKIP);
+        _map = mapSegment(++_segment);
+    }
+
+    private MappedByteBuffer mapSegment(long segment) {
+        try {
+            MappedByteBuffer map = _channel.map(FileChannel.MapMode.READ_WRITE, segment * _segmentSize, _segmentSize);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return map;
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Failed to map capture segment " + segment, e);
+        }
+    }
+
+    static final int MAGIC = 0x54504143; // "CAPT"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    static final int SKIP = -1;
+    static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel _channel;
+    private final int _segmentSize;
+    private final ByteBuffer _payload = ByteBuffer.allocate(MAX_PAYLOAD_SIZE);
+    private MappedByteBuffer _map;
+    private long _segment;
+    private long _records;
+    private long _dropped;
+    private boolean _closed;
+}
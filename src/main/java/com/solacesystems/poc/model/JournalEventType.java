@@ -0,0 +1,35 @@
+package com.solacesystems.poc.model;
+
+/**
+ * Inputs to a ClusterConnector recorded in a TransitionJournal. Events carry the ordinal of
+ * the SessionEventType or FlowEventType as their code, messages their payload and message ID,
+ * and publish acknowledgements their correlation ID.
+ */
+public enum JournalEventType {
+    SESSION_EVENT,
+    APP_FLOW_EVENT,
+    APP_MESSAGE,
+    LVQ_FLOW_EVENT,
+    /**
+     * Consumed from the LVQ's active-flow-indication flow, which must never happen
+     */
+    LVQ_FLOW_MESSAGE,
+    LVQ_BROWSER_EVENT,
+    LVQ_MESSAGE,
+    STATE_BROWSER_EVENT,
+    STATE_MESSAGE,
+    /**
+     * The LVQ browse timed out
+     */
+    RECOVERY_TIMEOUT,
+    /**
+     * The state queue browse went idle
+     */
+    STATE_RECOVERY_TIMEOUT,
+    PUBLISH_ACCEPTED,
+    PUBLISH_REJECTED,
+    /**
+     * The output reloaded from the local checkpoint
+     */
+    CHECKPOINT_RESTORED
+}
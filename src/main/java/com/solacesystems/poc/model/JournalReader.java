@@ -0,0 +1,156 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.TransportMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a TransitionJournal record by record, mapping one segment at a time.
+ */
+public class JournalReader {
+    public JournalReader(String path) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(new File(path), "r");
+        _channel = raf.getChannel();
+        _size = _channel.size();
+        if (_size < TransitionJournal.HEADER_SIZE) {
+            Close();
+            throw new IOException(path + " is not a transition journal");
+        }
+        ByteBuffer header = ByteBuffer.allocate(TransitionJournal.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while(header.hasRemaining() && _channel.read(header) >= 0) {
+        }
+        header.flip();
+        if (header.getInt() != TransitionJournal.MAGIC) {
+            Close();
+            throw new IOException(path + " is not a transition journal");
+        }
+        int version = header.getInt();
+        if (version != TransitionJournal.VERSION) {
+            Close();
+            throw new IOException("Unsupported journal version " + version);
+        }
+        _segmentSize = header.getInt();
+        header.getInt();
+        _epochMillis = header.getLong();
+        _startNanos = header.getLong();
+        _map = mapSegment(0);
+        _map.position(TransitionJournal.HEADER_SIZE);
+    }
+
+    /**
+     * Moves to the next record
+     *
+     * @return false at the end of the journal
+     */
+    public boolean Next() throws IOException {
+        while(true) {
+            int length = (_map.remaining() < 4) ? TransitionJournal.SKIP : _map.getInt(_map.position());
+            if (length == TransitionJournal.SKIP) {
+                if ((_segment + 1) * _segmentSize >= _size)
+                    return false;
+                _map = mapSegment(++_segment);
+                continue;
+            }
+            if (length < TransitionJournal.RECORD_HEADER_SIZE || length > _map.remaining())
+                return false;
+            int start = _map.position();
+            _map.position(start + 4);
+            int type = _map.getShort() & 0xffff;
+            _type = (type < TYPES.length) ? TYPES[type] : null;
+            _code = _map.getShort() & 0xffff;
+            _sequence = _map.getLong();
+            _nanos = _map.getLong();
+            _value = _map.getLong();
+            _payload = _map.duplicate();
+            _payload.limit(start + length);
+            _map.position(start + length);
+            if (_type != null)
+                return true;
+        }
+    }
+
+    public JournalEventType GetType() {
+        return _type;
+    }
+
+    /**
+     * @return the ordinal of the session or flow event
+     */
+    public int GetCode() {
+        return _code;
+    }
+
+    public long GetSequence() {
+        return _sequence;
+    }
+
+    public long GetNanos() {
+        return _nanos;
+    }
+
+    /**
+     * @return the record's time as wall-clock millis, derived from the time the journal was opened
+     */
+    public long GetTimeMillis() {
+        return _epochMillis + (_nanos - _startNanos) / 1000000;
+    }
+
+    /**
+     * @return the message ID or correlation ID
+     */
+    public long GetValue() {
+        return _value;
+    }
+
+    /**
+     * @return the current record's payload as a message; valid until the next call to Next
+     */
+    public TransportMessage GetMessage() {
+        return _message;
+    }
+
+    public void Close() throws IOException {
+        _channel.close();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private MappedByteBuffer mapSegment(long segment) throws IOException {
+        long offset = segment * _segmentSize;
+        MappedByteBuffer map = _channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(_segmentSize, _size - offset));
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        return map;
+    }
+
+    private static final JournalEventType[] TYPES = JournalEventType.values();
+
+    private final FileChannel _channel;
+    private final long _size;
+    private int _segmentSize;
+    private long _epochMillis;
+    private long _startNanos;
+    private MappedByteBuffer _map;
+    private long _segment;
+
+    private JournalEventType _type;
+    private int _code;
+    private long _sequence;
+    private long _nanos;
+    private long _value;
+    private ByteBuffer _payload;
+    private final TransportMessage _message = new TransportMessage() {
+        public void getBinaryAttachment(ByteBuffer dest) {
+            dest.put(_payload.duplicate());
+        }
+
+        public long getMessageId() {
+            return _value;
+        }
+    };
+}
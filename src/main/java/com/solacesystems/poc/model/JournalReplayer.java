@@ -0,0 +1,56 @@
+package com.solacesystems.poc.model;
+
+import java.io.IOException;
+
+/**
+ * Replays a TransitionJournal into a ClusterConnector, reproducing offline the cluster and
+ * sequence transitions a member went through. The connector must be built on a
+ * ReplayTransport and a ReplayTimer: every input, including timeouts, then comes from the
+ * journal in the order it was recorded, on the calling thread, and without waiting, so a
+ * replay is deterministic and runs as fast as the member can process its inputs.
+ *
+ * Configure the connector as the recorded member was (snapshots, event log) but without a
+ * pipeline, ack window or checkpoint; the checkpoint it restored is in the journal.
+ */
+public class JournalReplayer {
+    public JournalReplayer(ClusterConnector<?, ?> connector) {
+        _connector = connector;
+    }
+
+    /**
+     * Connects the connector, replays the whole journal into it and destroys it
+     *
+     * @return the number of records replayed
+     */
+    public long Replay(String path) throws IOException {
+        JournalReader reader = new JournalReader(path);
+        long records = 0;
+        long start = System.nanoTime();
+        try {
+            _connector.Connect("replay", "replay", "replay", "replay", "replay");
+            boolean bound = false;
+            while(reader.Next()) {
+                _connector.replay(reader);
+                records++;
+                // The recorded member bound its queues as soon as the session came up
+                if (!bound && _connector.isConnected()) {
+                    _connector.BindQueues("replay.queue", "replay.lvq");
+                    bound = true;
+                }
+            }
+        }
+        finally {
+            _elapsedNanos = System.nanoTime() - start;
+            reader.Close();
+            _connector.Destroy();
+        }
+        return records;
+    }
+
+    public long GetElapsedNanos() {
+        return _elapsedNanos;
+    }
+
+    private final ClusterConnector<?, ?> _connector;
+    private long _elapsedNanos;
+}
@@ -0,0 +1,14 @@
+package com.solacesystems.poc.model;
+
+/**
+ * Output message that carries latency stamps. The ClusterConnector stamps each such output
+ * just before publishing it with when its input reached this member and the member's states
+ * at that moment, so latencies can be told apart in steady state and in recovery.
+ */
+public interface LatencyStamped {
+    /**
+     * @param receivedNanos -- epoch time the input was received, see EpochClock
+     * @param publishedNanos -- epoch time the output was handed over for publishing
+     */
+    void setLatencyStamps(long receivedNanos, long publishedNanos, HAState haState, SeqState seqState);
+}
@@ -0,0 +1,130 @@
+package com.solacesystems.poc.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Publishes a cluster member's state to a monitoring topic as JSON of the form
+ * { "Instance":1, "HAState":"ACTIVE", "SeqState":"UPTODATE", "LastInput":5, "LastOutput":5 }
+ *
+ * Changes to the last input or output only mark the state dirty, and the latest state is
+ * published at most once per interval; HA and sequence state transitions are published
+ * immediately. The JSON is encoded straight into a reused buffer and sent in direct
+ * delivery mode, so monitoring adds no persistent traffic and no garbage per update.
+ */
+public class MonitorPublisher {
+    public MonitorPublisher(ClusterModel<?, ?> model, ClusterConnector<?, ?> connector, int instance, String topic) {
+        _model = model;
+        _connector = connector;
+        _instance = instance;
+        _topic = topic;
+    }
+
+    /**
+     * Starts publishing dirty state every intervalMs
+     */
+    public void Start(long intervalMs) {
+        _timer = new Timer("monitor-publisher", true);
+        _timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                if (_dirty)
+                    publish();
+            }
+        }, intervalMs, intervalMs);
+    }
+
+    public void Stop() {
+        if (_timer != null)
+            _timer.cancel();
+    }
+
+    /**
+     * The last input or output changed; cheap enough to call on every message
+     */
+    public void Changed() {
+        _dirty = true;
+    }
+
+    /**
+     * The HA or sequence state changed
+     */
+    public void Transition() {
+        publish();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    // Called from the timer and from whichever thread raised a transition
+    private synchronized void publish() {
+        _dirty = false;
+        // All four values from the same moment
+        _model.ReadSnapshot(_snapshot);
+        HAState haState = _snapshot.GetHAStatus();
+        if (haState == HAState.DISCONNECTED)
+            return;
+        _json.clear();
+        _json.put(INSTANCE);
+        putLong(_instance);
+        _json.put(HA_STATE).put(HA_NAMES[haState.ordinal()]);
+        _json.put(SEQ_STATE).put(SEQ_NAMES[_snapshot.GetSequenceStatus().ordinal()]);
+        _json.put(LAST_INPUT);
+        putLong(_snapshot.GetLastInputSequenceId());
+        _json.put(LAST_OUTPUT);
+        putLong(_snapshot.GetLastOutputSequenceId());
+        _json.put(END);
+        _connector.SendDirect(_json, _topic);
+    }
+
+    private void putLong(long value) {
+        long v = value;
+        if (v < 0) {
+            _json.put((byte) '-');
+            v = -v;
+        }
+        int start = _json.position();
+        do {
+            _json.put((byte) ('0' + v % 10));
+            v /= 10;
+        } while(v > 0);
+        // Digits were written least significant first
+        for(int i = start, j = _json.position() - 1; i < j; i++, j--) {
+            byte b = _json.get(i);
+            _json.put(i, _json.get(j));
+            _json.put(j, b);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(Charset.forName("US-ASCII"));
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for(int i = 0; i < values.length; i++) {
+            names[i] = ascii(values[i].name());
+        }
+        return names;
+    }
+
+    private static final byte[] INSTANCE    = ascii("{ \"Instance\":");
+    private static final byte[] HA_STATE    = ascii(", \"HAState\":\"");
+    private static final byte[] SEQ_STATE   = ascii("\", \"SeqState\":\"");
+    private static final byte[] LAST_INPUT  = ascii("\", \"LastInput\":");
+    private static final byte[] LAST_OUTPUT = ascii(", \"LastOutput\":");
+    private static final byte[] END         = ascii(" }");
+    private static final byte[][] HA_NAMES  = names(HAState.values());
+    private static final byte[][] SEQ_NAMES = names(SeqState.values());
+    private static final int MAX_JSON_SIZE  = 256;
+
+    private final ClusterModel<?, ?> _model;
+    private final ClusterConnector<?, ?> _connector;
+    private final int _instance;
+    private final String _topic;
+    private final ByteBuffer _json = ByteBuffer.allocate(MAX_JSON_SIZE);
+    private final ClusterModel.Snapshot _snapshot = new ClusterModel.Snapshot();
+    private volatile boolean _dirty;
+    private Timer _timer;
+}
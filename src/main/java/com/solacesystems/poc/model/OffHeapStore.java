@@ -0,0 +1,337 @@
+package com.solacesystems.poc.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size records addressed by long keys, held outside the Java heap in a direct buffer
+ * or a memory-mapped file, so that an application's state does not add to GC work however
+ * large it grows. Applications keep their records here and read and write fields in place
+ * through the slot a key maps to; a slot stays the same until its key is removed, so
+ * records can link to each other by slot.
+ *
+ * Layout: an index of { key(8), slot + 1(4), reserved(4) } entries, open-addressed with
+ * linear probing and at most half full, followed by the slots, each
+ * { key(8), next free slot or USED(4), reserved(4), record }. Slots are handed out in
+ * order and reused through a free list, so the slots in use all lie below a high-water mark.
+ *
+ * A snapshot is the slot region up to the high-water mark, copied in one piece into the
+ * output buffer; loading it restores every record in the same slot and rebuilds the index.
+ *
+ * A mapped file only backs the memory and is cleared when opened; use a CheckpointStore to
+ * persist state. The store is limited to 2GB. Not thread-safe.
+ */
+public class OffHeapStore {
+    /**
+     * Allocates the store in direct memory
+     */
+    public OffHeapStore(int maxKeys, int recordSize) {
+        this(ByteBuffer.allocateDirect(checkedSize(maxKeys, recordSize)), maxKeys, recordSize);
+    }
+
+    /**
+     * Allocates the store in a memory-mapped file
+     */
+    public OffHeapStore(String path, int maxKeys, int recordSize) {
+        this(map(path, checkedSize(maxKeys, recordSize)), maxKeys, recordSize);
+    }
+
+    private OffHeapStore(ByteBuffer memory, int maxKeys, int recordSize) {
+        _memory = memory.order(ByteOrder.LITTLE_ENDIAN);
+        _copy = memory.duplicate();
+        _indexCapacity = indexCapacity(maxKeys);
+        _indexMask = _indexCapacity - 1;
+        _slotsOffset = _indexCapacity * INDEX_ENTRY_SIZE;
+        _slotSize = SLOT_HEADER_SIZE + recordSize;
+        _recordSize = recordSize;
+        _maxKeys = maxKeys;
+        Clear();
+    }
+
+    /**
+     * @return the key's slot, or NO_SLOT
+     */
+    public int Find(long key) {
+        for(int entry = entryOf(key); ; entry = (entry + 1) & _indexMask) {
+            int slot = _memory.getInt(entry * INDEX_ENTRY_SIZE + 8) - 1;
+            if (slot == NO_SLOT || _memory.getLong(entry * INDEX_ENTRY_SIZE) == key)
+                return slot;
+        }
+    }
+
+    /**
+     * Adds a key with a record of undefined contents
+     *
+     * @return the key's slot, the existing one if the key was present; NO_SLOT if the store is full
+     */
+    public int Insert(long key) {
+        int entry = entryOf(key);
+        while(true) {
+            int slot = _memory.getInt(entry * INDEX_ENTRY_SIZE + 8) - 1;
+            if (slot == NO_SLOT)
+                break;
+            if (_memory.getLong(entry * INDEX_ENTRY_SIZE) == key)
+                return slot;
+            entry = (entry + 1) & _indexMask;
+        }
+        int slot = allocate();
+        if (slot == NO_SLOT)
+            return NO_SLOT;
+        _memory.putLong(entry * INDEX_ENTRY_SIZE, key);
+        _memory.putInt(entry * INDEX_ENTRY_SIZE + 8, slot + 1);
+        _memory.putLong(slotOffset(slot), key);
+        _memory.putInt(slotOffset(slot) + 8, USED);
+        _size++;
+        return slot;
+    }
+
+    /**
+     * @return false if the key was not present
+     */
+    public boolean Remove(long key) {
+        int entry = entryOf(key);
+        while(true) {
+            int slot = _memory.getInt(entry * INDEX_ENTRY_SIZE + 8) - 1;
+            if (slot == NO_SLOT)
+                return false;
+            if (_memory.getLong(entry * INDEX_ENTRY_SIZE) == key) {
+                shiftBack(entry);
+                _memory.putInt(slotOffset(slot) + 8, _free);
+                _free = slot;
+                _size--;
+                return true;
+            }
+            entry = (entry + 1) & _indexMask;
+        }
+    }
+
+    public long GetKey(int slot) {
+        return _memory.getLong(slotOffset(slot));
+    }
+
+    ////// Record fields, at a byte offset within the record //////
+
+    public long GetLong(int slot, int offset) {
+        return _memory.getLong(recordOffset(slot) + offset);
+    }
+
+    public void PutLong(int slot, int offset, long value) {
+        _memory.putLong(recordOffset(slot) + offset, value);
+    }
+
+    public int GetInt(int slot, int offset) {
+        return _memory.getInt(recordOffset(slot) + offset);
+    }
+
+    public void PutInt(int slot, int offset, int value) {
+        _memory.putInt(recordOffset(slot) + offset, value);
+    }
+
+    public double GetDouble(int slot, int offset) {
+        return _memory.getDouble(recordOffset(slot) + offset);
+    }
+
+    public void PutDouble(int slot, int offset, double value) {
+        _memory.putDouble(recordOffset(slot) + offset, value);
+    }
+
+    public byte GetByte(int slot, int offset) {
+        return _memory.get(recordOffset(slot) + offset);
+    }
+
+    public void PutByte(int slot, int offset, byte value) {
+        _memory.put(recordOffset(slot) + offset, value);
+    }
+
+    ////// Iteration //////
+
+    /**
+     * @return the number of slots ever handed out; every slot in use lies below it
+     */
+    public int GetHighWater() {
+        return _highWater;
+    }
+
+    public boolean IsUsed(int slot) {
+        return _memory.getInt(slotOffset(slot) + 8) == USED;
+    }
+
+    public int Size() {
+        return _size;
+    }
+
+    public int GetCapacity() {
+        return _maxKeys;
+    }
+
+    public int GetRecordSize() {
+        return _recordSize;
+    }
+
+    /**
+     * Removes every key
+     */
+    public void Clear() {
+        for(int entry = 0; entry < _indexCapacity; entry++) {
+            _memory.putInt(entry * INDEX_ENTRY_SIZE + 8, 0);
+        }
+        _highWater = 0;
+        _free = NO_SLOT;
+        _size = 0;
+    }
+
+    ////// Snapshots //////
+
+    /**
+     * Copies the slots in use, and any free ones among them, to the buffer's position as
+     * { high-water mark, free list head, size, slots }; at most MaxSnapshotSize bytes.
+     */
+    public void WriteSnapshot(ByteBuffer dest) {
+        dest.putInt(_highWater).putInt(_free).putInt(_size);
+        _copy.clear();
+        _copy.position(_slotsOffset);
+        _copy.limit(_slotsOffset + _highWater * _slotSize);
+        dest.put(_copy);
+    }
+
+    /**
+     * Replaces the contents with a snapshot of a store of the same record size and at most
+     * this capacity, read from the buffer's position
+     */
+    public void ReadSnapshot(ByteBuffer src) {
+        Clear();
+        int highWater = src.getInt();
+        int free = src.getInt();
+        int size = src.getInt();
+        if (highWater > _maxKeys)
+            throw new IllegalArgumentException("Snapshot of " + highWater + " slots exceeds the store's " + _maxKeys);
+        int limit = src.limit();
+        src.limit(src.position() + highWater * _slotSize);
+        _copy.clear();
+        _copy.position(_slotsOffset);
+        _copy.put(src);
+        src.limit(limit);
+        _highWater = highWater;
+        _free = free;
+        _size = size;
+        for(int slot = 0; slot < highWater; slot++) {
+            if (IsUsed(slot))
+                index(GetKey(slot), slot);
+        }
+    }
+
+    public static int MaxSnapshotSize(int maxKeys, int recordSize) {
+        return 12 + maxKeys * (SLOT_HEADER_SIZE + recordSize);
+    }
+
+    public static final int NO_SLOT = -1;
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private int allocate() {
+        int slot = _free;
+        if (slot != NO_SLOT) {
+            _free = _memory.getInt(slotOffset(slot) + 8);
+            return slot;
+        }
+        if (_highWater == _maxKeys)
+            return NO_SLOT;
+        return _highWater++;
+    }
+
+    private void index(long key, int slot) {
+        int entry = entryOf(key);
+        while(_memory.getInt(entry * INDEX_ENTRY_SIZE + 8) != 0) {
+            entry = (entry + 1) & _indexMask;
+        }
+        _memory.putLong(entry * INDEX_ENTRY_SIZE, key);
+        _memory.putInt(entry * INDEX_ENTRY_SIZE + 8, slot + 1);
+    }
+
+    // Moves back every entry after the emptied one whose probe sequence passes over it
+    private void shiftBack(int empty) {
+        int entry = empty;
+        while(true) {
+            entry = (entry + 1) & _indexMask;
+            int slot = _memory.getInt(entry * INDEX_ENTRY_SIZE + 8);
+            if (slot == 0)
+                break;
+            long key = _memory.getLong(entry * INDEX_ENTRY_SIZE);
+            // Stays put if its home lies cyclically in (empty, entry]
+            if (((entry - entryOf(key)) & _indexMask) >= ((entry - empty) & _indexMask)) {
+                _memory.putLong(empty * INDEX_ENTRY_SIZE, key);
+                _memory.putInt(empty * INDEX_ENTRY_SIZE + 8, slot);
+                empty = entry;
+            }
+        }
+        _memory.putInt(empty * INDEX_ENTRY_SIZE + 8, 0);
+    }
+
+    // Sequential keys would cluster under a plain mask; mix the bits first (MurmurHash3 finalizer)
+    private int entryOf(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & _indexMask;
+    }
+
+    private int slotOffset(int slot) {
+        return _slotsOffset + slot * _slotSize;
+    }
+
+    private int recordOffset(int slot) {
+        return _slotsOffset + slot * _slotSize + SLOT_HEADER_SIZE;
+    }
+
+    private static int indexCapacity(int maxKeys) {
+        return Integer.highestOneBit(Math.max(maxKeys, 2) * 2 - 1) << 1;
+    }
+
+    private static int checkedSize(int maxKeys, int recordSize) {
+        if (maxKeys < 1 || recordSize < 1)
+            throw new IllegalArgumentException("The key count and record size must be positive");
+        long size = (long) indexCapacity(maxKeys) * INDEX_ENTRY_SIZE + (long) maxKeys * (SLOT_HEADER_SIZE + recordSize);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("An off-heap store is limited to 2GB");
+        return (int) size;
+    }
+
+    private static ByteBuffer map(String path, int size) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(new File(path), "rw");
+            try {
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            finally {
+                // The mapping stays valid after the channel is closed
+                raf.close();
+            }
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Failed to map state store file " + path, e);
+        }
+    }
+
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int SLOT_HEADER_SIZE = 16;
+    private static final int USED = -2;
+
+    private final ByteBuffer _memory;
+    // Reused view for bulk copies in and out of snapshots
+    private final ByteBuffer _copy;
+    private final int _indexCapacity;
+    private final int _indexMask;
+    private final int _slotsOffset;
+    private final int _slotSize;
+    private final int _recordSize;
+    private final int _maxKeys;
+    private int _highWater;
+    private int _free;
+    private int _size;
+}
@@ -4,5 +4,5 @@ package com.solacesystems.poc.model;
  * Message object with a sequence ID
  */
 public interface Ordered {
-    int getSequenceId();
+    long getSequenceId();
 }
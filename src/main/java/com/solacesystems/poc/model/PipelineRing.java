@@ -0,0 +1,178 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.DirectMessage;
+import com.solacesystems.poc.conn.TransportMessage;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer ring of preallocated message slots connecting
+ * two pipeline stages. The producer claims the next free slot, fills it and publishes it;
+ * the consumer polls the oldest published slot and releases it when done. Slots are
+ * reused, so nothing is allocated per message.
+ */
+class PipelineRing {
+    PipelineRing(int size, int slotCapacity, WaitStrategy wait) {
+        if (size < 2 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("Ring size must be a power of two");
+        _slots = new Slot[size];
+        for(int i = 0; i < size; i++) {
+            _slots[i] = new Slot(slotCapacity);
+        }
+        _wait = wait;
+    }
+
+    /**
+     * Waits while the ring is full.
+     *
+     * @return the next slot to fill, or null if the ring was closed
+     */
+    Slot Claim() {
+        long tail = _published.get();
+        while(tail - _consumed.get() == _slots.length) {
+            if (_closed)
+                return null;
+            _wait.idle();
+        }
+        return _slots[(int) (tail & (_slots.length - 1))];
+    }
+
+    void Publish() {
+        _published.lazySet(_published.get() + 1);
+    }
+
+    /**
+     * @return the oldest published slot, or null if there is none
+     */
+    Slot Poll() {
+        long head = _consumed.get();
+        if (head == _published.get())
+            return null;
+        return _slots[(int) (head & (_slots.length - 1))];
+    }
+
+    void Release() {
+        _consumed.lazySet(_consumed.get() + 1);
+    }
+
+    int GetDepth() {
+        return (int) (_published.get() - _consumed.get());
+    }
+
+    WaitStrategy GetWaitStrategy() {
+        return _wait;
+    }
+
+    void Close() {
+        _closed = true;
+    }
+
+    boolean IsClosed() {
+        return _closed;
+    }
+
+    /**
+     * A copied message: the payload in its written state, the message ID and receipt time
+     * of an input, the topic of an output, and a tag carrying the input's ack window position. The
+     * payload is held in a direct buffer, so inputs are decoded in place and outputs are
+     * handed to the transport without another copy. A payload larger than the slot grows it,
+     * allocating only then, rather than failing on the thread filling it.
+     */
+    static class Slot implements DirectMessage {
+        Slot(int capacity) {
+            allocate(capacity);
+        }
+
+        void Fill(TransportMessage msg, long tag, long receivedNanos) {
+            while(true) {
+                _buffer.clear();
+                try {
+                    msg.getBinaryAttachment(_buffer);
+                    break;
+                }
+                catch(BufferOverflowException e) {
+                    allocate(_buffer.capacity() * 2);
+                }
+            }
+            _messageId = msg.getMessageId();
+            _received = receivedNanos;
+            _topic = null;
+            _tag = tag;
+        }
+
+        void Fill(ByteBuffer written, String topic, long tag) {
+            written.flip();
+            if (written.remaining() > _buffer.capacity())
+                allocate(Integer.highestOneBit(written.remaining() - 1) << 1);
+            _buffer.clear();
+            _buffer.put(written);
+            _messageId = 0;
+            _received = 0;
+            _topic = topic;
+            _tag = tag;
+        }
+
+        public long getMessageId() {
+            return _messageId;
+        }
+
+        public void getBinaryAttachment(ByteBuffer dest) {
+            _copy.clear();
+            _copy.limit(_buffer.position());
+            dest.put(_copy);
+        }
+
+        public ByteBuffer getDirectAttachment() {
+            _view.clear();
+            _view.position(_buffer.position());
+            return _view;
+        }
+
+        ByteBuffer GetBuffer() {
+            return _buffer;
+        }
+
+        long GetReceived() {
+            return _received;
+        }
+
+        String GetTopic() {
+            return _topic;
+        }
+
+        long GetTag() {
+            return _tag;
+        }
+
+        private void allocate(int capacity) {
+            _buffer = ByteBuffer.allocateDirect(capacity);
+            _copy = _buffer.duplicate();
+            _view = _buffer.duplicate();
+        }
+
+        private ByteBuffer _buffer;
+        // Reused views of the payload, for copying it out and for reading it in place
+        private ByteBuffer _copy;
+        private ByteBuffer _view;
+        private long _messageId;
+        private long _received;
+        private String _topic;
+        private long _tag;
+    }
+
+    /**
+     * Keeps the producer and consumer sequences on separate cache lines
+     */
+    private static class PaddedSequence extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private final Slot[] _slots;
+    private final WaitStrategy _wait;
+    private final AtomicLong _published = new PaddedSequence();
+    private final AtomicLong _consumed = new PaddedSequence();
+    private volatile boolean _closed;
+}
@@ -0,0 +1,65 @@
+package com.solacesystems.poc.model;
+
+/**
+ * A dedicated thread draining one PipelineRing, idling with the ring's WaitStrategy when
+ * it is empty.
+ */
+class PipelineStage implements Runnable {
+    interface Handler {
+        void onSlot(PipelineRing.Slot slot);
+    }
+
+    PipelineStage(String name, PipelineRing ring, Handler handler) {
+        _ring = ring;
+        _handler = handler;
+        _thread = new Thread(this, name);
+        _thread.setDaemon(true);
+    }
+
+    void Start() {
+        _thread.start();
+    }
+
+    /**
+     * Closes the ring and waits for the stage to finish the slot it is working on
+     */
+    void Stop() {
+        _ring.Close();
+        if (Thread.currentThread() == _thread)
+            return;
+        try {
+            _thread.join(STOP_TIMEOUT_MS);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean IsCurrentThread() {
+        return Thread.currentThread() == _thread;
+    }
+
+    public void run() {
+        WaitStrategy wait = _ring.GetWaitStrategy();
+        while(!_ring.IsClosed()) {
+            PipelineRing.Slot slot = _ring.Poll();
+            if (slot == null) {
+                wait.idle();
+                continue;
+            }
+            try {
+                _handler.onSlot(slot);
+            }
+            catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+            _ring.Release();
+        }
+    }
+
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final PipelineRing _ring;
+    private final Handler _handler;
+    private final Thread _thread;
+}
@@ -0,0 +1,29 @@
+package com.solacesystems.poc.model;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Timer for a ClusterConnector replaying a TransitionJournal. Timeouts that fired in the
+ * recorded run are replayed from the journal, so delayed tasks never run here; tasks
+ * scheduled without delay, which only defer work off the calling thread, run at once.
+ */
+public class ReplayTimer extends Timer {
+    public ReplayTimer() {
+        super("replay-timer", true);
+    }
+
+    @Override
+    public void schedule(TimerTask task, long delay) {
+        if (delay == 0)
+            task.run();
+    }
+
+    @Override
+    public void schedule(TimerTask task, long delay, long period) {
+    }
+
+    @Override
+    public void scheduleAtFixedRate(TimerTask task, long delay, long period) {
+    }
+}
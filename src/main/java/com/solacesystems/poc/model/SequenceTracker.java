@@ -0,0 +1,148 @@
+package com.solacesystems.poc.model;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the sequence IDs of one input stream in a sliding window, a bitmap of the IDs seen
+ * among the last windowSize below the highest one, and classifies each input as the next in
+ * order, the first after a gap, a late arrival filling a gap, a duplicate, or too old to tell.
+ * Tracking is allocation-free; only the thread processing the stream may call Track.
+ */
+public class SequenceTracker implements SequenceTrackerMBean {
+    public enum Result {
+        NEXT,
+        /**
+         * Ahead of the next expected ID; GetLastGapSize tells how many IDs were skipped
+         */
+        GAP,
+        /**
+         * Fills a gap, i.e. arrived out of order
+         */
+        LATE,
+        DUPLICATE,
+        /**
+         * Below the window, so it cannot be told apart from a duplicate
+         */
+        STALE
+    }
+
+    /**
+     * @param windowSize -- IDs remembered below the highest; a power of two, at least 64
+     */
+    public SequenceTracker(int windowSize) {
+        if (windowSize < 64 || Integer.bitCount(windowSize) != 1)
+            throw new IllegalArgumentException("The sequence window must be a power of two of at least 64");
+        _words = new long[windowSize >>> 6];
+        _mask = windowSize - 1;
+    }
+
+    public Result Track(long seqId) {
+        _tracked++;
+        if (_empty) {
+            advance(seqId);
+            _empty = false;
+            return Result.NEXT;
+        }
+        long ahead = seqId - _highest;
+        if (ahead > 0) {
+            advance(seqId);
+            if (ahead == 1)
+                return Result.NEXT;
+            _lastGapSize = ahead - 1;
+            _gaps++;
+            _missing += ahead - 1;
+            return Result.GAP;
+        }
+        if (-ahead > _mask) {
+            _stale++;
+            return Result.STALE;
+        }
+        int index = (int) (seqId & _mask);
+        long bit = 1L << index;
+        if ((_words[index >>> 6] & bit) != 0) {
+            _duplicates++;
+            return Result.DUPLICATE;
+        }
+        _words[index >>> 6] |= bit;
+        _reordered++;
+        _missing--;
+        return Result.LATE;
+    }
+
+    /**
+     * @return the number of IDs skipped by the last GAP
+     */
+    public long GetLastGapSize() {
+        return _lastGapSize;
+    }
+
+    /**
+     * Forgets the IDs seen, e.g. when the stream restarts; the counters are kept
+     */
+    public void Reset() {
+        Arrays.fill(_words, 0);
+        _empty = true;
+    }
+
+    ////// SequenceTrackerMBean //////
+
+    public long getTracked() {
+        return _tracked;
+    }
+
+    public long getGaps() {
+        return _gaps;
+    }
+
+    public long getMissing() {
+        return _missing;
+    }
+
+    public long getDuplicates() {
+        return _duplicates;
+    }
+
+    public long getReordered() {
+        return _reordered;
+    }
+
+    public long getStale() {
+        return _stale;
+    }
+
+    public int getWindowSize() {
+        return _mask + 1;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    // Moves the window up to seqId, clearing the IDs skipped on the way
+    private void advance(long seqId) {
+        if (_empty || seqId - _highest > _mask) {
+            Arrays.fill(_words, 0);
+        }
+        else {
+            for(long skipped = _highest + 1; skipped < seqId; skipped++) {
+                int index = (int) (skipped & _mask);
+                _words[index >>> 6] &= ~(1L << index);
+            }
+        }
+        int index = (int) (seqId & _mask);
+        _words[index >>> 6] |= 1L << index;
+        _highest = seqId;
+    }
+
+    private final long[] _words;
+    private final int _mask;
+    private long _highest;
+    private boolean _empty = true;
+    private long _lastGapSize;
+
+    // Written by the processing thread only; volatile for JMX readers
+    private volatile long _tracked;
+    private volatile long _gaps;
+    private volatile long _missing;
+    private volatile long _duplicates;
+    private volatile long _reordered;
+    private volatile long _stale;
+}
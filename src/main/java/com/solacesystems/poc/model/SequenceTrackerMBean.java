@@ -0,0 +1,23 @@
+package com.solacesystems.poc.model;
+
+/**
+ * JMX view of a SequenceTracker's counters
+ */
+public interface SequenceTrackerMBean {
+    long getTracked();
+
+    long getGaps();
+
+    /**
+     * @return IDs skipped by gaps and not filled by late arrivals (yet)
+     */
+    long getMissing();
+
+    long getDuplicates();
+
+    long getReordered();
+
+    long getStale();
+
+    int getWindowSize();
+}
@@ -0,0 +1,34 @@
+package com.solacesystems.poc.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by applications whose state is too large to recover from the last output
+ * alone. The active member periodically publishes the full state as a snapshot and the
+ * change made by every other output as a delta; a recovering member loads the latest
+ * complete snapshot and applies the deltas that follow it.
+ *
+ * Write methods are called on the thread processing input, right after the output they
+ * describe; Load/Apply are called during recovery, before any input is processed.
+ */
+public interface SnapshotListener {
+    /**
+     * Writes the complete application state as of the latest output
+     */
+    void WriteSnapshot(ByteBuffer buf);
+
+    /**
+     * Writes the change the latest output made to the application state
+     */
+    void WriteDelta(ByteBuffer buf);
+
+    /**
+     * Replaces the application state; the buffer holds exactly one snapshot
+     */
+    void LoadSnapshot(ByteBuffer snapshot, long seqId);
+
+    /**
+     * Applies one delta, in sequence order, on top of the loaded snapshot
+     */
+    void ApplyDelta(ByteBuffer delta, long seqId);
+}
@@ -0,0 +1,236 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.Transport;
+import com.solacesystems.poc.conn.TransportMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Publishes and reassembles application state on a state topic. Every message carries a
+ * header of kind, sequence ID, chunk index, chunk count and payload length:
+ * - a snapshot taken after output N is split into chunks, all tagged with sequence N;
+ * - every other output N is followed by one delta tagged with sequence N.
+ * State messages are published with a time-to-live, so the state queue only ever holds
+ * the last few snapshots and the deltas between them.
+ *
+ * Recovery browses the state queue in order, keeping the latest fully reassembled snapshot
+ * and the deltas after it. Snapshots with a missing or out-of-order chunk, e.g. because the
+ * publisher failed mid-snapshot or the first chunks expired, are dropped.
+ */
+class SnapshotReplicator {
+    SnapshotReplicator(Transport transport, String stateTopic, SnapshotListener listener,
+                       int snapshotInterval, int chunkSize, int maxSnapshotSize, long timeToLiveMs) {
+        if (snapshotInterval < 1 || chunkSize < 1 || maxSnapshotSize < 1 || timeToLiveMs < 1)
+            throw new IllegalArgumentException("Snapshot interval, chunk size, snapshot size and TTL must be positive");
+        _transport = transport;
+        _stateTopic = stateTopic;
+        _listener = listener;
+        _snapshotInterval = snapshotInterval;
+        _chunkSize = chunkSize;
+        _timeToLiveMs = timeToLiveMs;
+        _snapshot = ByteBuffer.allocate(maxSnapshotSize).order(ByteOrder.LITTLE_ENDIAN);
+        _outmsg   = ByteBuffer.allocate(HEADER_SIZE + chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+        _delta    = ByteBuffer.allocate(chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+        _inmsg    = ByteBuffer.allocate(HEADER_SIZE + chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+        _assembly = ByteBuffer.allocate(maxSnapshotSize).order(ByteOrder.LITTLE_ENDIAN);
+        _complete = ByteBuffer.allocate(maxSnapshotSize).order(ByteOrder.LITTLE_ENDIAN);
+        _deltas   = ByteBuffer.allocate(DELTA_LOG_INITIAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    ////// Publishing; called on the thread processing input //////
+
+    /**
+     * Publishes a snapshot or a delta for the output just published
+     */
+    void OnOutput(long seqId) {
+        if (_snapshotDue || ++_sinceSnapshot >= _snapshotInterval)
+            publishSnapshot(seqId);
+        else
+            publishDelta(seqId);
+    }
+
+    /**
+     * Makes the next output publish a full snapshot, e.g. when taking over as active
+     */
+    void ForceSnapshot() {
+        _snapshotDue = true;
+    }
+
+    ////// Recovery; called on the context thread or the recovery timer //////
+
+    synchronized void BeginRecovery() {
+        _assemblyNext = -1;
+        _completeSeq = -1;
+        _deltas.clear();
+    }
+
+    synchronized void OnStateMessage(TransportMessage msg) {
+        _inmsg.clear();
+        msg.getBinaryAttachment(_inmsg);
+        _inmsg.flip();
+        byte kind  = _inmsg.get();
+        long seqId = _inmsg.getLong();
+        int index  = _inmsg.getInt();
+        int count  = _inmsg.getInt();
+        int length = _inmsg.getInt();
+        if (kind == CHUNK)
+            onChunk(seqId, index, count, length);
+        else if (kind == DELTA)
+            onDelta(seqId, length);
+    }
+
+    /**
+     * Loads the latest complete snapshot and the deltas after it up to and including upToSeqId,
+     * unless that would not bring the state past afterSeqId
+     *
+     * @param afterSeqId -- sequence ID of the state already held, which is never replaced by an older one
+     * @return the sequence ID of the restored state, or -1 if nothing was restored
+     */
+    synchronized long FinishRecovery(long afterSeqId, long upToSeqId) {
+        if (_completeSeq < 0 || restorableUpTo(upToSeqId) <= afterSeqId) {
+            _deltas.clear();
+            _completeSeq = -1;
+            return -1;
+        }
+        _complete.flip();
+        _listener.LoadSnapshot(_complete, _completeSeq);
+        _complete.clear();
+        long restored = _completeSeq;
+        _deltas.flip();
+        while(_deltas.remaining() > 0) {
+            long seqId = _deltas.getLong();
+            int length = _deltas.getInt();
+            int end = _deltas.position() + length;
+            if (seqId <= upToSeqId) {
+                int limit = _deltas.limit();
+                _deltas.limit(end);
+                _listener.ApplyDelta(_deltas, seqId);
+                _deltas.limit(limit);
+                restored = seqId;
+            }
+            _deltas.position(end);
+        }
+        _deltas.clear();
+        _completeSeq = -1;
+        return restored;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private void publishSnapshot(long seqId) {
+        _snapshotDue = false;
+        _sinceSnapshot = 0;
+        _snapshot.clear();
+        _listener.WriteSnapshot(_snapshot);
+        _snapshot.flip();
+        int length = _snapshot.remaining();
+        int count = Math.max(1, (length + _chunkSize - 1) / _chunkSize);
+        for(int index = 0; index < count; index++) {
+            int chunkLength = Math.min(_chunkSize, _snapshot.remaining());
+            writeHeader(CHUNK, seqId, index, count, chunkLength);
+            int limit = _snapshot.limit();
+            _snapshot.limit(_snapshot.position() + chunkLength);
+            _outmsg.put(_snapshot);
+            _snapshot.limit(limit);
+            _transport.SendState(_outmsg, _stateTopic, _timeToLiveMs);
+        }
+    }
+
+    private void publishDelta(long seqId) {
+        _delta.clear();
+        _listener.WriteDelta(_delta);
+        _delta.flip();
+        writeHeader(DELTA, seqId, 0, 1, _delta.remaining());
+        _outmsg.put(_delta);
+        _transport.SendState(_outmsg, _stateTopic, _timeToLiveMs);
+    }
+
+    /**
+     * @return the sequence ID of the complete snapshot with the deltas up to upToSeqId applied
+     */
+    private long restorableUpTo(long upToSeqId) {
+        long restorable = _completeSeq;
+        int end = _deltas.position();
+        for(int position = 0; position < end; position += DELTA_ENTRY_HEADER_SIZE + _deltas.getInt(position + 8)) {
+            long seqId = _deltas.getLong(position);
+            if (seqId <= upToSeqId)
+                restorable = Math.max(restorable, seqId);
+        }
+        return restorable;
+    }
+
+    private void writeHeader(byte kind, long seqId, int index, int count, int length) {
+        _outmsg.clear();
+        _outmsg.put(kind).putLong(seqId).putInt(index).putInt(count).putInt(length);
+    }
+
+    private void onChunk(long seqId, int index, int count, int length) {
+        if (index == 0) {
+            _assembly.clear();
+            _assemblySeq = seqId;
+            _assemblyCount = count;
+            _assemblyNext = 0;
+        }
+        if (seqId != _assemblySeq || index != _assemblyNext || length > _assembly.remaining()) {
+            _assemblyNext = -1;
+            return;
+        }
+        _inmsg.limit(_inmsg.position() + length);
+        _assembly.put(_inmsg);
+        if (++_assemblyNext < _assemblyCount)
+            return;
+        // Complete: it replaces the previous snapshot and the deltas before it
+        ByteBuffer complete = _complete;
+        _complete = _assembly;
+        _assembly = complete;
+        _completeSeq = seqId;
+        _assemblyNext = -1;
+        _deltas.clear();
+    }
+
+    private void onDelta(long seqId, int length) {
+        if (_completeSeq < 0 || seqId <= _completeSeq)
+            return;
+        if (_deltas.remaining() < DELTA_ENTRY_HEADER_SIZE + length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(_deltas.capacity() * 2, _deltas.position() + DELTA_ENTRY_HEADER_SIZE + length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            _deltas.flip();
+            grown.put(_deltas);
+            _deltas = grown;
+        }
+        _inmsg.limit(_inmsg.position() + length);
+        _deltas.putLong(seqId).putInt(length).put(_inmsg);
+    }
+
+    private static final byte CHUNK = 1;
+    private static final byte DELTA = 2;
+    private static final int HEADER_SIZE = 21;
+    // Sequence ID and length of each delta kept for recovery
+    private static final int DELTA_ENTRY_HEADER_SIZE = 12;
+    private static final int DELTA_LOG_INITIAL_SIZE = 64 * 1024;
+
+    private final Transport _transport;
+    private final String _stateTopic;
+    private final SnapshotListener _listener;
+    private final int _snapshotInterval;
+    private final int _chunkSize;
+    private final long _timeToLiveMs;
+
+    // Publishing
+    private final ByteBuffer _snapshot;
+    private final ByteBuffer _outmsg;
+    private final ByteBuffer _delta;
+    private int _sinceSnapshot;
+    private volatile boolean _snapshotDue = true;
+
+    // Recovery
+    private final ByteBuffer _inmsg;
+    private ByteBuffer _assembly;
+    private long _assemblySeq;
+    private int _assemblyCount;
+    private int _assemblyNext = -1;
+    private ByteBuffer _complete;
+    private long _completeSeq = -1;
+    private ByteBuffer _deltas;
+}
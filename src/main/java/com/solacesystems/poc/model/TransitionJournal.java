@@ -0,0 +1,147 @@
+package com.solacesystems.poc.model;
+
+import com.solacesystems.poc.conn.TransportMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only, memory-mapped journal of every input to a ClusterConnector: session and flow
+ * events, LVQ, state and application messages, timer firings and publish acknowledgements,
+ * each numbered in the order it was recorded. A JournalReplayer feeds the journal back into
+ * a ClusterConnector to reproduce the cluster transitions it caused.
+ *
+ * The file grows a segment at a time; records never span segments. A record's length is
+ * written last, so a record torn by a crash reads as the end of the journal.
+ *
+ * Layout: header { magic, version, segment size, reserved, epoch millis, nanotime } then
+ * records { length(4), type(2), code(2), sequence(8), nanotime(8), value(8), payload }.
+ * A length of -1 skips to the next segment; 0 ends the journal.
+ */
+public class TransitionJournal {
+    public TransitionJournal(String path) {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates the journal, replacing any file at the path
+     */
+    public TransitionJournal(String path, int segmentSize) {
+        if (segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + MAX_PAYLOAD_SIZE)
+            throw new IllegalArgumentException("Journal segments must hold at least one full record");
+        _segmentSize = segmentSize;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(new File(path), "rw");
+            raf.setLength(0);
+            _channel = raf.getChannel();
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Failed to open journal " + path, e);
+        }
+        _map = mapSegment(0);
+        _map.putInt(MAGIC).putInt(VERSION).putInt(segmentSize).putInt(0)
+                .putLong(System.currentTimeMillis()).putLong(System.nanoTime());
+    }
+
+    /**
+     * Records an input; called from whichever thread delivered it
+     *
+     * @param code -- the event's ordinal, or 0
+     * @param value -- the message ID or correlation ID, or 0
+     * @param msg -- the message whose payload is recorded, or null
+     */
+    public synchronized void Append(JournalEventType type, int code, long value, TransportMessage msg) {
+        if (_closed)
+            return;
+        _payload.clear();
+        if (msg != null) {
+            try {
+                msg.getBinaryAttachment(_payload);
+            }
+            catch(BufferOverflowException e) {
+                _dropped++;
+                return;
+            }
+        }
+        int length = RECORD_HEADER_SIZE + _payload.position();
+        if (_map.remaining() < length)
+            nextSegment();
+        int start = _map.position();
+        _map.position(start + 4);
+        _map.putShort((short) type.ordinal()).putShort((short) code)
+                .putLong(_records++).putLong(System.nanoTime()).putLong(value);
+        _payload.flip();
+        _map.put(_payload);
+        // Completes the record
+        _map.putInt(start, length);
+    }
+
+    public synchronized long GetRecords() {
+        return _records;
+    }
+
+    /**
+     * @return messages too large to record
+     */
+    public synchronized long GetDropped() {
+        return _dropped;
+    }
+
+    /**
+     * Forces the journal to disk and closes it; later inputs are not recorded
+     */
+    public synchronized void Close() {
+        if (_closed)
+            return;
+        _closed = true;
+        _map.force();
+        try {
+            _channel.close();
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    private void nextSegment() {
+        if (_map.remaining() >= 4)
+            _map.putInt(_map.position(), SKIP);
+        _map = mapSegment(++_segment);
+    }
+
+    private MappedByteBuffer mapSegment(long segment) {
+        try {
+            MappedByteBuffer map = _channel.map(FileChannel.MapMode.READ_WRITE, segment * _segmentSize, _segmentSize);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return map;
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Failed to map journal segment " + segment, e);
+        }
+    }
+
+    static final int MAGIC = 0x4c4e524a; // "JRNL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_HEADER_SIZE = 32;
+    static final int SKIP = -1;
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel _channel;
+    private final int _segmentSize;
+    private final ByteBuffer _payload = ByteBuffer.allocate(MAX_PAYLOAD_SIZE);
+    private MappedByteBuffer _map;
+    private long _segment;
+    private long _records;
+    private long _dropped;
+    private boolean _closed;
+}
@@ -0,0 +1,29 @@
+package com.solacesystems.poc.model;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a pipeline stage waits for work, and how a producer waits for space in a full ring.
+ * Trades CPU for latency: BUSY_SPIN burns a core but reacts fastest, PARK sleeps briefly
+ * and reacts slowest.
+ */
+public enum WaitStrategy {
+    BUSY_SPIN {
+        void idle() {
+        }
+    },
+    YIELD {
+        void idle() {
+            Thread.yield();
+        }
+    },
+    PARK {
+        void idle() {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+
+    abstract void idle();
+
+    private static final long PARK_NANOS = 10000;
+}
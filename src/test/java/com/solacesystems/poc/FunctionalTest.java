@@ -1,19 +1,45 @@
 package com.solacesystems.poc;
 
-import com.solacesystems.poc.conn.Serializer;
-import com.solacesystems.poc.conn.SolaceConnector;
-import com.solacesystems.solclientj.core.event.FlowEventCallback;
-import com.solacesystems.solclientj.core.event.MessageCallback;
-import com.solacesystems.solclientj.core.event.SessionEventCallback;
-import com.solacesystems.solclientj.core.handle.*;
+import com.solacesystems.poc.book.OrderBookEngine;
+import com.solacesystems.poc.conn.*;
+import com.solacesystems.poc.model.CaptureReplayer;
+import com.solacesystems.poc.model.CheckpointStore;
+import com.solacesystems.poc.model.ClusterEventListener;
+import com.solacesystems.poc.model.ClusterMetrics;
+import com.solacesystems.poc.model.ClusterModel;
+import com.solacesystems.poc.model.EventLevel;
+import com.solacesystems.poc.model.EventLog;
+import com.solacesystems.poc.model.EventLogDecoder;
+import com.solacesystems.poc.model.FailoverTimeline;
+import com.solacesystems.poc.model.GapPolicy;
+import com.solacesystems.poc.model.HAState;
+import com.solacesystems.poc.model.InputCapture;
+import com.solacesystems.poc.model.OffHeapStore;
+import com.solacesystems.poc.model.ReplayTimer;
+import com.solacesystems.poc.model.SeqState;
+import com.solacesystems.poc.model.WaitStrategy;
+import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class FunctionalTest {
 
-    //@Test
-    public void pubSubTest() {
+    @Test(timeout = 10000)
+    public void pubSubTest() throws InterruptedException {
         ClientOrder order = new ClientOrder(555);
         order.setIsBuy(true);
         order.setQuantity(54.321);
@@ -25,30 +51,29 @@ public class FunctionalTest {
 
         final AtomicInteger received = new AtomicInteger(0);
         int expected = 10;
-        SolaceConnector conn = new SolaceConnector();
-        conn.ConnectSession("192.168.56.102", "poc_vpn", "test", "test", "app1_inst1",
-                new SessionEventCallback() {
-                    public void onEvent(SessionHandle sessionHandle) {
-                        System.out.println("Session: " + sessionHandle.getSessionEvent());
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("fntest", "fn/>");
+        Transport conn = new InMemoryTransport(broker);
+        conn.ConnectSession("localhost", "poc_vpn", "test", "test", "app1_inst1",
+                new SessionListener() {
+                    public void onSessionEvent(SessionEventType event) {
+                        System.out.println("Session: " + event);
                     }
                 });
-        FlowHandle flow = conn.BindQueue("fntest",
-                new MessageCallback() {
-                    public void onMessage(Handle handle) {
-                        MessageSupport ms = (MessageSupport) handle;
-                        MessageHandle msg = ms.getRxMessage();
+        TransportFlow flow = conn.BindQueue("fntest",
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
                         recvBuffer.clear();
                         msg.getBinaryAttachment(recvBuffer);
-                        System.out.println("MESSAGE LENGTH: " + recvBuffer.limit()
-                                            + " POSITION: " + recvBuffer.position());
                         ClientOrder output = Serializer.DeserializeClientOrder(recvBuffer);
-                        System.out.println("OUTPUT: " + output);
+                        assertEquals(555, output.getSequenceId());
+                        assertEquals("MSFT", output.getInstrument());
                         received.incrementAndGet();
                     }
                 },
-                new FlowEventCallback() {
-                    public void onEvent(FlowHandle flowHandle) {
-                        System.out.println("Flow event: " + flowHandle.getFlowEvent());
+                new FlowListener() {
+                    public void onFlowEvent(FlowEventType event) {
+                        System.out.println("Flow event: " + event);
                     }
                 });
         flow.start();
@@ -58,13 +83,1263 @@ public class FunctionalTest {
             conn.SendOutput(sendBuffer, "fn/test");
         }
         while(received.get() < expected) {
-            try {
-                Thread.sleep(1000);
+            Thread.sleep(10);
+        }
+        assertEquals(0, broker.getQueueDepth("fntest"));
+        conn.destroy();
+    }
+
+    @Test(timeout = 10000)
+    public void exclusiveQueueHandoffTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("excl", "excl/topic");
+        final AtomicInteger firstActive  = new AtomicInteger(0);
+        final AtomicInteger secondActive = new AtomicInteger(0);
+        final AtomicInteger secondReceived = new AtomicInteger(0);
+
+        Transport first  = connect(broker);
+        Transport second = connect(broker);
+        first.BindQueue("excl", countingListener(new AtomicInteger()), activeListener(firstActive));
+        TransportFlow backup = second.BindQueue("excl", countingListener(secondReceived), activeListener(secondActive));
+        backup.start();
+
+        waitFor(firstActive, 1);
+        waitFor(secondActive, -1);
+
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        Serializer.SerializeInt(payload, 1);
+        first.SendOutput(payload, "excl/topic");
+        assertEquals(1, broker.getQueueDepth("excl"));
+
+        // The active member fails; its undelivered messages go to the new active flow
+        first.destroy();
+        waitFor(secondActive, 1);
+        waitFor(secondReceived, 1);
+        assertEquals(0, broker.getQueueDepth("excl"));
+        second.destroy();
+    }
+
+    @Test(timeout = 10000)
+    public void lastValueQueueTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionLastValueQueue("lvq", "app/out");
+        Transport conn = connect(broker);
+
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        for(int i = 1; i <= 5; i++) {
+            Serializer.SerializeInt(payload, i);
+            conn.SendOutput(payload, "app/out");
+        }
+        assertEquals(1, broker.getQueueDepth("lvq"));
+
+        final AtomicInteger lastValue = new AtomicInteger(0);
+        final ByteBuffer recvBuffer = ByteBuffer.allocate(4);
+        TransportFlow browser = conn.BrowseQueue("lvq",
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        recvBuffer.clear();
+                        msg.getBinaryAttachment(recvBuffer);
+                        lastValue.set(Serializer.DeserializeInt(recvBuffer));
+                    }
+                },
+                activeListener(new AtomicInteger()));
+        browser.start();
+        waitFor(lastValue, 5);
+        // Browsing does not consume
+        assertEquals(1, broker.getQueueDepth("lvq"));
+        conn.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void clusterFailoverTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.inst2", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.observer", "app1/out");
+        broker.provisionQueue("app1.monitor", "monitor/state");
+        broker.provisionQueue("app1.state", "app1/state");
+
+        final AtomicLong lastOutput = new AtomicLong(0);
+        final ByteBuffer recvBuffer = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
+        Transport observer = connect(broker);
+        observer.BindQueue("app1.observer",
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        recvBuffer.clear();
+                        msg.getBinaryAttachment(recvBuffer);
+                        lastOutput.set(Serializer.DeserializeAppState(recvBuffer).getSequenceId());
+                    }
+                },
+                activeListener(new AtomicInteger())).start();
+        final AtomicInteger activeInstance = new AtomicInteger(0);
+        final ByteBuffer monitorBuffer = ByteBuffer.allocate(256);
+        observer.BindQueue("app1.monitor",
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        monitorBuffer.clear();
+                        msg.getBinaryAttachment(monitorBuffer);
+                        String json = new String(monitorBuffer.array(), 0, monitorBuffer.position());
+                        if (json.contains("\"HAState\":\"ACTIVE\""))
+                            activeInstance.set(json.contains("\"Instance\":1") ? 1 : 2);
+                    }
+                },
+                activeListener(new AtomicInteger())).start();
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        SampleClusteredApp inst2 = new SampleClusteredApp("app1", 2, "app1/out", new InMemoryTransport(broker));
+        // Recovery must finish on the end of the LVQ browse, well before this safety net
+        inst1.SetRecoveryTimeout(60000);
+        inst2.SetRecoveryTimeout(60000);
+        inst1.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst2.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        inst2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq");
+
+        waitFor(activeInstance, 1);
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 5; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        waitFor(lastOutput, 5);
+
+        // Kill the active instance; the backup takes over the output
+        inst1.Stop();
+        waitFor(activeInstance, 2);
+        for(int i = 6; i <= 10; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        waitFor(lastOutput, 10);
+        FailoverTimeline timeline = inst2.GetFailoverTimeline();
+        assertTrue(timeline.GetLastStateReadMicros() >= 0);
+        assertTrue(timeline.GetAppFlowStartMicros() >= timeline.GetLastStateReadMicros());
+        assertTrue(timeline.GetFirstOutputMicros() >= timeline.GetAppFlowStartMicros());
+
+        inst2.Stop();
+        gateway.destroy();
+        observer.destroy();
+    }
+
+    @Test(timeout = 10000)
+    public void clientAckRedeliveryTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("acked", "acked/topic");
+        final AtomicInteger firstReceived = new AtomicInteger(0);
+        final AtomicInteger secondReceived = new AtomicInteger(0);
+        final long[] firstMsgIds = new long[2];
+
+        Transport first  = connect(broker);
+        Transport second = connect(broker);
+        TransportFlow active = first.BindQueue("acked", AckMode.CLIENT,
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        firstMsgIds[firstReceived.get()] = msg.getMessageId();
+                        firstReceived.incrementAndGet();
+                    }
+                },
+                activeListener(new AtomicInteger()));
+        active.start();
+        second.BindQueue("acked", AckMode.CLIENT, countingListener(secondReceived), activeListener(new AtomicInteger()))
+                .start();
+
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        for(int i = 1; i <= 2; i++) {
+            Serializer.SerializeInt(payload, i);
+            first.SendOutput(payload, "acked/topic");
+        }
+        waitFor(firstReceived, 2);
+        // Delivered but unacknowledged messages stay spooled
+        assertEquals(2, broker.getQueueDepth("acked"));
+        active.ack(firstMsgIds[0]);
+        assertEquals(1, broker.getQueueDepth("acked"));
+
+        // Only the unacknowledged message is redelivered to the new active flow
+        first.destroy();
+        waitFor(secondReceived, 1);
+        Thread.sleep(50);
+        assertEquals(1, secondReceived.get());
+        second.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void ackWindowTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetAckWindow(4, 2000);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 10; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        // Acks are released in windows of 4 as outputs are accepted, the last 2 by the flush timer
+        while(broker.getQueueDepth("app1.inst1") > 0) {
+            Thread.sleep(10);
+        }
+
+        inst1.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void catchUpTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+
+        // A restart behind a deep queue: 100 orders waiting, the last output was for order 90
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 100; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        AppState lastOutput = new AppState("MSFT");
+        lastOutput.setSequenceId(90);
+        gateway.SendOutput(Serializer.SerializeAppState(ByteBuffer.allocate(AppState.SERIALIZED_SIZE), lastOutput), "app1/out");
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetAckWindow(4, 2000, 32);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        // Orders 1-89 are discarded unprocessed; 90 is reprocessed as the LVQ holds no more state
+        while(broker.getQueueDepth("app1.inst1") > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(11, inst1.GetOrdersProcessed());
+
+        inst1.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 10000)
+    public void monitorPublisherTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.monitor", "monitor/state");
+
+        final AtomicInteger updates = new AtomicInteger(0);
+        final AtomicReference<String> lastUpdate = new AtomicReference<String>();
+        final ByteBuffer monitorBuffer = ByteBuffer.allocate(256);
+        Transport observer = connect(broker);
+        observer.BindQueue("app1.monitor",
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        monitorBuffer.clear();
+                        msg.getBinaryAttachment(monitorBuffer);
+                        lastUpdate.set(new String(monitorBuffer.array(), 0, monitorBuffer.position()));
+                        updates.incrementAndGet();
+                    }
+                },
+                activeListener(new AtomicInteger())).start();
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetMonitorInterval(50);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 100; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        String expected = "{ \"Instance\":1, \"HAState\":\"ACTIVE\", \"SeqState\":\"UPTODATE\", \"LastInput\":100, \"LastOutput\":100 }";
+        while(!expected.equals(lastUpdate.get())) {
+            Thread.sleep(10);
+        }
+        // 100 inputs are coalesced into far fewer updates
+        assertTrue(updates.get() < 100);
+
+        inst1.Stop();
+        gateway.destroy();
+        observer.destroy();
+    }
+
+    @Test(timeout = 10000)
+    public void clusterModelSnapshotTest() throws InterruptedException {
+        final AtomicReference<SeqState> oldSeqState = new AtomicReference<SeqState>();
+        final ClusterModel<ClientOrder, AppState> model = new ClusterModel<ClientOrder, AppState>(
+                new ClusterEventListener<ClientOrder, AppState>() {
+                    public void OnHAStateChange(HAState oldState, HAState newState) {}
+                    public void OnSeqStateChange(SeqState oldState, SeqState newState) {
+                        oldSeqState.set(oldState);
+                    }
+                    public void OnInitialStateMessage(AppState initialState) {}
+                    public void OnApplicationMessage(ClientOrder input) {}
+                    public AppState UpdateApplicationState(ClientOrder input) {
+                        AppState output = new AppState("SYM");
+                        output.setSequenceId(input.getSequenceId());
+                        return output;
+                    }
+                });
+        model.SetSequenceStatus(SeqState.RECOVERING);
+        model.SetSequenceStatus(SeqState.UPTODATE);
+        assertEquals(SeqState.RECOVERING, oldSeqState.get());
+        assertTrue(!model.CompareAndSetSequenceStatus(SeqState.CONNECTED, SeqState.BOUND));
+        assertEquals(SeqState.UPTODATE, model.GetSequenceStatus());
+
+        final int inputs = 200000;
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for(int i = 1; i <= inputs; i++) {
+                    model.UpdateApplicationState(new ClientOrder(i));
+                    if (i % 1000 == 0)
+                        model.SetHAStatus((i % 2000 == 0) ? HAState.ACTIVE : HAState.BACKUP);
+                }
             }
-            catch(InterruptedException e) {
-                e.printStackTrace();
+        });
+        // Recovery sets the last output on another thread while inputs are being processed
+        final long recoveredOutput = -2;
+        final AppState recovered = new AppState("SYM");
+        recovered.setSequenceId(recoveredOutput);
+        Thread recovery = new Thread(new Runnable() {
+            public void run() {
+                while(!Thread.currentThread().isInterrupted()) {
+                    model.SetLastOutput(recovered);
+                }
             }
+        });
+        writer.start();
+        recovery.start();
+        // Every snapshot pairs an input with the output it produced or the recovered output
+        ClusterModel.Snapshot snapshot = new ClusterModel.Snapshot();
+        long last = -1;
+        while(last < inputs) {
+            model.ReadSnapshot(snapshot);
+            if (snapshot.GetLastOutputSequenceId() != recoveredOutput)
+                assertEquals(snapshot.GetLastInputSequenceId(), snapshot.GetLastOutputSequenceId());
+            assertTrue(snapshot.GetLastInputSequenceId() >= last);
+            last = snapshot.GetLastInputSequenceId();
+        }
+        writer.join();
+        recovery.interrupt();
+        recovery.join();
+        assertEquals(HAState.ACTIVE, model.GetHAStatus());
+    }
+
+    @Test(timeout = 10000)
+    public void eventLogTest() throws Exception {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        File file = File.createTempFile("app1.inst1", ".evlog");
+        file.deleteOnExit();
+
+        EventLog log = new EventLog(1024, file.getPath());
+        log.SetLevel(EventLevel.DEBUG);
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetEventLog(log);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 5; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        while(inst1.GetOrdersProcessed() < 5) {
+            Thread.sleep(10);
+        }
+        inst1.Stop();
+        gateway.destroy();
+        log.Close();
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        int records = EventLogDecoder.Decode(file.getPath(), new PrintStream(text));
+        String decoded = text.toString();
+        assertEquals(log.getWritten(), records);
+        assertEquals(0, log.getDropped());
+        assertTrue(decoded.contains("HA_CHANGE from=BACKUP to=ACTIVE"));
+        assertTrue(decoded.contains("ACTIVE/UPTODATE INPUT_PROCESSED in=5 out=5"));
+    }
+
+    @Test(timeout = 10000)
+    public void metricsTest() throws Exception {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 10; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        ClusterMetrics metrics = inst1.GetMetrics();
+        while(metrics.getInputsProcessed() < 10) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, metrics.GetDeserializeLatency().getCount());
+        assertEquals(10, metrics.GetUpdateLatency().getCount());
+        assertEquals(10, metrics.GetSendLatency().getCount());
+        assertTrue(metrics.GetSendLatency().getP99Micros() <= metrics.GetSendLatency().getMaxMicros());
+        assertEquals(1, metrics.getLvqRecoveries());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.solacesystems.poc:type=ClusterMetrics,client=app1_inst1");
+        assertEquals(10L, server.getAttribute(name, "InputsProcessed"));
+        assertEquals("ACTIVE", server.getAttribute(name, "HAState"));
+        inst1.Stop();
+        assertTrue(!server.isRegistered(name));
+        gateway.destroy();
+    }
+
+    @Test
+    public void orderBookTest() {
+        OrderBookEngine books = new OrderBookEngine(16, 16);
+        AppState result = new AppState(null);
+        books.Apply(limitOrder(1, "MSFT", false, 10, 50.5), result);
+        books.Apply(limitOrder(2, "MSFT", false, 5, 50.5), result);
+        books.Apply(limitOrder(3, "MSFT", false, 7, 51), result);
+        books.Apply(limitOrder(4, "MSFT", true, 3, 49), result);
+        books.Apply(limitOrder(5, "AAPL", true, 1, 10), result);
+        assertEquals(50.5, books.GetBestAsk("MSFT"), 0);
+        assertEquals(15, books.GetDepth("MSFT", false, 50.5), 0);
+
+        // Sweeps the 50.5 level in time priority, then part of 51; the rest rests as the best bid
+        books.Apply(limitOrder(6, "MSFT", true, 20, 51), result);
+        assertEquals(20, result.getFilledQuantity(), 0);
+        assertEquals(0, result.getOpenQuantity(), 0);
+        assertEquals(49, result.getBestBid(), 0);
+        assertEquals(51, result.getBestAsk(), 0);
+        assertEquals(2, books.GetOpenQuantity(3), 0);
+        assertEquals(0, books.GetOpenQuantity(1), 0);
+        books.Apply(limitOrder(7, "MSFT", true, 4, 52), result);
+        assertEquals(2, result.getFilledQuantity(), 0);
+        assertEquals(2, result.getOpenQuantity(), 0);
+        assertEquals(52, result.getBestBid(), 0);
+        assertEquals(0, result.getBestAsk(), 0);
+
+        // A duplicate ID, a missing price and a cancelled order change nothing else
+        books.Apply(limitOrder(7, "MSFT", true, 4, 52), result);
+        books.Apply(limitOrder(8, "MSFT", true, 4, 0), result);
+        assertEquals(2, books.GetRejected());
+        assertTrue(books.Cancel(4));
+        assertTrue(!books.Cancel(4));
+        assertEquals(2, books.GetRestingOrders());
+
+        // A snapshot restores the books, symbols and time priority included
+        ByteBuffer snapshot = ByteBuffer.allocate(OrderBookEngine.MaxSnapshotSize(16, 16)).order(ByteOrder.LITTLE_ENDIAN);
+        books.WriteSnapshot(snapshot);
+        snapshot.flip();
+        OrderBookEngine restored = new OrderBookEngine(16, 16);
+        restored.ReadSnapshot(snapshot);
+        assertEquals(2, restored.GetSymbolCount());
+        assertEquals(2, restored.GetRestingOrders());
+        assertEquals(52, restored.GetBestBid("MSFT"), 0);
+        assertEquals(10, restored.GetBestBid("AAPL"), 0);
+        assertEquals(2, restored.GetOpenQuantity(7), 0);
+    }
+
+    @Test
+    public void offHeapStoreTest() throws IOException {
+        File file = File.createTempFile("app1.inst1", ".store");
+        file.deleteOnExit();
+        OffHeapStore store = new OffHeapStore(file.getPath(), 4, 16);
+        for(long key = 100; key < 104; key++) {
+            int slot = store.Insert(key);
+            store.PutLong(slot, 0, key * 2);
+            store.PutDouble(slot, 8, key / 4.0);
+        }
+        assertEquals(OffHeapStore.NO_SLOT, store.Insert(104));
+        int freed = store.Find(101);
+        assertTrue(store.Remove(101));
+        assertTrue(!store.Remove(101));
+        assertEquals(OffHeapStore.NO_SLOT, store.Find(101));
+
+        // Records keep their slots across a snapshot, and the freed slot is the next one reused
+        ByteBuffer snapshot = ByteBuffer.allocateDirect(OffHeapStore.MaxSnapshotSize(4, 16)).order(ByteOrder.LITTLE_ENDIAN);
+        store.WriteSnapshot(snapshot);
+        snapshot.flip();
+        OffHeapStore restored = new OffHeapStore(8, 16);
+        restored.ReadSnapshot(snapshot);
+        assertEquals(3, restored.Size());
+        for(long key = 100; key < 104; key++) {
+            if (key == 101)
+                continue;
+            int slot = restored.Find(key);
+            assertEquals(store.Find(key), slot);
+            assertEquals(key * 2, restored.GetLong(slot, 0));
+            assertEquals(key / 4.0, restored.GetDouble(slot, 8), 0);
+        }
+        assertEquals(freed, restored.Insert(105));
+    }
+
+    @Test(timeout = 10000)
+    public void sequenceTrackingTest() throws Exception {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetSequenceTracking(64, GapPolicy.PROCESS);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        long[] seqIds = { 1, 2, 2, 4, 3, 5L + Integer.MAX_VALUE };
+        for(long seqId : seqIds) {
+            sendOrder(gateway, orderBuffer, seqId);
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.solacesystems.poc:type=SequenceTracker,client=app1_inst1,stream=input");
+        // The model records the output just after the application counts the order
+        while(inst1.GetMetrics().getLastOutputSequenceId() != 5L + Integer.MAX_VALUE) {
+            Thread.sleep(10);
+        }
+        // Gaps are counted but processed under PROCESS; the duplicate is discarded, and the
+        // late input is counted but ignored, being behind the state
+        assertEquals((long) seqIds.length, server.getAttribute(name, "Tracked"));
+        assertEquals(4, inst1.GetOrdersProcessed());
+        assertEquals(1L, server.getAttribute(name, "Duplicates"));
+        assertEquals(2L, server.getAttribute(name, "Gaps"));
+        assertEquals(1L, server.getAttribute(name, "Reordered"));
+        assertEquals((long) Integer.MAX_VALUE, server.getAttribute(name, "Missing"));
+        inst1.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void pipelineTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.observer", "app1/out");
+
+        final AtomicLong lastOutput = new AtomicLong(0);
+        final ByteBuffer recvBuffer = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
+        Transport observer = connect(broker);
+        observer.BindQueue("app1.observer",
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        recvBuffer.clear();
+                        msg.getBinaryAttachment(recvBuffer);
+                        lastOutput.set(Serializer.DeserializeAppState(recvBuffer).getSequenceId());
+                    }
+                },
+                activeListener(new AtomicInteger())).start();
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetPipeline(8, WaitStrategy.YIELD, WaitStrategy.PARK);
+        inst1.SetAckWindow(4, 2000);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+
+        // More input than the rings hold, so the stages apply backpressure
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 100; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        // A payload larger than a ring slot grows the slot instead of failing the context thread
+        ByteBuffer padded = ByteBuffer.allocate(1024);
+        ClientOrder order = new ClientOrder(101);
+        order.setInstrument("MSFT");
+        Serializer.SerializeClientOrder(padded, order);
+        padded.position(padded.capacity());
+        gateway.SendOutput(padded, "orders");
+        waitFor(lastOutput, 101);
+        // An input is acknowledged once its output is published, which may be before the
+        // input stage releases its slot, so the rings drain shortly after the queue
+        while(broker.getQueueDepth("app1.inst1") > 0
+                || inst1.GetInputQueueDepth() > 0 || inst1.GetOutputQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(101, inst1.GetOrdersProcessed());
+
+        inst1.Stop();
+        gateway.destroy();
+        observer.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void snapshotRecoveryTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.inst2", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.state", "app1/state");
+
+        // A snapshot every 4 outputs in 48 byte chunks, so each 84 byte snapshot takes 2 chunks
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 10; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        // Snapshots after outputs 1, 5 and 9; deltas for the other 7
+        while(broker.getQueueDepth("app1.state") < 3 * 2 + 7) {
+            Thread.sleep(10);
+        }
+        inst1.Stop();
+
+        // A new member holding all 10 orders on its queue restores the state from
+        // snapshot 9 plus delta 10, then skips the orders already in that state
+        SampleClusteredApp inst2 = new SampleClusteredApp("app1", 2, "app1/out", new InMemoryTransport(broker));
+        inst2.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq");
+        while(broker.getQueueDepth("app1.inst2") > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, inst2.GetOrdersProcessed());
+        sendOrder(gateway, orderBuffer, 11);
+        while(inst2.GetOrdersProcessed() < 11) {
+            Thread.sleep(10);
+        }
+
+        inst2.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void missingSnapshotRecoveryTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.inst2", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.state", "app1/state");
+
+        // Runs without snapshots, so the state queue holds none once they are enabled
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 10; i++) {
+            sendOrder(gateway, orderBuffer, i, i % 2 == 0, 100, 10 + i % 3);
+        }
+        while(inst1.GetOrdersProcessed() < 10) {
+            Thread.sleep(10);
+        }
+        inst1.Stop();
+
+        // The LVQ is at order 10 but nothing can be restored, so the new member replays every
+        // order on its queue instead of skipping up to the LVQ with empty books
+        SampleClusteredApp inst2 = new SampleClusteredApp("app1", 2, "app1/out", new InMemoryTransport(broker));
+        inst2.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq");
+        while(inst2.GetOrdersProcessed() < 10) {
+            Thread.sleep(10);
+        }
+        assertSameBooks(inst1, inst2);
+
+        inst2.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void failoverBooksTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.inst2", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.state", "app1/state");
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        SampleClusteredApp inst2 = new SampleClusteredApp("app1", 2, "app1/out", new InMemoryTransport(broker));
+        inst1.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst2.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        inst2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq");
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 10; i++) {
+            sendOrder(gateway, orderBuffer, i, i % 2 == 0, 100, 10 + i % 3);
+        }
+        while(inst1.GetOrdersProcessed() < 10 || inst2.GetOrdersProcessed() < 10) {
+            Thread.sleep(10);
+        }
+
+        // Kill the active member; the backup takes over with the same books
+        inst1.Stop();
+        while(inst2.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        assertSameBooks(inst1, inst2);
+
+        // The failed member comes back as the backup and restores the books from the
+        // snapshots before the LVQ, rather than skipping up to it with empty books
+        for(int i = 11; i <= 20; i++) {
+            sendOrder(gateway, orderBuffer, i, i % 2 == 0, 100, 10 + i % 3);
+        }
+        while(inst2.GetOrdersProcessed() < 20) {
+            Thread.sleep(10);
+        }
+        SampleClusteredApp restarted = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        restarted.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        restarted.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(restarted.GetOrdersProcessed() < 20 || broker.getQueueDepth("app1.inst1") > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(HAState.BACKUP, restarted.GetHAStatus());
+        assertSameBooks(inst2, restarted);
+
+        restarted.Stop();
+        inst2.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void laggingBackupFailoverTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.inst2", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.state", "app1/state");
+        broker.provisionQueue("app1.observer", "app1/out");
+
+        final AtomicLong lastOutput = new AtomicLong(0);
+        final AtomicInteger regressions = new AtomicInteger();
+        final ByteBuffer recvBuffer = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
+        Transport observer = connect(broker);
+        observer.BindQueue("app1.observer",
+                new MessageListener() {
+                    public void onMessage(TransportMessage msg) {
+                        recvBuffer.clear();
+                        msg.getBinaryAttachment(recvBuffer);
+                        long seqId = Serializer.DeserializeAppState(recvBuffer).getSequenceId();
+                        if (seqId < lastOutput.get())
+                            regressions.incrementAndGet();
+                        else
+                            lastOutput.set(seqId);
+                    }
+                },
+                activeListener(new AtomicInteger())).start();
+
+        // The backup processes its inputs in a pipeline, slower than the active member, so it
+        // is still far behind the LVQ when it takes over
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        SampleClusteredApp inst2 = new SampleClusteredApp("app1", 2, "app1/out", new InMemoryTransport(broker)) {
+            @Override
+            public AppState UpdateApplicationState(ClientOrder input) {
+                try {
+                    Thread.sleep(2);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.UpdateApplicationState(input);
+            }
+        };
+        inst1.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst2.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst2.SetPipeline(8, WaitStrategy.YIELD, WaitStrategy.PARK);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        inst2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq");
+        while(inst2.GetHAStatus() != HAState.BACKUP) {
+            Thread.sleep(10);
+        }
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 200; i++) {
+            sendOrder(gateway, orderBuffer, i, i % 2 == 0, 100, 10 + i % 3);
+        }
+        waitFor(lastOutput, 200);
+        assertTrue("the backup lags", inst2.GetOrdersProcessed() < 200);
+
+        // The backup takes over while behind: it catches up from its own queue without
+        // publishing the outputs the LVQ is already past or reloading state under its inputs
+        inst1.Stop();
+        while(inst2.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        while(inst2.GetOrdersProcessed() < 200 || broker.getQueueDepth("app1.inst2") > 0
+                || inst2.GetInputQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        assertSameBooks(inst1, inst2);
+        for(int i = 201; i <= 205; i++) {
+            sendOrder(gateway, orderBuffer, i, i % 2 == 0, 100, 10 + i % 3);
+        }
+        waitFor(lastOutput, 205);
+        assertEquals(205, inst2.GetOrdersProcessed());
+        assertEquals(0, regressions.get());
+
+        inst2.Stop();
+        gateway.destroy();
+        observer.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void publishedSymbolsRestartTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.inst2", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.state", "app1/state");
+        broker.provisionLastValueQueue(SymbolTopic.QUEUE, SymbolTopic.TOPIC);
+
+        // Both members load the LVQ before the instruments are published, so they learn the
+        // IDs from the orders defining them
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        SampleClusteredApp inst2 = new SampleClusteredApp("app1", 2, "app1/out", new InMemoryTransport(broker));
+        inst1.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst2.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst1.SetSymbolQueue(SymbolTopic.QUEUE);
+        inst2.SetSymbolQueue(SymbolTopic.QUEUE);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        inst2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq");
+        Transport gateway = connect(broker);
+        LoadGenerator generator = new LoadGenerator(gateway, "orders", 1);
+        generator.SetRate(2000);
+        generator.SetInstruments(LoadGenerator.Universe(4));
+        generator.PublishSymbols(new SymbolTopic(gateway));
+        long sent = generator.Run(50);
+        while(inst1.GetOrdersProcessed() < sent || inst2.GetOrdersProcessed() < sent) {
+            Thread.sleep(10);
+        }
+
+        // The restarted member never sees those orders; it decodes the bare IDs after them
+        // with the dictionary it loads from the LVQ
+        inst1.Stop();
+        while(inst2.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        SampleClusteredApp restarted = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        restarted.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        restarted.SetSymbolQueue(SymbolTopic.QUEUE);
+        restarted.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        sent += generator.Run(50);
+        while(inst2.GetOrdersProcessed() < sent || restarted.GetOrdersProcessed() < sent) {
+            Thread.sleep(10);
+        }
+        assertSameBooks(inst2, restarted);
+
+        restarted.Stop();
+        inst2.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 10000)
+    public void checkpointRestartTest() throws InterruptedException, IOException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        File file = File.createTempFile("app1.inst1", ".ckpt");
+        file.deleteOnExit();
+        String path = file.getPath();
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        inst1.SetCheckpoint(path, 1);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 5; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        CheckpointStore checkpoint = new CheckpointStore(path, SampleClusteredApp.CHECKPOINT_SIZE, false);
+        while(!checkpoint.Load() || checkpoint.GetSequenceId() < 5) {
+            Thread.sleep(10);
+        }
+        inst1.Stop();
+
+        // The restart reloads the full state locally; with the LVQ at the same output there is
+        // nothing to restore from the broker, so no state queue is needed
+        SampleClusteredApp restarted = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        restarted.SetSnapshots("app1.state", "app1/state", 4, 48, 60000);
+        restarted.SetCheckpoint(path, 1);
+        restarted.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        assertEquals(5, restarted.GetOrdersProcessed());
+        sendOrder(gateway, orderBuffer, 6);
+        while(restarted.GetOrdersProcessed() < 6) {
+            Thread.sleep(10);
+        }
+
+        restarted.Stop();
+        gateway.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void journalReplayTest() throws InterruptedException, IOException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.inst2", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        File journal1 = File.createTempFile("app1.inst1", ".journal");
+        File journal2 = File.createTempFile("app1.inst2", ".journal");
+        journal1.deleteOnExit();
+        journal2.deleteOnExit();
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        SampleClusteredApp inst2 = new SampleClusteredApp("app1", 2, "app1/out", new InMemoryTransport(broker));
+        inst1.SetJournal(journal1.getPath());
+        inst2.SetJournal(journal2.getPath());
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        inst2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq");
+        // Otherwise the backup may read a last output past the first orders and skip them
+        while(!"RECOVERING_FROM_FLOW".equals(inst2.GetMetrics().getSequenceState())) {
+            Thread.sleep(10);
+        }
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 5; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        // The backup may get ahead of the active member, so the first journal ends with all 5
+        while(inst1.GetOrdersProcessed() < 5 || inst2.GetOrdersProcessed() < 5) {
+            Thread.sleep(10);
+        }
+        inst1.Stop();
+        while(inst2.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        for(int i = 6; i <= 10; i++) {
+            sendOrder(gateway, orderBuffer, i);
+        }
+        while(inst2.GetOrdersProcessed() < 10) {
+            Thread.sleep(10);
+        }
+        inst2.Stop();
+        gateway.destroy();
+
+        // Each replay ends where its instance did, including the failover, without waiting on any timeout
+        ReplayTransport transport1 = new ReplayTransport();
+        SampleClusteredApp replay1 = new SampleClusteredApp("app1", 1, "app1/out", transport1, new ReplayTimer());
+        assertTrue(replay1.Replay(journal1.getPath()) > 5);
+        assertEquals(5, replay1.GetOrdersProcessed());
+        assertEquals(5, transport1.GetOutputs());
+        assertEquals(HAState.ACTIVE, replay1.GetHAStatus());
+
+        ReplayTransport transport2 = new ReplayTransport();
+        SampleClusteredApp replay2 = new SampleClusteredApp("app1", 2, "app1/out", transport2, new ReplayTimer());
+        replay2.Replay(journal2.getPath());
+        assertEquals(10, replay2.GetOrdersProcessed());
+        assertEquals(5, transport2.GetOutputs());
+        assertEquals(HAState.ACTIVE, replay2.GetHAStatus());
+    }
+
+    @Test(timeout = 20000)
+    public void partitionedActiveActiveTest() throws InterruptedException {
+        final InMemoryBroker broker = new InMemoryBroker();
+        final AtomicLong[] lastOutput = new AtomicLong[2];
+        Transport observer = connect(broker);
+        for(int p = 0; p < 2; p++) {
+            broker.provisionQueue("app1.inst1." + p, "orders/" + p);
+            broker.provisionQueue("app1.inst2." + p, "orders/" + p);
+            broker.provisionLastValueQueue("app1.lvq." + p, "app1/out/" + p);
+            broker.provisionQueue("app1.observer." + p, "app1/out/" + p);
+            broker.provisionQueue("app1.state." + p, "app1/state/" + p);
+            lastOutput[p] = new AtomicLong(0);
+            final AtomicLong last = lastOutput[p];
+            final ByteBuffer recvBuffer = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
+            observer.BindQueue("app1.observer." + p,
+                    new MessageListener() {
+                        public void onMessage(TransportMessage msg) {
+                            recvBuffer.clear();
+                            msg.getBinaryAttachment(recvBuffer);
+                            last.set(Serializer.DeserializeAppState(recvBuffer).getSequenceId());
+                        }
+                    },
+                    activeListener(new AtomicInteger())).start();
+        }
+        TransportFactory transports = new TransportFactory() {
+            public Transport CreateTransport() {
+                return new InMemoryTransport(broker);
+            }
+        };
+        PartitionedClusteredApp node1 = new PartitionedClusteredApp("app1", 1, 2, 2, "app1/out", transports);
+        PartitionedClusteredApp node2 = new PartitionedClusteredApp("app1", 2, 2, 2, "app1/out", transports);
+        node1.SetSnapshots("app1.state", "app1/state");
+        node2.SetSnapshots("app1.state", "app1/state");
+        node1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq", 300);
+        node2.Start("localhost", "poc_vpn", "test", "test", "app1.inst2", "app1.lvq", 300);
+
+        // Each node is active for its home partition and backup for the other
+        waitForHAState(node1, 0, HAState.ACTIVE);
+        waitForHAState(node2, 1, HAState.ACTIVE);
+        waitForHAState(node1, 1, HAState.BACKUP);
+        waitForHAState(node2, 0, HAState.BACKUP);
+
+        Transport gateway = connect(broker);
+        ByteBuffer orderBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 1; i <= 6; i++) {
+            ClientOrder order = new ClientOrder(i);
+            order.setInstrument("MSFT");
+            gateway.SendOutput(Serializer.SerializeClientOrder(orderBuffer, order), "orders/" + (i % 2));
+        }
+        waitFor(lastOutput[0], 6);
+        waitFor(lastOutput[1], 5);
+        assertEquals(HAState.BACKUP, node1.GetHAStatus(1));
+        assertEquals(HAState.BACKUP, node2.GetHAStatus(0));
+
+        // Node 1 fails; node 2 takes over its partition as well
+        node1.Stop();
+        waitForHAState(node2, 0, HAState.ACTIVE);
+
+        node2.Stop();
+        gateway.destroy();
+        observer.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void loadGeneratorTest() {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("load", "orders");
+        Transport gateway = connect(broker);
+
+        // A 100ms burst at 20000/s, then 2000/s: 2000 + 800 orders are due in 500ms
+        LoadGenerator generator = new LoadGenerator(gateway, "orders", 1);
+        generator.SetRate(2000);
+        generator.SetBurstProfile(20000, 100, 1000);
+        generator.SetInstruments(LoadGenerator.Universe(10));
+        long sent = generator.Run(500);
+
+        assertEquals(sent, generator.GetSent());
+        assertTrue(Math.abs(sent + generator.GetMissed() - 2800) <= 1);
+        assertEquals(sent, broker.getQueueDepth("load"));
+        gateway.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void partitionedLoadGeneratorTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        int partitions = 3;
+        for(int p = 0; p < partitions; p++) {
+            broker.provisionQueue("load." + p, "orders/" + p);
+        }
+        Transport gateway = connect(broker);
+        LoadGenerator generator = new LoadGenerator(gateway, "orders", 1);
+        generator.SetRate(5000);
+        generator.SetInstruments(LoadGenerator.Universe(10));
+        generator.SetPartitioner(new InstrumentPartitioner(partitions));
+        long sent = generator.Run(200);
+
+        // Every partition's orders are numbered 1, 2, 3, ... on their own, without gaps
+        Transport observer = connect(broker);
+        final AtomicLong received = new AtomicLong();
+        final AtomicInteger gaps = new AtomicInteger();
+        for(int p = 0; p < partitions; p++) {
+            final ByteBuffer recvBuffer = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+            final long[] expected = { 1 };
+            observer.BindQueue("load." + p,
+                    new MessageListener() {
+                        public void onMessage(TransportMessage msg) {
+                            recvBuffer.clear();
+                            msg.getBinaryAttachment(recvBuffer);
+                            recvBuffer.flip();
+                            if (Serializer.PeekClientOrderSequenceId(recvBuffer) != expected[0]++)
+                                gaps.incrementAndGet();
+                            received.incrementAndGet();
+                        }
+                    },
+                    activeListener(new AtomicInteger())).start();
+        }
+        waitFor(received, sent);
+        assertEquals(0, gaps.get());
+
+        gateway.destroy();
+        observer.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void latencySinkTest() throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionQueue("app1.latency", "app1/out");
+        Transport observer = connect(broker);
+        LatencySink sink = new LatencySink(observer);
+        sink.Start("app1.latency");
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetPipeline(8, WaitStrategy.YIELD, WaitStrategy.PARK);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+
+        Transport gateway = connect(broker);
+        LoadGenerator generator = new LoadGenerator(gateway, "orders", 1);
+        generator.SetRate(2000);
+        long sent = generator.Run(100);
+        while(sink.GetReceived() < sent) {
+            Thread.sleep(10);
+        }
+
+        // Every output is stamped, and published by the active member
+        assertEquals(0, sink.GetUnstamped());
+        long recorded = 0;
+        for(SeqState seq : SeqState.values()) {
+            LatencyHistogram endToEnd = sink.GetHistogram(LatencySink.Leg.END_TO_END, HAState.ACTIVE, seq);
+            recorded += endToEnd.getCount();
+            assertEquals(endToEnd.getCount(), sink.GetHistogram(LatencySink.Leg.ACTIVE_INTERNAL, HAState.ACTIVE, seq).getCount());
+        }
+        assertEquals(sent, recorded);
+        LatencyHistogram steady = sink.GetHistogram(LatencySink.Leg.END_TO_END, HAState.ACTIVE, SeqState.UPTODATE);
+        assertTrue(steady.getCount() > 0);
+        assertTrue(steady.getMaxMicros() < 10000000);
+
+        inst1.Stop();
+        gateway.destroy();
+        observer.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void captureBacktestTest() throws InterruptedException, IOException {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionQueue("app1.inst1", "orders");
+        broker.provisionQueue("app1.capture", "orders");
+        broker.provisionLastValueQueue("app1.lvq", "app1/out");
+        broker.provisionLastValueQueue(SymbolTopic.QUEUE, SymbolTopic.TOPIC);
+        Transport gateway = connect(broker);
+        LoadGenerator generator = new LoadGenerator(gateway, "orders", 1);
+        generator.SetRate(5000);
+        generator.SetInstruments(LoadGenerator.Universe(4));
+        generator.PublishSymbols(new SymbolTopic(gateway));
+
+        // The capture starts with the published dictionary, which the backtest loads
+        File file = File.createTempFile("capture", ".cap");
+        file.deleteOnExit();
+        Transport tap = connect(broker);
+        SymbolDictionary symbols = new SymbolDictionary(SymbolDictionary.DEFAULT_CAPACITY);
+        assertTrue(new SymbolTopic(tap).Load(symbols));
+        InputCapture capture = new InputCapture(file.getPath(), 1024 * 1024, symbols);
+        capture.Tap(tap, "app1.capture");
+
+        SampleClusteredApp inst1 = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(broker));
+        inst1.SetSymbolQueue(SymbolTopic.QUEUE);
+        inst1.Start("localhost", "poc_vpn", "test", "test", "app1.inst1", "app1.lvq");
+        while(inst1.GetHAStatus() != HAState.ACTIVE) {
+            Thread.sleep(10);
+        }
+        long sent = generator.Run(100);
+        while(inst1.GetOrdersProcessed() < sent || capture.GetRecords() < sent) {
+            Thread.sleep(10);
+        }
+        tap.destroy();
+        capture.Close();
+        inst1.Stop();
+
+        // The backtest rebuilds the live books, and every run of the capture ends in the same state
+        SampleClusteredApp backtest = new SampleClusteredApp("backtest", 0, "backtest/out", new ReplayTransport(), new ReplayTimer());
+        CaptureReplayer<ClientOrder, AppState> replayer = backtest.Backtest(file.getPath());
+        assertEquals(sent, backtest.GetOrdersProcessed());
+        assertEquals(inst1.GetOrderBooks().GetRestingOrders(), backtest.GetOrderBooks().GetRestingOrders());
+        assertEquals(sent, replayer.GetLastOutput().getSequenceId());
+        assertTrue(replayer.GetThroughput() > 0);
+        SampleClusteredApp rerun = new SampleClusteredApp("backtest", 0, "backtest/out", new ReplayTransport(), new ReplayTimer());
+        assertEquals(backtest.GetStateDigest(replayer), rerun.GetStateDigest(rerun.Backtest(file.getPath())));
+        gateway.destroy();
+    }
+
+    private static ClientOrder limitOrder(long seqId, String instrument, boolean buy, double quantity, double price) {
+        ClientOrder order = new ClientOrder(seqId);
+        order.setInstrument(instrument);
+        order.setIsBuy(buy);
+        order.setQuantity(quantity);
+        order.setPrice(price);
+        return order;
+    }
+
+    private static void sendOrder(Transport gateway, ByteBuffer buffer, long seqId) {
+        ClientOrder order = new ClientOrder(seqId);
+        order.setInstrument("MSFT");
+        gateway.SendOutput(Serializer.SerializeClientOrder(buffer, order), "orders");
+    }
+
+    private static void sendOrder(Transport gateway, ByteBuffer buffer, long seqId, boolean isBuy, double quantity, double price) {
+        ClientOrder order = new ClientOrder(seqId);
+        order.setInstrument("MSFT");
+        order.setIsBuy(isBuy);
+        order.setQuantity(quantity);
+        order.setPrice(price);
+        gateway.SendOutput(Serializer.SerializeClientOrder(buffer, order), "orders");
+    }
+
+    /**
+     * Compares the members' order books through their snapshots, resting orders and all
+     */
+    private static void assertSameBooks(SampleClusteredApp expected, SampleClusteredApp actual) {
+        ByteBuffer expectedBooks = ByteBuffer.allocate(SampleClusteredApp.CHECKPOINT_SIZE);
+        ByteBuffer actualBooks = ByteBuffer.allocate(SampleClusteredApp.CHECKPOINT_SIZE);
+        expected.GetOrderBooks().WriteSnapshot(expectedBooks);
+        actual.GetOrderBooks().WriteSnapshot(actualBooks);
+        expectedBooks.flip();
+        actualBooks.flip();
+        assertTrue("some orders resting", expected.GetOrderBooks().GetRestingOrders() > 0);
+        assertEquals(expected.GetOrderBooks().GetRestingOrders(), actual.GetOrderBooks().GetRestingOrders());
+        assertEquals(expectedBooks, actualBooks);
+    }
+
+    private static Transport connect(InMemoryBroker broker) {
+        Transport conn = new InMemoryTransport(broker);
+        conn.ConnectSession("localhost", "poc_vpn", "test", "test", "fntest",
+                new SessionListener() {
+                    public void onSessionEvent(SessionEventType event) {
+                    }
+                });
+        return conn;
+    }
+
+    private static MessageListener countingListener(final AtomicInteger count) {
+        return new MessageListener() {
+            public void onMessage(TransportMessage msg) {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Tracks active-flow indication: 1 for ACTIVE, -1 for INACTIVE
+     */
+    private static FlowListener activeListener(final AtomicInteger active) {
+        return new FlowListener() {
+            public void onFlowEvent(FlowEventType event) {
+                if (event == FlowEventType.ACTIVE)
+                    active.set(1);
+                else if (event == FlowEventType.INACTIVE)
+                    active.set(-1);
+            }
+        };
+    }
+
+    private static void waitForHAState(PartitionedClusteredApp app, int partition, HAState expected)
+            throws InterruptedException {
+        while(app.GetHAStatus(partition) != expected) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitFor(AtomicInteger value, int expected) throws InterruptedException {
+        while(value.get() != expected) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitFor(AtomicLong value, long expected) throws InterruptedException {
+        while(value.get() != expected) {
+            Thread.sleep(10);
         }
-        System.out.println("DONE");
     }
 }
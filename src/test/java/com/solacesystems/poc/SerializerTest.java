@@ -3,11 +3,28 @@ package com.solacesystems.poc;
 import org.junit.Test;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import com.solacesystems.poc.conn.DirectMessage;
+import com.solacesystems.poc.conn.EpochClock;
+import com.solacesystems.poc.conn.InMemoryBroker;
+import com.solacesystems.poc.conn.InMemoryTransport;
 import com.solacesystems.poc.conn.Serializer;
+import com.solacesystems.poc.conn.SessionEventType;
+import com.solacesystems.poc.conn.SessionListener;
+import com.solacesystems.poc.conn.SymbolDictionary;
+import com.solacesystems.poc.conn.SymbolTopic;
+import com.solacesystems.poc.conn.Transport;
+import com.solacesystems.poc.conn.TransportMessage;
+import com.solacesystems.poc.model.HAState;
+import com.solacesystems.poc.model.SeqState;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SerializerTest {
 
@@ -19,13 +36,21 @@ public class SerializerTest {
         sell.setQuantity(1.2345);
         sell.setPrice(5.4321);
         sell.setInstrument("AAPL");
-        stack.addOrder(sell);
+        stack.setSequenceId(sell.getSequenceId());
+        stack.setFilledQuantity(0.2345);
+        stack.setOpenQuantity(1);
+        stack.setBestBid(5.4);
+        stack.setBestAsk(5.4321);
 
         ByteBuffer dest = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
         Serializer.SerializeAppState(dest, stack);
         AppState output = Serializer.DeserializeAppState(dest);
         assertEquals(sell.getSequenceId(), output.getSequenceId());
         assertEquals(sell.getInstrument(), output.getInstrument());
+        assertEquals(stack.getFilledQuantity(), output.getFilledQuantity(), 0.00001);
+        assertEquals(stack.getOpenQuantity(), output.getOpenQuantity(), 0.00001);
+        assertEquals(stack.getBestBid(), output.getBestBid(), 0.00001);
+        assertEquals(stack.getBestAsk(), output.getBestAsk(), 0.00001);
     }
 
     @Test
@@ -57,6 +82,344 @@ public class SerializerTest {
         assertNull(output.getInstrument());
     }
 
+    @Test
+    public void testPeekClientOrderSequenceId() {
+        ClientOrder input = new ClientOrder(123456);
+        input.setInstrument("MSFT");
+        ByteBuffer dest = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        Serializer.SerializeClientOrder(dest, input);
+        assertEquals(123456, Serializer.PeekClientOrderSequenceId(dest));
+        // Peeking leaves the buffer to be decoded as usual
+        assertEquals(123456, Serializer.DeserializeClientOrder(dest).getSequenceId());
+    }
+
+    @Test
+    public void testSymbolDictionaryOnTheWire() {
+        // The gateway and the members each have their own dictionary, as separate processes do
+        InMemoryBroker broker = symbolBroker();
+        SymbolDictionary gateway = new SymbolDictionary(16);
+        SymbolDictionary member = new SymbolDictionary(16);
+        ClientOrder input = new ClientOrder(1);
+        input.setInstrument("VOD.L");
+        ByteBuffer dest = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        ClientOrder output = new ClientOrder(0);
+
+        // Until the ID is published every order defines it, so any reader decodes any order
+        int defining = Serializer.SerializeClientOrder(dest, input, gateway).position();
+        assertEquals(defining, Serializer.SerializeClientOrder(dest, input, gateway).position());
+        assertEquals("VOD.L", Serializer.DeserializeClientOrder(dest, output, member).getInstrument());
+        assertEquals(gateway.GetId("VOD.L"), member.GetId("VOD.L"));
+
+        // Once published, one more order defines it and the rest carry the ID only
+        Transport transport = connect(broker);
+        new SymbolTopic(transport).Publish(gateway, new String[] { "VOD.L" });
+        assertEquals(defining, Serializer.SerializeClientOrder(dest, input, gateway).position());
+        int compact = Serializer.SerializeClientOrder(dest, input, gateway).position();
+        assertEquals(Serializer.EncodedSize(input, gateway), compact);
+        assertTrue(defining > compact);
+        assertEquals("VOD.L", Serializer.DeserializeClientOrder(dest, output, member).getInstrument());
+
+        // A reader that missed the definition, e.g. a restarted member, fails on the bare ID
+        // until it loads the published dictionary
+        SymbolDictionary restarted = new SymbolDictionary(16);
+        Serializer.SerializeClientOrder(dest, input, gateway);
+        try {
+            Serializer.DeserializeClientOrder(dest, output, restarted);
+            fail("Decoded an unknown symbol ID");
+        }
+        catch(IllegalArgumentException expected) {
+        }
+        assertTrue(new SymbolTopic(transport).Load(restarted));
+        Serializer.SerializeClientOrder(dest, input, gateway);
+        assertEquals("VOD.L", Serializer.DeserializeClientOrder(dest, output, restarted).getInstrument());
+
+        // A definition that conflicts with a binding is an error, even when only peeked at
+        SymbolDictionary other = new SymbolDictionary(16);
+        other.Define(gateway.GetId("VOD.L"), "BARC.L");
+        Serializer.SerializeClientOrder(dest, input, new SymbolDictionary(16));
+        try {
+            Serializer.LearnClientOrderSymbol(dest, other);
+            fail("Rebound a symbol ID");
+        }
+        catch(IllegalArgumentException expected) {
+        }
+        assertEquals("BARC.L", other.GetSymbol(gateway.GetId("VOD.L")));
+        assertEquals(SymbolDictionary.NO_ID, Serializer.GetSymbols().GetId("VOD.L"));
+        transport.destroy();
+    }
+
+    @Test
+    public void testSymbolTopicAssignsIdsAcrossGateways() {
+        InMemoryBroker broker = symbolBroker();
+        Transport transport = connect(broker);
+        SymbolDictionary first = new SymbolDictionary(16);
+        new SymbolTopic(transport).Publish(first, new String[] { "VOD.L", "BARC.L" });
+
+        // Another gateway, or this one restarted, keeps the IDs on the LVQ and adds its own after them
+        SymbolDictionary second = new SymbolDictionary(16);
+        new SymbolTopic(transport).Publish(second, new String[] { "RIO.L", "BARC.L" });
+        assertEquals(first.GetId("BARC.L"), second.GetId("BARC.L"));
+        assertEquals(first.GetId("VOD.L"), second.GetId("VOD.L"));
+        assertEquals(2, second.GetId("RIO.L"));
+        SymbolDictionary reader = new SymbolDictionary(16);
+        assertTrue(new SymbolTopic(transport).Load(reader));
+        assertEquals(3, reader.Size());
+
+        // Bindings made without the LVQ that conflict with it are refused
+        SymbolDictionary stale = new SymbolDictionary(16);
+        stale.Register("GSK.L");
+        try {
+            new SymbolTopic(transport).Publish(stale, new String[] { "GSK.L" });
+            fail("Published a conflicting binding");
+        }
+        catch(IllegalArgumentException expected) {
+        }
+        transport.destroy();
+    }
+
+    @Test
+    public void testVariableLengthWireFormat() {
+        // Instruments of any length up to the limit fit the largest encoded size
+        String longName = "ABCDEFGHIJKLMNOPQRSTUVWXYZ.0123456789.abcdefghijklmnopqrstuvwxyz";
+        assertEquals(SymbolDictionary.MAX_SYMBOL_SIZE, longName.length());
+        AppState state = new AppState(longName);
+        state.setSequenceId(1L << 40);
+        state.setFilledQuantity(100);
+        state.setBestBid(54.321);
+        state.setBestAsk(Math.PI);
+        SampleAppSerializer serializer = new SampleAppSerializer();
+        ByteBuffer written = serializer.SerializeOutput(state);
+        assertTrue(written.isDirect());
+        assertTrue(written.position() <= AppState.SERIALIZED_SIZE);
+        ByteBuffer copy = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
+        written.flip();
+        copy.put(written);
+        AppState output = Serializer.DeserializeAppState(copy);
+        assertEquals(longName, output.getInstrument());
+        assertEquals(1L << 40, output.getSequenceId());
+        assertEquals(54.321, output.getBestBid(), 0);
+        assertEquals(Math.PI, output.getBestAsk(), 0);
+
+        // Whole multiples of a ten-thousandth shrink to varints; the unpublished instrument is
+        // spelled out, a length and 4 bytes in place of a 1-byte ID
+        ClientOrder order = new ClientOrder(5);
+        order.setQuantity(100);
+        order.setPrice(54.321);
+        order.setInstrument("MSFT");
+        Serializer.SerializeClientOrder(ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE), order);
+        assertTrue(Serializer.EncodedSize(order) < 16 + 1 + 4);
+
+        // A newer version's appended fields are skipped by this reader
+        ByteBuffer dest = Serializer.SerializeClientOrder(ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE + 8), order);
+        dest.putLong(42);
+        dest.put(1, (byte) (Serializer.WIRE_VERSION + 1));
+        dest.order(ByteOrder.LITTLE_ENDIAN).putShort(2, (short) (dest.position() - Serializer.HEADER_SIZE));
+        ClientOrder decoded = Serializer.DeserializeClientOrder(dest);
+        assertEquals(5, decoded.getSequenceId());
+        assertEquals(54.321, decoded.getPrice(), 0);
+        assertEquals("MSFT", decoded.getInstrument());
+        assertEquals(dest.limit(), dest.position());
+    }
+
+    @Test
+    public void testLatencyStampsOnTheWire() {
+        long sent = EpochClock.Now();
+        AppState state = new AppState("MSFT");
+        state.setSequenceId(7);
+        state.setOrderTime(sent);
+        state.setLatencyStamps(sent + 25000, sent + 31000, HAState.ACTIVE, SeqState.RECOVERING_FROM_FLOW);
+        ByteBuffer dest = Serializer.SerializeAppState(ByteBuffer.allocate(AppState.SERIALIZED_SIZE), state);
+        assertEquals(Serializer.EncodedSize(state), dest.position());
+        AppState decoded = Serializer.DeserializeAppState(dest);
+        assertEquals(sent, decoded.getOrderTime());
+        assertEquals(sent + 25000, decoded.getReceivedTime());
+        assertEquals(sent + 31000, decoded.getPublishedTime());
+        assertEquals(HAState.ACTIVE, decoded.getHAState());
+        assertEquals(SeqState.RECOVERING_FROM_FLOW, decoded.getSeqState());
+
+        // A version 1 state ends before the stamps, which are left unset
+        state.setOrderTime(0);
+        state.setLatencyStamps(0, 0, null, null);
+        dest = Serializer.SerializeAppState(ByteBuffer.allocate(AppState.SERIALIZED_SIZE), state);
+        dest.position(dest.position() - 4);
+        dest.put(1, (byte) 1);
+        dest.order(ByteOrder.LITTLE_ENDIAN).putShort(2, (short) (dest.position() - Serializer.HEADER_SIZE));
+        decoded = Serializer.DeserializeAppState(dest, decoded);
+        assertEquals(7, decoded.getSequenceId());
+        assertEquals("MSFT", decoded.getInstrument());
+        assertEquals(0, decoded.getOrderTime());
+        assertEquals(0, decoded.getPublishedTime());
+        assertNull(decoded.getHAState());
+
+        ClientOrder order = new ClientOrder(8);
+        order.setSendTime(sent);
+        dest = Serializer.SerializeClientOrder(ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE), order);
+        assertEquals(sent, Serializer.DeserializeClientOrder(dest).getSendTime());
+    }
+
+    @Test
+    public void testReusedClientOrderRoundtrip() {
+        ClientOrder input = new ClientOrder(5);
+        input.setIsBuy(true);
+        input.setInstrument("MSFT");
+        ClientOrder output = new ClientOrder(0);
+        ByteBuffer dest = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+        for(int i = 0; i < 3; i++) {
+            input.setSequenceId(i);
+            Serializer.SerializeClientOrder(dest, input);
+            assertSame(output, Serializer.DeserializeClientOrder(dest, output));
+            assertEquals(i, output.getSequenceId());
+            assertEquals(true, output.isBuy());
+            assertEquals("MSFT", output.getInstrument());
+        }
+    }
+
+    @Test
+    public void testSteadyStateCodecDoesNotAllocate() {
+        // A buy and a sell that cross, so the book returns to empty after each pair, of an
+        // instrument already published and defined, so both carry its ID only
+        InMemoryBroker broker = symbolBroker();
+        Transport transport = connect(broker);
+        SymbolDictionary gateway = new SymbolDictionary(16);
+        new SymbolTopic(transport).Publish(gateway, new String[] { "AAPL" });
+        // The first order after publishing defines the ID
+        orderMessage(4, true, gateway);
+        TransportMessage buy = orderMessage(5, true, gateway);
+        TransportMessage sell = orderMessage(6, false, gateway);
+        SymbolDictionary member = new SymbolDictionary(16);
+        new SymbolTopic(transport).Load(member);
+        SampleAppSerializer serializer = new SampleAppSerializer(member);
+        SampleClusteredApp app = new SampleClusteredApp("app1", 1, "app1/out", new InMemoryTransport(new InMemoryBroker()));
+
+        // Warm up, which also caches the instrument encoding
+        for(int i = 0; i < 20000; i++) {
+            roundtrip(serializer, app, buy);
+            roundtrip(serializer, app, sell);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int pairs = 50000;
+        AppState output = null;
+        // A round that triggers a recompilation allocates once while deoptimizing, so the
+        // steady state is the least any round allocates
+        long allocated = Long.MAX_VALUE;
+        for(int round = 0; round < MEASURED_ROUNDS && allocated >= MAX_MEASURED_ALLOCATION; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for(int i = 0; i < pairs; i++) {
+                roundtrip(serializer, app, buy);
+                output = roundtrip(serializer, app, sell);
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+        // Allows for the measurement itself, far below a byte per message
+        assertTrue("allocated " + allocated + " bytes over " + (2 * pairs) + " messages", allocated < MAX_MEASURED_ALLOCATION);
+        assertEquals("AAPL", output.getInstrument());
+        assertEquals(0, app.GetOrderBooks().GetRestingOrders());
+        app.Stop();
+        transport.destroy();
+    }
+
+    private static TransportMessage orderMessage(long orderId, boolean isBuy, SymbolDictionary symbols) {
+        ClientOrder order = new ClientOrder(orderId);
+        order.setIsBuy(isBuy);
+        order.setQuantity(1.2345);
+        order.setPrice(5.4321);
+        order.setInstrument("AAPL");
+        ByteBuffer written = Serializer.SerializeClientOrder(ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE), order, symbols);
+        written.flip();
+        final byte[] payload = new byte[written.remaining()];
+        written.get(payload);
+        return new TransportMessage() {
+            public long getMessageId() {
+                return 1;
+            }
+
+            public void getBinaryAttachment(ByteBuffer dest) {
+                dest.put(payload);
+            }
+        };
+    }
+
+    @Test
+    public void testDirectMessageDecodedInPlace() {
+        ClientOrder order = new ClientOrder(7);
+        order.setIsBuy(true);
+        order.setInstrument("MSFT");
+        final ByteBuffer payload = Serializer.SerializeClientOrder(ByteBuffer.allocateDirect(ClientOrder.SERIALIZED_SIZE), order);
+        final ByteBuffer view = payload.duplicate();
+        DirectMessage msg = new DirectMessage() {
+            public long getMessageId() {
+                return 1;
+            }
+
+            public void getBinaryAttachment(ByteBuffer dest) {
+                throw new AssertionError("Payload copied");
+            }
+
+            public ByteBuffer getDirectAttachment() {
+                view.clear();
+                view.position(payload.position());
+                return view;
+            }
+        };
+        SampleAppSerializer serializer = new SampleAppSerializer();
+        assertEquals(7, serializer.PeekInputSequenceId(msg));
+        ClientOrder input = serializer.DeserializeInput(msg);
+        assertEquals(7, input.getSequenceId());
+        assertTrue(input.isBuy());
+        assertEquals("MSFT", input.getInstrument());
+    }
+
+    @Test
+    public void testPeekedInputCopiedOnce() {
+        final TransportMessage order = orderMessage(8, false, new SymbolDictionary(16));
+        final int[] copies = new int[1];
+        TransportMessage msg = new TransportMessage() {
+            public long getMessageId() {
+                return 2;
+            }
+
+            public void getBinaryAttachment(ByteBuffer dest) {
+                copies[0]++;
+                order.getBinaryAttachment(dest);
+            }
+        };
+        SampleAppSerializer serializer = new SampleAppSerializer();
+        assertEquals(8, serializer.PeekInputSequenceId(msg));
+        ClientOrder input = serializer.DeserializeInput(msg);
+        assertEquals(8, input.getSequenceId());
+        assertEquals("AAPL", input.getInstrument());
+        assertEquals(1, copies[0]);
+        serializer.DeserializeInput(msg);
+        assertEquals(2, copies[0]);
+    }
+
+    private static InMemoryBroker symbolBroker() {
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.provisionLastValueQueue(SymbolTopic.QUEUE, SymbolTopic.TOPIC);
+        return broker;
+    }
+
+    private static Transport connect(InMemoryBroker broker) {
+        Transport conn = new InMemoryTransport(broker);
+        conn.ConnectSession("localhost", "poc_vpn", "test", "test", "sertest",
+                new SessionListener() {
+                    public void onSessionEvent(SessionEventType event) {
+                    }
+                });
+        return conn;
+    }
+
+    private static AppState roundtrip(SampleAppSerializer serializer, SampleClusteredApp app, TransportMessage msg) {
+        AppState output = app.UpdateApplicationState(serializer.DeserializeInput(msg));
+        serializer.SerializeOutput(output);
+        return output;
+    }
+
+    // Well under one thread-local allocation buffer refill
+    private static final long MAX_MEASURED_ALLOCATION = 1024;
+    private static final int MEASURED_ROUNDS = 3;
+
     @Test
     public void testSerializeIntRoundtrip() {
         int input = 5;